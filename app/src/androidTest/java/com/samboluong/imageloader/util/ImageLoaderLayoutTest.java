@@ -0,0 +1,48 @@
+package com.samboluong.imageloader.util;
+
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.widget.ImageView;
+
+/**
+ * 和大小有关的变换：ImageView布局之前不按退回的大小生成key，布局后按实际大小加载
+ */
+public class ImageLoaderLayoutTest extends InstrumentationTestCase {
+
+    @UiThreadTest
+    public void testUnmeasuredImageViewWaitsForLayout() {
+        ImageView imageView = new ImageView(getInstrumentation().getTargetContext());
+        LoadRequest request = ImageLoader.getInstance().load("/sdcard/not_exists.jpg").centerCrop().into(imageView);
+
+        // 还没有布局：没有key，不解码
+        assertNull(request.getKey());
+        assertNull(request.mReplacement);
+
+        imageView.layout(0, 0, 120, 80);
+        imageView.getViewTreeObserver().dispatchOnPreDraw();
+
+        LoadRequest loaded = request.mReplacement;
+        assertNotNull(loaded);
+        assertTrue(loaded.getKey(), loaded.getKey().endsWith("_120x80"));
+        assertEquals(120, loaded.getWidth());
+        assertEquals(80, loaded.getHeight());
+
+        // 原来的句柄取消的是真正的请求
+        assertTrue(request.cancel());
+        assertTrue(loaded.isCancelled());
+    }
+
+    @UiThreadTest
+    public void testRebindBeforeLayoutDropsWaitingRequest() {
+        ImageView imageView = new ImageView(getInstrumentation().getTargetContext());
+        LoadRequest first = ImageLoader.getInstance().load("/sdcard/a.jpg").centerCrop().into(imageView);
+        LoadRequest second = ImageLoader.getInstance().load("/sdcard/b.jpg").centerCrop().into(imageView);
+        assertTrue(first.isCancelled());
+
+        imageView.layout(0, 0, 100, 100);
+        imageView.getViewTreeObserver().dispatchOnPreDraw();
+        assertNull(first.mReplacement);
+        assertNotNull(second.mReplacement);
+        second.cancel();
+    }
+}
@@ -0,0 +1,213 @@
+package com.samboluong.imageloader;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.samboluong.imageloader.bean.FolderBean;
+import com.samboluong.imageloader.util.DirectoryListing;
+import com.samboluong.imageloader.util.DuplicateFinder;
+import com.samboluong.imageloader.util.HashIndex;
+import com.samboluong.imageloader.util.ImageHasher;
+import com.samboluong.imageloader.util.ParallelMergeSort;
+import com.samboluong.imageloader.util.TaskScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 查找相似的图片：扫描完成后在后台给所有文件夹的图片计算dHash，再按汉明距离分组(进程内共享)
+ * <p>
+ * 哈希保存在cache目录的{@link HashIndex}里，修改时间没变的图片不再解码；
+ * 每算完{@link #CHECKPOINT_INTERVAL}张保存一次，进程被杀或者有新的扫描结果时，下次从保存的地方接着算。
+ * 一个后台线程，队列里只保留最新的一次(LIFO、容量1)。
+ */
+public class DuplicateScanner {
+
+    private static final String TAG = "DuplicateScanner";
+    private static final String INDEX_FILE = "dhash.idx";
+    /**
+     * 每新算出这么多张保存一次索引
+     */
+    private static final int CHECKPOINT_INTERVAL = 500;
+
+    /**
+     * 一次查找的结果
+     */
+    public static class Result {
+        /**
+         * 每组相似图片的路径，大的组在前
+         */
+        public final List<String[]> groups;
+        /**
+         * 参与比较的图片数
+         */
+        public final int imageCount;
+
+        Result(List<String[]> groups, int imageCount) {
+            this.groups = groups;
+            this.imageCount = imageCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Result[" + groups.size() + " groups in " + imageCount + " images]";
+        }
+    }
+
+    private static DuplicateScanner mInstance;
+
+    private final File mIndexFile;
+    private final TaskScheduler mScheduler = new TaskScheduler(1, 1, true);
+    /**
+     * 每次update加1，工作线程发现不是最新的就保存并退出，让新的一次接着算
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /**
+     * 只在工作线程访问
+     */
+    private HashIndex mIndex;
+    private volatile Result mResult;
+    /**
+     * 本次新算出哈希的图片数
+     */
+    private volatile int mHashedCount;
+
+    private DuplicateScanner(Context context) {
+        mIndexFile = new File(context.getCacheDir(), INDEX_FILE);
+    }
+
+    public static synchronized DuplicateScanner get(Context context) {
+        if (mInstance == null) {
+            mInstance = new DuplicateScanner(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    /**
+     * @return 还没有算完时为null
+     */
+    public Result getResult() {
+        return mResult;
+    }
+
+    public int getHashedCount() {
+        return mHashedCount;
+    }
+
+    /**
+     * 扫描完成后调用：在后台更新哈希索引并重新分组
+     *
+     * @param folders
+     */
+    public void update(List<FolderBean> folders) {
+        final List<String> dirs = new ArrayList<>(folders.size());
+        for (FolderBean bean : folders) {
+            dirs.add(bean.getDir());
+        }
+        final int generation = mGeneration.incrementAndGet();
+        mScheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                scan(dirs, generation);
+            }
+        }, TaskScheduler.PRIORITY_LOW);
+    }
+
+    private void scan(List<String> dirs, int generation) {
+        if (mIndex == null) {
+            mIndex = HashIndex.load(mIndexFile);
+            if (mIndex == null) mIndex = new HashIndex();
+        }
+        HashIndex index = mIndex;
+        long start = SystemClock.elapsedRealtime();
+        BitSet seen = new BitSet(index.getCount());
+        ImageHasher hasher = new ImageHasher();
+        int pending = 0;
+        mHashedCount = 0;
+        try {
+            for (String dir : dirs) {
+                String[] names = new File(dir).list();
+                if (names == null) continue;
+                int dirIndex = index.addDir(dir);
+                for (String name : names) {
+                    if (!DirectoryListing.isImageName(name)) continue;
+                    if (generation != mGeneration.get()) {
+                        // 有新的扫描结果，保存进度后让新的一次接着算
+                        save(index);
+                        return;
+                    }
+                    File file = new File(dir, name);
+                    long modified = file.lastModified();
+                    int position = index.indexOf(dirIndex, name);
+                    if (index.isStale(position, modified)) {
+                        position = hash(index, hasher, dirIndex, name, file, modified);
+                        mHashedCount++;
+                        if (++pending >= CHECKPOINT_INTERVAL) {
+                            save(index);
+                            pending = 0;
+                        }
+                    }
+                    seen.set(position);
+                }
+            }
+        } finally {
+            hasher.recycle();
+        }
+
+        // 已经删除的图片
+        int removed = index.retain(seen);
+        if (pending > 0 || removed > 0) save(index);
+
+        int[] positions = index.getHashedPositions();
+        long[] hashes = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            hashes[i] = index.getHash(positions[i]);
+        }
+        DuplicateFinder.Groups groups = DuplicateFinder.find(hashes, DuplicateFinder.DEFAULT_MAX_DISTANCE,
+                ParallelMergeSort.getDefaultPool());
+        List<String[]> paths = new ArrayList<>(groups.getGroupCount());
+        for (int g = 0; g < groups.getGroupCount(); g++) {
+            String[] group = new String[groups.getGroupSize(g)];
+            for (int i = 0; i < group.length; i++) {
+                group[i] = index.getPath(positions[groups.getMember(g, i)]);
+            }
+            paths.add(group);
+        }
+        Collections.sort(paths, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] a, String[] b) {
+                return b.length - a.length;
+            }
+        });
+        mResult = new Result(paths, positions.length);
+        Log.d(TAG, index + ", hashed " + mHashedCount + ", removed " + removed + ", " + groups
+                + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    private static int hash(HashIndex index, ImageHasher hasher, int dir, String name, File file, long modified) {
+        try {
+            return index.put(dir, name, modified, hasher.hash(file), HashIndex.STATE_HASHED);
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            // 损坏的图片记下来，文件不变就不再重试
+            return index.put(dir, name, modified, 0, HashIndex.STATE_FAILED);
+        }
+    }
+
+    private void save(HashIndex index) {
+        try {
+            index.save(mIndexFile);
+        } catch (IOException e) {
+            Log.w(TAG, "保存哈希索引失败", e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.samboluong.imageloader;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.samboluong.imageloader.util.BatchExport;
+import com.samboluong.imageloader.util.DirectoryListing;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 正在进行的批量导出(进程内共享)，同时只有一个
+ * <p>
+ * 导出不跟着Activity走：旋转屏幕时继续进行，新的Activity重新设置监听、重新显示进度；
+ * 结束时用Application的Context提示结果，没有Activity在前台也能看到。
+ */
+public class Exports {
+
+    private static final String TAG = "Exports";
+
+    private static Exports mInstance;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Executor mMainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mMainHandler.post(command);
+        }
+    };
+
+    /**
+     * 只在UI线程访问
+     */
+    private BatchExport mExport;
+    private BatchExport.Listener mListener;
+
+    private Exports(Context context) {
+        mContext = context;
+    }
+
+    public static synchronized Exports get(Context context) {
+        if (mInstance == null) {
+            mInstance = new Exports(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    /**
+     * @return 没有正在进行的导出时为null
+     */
+    public BatchExport getExport() {
+        return mExport;
+    }
+
+    /**
+     * 在UI线程调用，Activity销毁时设为null
+     */
+    public void setListener(BatchExport.Listener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * 开始导出，在UI线程调用
+     *
+     * @return 已经有导出在进行时返回null
+     * @see BatchExport#BatchExport
+     */
+    public BatchExport start(DirectoryListing listing, int[] ids, File destDir, BatchExport.Transcoder transcoder) {
+        if (mExport != null) return null;
+        mExport = new BatchExport(listing, ids, destDir, transcoder, mMainExecutor, mExportListener);
+
+        int parallelism = BatchExport.getDefaultParallelism(transcoder);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        mExport.start(executor, parallelism);
+        // 已经提交的工作者执行完后线程自动退出
+        executor.shutdown();
+        return mExport;
+    }
+
+    public void cancel() {
+        if (mExport != null) mExport.cancel();
+    }
+
+    private final BatchExport.Listener mExportListener = new BatchExport.Listener() {
+        @Override
+        public void onProgress(BatchExport export, BatchExport.Progress progress) {
+            if (export != mExport) return;
+            if (mListener != null) mListener.onProgress(export, progress);
+        }
+
+        @Override
+        public void onFinished(BatchExport export, BatchExport.Progress progress) {
+            if (export != mExport) return;
+            mExport = null;
+            if (mListener != null) mListener.onFinished(export, progress);
+            if (progress.firstError != null) {
+                Log.w(TAG, "导出失败" + progress.failed + "张: " + export, progress.firstError);
+            }
+
+            // 图库(包括这个应用的文件夹列表)都来自MediaStore，不扫描的话要等系统重新扫描才能看到
+            String[] paths = export.getExportedPaths();
+            if (paths.length > 0) MediaScannerConnection.scanFile(mContext, paths, null, null);
+
+            String message;
+            if (export.isCancelled()) {
+                message = mContext.getString(R.string.export_cancelled, progress.getSucceeded());
+            } else {
+                message = mContext.getString(R.string.export_finished, progress.getSucceeded(),
+                        export.getDestDir().getPath(), progress.failed,
+                        progress.getMegabytesPerSecond(), progress.getImagesPerSecond());
+            }
+            Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+        }
+    };
+}
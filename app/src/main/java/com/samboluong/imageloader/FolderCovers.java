@@ -0,0 +1,137 @@
+package com.samboluong.imageloader;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.samboluong.imageloader.bean.FolderBean;
+import com.samboluong.imageloader.util.CoverSprite;
+import com.samboluong.imageloader.util.MemoryCacheController;
+import com.samboluong.imageloader.util.SpriteLayout;
+import com.samboluong.imageloader.util.TaskScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文件夹弹窗的封面：扫描完成后在后台生成所有封面的拼图，打开弹窗时不用再解码(进程内共享)
+ * <p>
+ * 一个后台线程，队列里只保留最新的一次生成(LIFO、容量1，旧的直接丢弃)；
+ * 拼图保存在cache目录，第一次生成前先读取上次保存的。
+ */
+public class FolderCovers {
+
+    private static final String TAG = "FolderCovers";
+    private static final String COVER_DIR = "folder_covers";
+    /**
+     * 拼图是RGB_565
+     */
+    private static final int BYTES_PER_PIXEL = 2;
+
+    public interface OnCoversChangedListener {
+        /**
+         * 拼图更新了，在UI线程
+         */
+        void onCoversChanged();
+    }
+
+    private static FolderCovers mInstance;
+
+    private final File mDir;
+    /**
+     * 封面的显示大小
+     */
+    private final int mCoverSize;
+    /**
+     * 拼图最多占用的内存，和封面ImageLoader的缓存一样大
+     */
+    private final long mMaxBytes;
+    private final TaskScheduler mScheduler = new TaskScheduler(1, 1, true);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile CoverSprite mSprite;
+    /**
+     * 是否已经尝试读取保存的拼图，只在工作线程访问
+     */
+    private boolean mLoaded;
+    private OnCoversChangedListener mListener;
+
+    private FolderCovers(Context context) {
+        mDir = new File(context.getCacheDir(), COVER_DIR);
+        mCoverSize = context.getResources().getDimensionPixelSize(R.dimen.dir_cover_size);
+        mMaxBytes = MemoryCacheController.calculateBudget() / 8;
+    }
+
+    public static synchronized FolderCovers get(Context context) {
+        if (mInstance == null) {
+            mInstance = new FolderCovers(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    /**
+     * @return 还没有生成时为null
+     */
+    public CoverSprite getSprite() {
+        return mSprite;
+    }
+
+    /**
+     * 在UI线程调用，Activity销毁时设为null
+     */
+    public void setOnCoversChangedListener(OnCoversChangedListener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * 扫描完成后调用：封面有变化时在后台重新生成
+     *
+     * @param folders
+     */
+    public void update(List<FolderBean> folders) {
+        final List<String> paths = new ArrayList<>(folders.size());
+        for (FolderBean bean : folders) {
+            paths.add(bean.getFirstImagePath());
+        }
+        mScheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (!mLoaded) {
+                    mLoaded = true;
+                    CoverSprite saved = CoverSprite.load(mDir);
+                    if (saved != null) publish(saved);
+                }
+
+                // 文件夹很多时缩小封面，不超过内存上限
+                int cellSize = SpriteLayout.fitCellSize(paths.size(), mCoverSize, mCoverSize / 2,
+                        mMaxBytes, BYTES_PER_PIXEL);
+                CoverSprite previous = mSprite;
+                if (previous != null && previous.matches(paths, cellSize)) return;
+
+                long start = SystemClock.elapsedRealtime();
+                CoverSprite sprite = CoverSprite.build(paths, cellSize, previous);
+                publish(sprite);
+                Log.d(TAG, sprite + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+                try {
+                    sprite.save(mDir);
+                } catch (IOException e) {
+                    Log.w(TAG, "保存封面拼图失败", e);
+                }
+            }
+        }, TaskScheduler.PRIORITY_LOW);
+    }
+
+    private void publish(CoverSprite sprite) {
+        mSprite = sprite;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) mListener.onCoversChanged();
+            }
+        });
+    }
+}
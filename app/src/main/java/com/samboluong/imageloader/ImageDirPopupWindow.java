@@ -22,6 +22,7 @@ public class ImageDirPopupWindow extends PopupWindow {
     private int mHeight;
     private View mConvertView;
     private ListView mListView;
+    private ListDirAdapter mAdapter;
     private List<FolderBean> mDataList;
 
     public interface OnDirSelectedListener {
@@ -78,7 +79,15 @@ public class ImageDirPopupWindow extends PopupWindow {
 
     private void initViews(Context context) {
         mListView = (ListView) mConvertView.findViewById(R.id.id_list_dir);
-        mListView.setAdapter(new ListDirAdapter(context, mDataList));
+        mAdapter = new ListDirAdapter(context, mDataList);
+        mListView.setAdapter(mAdapter);
+    }
+
+    /**
+     * 封面拼图更新后重新绑定封面
+     */
+    public void notifyCoversChanged() {
+        mAdapter.notifyDataSetChanged();
     }
 
     /**
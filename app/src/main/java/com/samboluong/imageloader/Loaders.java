@@ -0,0 +1,53 @@
+package com.samboluong.imageloader;
+
+import com.samboluong.imageloader.util.ImageLoader;
+import com.samboluong.imageloader.util.MemoryCacheController;
+
+import java.io.PrintWriter;
+
+/**
+ * 各个界面使用的ImageLoader(进程内共享，旋转屏幕后继续使用)
+ * <p>
+ * 主网格：3个线程、后进先出、默认大小的内存缓存；
+ * 文件夹封面：1个线程、先进先出，用单独的小缓存，滚动网格时不会把封面挤出去，
+ * 打开弹窗也不会占用网格的解码线程。
+ */
+public class Loaders {
+
+    private static ImageLoader mFolderCoverLoader;
+
+    private Loaders() {
+    }
+
+    /**
+     * 主网格
+     */
+    public static ImageLoader grid() {
+        return ImageLoader.getInstance();
+    }
+
+    /**
+     * 文件夹弹窗的封面
+     */
+    public static synchronized ImageLoader folderCovers() {
+        if (mFolderCoverLoader == null) {
+            mFolderCoverLoader = new ImageLoader.Builder()
+                    .threadCount(1)
+                    .queueType(ImageLoader.Type.FIFO)
+                    .queueCapacity(64)
+                    .memoryCacheSize(MemoryCacheController.calculateBudget() / 8)
+                    .build();
+        }
+        return mFolderCoverLoader;
+    }
+
+    /**
+     * 输出所有ImageLoader的状态
+     */
+    public static void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "grid:");
+        grid().dump(writer, prefix + "  ");
+        writer.println(prefix + "folderCovers:");
+        folderCovers().dump(writer, prefix + "  ");
+    }
+}
@@ -1,15 +1,18 @@
 package com.samboluong.imageloader;
 
+import android.app.AlertDialog;
 import android.app.ProgressDialog;
-import android.content.ContentResolver;
+import android.content.DialogInterface;
+import android.database.ContentObserver;
 import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Message;
 import android.provider.MediaStore;
 import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.GridView;
@@ -18,62 +21,520 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.samboluong.imageloader.adapter.GridPrefetcher;
 import com.samboluong.imageloader.adapter.ImageAdapter;
 import com.samboluong.imageloader.bean.FolderBean;
+import com.samboluong.imageloader.util.BatchExport;
+import com.samboluong.imageloader.util.BitmapTranscoder;
+import com.samboluong.imageloader.util.DirectoryListing;
+import com.samboluong.imageloader.util.FolderImageIndex;
+import com.samboluong.imageloader.util.FolderIndex;
+import com.samboluong.imageloader.util.FolderSync;
+import com.samboluong.imageloader.util.ParallelMergeSort;
+import com.samboluong.imageloader.util.SelectionModel;
+import com.samboluong.imageloader.util.TaskScheduler;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends AppCompatActivity {
 
     private GridView mGridView;
-    private List<String> mImgNames;
+    /**
+     * 当前文件夹的图片，在后台分页列出
+     */
+    private DirectoryListing mListing;
     private ImageAdapter mImgAdapter;
 
+    /**
+     * 当前文件夹的排序、筛选索引，列完之后在后台建立
+     */
+    private FolderImageIndex mImageIndex;
+    private final FolderImageIndex.Query mQuery = new FolderImageIndex.Query();
+    /**
+     * 每次修改mQuery加1，后台算完时条件已经变了就再算一次
+     */
+    private int mQueryVersion;
+    /**
+     * 建索引和排序在这个线程，队列里只保留最新的请求
+     */
+    private final TaskScheduler mIndexScheduler = new TaskScheduler(1, 1, true);
+
+    /**
+     * 每个文件夹的选中状态，dir -> SelectionModel，切换文件夹后保留
+     */
+    private final Map<String, SelectionModel> mSelections = new HashMap<>();
+    /**
+     * 当前文件夹上次的选中状态，文件夹列完、确认没有变化后才合并到当前的选中状态
+     */
+    private SelectionModel mPendingSelection;
+    /**
+     * 旋转屏幕前显示的文件夹，扫描结果出来后恢复
+     */
+    private File mRestoredDir;
+
+    /**
+     * 批量导出的进度，导出本身在{@link Exports}中，旋转屏幕后重新显示
+     */
+    private ProgressDialog mExportDialog;
+    /**
+     * 导出缩小的图片时长边的像素和JPEG质量
+     */
+    private static final int EXPORT_MAX_SIZE = 1600;
+    private static final int EXPORT_QUALITY = 85;
+
+    private static final String STATE_CURRENT_DIR = "current_dir";
+    private static final String STATE_SELECTION_DIRS = "selection_dirs";
+    private static final String STATE_SELECTION_SIZES = "selection_sizes";
+    private static final String STATE_SELECTION_FINGERPRINTS = "selection_fingerprints";
+    private static final String STATE_SELECTION_PARTIAL = "selection_partial";
+    private static final String STATE_SELECTION_BITS = "selection_bits_";
+
     private RelativeLayout mBottomLayout;
     private TextView mDirName;
     private TextView mDirCount;
 
     private File mCurrentDir;
-    private int mMaxCount;
 
     private List<FolderBean> mFolderBeenList = new ArrayList<>();
 
+    private static final String FOLDER_INDEX_FILE = "folder_index";
+
+    /**
+     * 一个文件夹中图片的排序、筛选信息
+     */
+    private static final String[] INDEX_PROJECTION = new String[]{
+            MediaStore.Images.Media.DATA,
+            MediaStore.Images.Media.DATE_MODIFIED,
+            MediaStore.Images.Media.SIZE,
+            MediaStore.Images.Media.WIDTH,
+            MediaStore.Images.Media.HEIGHT,
+            MediaStore.Images.Media.MIME_TYPE,
+    };
+    private static final int INDEX_COLUMN_DATA = 0;
+    private static final int INDEX_COLUMN_DATE_MODIFIED = 1;
+    private static final int INDEX_COLUMN_SIZE = 2;
+    private static final int INDEX_COLUMN_WIDTH = 3;
+    private static final int INDEX_COLUMN_HEIGHT = 4;
+    private static final int INDEX_COLUMN_MIME_TYPE = 5;
+
+    /**
+     * "只看大图"：短边不小于1080
+     */
+    private static final int LARGE_IMAGE_SIZE = 1080;
+    private static final long RECENT_SECONDS = 30L * 24 * 60 * 60;
+
     private ProgressDialog mProgressDialog;
 
     private static final int DATA_LOADED = 0x110;
+    private static final int DATA_UPDATED = 0x111;
+
+    /**
+     * MediaStore变化后延迟同步，合并短时间内的多次通知
+     */
+    private static final long SYNC_DELAY_MILLIS = 1000;
 
     private ImageDirPopupWindow mDirPopupWindow;
 
+    /**
+     * 持久化的文件夹索引，启动时直接显示，后台同步
+     */
+    private FolderSync mFolderSync;
+    private final AtomicBoolean mSyncing = new AtomicBoolean();
+    private boolean mSyncPending;
+
     private Handler mHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
-            if (msg.what == DATA_LOADED) {
-                mProgressDialog.dismiss();
-                // 为GridView设置数据
-                data2View();
+            if (msg.what == DATA_LOADED || msg.what == DATA_UPDATED) {
+                if (mProgressDialog != null) {
+                    mProgressDialog.dismiss();
+                    mProgressDialog = null;
+                }
+
+                @SuppressWarnings("unchecked")
+                List<FolderBean> folders = (List<FolderBean>) msg.obj;
+                boolean firstLoad = mDirPopupWindow == null;
+                applyFolders(folders);
+                // 在后台提前生成所有文件夹的封面
+                FolderCovers.get(MainActivity.this).update(folders);
+                // 在后台更新所有图片的感知哈希，找出相似的图片
+                DuplicateScanner.get(MainActivity.this).update(folders);
+
+                // 第一次加载，或者当前显示的文件夹已经不存在了，才重新设置GridView
+                if (firstLoad || mCurrentDir == null || !mCurrentDir.exists()) {
+                    if (mRestoredDir != null && mRestoredDir.isDirectory()) {
+                        mCurrentDir = mRestoredDir;
+                    } else {
+                        selectLargestFolder();
+                    }
+                    mRestoredDir = null;
+                    // 为GridView设置数据
+                    data2View();
+                }
+
+                if (mDirPopupWindow == null || !mDirPopupWindow.isShowing()) {
+                    initDirPopupWindow();
+                }
+            }
+        }
+    };
+
+    private final ContentObserver mMediaObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mHandler.removeCallbacks(mSyncRunnable);
+            mHandler.postDelayed(mSyncRunnable, SYNC_DELAY_MILLIS);
+        }
+    };
+
+    /**
+     * 在UI线程执行DirectoryListing的回调
+     */
+    private final Executor mMainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
 
-                initDirPopupWindow();
+    private final DirectoryListing.Listener mListingListener = new DirectoryListing.Listener() {
+        @Override
+        public void onPage(DirectoryListing listing, int count, boolean finished) {
+            if (listing != mListing) return;
+            mImgAdapter.setCount(count);
+            mDirCount.setText(finished ? String.valueOf(count) : count + "+");
+            if (finished) {
+                SelectionModel selection = mImgAdapter.getSelection();
+                selection.bind(listing);
+                mSelections.put(selection.getDirPath(), selection);
+                // 上次的选中状态只有在文件夹没变(文件名和顺序都一样，没列完时选中的只看当时列出的部分)时才能用，
+                // 否则id指向的是别的文件
+                if (mPendingSelection != null && mPendingSelection.matches(listing)) {
+                    selection.addAll(mPendingSelection);
+                    mImgAdapter.notifySelectionChanged();
+                }
+                mPendingSelection = null;
+                buildImageIndex(listing);
             }
         }
     };
 
+    private final Runnable mSyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startSync(false);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        if (savedInstanceState != null) restoreSelections(savedInstanceState);
         initView();
         initData();
         initEvent();
+
+        getContentResolver().registerContentObserver(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, mMediaObserver);
+        FolderCovers.get(this).setOnCoversChangedListener(new FolderCovers.OnCoversChangedListener() {
+            @Override
+            public void onCoversChanged() {
+                if (mDirPopupWindow != null) mDirPopupWindow.notifyCoversChanged();
+            }
+        });
+
+        Exports exports = Exports.get(this);
+        exports.setListener(mExportListener);
+        if (exports.getExport() != null) showExportDialog(exports.getExport());
+    }
+
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(mMediaObserver);
+        if (mListing != null) mListing.cancel();
+        mIndexScheduler.shutdown();
+        // 旋转屏幕时导出继续，只有退出时才取消
+        Exports exports = Exports.get(this);
+        exports.setListener(null);
+        if (isFinishing()) exports.cancel();
+        if (mExportDialog != null) mExportDialog.dismiss();
+        FolderCovers.get(this).setOnCoversChangedListener(null);
+        mHandler.removeCallbacksAndMessages(null);
+        super.onDestroy();
+    }
+
+    /**
+     * adb shell dumpsys activity com.samboluong.imageloader/.MainActivity 输出图片加载的统计
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        Loaders.dump(writer, prefix);
+        writer.println(prefix + "folderCoverSprite: " + FolderCovers.get(this).getSprite());
+        writer.println(prefix + "listing: " + mListing);
+        writer.println(prefix + "selections: " + mSelections.values());
+        writer.println(prefix + "export: " + Exports.get(this).getExport());
+        writer.println(prefix + "duplicates: " + DuplicateScanner.get(this).getResult());
+    }
+
+    /**
+     * 保存当前文件夹和各个文件夹的选中位图，每张图片1位
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (mCurrentDir != null) outState.putString(STATE_CURRENT_DIR, mCurrentDir.getAbsolutePath());
+
+        parkPendingSelection();
+        // 当前文件夹还没列完时选中的，记下已经列出的前几个文件的指纹，恢复后列完再检查
+        SelectionModel listingSelection = null;
+        if (mImgAdapter != null && mListing != null && !mListing.isFinished()) {
+            listingSelection = mImgAdapter.getSelection();
+        }
+        // 其他没有和列完的文件夹对应上的选中状态恢复后也用不了，不保存
+        List<SelectionModel> selections = new ArrayList<>();
+        for (SelectionModel selection : mSelections.values()) {
+            if (selection.isEmpty()) continue;
+            if (selection.getFingerprint() != 0 || selection == listingSelection) selections.add(selection);
+        }
+        String[] dirs = new String[selections.size()];
+        int[] sizes = new int[selections.size()];
+        long[] fingerprints = new long[selections.size()];
+        boolean[] partial = new boolean[selections.size()];
+        for (int i = 0; i < dirs.length; i++) {
+            SelectionModel selection = selections.get(i);
+            dirs[i] = selection.getDirPath();
+            sizes[i] = selection.getSize();
+            if (selection == listingSelection) {
+                fingerprints[i] = mListing.getPrefixFingerprint(selection.getSize());
+                partial[i] = true;
+            } else {
+                fingerprints[i] = selection.getFingerprint();
+                partial[i] = selection.isPartial();
+            }
+            outState.putLongArray(STATE_SELECTION_BITS + i, selection.toLongArray());
+        }
+        outState.putStringArray(STATE_SELECTION_DIRS, dirs);
+        outState.putIntArray(STATE_SELECTION_SIZES, sizes);
+        outState.putLongArray(STATE_SELECTION_FINGERPRINTS, fingerprints);
+        outState.putBooleanArray(STATE_SELECTION_PARTIAL, partial);
+    }
+
+    private void restoreSelections(Bundle state) {
+        String currentDir = state.getString(STATE_CURRENT_DIR);
+        if (currentDir != null) mRestoredDir = new File(currentDir);
+
+        String[] dirs = state.getStringArray(STATE_SELECTION_DIRS);
+        int[] sizes = state.getIntArray(STATE_SELECTION_SIZES);
+        long[] fingerprints = state.getLongArray(STATE_SELECTION_FINGERPRINTS);
+        boolean[] partial = state.getBooleanArray(STATE_SELECTION_PARTIAL);
+        if (dirs == null || sizes == null || fingerprints == null || partial == null) return;
+        for (int i = 0; i < dirs.length; i++) {
+            long[] bits = state.getLongArray(STATE_SELECTION_BITS + i);
+            if (bits != null) {
+                mSelections.put(dirs[i], SelectionModel.fromLongArray(dirs[i], sizes[i], fingerprints[i], partial[i],
+                        bits));
+            }
+        }
+    }
+
+    /**
+     * 当前文件夹还没列完、也还没有选中新的图片时，把上次的选中状态放回去，下次打开时再检查
+     */
+    private void parkPendingSelection() {
+        if (mPendingSelection == null || mImgAdapter == null) return;
+        if (mImgAdapter.getSelection().isEmpty()) {
+            mSelections.put(mPendingSelection.getDirPath(), mPendingSelection);
+        }
+    }
+
+    private void updateSelectionTitle(SelectionModel selection) {
+        if (selection.isEmpty()) {
+            setTitle(R.string.app_name);
+        } else {
+            setTitle(getString(R.string.selected_count, selection.getSelectedCount()));
+        }
+    }
+
+    /**
+     * 把当前文件夹选中的图片导出到Pictures/ImageLoader/时间，原样复制或者缩小后重新压缩
+     */
+    private void startExport(boolean resize) {
+        Exports exports = Exports.get(this);
+        if (mImgAdapter == null || exports.getExport() != null) return;
+        SelectionModel selection = mImgAdapter.getSelection();
+        if (selection.isEmpty()) {
+            Toast.makeText(this, R.string.export_no_selection, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        File destDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
+                "ImageLoader/" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()));
+        BatchExport.Transcoder transcoder = resize ? new BitmapTranscoder(EXPORT_MAX_SIZE, EXPORT_QUALITY) : null;
+        // 选中状态只在UI线程访问，先取出所有id
+        int[] ids = selection.getSelectedIds();
+        BatchExport export = exports.start(mImgAdapter.getListing(), ids, destDir, transcoder);
+        if (export != null && !export.isFinished()) showExportDialog(export);
+    }
+
+    private void showExportDialog(BatchExport export) {
+        BatchExport.Progress progress = export.getProgress();
+        mExportDialog = new ProgressDialog(this);
+        mExportDialog.setTitle(R.string.export_title);
+        mExportDialog.setMessage(getString(R.string.export_progress,
+                progress.getMegabytesPerSecond(), progress.getImagesPerSecond()));
+        mExportDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mExportDialog.setMax(progress.total);
+        mExportDialog.setProgress(progress.processed);
+        mExportDialog.setCancelable(false);
+        mExportDialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.cancel),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Exports.get(MainActivity.this).cancel();
+                    }
+                });
+        mExportDialog.show();
+    }
+
+    /**
+     * 只更新进度，结束的提示由{@link Exports}显示
+     */
+    private final BatchExport.Listener mExportListener = new BatchExport.Listener() {
+        @Override
+        public void onProgress(BatchExport export, BatchExport.Progress progress) {
+            if (mExportDialog == null) return;
+            mExportDialog.setProgress(progress.processed);
+            mExportDialog.setMessage(getString(R.string.export_progress,
+                    progress.getMegabytesPerSecond(), progress.getImagesPerSecond()));
+        }
+
+        @Override
+        public void onFinished(BatchExport export, BatchExport.Progress progress) {
+            if (mExportDialog != null) {
+                mExportDialog.dismiss();
+                mExportDialog = null;
+            }
+        }
+    };
+
+    /**
+     * 列出相似的图片，点击一组全屏查看第一张
+     */
+    private void showDuplicates() {
+        DuplicateScanner scanner = DuplicateScanner.get(this);
+        DuplicateScanner.Result result = scanner.getResult();
+        if (result == null) {
+            Toast.makeText(this, getString(R.string.duplicates_indexing, scanner.getHashedCount()),
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (result.groups.isEmpty()) {
+            Toast.makeText(this, getString(R.string.duplicates_none, result.imageCount), Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        final List<String[]> groups = result.groups;
+        String[] items = new String[groups.size()];
+        for (int i = 0; i < items.length; i++) {
+            StringBuilder names = new StringBuilder();
+            for (String path : groups.get(i)) {
+                if (names.length() > 0) names.append(", ");
+                names.append(path.substring(path.lastIndexOf('/') + 1));
+            }
+            items[i] = getString(R.string.duplicates_group, groups.get(i).length, names);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.duplicates_title, groups.size()))
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        ViewerActivity.start(MainActivity.this, groups.get(which)[0]);
+                    }
+                })
+                .show();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.isCheckable()) {
+            // 单选组里的直接选中，单独的切换
+            item.setChecked(item.getGroupId() != Menu.NONE || !item.isChecked());
+        }
+        int id = item.getItemId();
+        if (id == R.id.id_menu_select_all || id == R.id.id_menu_select_range
+                || id == R.id.id_menu_clear_selection) {
+            if (mImgAdapter == null) return true;
+            if (id == R.id.id_menu_select_all) {
+                mImgAdapter.selectAll();
+            } else if (id == R.id.id_menu_select_range) {
+                mImgAdapter.selectRange();
+            } else {
+                mImgAdapter.clearSelection();
+            }
+            return true;
+        }
+        if (id == R.id.id_menu_export_copy || id == R.id.id_menu_export_resize) {
+            startExport(id == R.id.id_menu_export_resize);
+            return true;
+        }
+        if (id == R.id.id_menu_duplicates) {
+            showDuplicates();
+            return true;
+        }
+        if (id == R.id.id_menu_sort_name) {
+            mQuery.sort = FolderImageIndex.SORT_NAME;
+        } else if (id == R.id.id_menu_sort_date) {
+            mQuery.sort = FolderImageIndex.SORT_DATE;
+        } else if (id == R.id.id_menu_sort_size) {
+            mQuery.sort = FolderImageIndex.SORT_SIZE;
+        } else if (id == R.id.id_menu_descending) {
+            mQuery.descending = item.isChecked();
+        } else if (id == R.id.id_menu_type_all) {
+            mQuery.types = FolderImageIndex.TYPE_ALL;
+        } else if (id == R.id.id_menu_type_jpeg) {
+            mQuery.types = FolderImageIndex.TYPE_JPEG;
+        } else if (id == R.id.id_menu_type_png) {
+            mQuery.types = FolderImageIndex.TYPE_PNG;
+        } else if (id == R.id.id_menu_large_only) {
+            int size = item.isChecked() ? LARGE_IMAGE_SIZE : 0;
+            mQuery.minWidth = size;
+            mQuery.minHeight = size;
+        } else if (id == R.id.id_menu_recent_only) {
+            mQuery.fromDate = item.isChecked()
+                    ? System.currentTimeMillis() / 1000 - RECENT_SECONDS : Long.MIN_VALUE;
+        } else {
+            return super.onOptionsItemSelected(item);
+        }
+        mQueryVersion++;
+        applyQuery();
+        return true;
     }
 
     private void initEvent() {
+        // 滚动时预加载后面两行
+        mGridView.setOnScrollListener(new GridPrefetcher(R.id.id_item_image, 2));
+
         mBottomLayout.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -97,18 +558,7 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onSelected(FolderBean folderBean) {
                 mCurrentDir = new File(folderBean.getDir());
-
-                mImgNames = Arrays.asList(mCurrentDir.list(new FilenameFilter() {
-                    @Override
-                    public boolean accept(File dir, String filename) {
-                        return filename.endsWith(".jpg") || filename.endsWith(".jpeg") || filename.endsWith(".png");
-                    }
-                }));
-
-                mImgAdapter = new ImageAdapter(MainActivity.this, mImgNames, mCurrentDir.getAbsolutePath());
-                mGridView.setAdapter(mImgAdapter);
-
-                mDirCount.setText(mImgNames.size() + "");
+                showCurrentDir();
                 mDirName.setText(folderBean.getName());
 
                 mDirPopupWindow.dismiss();
@@ -131,13 +581,121 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        // 因为mCurrentDir.list()返回的是一个数组
-        mImgNames = Arrays.asList(mCurrentDir.list());
-        mImgAdapter = new ImageAdapter(this, mImgNames, mCurrentDir.getAbsolutePath());
+        showCurrentDir();
+        mDirName.setText(mCurrentDir.getName());
+    }
+
+    /**
+     * 在后台列出当前文件夹，列出一页显示一页；上一个文件夹还没列完的直接取消
+     */
+    private void showCurrentDir() {
+        if (mListing != null) mListing.cancel();
+        parkPendingSelection();
+        mImageIndex = null;
+        mListing = new DirectoryListing(mCurrentDir, mMainExecutor, mListingListener);
+        // 列出时先用空的选中状态，上次的等列完、确认文件夹没变后再合并，不会先套到别的文件上
+        String dirPath = mCurrentDir.getAbsolutePath();
+        mPendingSelection = mSelections.get(dirPath);
+        if (mPendingSelection != null && mPendingSelection.isEmpty()) mPendingSelection = null;
+        SelectionModel selection = new SelectionModel(dirPath, 0);
+        mSelections.put(dirPath, selection);
+        mImgAdapter = new ImageAdapter(this, mListing, selection);
+        mImgAdapter.setOnSelectionChangedListener(new ImageAdapter.OnSelectionChangedListener() {
+            @Override
+            public void onSelectionChanged(SelectionModel selection) {
+                updateSelectionTitle(selection);
+            }
+        });
+        updateSelectionTitle(selection);
         mGridView.setAdapter(mImgAdapter);
+        mDirCount.setText("");
+        new Thread(mListing, "DirectoryListing").start();
+    }
 
-        mDirCount.setText(mMaxCount + "");
-        mDirName.setText(mCurrentDir.getName());
+    /**
+     * 文件夹列完后在后台建立排序、筛选索引，完成后按当前的条件显示
+     */
+    private void buildImageIndex(final DirectoryListing listing) {
+        final FolderImageIndex.Query query = mQuery.copy();
+        final int version = mQueryVersion;
+        mIndexScheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (listing.isCancelled()) return;
+                FolderImageIndex index = new FolderImageIndex(listing);
+                index.setTypesFromNames();
+                queryImageMetadata(index);
+                publishQuery(index, index.query(query, ParallelMergeSort.getDefaultPool()), version);
+            }
+        }, TaskScheduler.PRIORITY_NORMAL);
+    }
+
+    /**
+     * 排序或筛选条件改变：在后台用已有的索引重新计算，不再读文件或MediaStore
+     */
+    private void applyQuery() {
+        final FolderImageIndex index = mImageIndex;
+        if (index == null) return; // 索引建好后会按最新的条件显示
+        final FolderImageIndex.Query query = mQuery.copy();
+        final int version = mQueryVersion;
+        mIndexScheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                publishQuery(index, index.query(query, ParallelMergeSort.getDefaultPool()), version);
+            }
+        }, TaskScheduler.PRIORITY_NORMAL);
+    }
+
+    private void publishQuery(final FolderImageIndex index, final int[] positions, final int version) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (index.getListing() != mListing) return;
+                boolean first = mImageIndex == null;
+                mImageIndex = index;
+                if (version != mQueryVersion) {
+                    // 建索引的过程中条件变了
+                    if (first) applyQuery();
+                    return;
+                }
+                mImgAdapter.setPositions(positions);
+                mDirCount.setText(positions.length == index.getCount() ? String.valueOf(positions.length)
+                        : positions.length + "/" + index.getCount());
+            }
+        });
+    }
+
+    /**
+     * 从MediaStore批量读取文件夹中图片的修改时间、大小和宽高(后台线程)
+     * <p>
+     * 还没有被扫描到的文件没有这些信息，按0处理
+     */
+    private void queryImageMetadata(FolderImageIndex index) {
+        DirectoryListing listing = index.getListing();
+        String prefix = listing.getDirPath() + "/";
+        Cursor cursor = getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, INDEX_PROJECTION,
+                "substr(" + MediaStore.Images.Media.DATA + ", 1, " + prefix.length() + ") = ?",
+                new String[]{prefix}, null);
+        if (cursor == null) return;
+
+        try {
+            ForkJoinPool pool = ParallelMergeSort.getDefaultPool();
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(INDEX_COLUMN_DATA);
+                // 子文件夹中的图片也会查出来
+                if (path == null || path.indexOf('/', prefix.length()) >= 0) continue;
+                int position = index.indexOfName(path, prefix.length(), pool);
+                if (position < 0) continue;
+                index.setMetadata(position,
+                        cursor.getLong(INDEX_COLUMN_DATE_MODIFIED),
+                        cursor.getLong(INDEX_COLUMN_SIZE),
+                        cursor.getInt(INDEX_COLUMN_WIDTH),
+                        cursor.getInt(INDEX_COLUMN_HEIGHT),
+                        FolderImageIndex.typeOfMimeType(cursor.getString(INDEX_COLUMN_MIME_TYPE)));
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -150,7 +708,29 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * 利用ContentProvider扫描手机中的所有图片
+     * 用扫描结果替换文件夹列表
+     */
+    private void applyFolders(List<FolderBean> folders) {
+        mFolderBeenList.clear();
+        mFolderBeenList.addAll(folders);
+    }
+
+    /**
+     * 默认显示图片最多的文件夹
+     */
+    private void selectLargestFolder() {
+        int maxCount = 0;
+        mCurrentDir = null;
+        for (FolderBean bean : mFolderBeenList) {
+            if (bean.getCount() > maxCount) {
+                maxCount = bean.getCount();
+                mCurrentDir = new File(bean.getDir());
+            }
+        }
+    }
+
+    /**
+     * 先显示缓存的文件夹索引，再利用ContentProvider在后台同步
      */
     private void initData() {
         if (!Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
@@ -158,66 +738,61 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        mProgressDialog = ProgressDialog.show(this, null, "正在加载...");
+        FolderIndex folderIndex = new FolderIndex(new File(getFilesDir(), FOLDER_INDEX_FILE));
+        mFolderSync = new FolderSync(getContentResolver(), folderIndex);
+        if (!folderIndex.exists()) {
+            // 没有缓存，第一次完整扫描
+            mProgressDialog = ProgressDialog.show(this, null, "正在加载...");
+        }
+
+        startSync(true);
+    }
+
+    /**
+     * 在后台同步文件夹索引，同一时间只有一个同步在进行
+     *
+     * @param loadIndex 是否先读取并显示缓存的索引(启动时)
+     */
+    private void startSync(final boolean loadIndex) {
+        if (mFolderSync == null) return;
+        final FolderIndex folderIndex = mFolderSync.getIndex();
+        if (!mSyncing.compareAndSet(false, true)) {
+            // 正在同步，结束后再同步一次
+            mSyncPending = true;
+            return;
+        }
 
         new Thread() {
             @Override
             public void run() {
-                Uri uri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-                ContentResolver cr = MainActivity.this.getContentResolver();
-
-                Cursor cursor = cr.query(uri, null, MediaStore.Images.Media.MIME_TYPE + " = ? or "
-                                + MediaStore.Images.Media.MIME_TYPE + " = ?",
-                        new String[]{"image/jpeg", "image/png"},
-                        MediaStore.Images.Media.DATE_MODIFIED);
-
-                Set<String> mDirPathSet = new HashSet<>();
-
-                FolderBean folderBean;
-                while (cursor != null && cursor.moveToNext()) {
-                    String path = cursor.getString(cursor.getColumnIndex(MediaStore.Images.Media.DATA)); // 完整路径
-                    File parentFile = new File(path).getParentFile();
-
-                    if (parentFile == null) continue;
-
-                    String dirPath = parentFile.getAbsolutePath(); // 文件夹路径
-
-                    // 防止重复扫描
-                    if (mDirPathSet.contains(dirPath)) {
-                        continue;
-                    } else {
-                        mDirPathSet.add(dirPath);
-                        folderBean = new FolderBean();
-                        folderBean.setDir(dirPath);
-                        folderBean.setFirstImagePath(path); // 因为每个文件夹只会有第一张图片进来
-                    }
+                boolean shown = false;
+                if (loadIndex && folderIndex.load()) {
+                    // 立即显示缓存的索引
+                    mHandler.obtainMessage(DATA_LOADED, folderIndex.getFolders()).sendToTarget();
+                    shown = true;
+                }
 
-                    if (parentFile.list() == null) continue;
+                boolean changed;
+                try {
+                    changed = mFolderSync.sync();
+                } finally {
+                    mSyncing.set(false);
+                }
 
-                    int picSize = parentFile.list(new FilenameFilter() {
-                        @Override
-                        public boolean accept(File dir, String filename) {
-                            if (filename.endsWith(".jpg") || filename.endsWith(".jpeg") || filename.endsWith(".png")) {
-                                return true;
-                            }
-                            return false;
+                if (changed || (loadIndex && !shown)) {
+                    // 通知Handler扫描图片完成
+                    mHandler.obtainMessage(shown || !loadIndex ? DATA_UPDATED : DATA_LOADED,
+                            folderIndex.getFolders()).sendToTarget();
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mSyncPending) {
+                            mSyncPending = false;
+                            startSync(false);
                         }
-                    }).length;
-
-                    folderBean.setCount(picSize);
-
-                    mFolderBeenList.add(folderBean);
-
-                    if (picSize > mMaxCount) {
-                        mMaxCount = picSize;
-                        mCurrentDir = parentFile;
                     }
-                }
-
-                if (cursor != null) cursor.close();
-
-                // 通知Handler扫描图片完成
-                mHandler.sendEmptyMessage(DATA_LOADED);
+                });
             }
         }.start();
     }
@@ -0,0 +1,44 @@
+package com.samboluong.imageloader;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+
+import com.samboluong.imageloader.view.TiledImageView;
+
+/**
+ * 全屏查看一张图片，大图按屏幕可见区域分块解码
+ */
+public class ViewerActivity extends AppCompatActivity {
+
+    private static final String EXTRA_PATH = "path";
+
+    private TiledImageView mImageView;
+
+    public static void start(Context context, String path) {
+        Intent intent = new Intent(context, ViewerActivity.class);
+        intent.putExtra(EXTRA_PATH, path);
+        context.startActivity(intent);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_viewer);
+
+        mImageView = (TiledImageView) findViewById(R.id.id_viewer_image);
+        String path = getIntent().getStringExtra(EXTRA_PATH);
+        if (path == null) {
+            finish();
+            return;
+        }
+        mImageView.setImagePath(path);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mImageView.release();
+    }
+}
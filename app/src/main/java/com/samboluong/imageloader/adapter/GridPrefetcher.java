@@ -0,0 +1,149 @@
+package com.samboluong.imageloader.adapter;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.GridView;
+import android.widget.ListAdapter;
+
+import com.samboluong.imageloader.util.LoadRequest;
+import com.samboluong.imageloader.util.RequestBuilder;
+
+/**
+ * 根据GridView的滚动状态和速度预加载后面几行的图片
+ * <p>
+ * 在滚动方向上提前以低优先级解码N行，快速滑动(fling)时暂停并取消预加载，
+ * 滑出预加载窗口的请求也会被取消。
+ */
+public class GridPrefetcher implements AbsListView.OnScrollListener {
+
+    /**
+     * Adapter实现这个接口提供每个位置的图片路径和加载参数
+     */
+    public interface PathSource {
+        String getImagePath(int position);
+
+        /**
+         * @return 和显示时相同(解码策略、变换)的请求，预加载的结果才能被用上；可能是共用的，要立即prefetch
+         */
+        RequestBuilder buildRequest(int position);
+    }
+
+    /**
+     * 每秒滚过的item数超过这个值就当作fling，不预加载
+     */
+    private static final float FLING_VELOCITY = 60f;
+
+    private final int mImageViewId;
+    private final int mPrefetchRows;
+
+    /**
+     * position -> 预加载请求
+     */
+    private final SparseArray<LoadRequest> mPrefetching = new SparseArray<>();
+
+    private int mScrollState = SCROLL_STATE_IDLE;
+    private int mLastFirstVisible = -1;
+    private long mLastScrollTime;
+    private float mVelocity;
+    /**
+     * 滚动方向，1向下，-1向上
+     */
+    private int mDirection = 1;
+
+    /**
+     * @param imageViewId  item中ImageView的id，用来确定预加载的尺寸
+     * @param prefetchRows 预加载的行数
+     */
+    public GridPrefetcher(int imageViewId, int prefetchRows) {
+        this.mImageViewId = imageViewId;
+        this.mPrefetchRows = prefetchRows;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        mScrollState = scrollState;
+        if (scrollState == SCROLL_STATE_FLING) {
+            // 快速滑动时预加载的大多用不上，暂停并全部取消
+            cancelAll();
+        } else {
+            prefetch(view, view.getFirstVisiblePosition(), view.getChildCount());
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (firstVisibleItem == mLastFirstVisible || visibleItemCount == 0) return;
+
+        long now = SystemClock.uptimeMillis();
+        if (mLastFirstVisible >= 0 && now > mLastScrollTime) {
+            int delta = firstVisibleItem - mLastFirstVisible;
+            mDirection = delta >= 0 ? 1 : -1;
+            mVelocity = Math.abs(delta) * 1000f / (now - mLastScrollTime);
+        }
+        mLastFirstVisible = firstVisibleItem;
+        mLastScrollTime = now;
+
+        if (mScrollState == SCROLL_STATE_FLING || mVelocity > FLING_VELOCITY) {
+            cancelAll();
+            return;
+        }
+        prefetch(view, firstVisibleItem, visibleItemCount);
+    }
+
+    /**
+     * 预加载滚动方向上可见区域之外的mPrefetchRows行
+     */
+    private void prefetch(AbsListView view, int firstVisible, int visibleCount) {
+        ListAdapter adapter = view.getAdapter();
+        if (!(adapter instanceof PathSource) || visibleCount == 0) {
+            cancelAll();
+            return;
+        }
+
+        View imageView = view.getChildAt(0).findViewById(mImageViewId);
+        if (imageView == null || imageView.getWidth() <= 0 || imageView.getHeight() <= 0) return;
+
+        int columns = view instanceof GridView ? Math.max(1, ((GridView) view).getNumColumns()) : 1;
+        int count = mPrefetchRows * columns;
+        int start;
+        int end;
+        if (mDirection > 0) {
+            start = firstVisible + visibleCount;
+            end = Math.min(adapter.getCount(), start + count);
+        } else {
+            end = firstVisible;
+            start = Math.max(0, end - count);
+        }
+
+        PathSource source = (PathSource) adapter;
+
+        // 取消滑出窗口(或Adapter已经换了)的请求
+        for (int i = mPrefetching.size() - 1; i >= 0; i--) {
+            int position = mPrefetching.keyAt(i);
+            LoadRequest request = mPrefetching.valueAt(i);
+            if (position < start || position >= end || position >= adapter.getCount()
+                    || !request.getPath().equals(source.getImagePath(position))) {
+                request.cancel();
+                mPrefetching.removeAt(i);
+            }
+        }
+
+        for (int position = start; position < end; position++) {
+            if (mPrefetching.get(position) != null) continue;
+            mPrefetching.put(position, source.buildRequest(position)
+                    .prefetch(imageView.getWidth(), imageView.getHeight()));
+        }
+    }
+
+    /**
+     * 取消所有还没完成的预加载
+     */
+    public void cancelAll() {
+        for (int i = 0; i < mPrefetching.size(); i++) {
+            mPrefetching.valueAt(i).cancel();
+        }
+        mPrefetching.clear();
+    }
+}
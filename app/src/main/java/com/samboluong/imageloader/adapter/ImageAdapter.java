@@ -11,27 +11,51 @@ import android.widget.BaseAdapter;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 
+import com.samboluong.imageloader.Loaders;
 import com.samboluong.imageloader.R;
-import com.samboluong.imageloader.util.ImageLoader;
+import com.samboluong.imageloader.ViewerActivity;
+import com.samboluong.imageloader.util.DirectoryListing;
+import com.samboluong.imageloader.util.RequestBuilder;
+import com.samboluong.imageloader.util.SelectionModel;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+public class ImageAdapter extends BaseAdapter implements GridPrefetcher.PathSource {
 
-public class ImageAdapter extends BaseAdapter {
+    private static final int SELECTED_FILTER = Color.parseColor("#77000000");
 
-    private static Set<String> mSelected = new HashSet<>();
+    /**
+     * 选中状态改变，在UI线程
+     */
+    public interface OnSelectionChangedListener {
+        void onSelectionChanged(SelectionModel selection);
+    }
 
-    private String mDirPath;
-    private List<String> mImgNameList;
+    /**
+     * 文件夹的图片在后台分页列出，mCount是已经显示出来的数量
+     */
+    private DirectoryListing mListing;
+    private int mCount;
+    /**
+     * 排序、筛选后的显示顺序(DirectoryListing中的下标)，为null时按列出的顺序显示
+     */
+    private int[] mPositions;
+    /**
+     * 当前文件夹的选中状态，id是DirectoryListing中的下标
+     */
+    private SelectionModel mSelection;
+    private OnSelectionChangedListener mSelectionListener;
     private LayoutInflater mInflater;
 
     private int mScreenWidth;
+    /**
+     * 所有格子共用的请求参数，每次绑定只换路径(只在UI线程使用，用完立即into或prefetch)
+     */
+    private RequestBuilder mRequest;
 
 
-    public ImageAdapter(Context context, List<String> imgNameList, String dirPath) {
-        this.mDirPath = dirPath;
-        this.mImgNameList = imgNameList;
+    public ImageAdapter(Context context, DirectoryListing listing, SelectionModel selection) {
+        this.mListing = listing;
+        this.mCount = listing.getCount();
+        this.mSelection = selection;
         this.mInflater = LayoutInflater.from(context);
 
         WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
@@ -40,14 +64,107 @@ public class ImageAdapter extends BaseAdapter {
         mScreenWidth = outMetrics.widthPixels;
     }
 
+    /**
+     * 又列出了一页(UI线程)
+     *
+     * @param count 已经列出的图片数
+     */
+    public void setCount(int count) {
+        if (count == mCount) return;
+        mCount = count;
+        if (count > mSelection.getSize()) mSelection.setSize(count);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 按排序、筛选的结果显示(UI线程)
+     *
+     * @param positions DirectoryListing中的下标
+     */
+    public void setPositions(int[] positions) {
+        mPositions = positions;
+        notifyDataSetChanged();
+    }
+
+    public DirectoryListing getListing() {
+        return mListing;
+    }
+
+    public SelectionModel getSelection() {
+        return mSelection;
+    }
+
+    public void setOnSelectionChangedListener(OnSelectionChangedListener listener) {
+        this.mSelectionListener = listener;
+    }
+
+    /**
+     * 选中当前显示的所有图片；没有筛选时直接整组设置
+     */
+    public void selectAll() {
+        if (mPositions == null) {
+            mSelection.setRange(0, mCount, true);
+        } else {
+            for (int position : mPositions) {
+                mSelection.setSelected(position, true);
+            }
+        }
+        notifySelectionChanged();
+    }
+
+    public void clearSelection() {
+        mSelection.clear();
+        notifySelectionChanged();
+    }
+
+    /**
+     * 选中第一个和最后一个选中的图片之间(按显示顺序)的所有图片
+     */
+    public void selectRange() {
+        if (mPositions == null) {
+            int first = mSelection.nextSelected(0);
+            if (first < 0) return;
+            int last = first;
+            for (int id = first; id >= 0; id = mSelection.nextSelected(id + 1)) {
+                last = id;
+            }
+            mSelection.setRange(first, last + 1, true);
+        } else {
+            int first = -1;
+            int last = -1;
+            for (int i = 0; i < mPositions.length; i++) {
+                if (mSelection.isSelected(mPositions[i])) {
+                    if (first < 0) first = i;
+                    last = i;
+                }
+            }
+            for (int i = Math.max(0, first); i <= last; i++) {
+                mSelection.setSelected(mPositions[i], true);
+            }
+        }
+        notifySelectionChanged();
+    }
+
+    /**
+     * 选中状态在外部改变后调用
+     */
+    public void notifySelectionChanged() {
+        notifyDataSetChanged();
+        if (mSelectionListener != null) mSelectionListener.onSelectionChanged(mSelection);
+    }
+
+    private int toListingPosition(int position) {
+        return mPositions != null ? mPositions[position] : position;
+    }
+
     @Override
     public int getCount() {
-        return mImgNameList.size();
+        return mPositions != null ? mPositions.length : mCount;
     }
 
     @Override
     public Object getItem(int position) {
-        return mImgNameList.get(position);
+        return mListing.getName(toListingPosition(position));
     }
 
     @Override
@@ -55,6 +172,32 @@ public class ImageAdapter extends BaseAdapter {
         return position;
     }
 
+    @Override
+    public String getImagePath(int position) {
+        return mListing.getPath(toListingPosition(position));
+    }
+
+    /**
+     * 格子是正方形的centerCrop，解码后按EXIF转正再裁剪成格子的大小
+     * <p>
+     * 返回的RequestBuilder是共用的，下次调用时会换成别的图片，要立即into或prefetch
+     */
+    @Override
+    public RequestBuilder buildRequest(int position) {
+        return buildRequest(getImagePath(position));
+    }
+
+    private RequestBuilder buildRequest(String path) {
+        if (mRequest == null) {
+            mRequest = Loaders.grid()
+                    .load(path)
+                    .rotateByExif()
+                    .centerCrop();
+            return mRequest;
+        }
+        return mRequest.path(path);
+    }
+
     @Override
     public View getView(final int position, View convertView, ViewGroup parent) {
         final ViewHolder holder;
@@ -63,6 +206,24 @@ public class ImageAdapter extends BaseAdapter {
             holder = new ViewHolder();
             holder.imageView = (ImageView) convertView.findViewById(R.id.id_item_image);
             holder.selectButton = (ImageButton) convertView.findViewById(R.id.id_item_select);
+            // 监听器随ViewHolder创建一次，绑定时只更新下标
+            holder.imageView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    mSelection.toggle(holder.id);
+                    bindSelection(holder);
+                    if (mSelectionListener != null) mSelectionListener.onSelectionChanged(mSelection);
+                }
+            });
+            // 长按全屏查看
+            holder.imageView.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    ViewerActivity.start(v.getContext(), mListing.getPath(holder.id));
+                    return true;
+                }
+            });
+            holder.imageView.setMaxWidth(mScreenWidth / 3);
             convertView.setTag(holder);
         } else {
             holder = (ViewHolder) convertView.getTag();
@@ -70,45 +231,34 @@ public class ImageAdapter extends BaseAdapter {
 
         // 重置,因为后面的页面会复用控件，如果不重置在图片加载完成之前会显示以前的图片
         holder.imageView.setImageResource(R.drawable.pictures_no);
-        holder.imageView.setImageResource(R.drawable.picture_unselected);
-        holder.imageView.setColorFilter(null);
-
-        holder.imageView.setMaxWidth(mScreenWidth / 3);
-
-        // 使用工具类,根据全路径为ImageView设置图片
-        ImageLoader.getInstance(3, ImageLoader.Type.LIFO)
-                .loadImage(mDirPath + "/" + mImgNameList.get(position), holder.imageView);
-
-        final String filePath = mDirPath + "/" + mImgNameList.get(position);
-
-        holder.imageView.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                if (mSelected.contains(filePath)) {
-                    mSelected.remove(filePath);
-                    holder.imageView.setColorFilter(null);
-                    holder.selectButton.setImageResource(R.drawable.picture_unselected);
-                } else {
-                    mSelected.add(filePath);
-                    holder.imageView.setColorFilter(Color.parseColor("#77000000"));
-                    holder.selectButton.setImageResource(R.drawable.pictures_selected);
-                }
-//                notifyDataSetChanged();
-            }
-        });
 
-        if (mSelected.contains(filePath)) {
-            holder.imageView.setColorFilter(Color.parseColor("#77000000"));
-            holder.selectButton.setImageResource(R.drawable.pictures_selected);
-        }
+        holder.id = toListingPosition(position);
 
+        // 使用工具类,根据全路径为ImageView设置图片(完整路径每次绑定只拼一次)
+        buildRequest(mListing.getPath(holder.id)).into(holder.imageView);
+
+        bindSelection(holder);
 
         return convertView;
     }
 
+    private void bindSelection(ViewHolder holder) {
+        if (mSelection.isSelected(holder.id)) {
+            holder.imageView.setColorFilter(SELECTED_FILTER);
+            holder.selectButton.setImageResource(R.drawable.pictures_selected);
+        } else {
+            holder.imageView.setColorFilter(null);
+            holder.selectButton.setImageResource(R.drawable.picture_unselected);
+        }
+    }
+
     private class ViewHolder {
         ImageView imageView;
         ImageButton selectButton;
+        /**
+         * DirectoryListing中的下标，也是选中状态的id
+         */
+        int id;
     }
 
 }
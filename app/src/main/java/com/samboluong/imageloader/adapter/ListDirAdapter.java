@@ -1,6 +1,7 @@
 package com.samboluong.imageloader.adapter;
 
 import android.content.Context;
+import android.graphics.drawable.Drawable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -8,9 +9,12 @@ import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.samboluong.imageloader.FolderCovers;
+import com.samboluong.imageloader.Loaders;
 import com.samboluong.imageloader.R;
 import com.samboluong.imageloader.bean.FolderBean;
-import com.samboluong.imageloader.util.ImageLoader;
+import com.samboluong.imageloader.util.CoverSprite;
+import com.samboluong.imageloader.util.LoadRequest;
 
 import java.util.List;
 
@@ -18,10 +22,14 @@ public class ListDirAdapter extends ArrayAdapter<FolderBean> {
 
     private LayoutInflater mInflater;
     private List<FolderBean> mDataList;
+    private float mCornerRadius;
+    private FolderCovers mFolderCovers;
 
     public ListDirAdapter(Context context, List<FolderBean> objects) {
         super(context, 0, objects);
         mInflater = LayoutInflater.from(context);
+        mFolderCovers = FolderCovers.get(context);
+        mCornerRadius = context.getResources().getDimension(R.dimen.dir_cover_corner_radius);
     }
 
     @Override
@@ -39,8 +47,24 @@ public class ListDirAdapter extends ArrayAdapter<FolderBean> {
         }
 
         FolderBean bean = getItem(position);
-        holder.mImageView.setImageResource(R.drawable.pictures_no); // 重置
-        ImageLoader.getInstance().loadImage(bean.getFirstImagePath(), holder.mImageView);
+        if (holder.mRequest != null) {
+            holder.mRequest.cancel();
+            holder.mRequest = null;
+        }
+        // 先从后台生成的拼图里取，拼图还没有生成或者是新的文件夹时才解码
+        CoverSprite sprite = mFolderCovers.getSprite();
+        Drawable cover = sprite == null ? null : sprite.getCover(bean.getFirstImagePath(), mCornerRadius);
+        if (cover != null) {
+            holder.mImageView.setTag(bean.getFirstImagePath());
+            holder.mImageView.setImageDrawable(cover);
+        } else {
+            holder.mImageView.setImageResource(R.drawable.pictures_no); // 重置
+            holder.mRequest = Loaders.folderCovers().load(bean.getFirstImagePath())
+                    .rotateByExif()
+                    .centerCrop()
+                    .roundedCorners(mCornerRadius)
+                    .into(holder.mImageView);
+        }
         holder.mDirName.setText(bean.getName());
         holder.mDirCount.setText(bean.getCount() + "张");
 
@@ -51,5 +75,6 @@ public class ListDirAdapter extends ArrayAdapter<FolderBean> {
         ImageView mImageView;
         TextView mDirName;
         TextView mDirCount;
+        LoadRequest mRequest;
     }
 }
@@ -0,0 +1,359 @@
+package com.samboluong.imageloader.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 把选中的图片批量导出到一个文件夹(纯Java)
+ * <p>
+ * 原样复制时用FileChannel.transferTo，数据由内核直接从源文件写到目标文件，不经过Java堆；
+ * 需要缩小或重新压缩时交给{@link Transcoder}，同时最多处理parallelism张，
+ * 每张解码、写完就释放，不经过ImageLoader的内存缓存，导出几千张也不会把网格的缩略图挤出去。
+ * <p>
+ * 所有工作者从同一个游标取下一张，取消后处理完手上的一张就停下；
+ * 进度按{@link #PROGRESS_INTERVAL_MS}节流后通知，结束时给出MB/s和张/s。
+ */
+public class BatchExport {
+
+    /**
+     * 进度通知的最小间隔
+     */
+    static final long PROGRESS_INTERVAL_MS = 100;
+    /**
+     * transferTo每次最多传输的字节数，部分系统一次传不完大文件
+     */
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+
+    /**
+     * 原样复制时的并发数，瓶颈在存储上，多了反而互相抢
+     */
+    public static final int COPY_PARALLELISM = 2;
+    /**
+     * 重新压缩时的最大并发数，每个工作者同时只持有一张解码后的图片
+     */
+    public static final int MAX_TRANSCODE_PARALLELISM = 3;
+
+    /**
+     * 缩小、重新压缩一张图片，在工作线程调用
+     */
+    public interface Transcoder {
+        /**
+         * @param sourceName 原文件名
+         * @return 目标文件名，例如把扩展名换成.jpg
+         */
+        String getTargetName(String sourceName);
+
+        /**
+         * @param source 原图
+         * @param target 已经创建好的空文件
+         * @return 写入的字节数
+         */
+        long transcode(File source, File target) throws IOException;
+    }
+
+    public interface Listener {
+        /**
+         * 进度，在callbackExecutor中调用
+         */
+        void onProgress(BatchExport export, Progress progress);
+
+        /**
+         * 全部完成或者已取消，在callbackExecutor中调用，只调用一次
+         */
+        void onFinished(BatchExport export, Progress progress);
+    }
+
+    /**
+     * 某一时刻的进度
+     */
+    public static class Progress {
+        public final int total;
+        /**
+         * 已经处理的张数，包括失败的
+         */
+        public final int processed;
+        public final int failed;
+        public final long bytesRead;
+        public final long bytesWritten;
+        public final long elapsedNanos;
+        /**
+         * 第一张失败的原因，没有失败时为null；全部失败(例如没有写权限)时靠它排查
+         */
+        public final Throwable firstError;
+
+        public Progress(int total, int processed, int failed, long bytesRead, long bytesWritten, long elapsedNanos,
+                        Throwable firstError) {
+            this.total = total;
+            this.processed = processed;
+            this.failed = failed;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.elapsedNanos = elapsedNanos;
+            this.firstError = firstError;
+        }
+
+        public int getSucceeded() {
+            return processed - failed;
+        }
+
+        /**
+         * 按读取的原图大小计算的吞吐量
+         */
+        public double getMegabytesPerSecond() {
+            if (elapsedNanos <= 0) return 0;
+            return bytesRead / (1024.0 * 1024.0) / (elapsedNanos / 1e9);
+        }
+
+        public double getImagesPerSecond() {
+            if (elapsedNanos <= 0) return 0;
+            return processed / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d, failed=%d, %.1fMB/s, %.1f/s", processed, total, failed,
+                    getMegabytesPerSecond(), getImagesPerSecond());
+        }
+    }
+
+    private final DirectoryListing mListing;
+    private final int[] mIds;
+    private final File mDestDir;
+    private final Transcoder mTranscoder;
+    private final Executor mCallbackExecutor;
+    private final Listener mListener;
+
+    private final AtomicInteger mNext = new AtomicInteger();
+    private final AtomicInteger mRunningWorkers = new AtomicInteger();
+    private final AtomicInteger mProcessed = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    private final AtomicLong mLastProgressMillis = new AtomicLong();
+    private final AtomicReference<Throwable> mFirstError = new AtomicReference<>();
+    /**
+     * 导出成功的文件路径，结束后交给媒体扫描
+     */
+    private final List<String> mExportedPaths = new ArrayList<>();
+    private volatile long mStartNanos;
+    private volatile long mEndNanos;
+    private volatile boolean mCancelled;
+    private volatile boolean mFinished;
+    private boolean mStarted;
+
+    /**
+     * 工作者：循环取下一张导出，最后一个退出的工作者通知结束
+     */
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                int i;
+                while (!mCancelled && (i = mNext.getAndIncrement()) < mIds.length) {
+                    exportOne(mIds[i]);
+                    publishProgress();
+                }
+            } finally {
+                if (mRunningWorkers.decrementAndGet() == 0) finish();
+            }
+        }
+    };
+
+    /**
+     * @param listing          图片所在的文件夹
+     * @param ids              要导出的图片在listing中的下标，一般是{@link SelectionModel#getSelectedIds()}
+     * @param destDir          目标文件夹，不存在时创建，重名时在文件名后加_1、_2
+     * @param transcoder       为null时原样复制
+     * @param callbackExecutor 执行Listener的回调，一般是UI线程
+     * @param listener
+     */
+    public BatchExport(DirectoryListing listing, int[] ids, File destDir, Transcoder transcoder,
+                       Executor callbackExecutor, Listener listener) {
+        this.mListing = listing;
+        this.mIds = ids;
+        this.mDestDir = destDir;
+        this.mTranscoder = transcoder;
+        this.mCallbackExecutor = callbackExecutor;
+        this.mListener = listener;
+    }
+
+    /**
+     * 原样复制时为{@link #COPY_PARALLELISM}，重新压缩时按CPU数，不超过{@link #MAX_TRANSCODE_PARALLELISM}
+     */
+    public static int getDefaultParallelism(Transcoder transcoder) {
+        if (transcoder == null) return COPY_PARALLELISM;
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_TRANSCODE_PARALLELISM));
+    }
+
+    /**
+     * 开始导出，只能调用一次
+     *
+     * @param executor    执行工作者，至少要能同时运行parallelism个任务
+     * @param parallelism 最多同时导出的张数
+     */
+    public synchronized void start(Executor executor, int parallelism) {
+        if (mStarted) throw new IllegalStateException("已经开始了");
+        mStarted = true;
+        mStartNanos = System.nanoTime();
+        if (!mDestDir.isDirectory() && !mDestDir.mkdirs()) {
+            // 目标文件夹建不起来，每张都会失败，不用再开工作者
+            mFirstError.set(new IOException("无法创建目标文件夹: " + mDestDir));
+            mFailed.set(mIds.length);
+            mProcessed.set(mIds.length);
+            finish();
+            return;
+        }
+        int workers = Math.max(1, Math.min(parallelism, mIds.length));
+        mRunningWorkers.set(workers);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(mWorker);
+        }
+    }
+
+    /**
+     * 取消，正在导出的图片完成后停止，之后仍会回调onFinished
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    public File getDestDir() {
+        return mDestDir;
+    }
+
+    /**
+     * @return 到目前为止导出成功的文件路径
+     */
+    public String[] getExportedPaths() {
+        synchronized (mExportedPaths) {
+            return mExportedPaths.toArray(new String[mExportedPaths.size()]);
+        }
+    }
+
+    public Progress getProgress() {
+        long end = mFinished ? mEndNanos : System.nanoTime();
+        return new Progress(mIds.length, mProcessed.get(), mFailed.get(), mBytesRead.get(),
+                mBytesWritten.get(), mStartNanos == 0 ? 0 : end - mStartNanos, mFirstError.get());
+    }
+
+    private void exportOne(int id) {
+        File target = null;
+        try {
+            File source = new File(mListing.getPath(id));
+            String name = mListing.getName(id);
+            target = createTarget(mTranscoder != null ? mTranscoder.getTargetName(name) : name);
+            long written = mTranscoder != null ? mTranscoder.transcode(source, target) : copy(source, target);
+            mBytesRead.addAndGet(source.length());
+            mBytesWritten.addAndGet(written);
+            synchronized (mExportedPaths) {
+                mExportedPaths.add(target.getPath());
+            }
+        } catch (Throwable t) {
+            // 单张失败(包括解码OOM)不影响其他图片，删掉写了一半的文件
+            mFailed.incrementAndGet();
+            mFirstError.compareAndSet(null, t);
+            if (target != null) target.delete();
+        } finally {
+            mProcessed.incrementAndGet();
+        }
+    }
+
+    /**
+     * 在目标文件夹中创建一个新文件，重名时加序号；createNewFile是原子的，多个工作者不会拿到同一个文件
+     */
+    private File createTarget(String name) throws IOException {
+        File file = new File(mDestDir, name);
+        if (file.createNewFile()) return file;
+
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = 1; ; i++) {
+            file = new File(mDestDir, base + "_" + i + extension);
+            if (file.createNewFile()) return file;
+        }
+    }
+
+    /**
+     * 用FileChannel.transferTo复制文件
+     *
+     * @return 复制的字节数
+     */
+    public static long copy(File source, File target) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                FileChannel inChannel = in.getChannel();
+                FileChannel outChannel = out.getChannel();
+                long size = inChannel.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = inChannel.transferTo(position, Math.min(TRANSFER_CHUNK, size - position),
+                            outChannel);
+                    if (transferred <= 0) throw new IOException("transferTo没有进展: " + source);
+                    position += transferred;
+                }
+                return position;
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 距离上次通知超过间隔时才通知
+     */
+    private void publishProgress() {
+        if (mListener == null) return;
+        long now = System.nanoTime() / 1000000;
+        long last = mLastProgressMillis.get();
+        if (now - last < PROGRESS_INTERVAL_MS || !mLastProgressMillis.compareAndSet(last, now)) return;
+
+        final Progress progress = getProgress();
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mFinished) mListener.onProgress(BatchExport.this, progress);
+            }
+        });
+    }
+
+    private void finish() {
+        mEndNanos = System.nanoTime();
+        mFinished = true;
+        if (mListener == null) return;
+        final Progress progress = getProgress();
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onFinished(BatchExport.this, progress);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "BatchExport[" + mDestDir + ", " + (mTranscoder != null ? "transcode" : "copy") + ", "
+                + getProgress() + (mCancelled ? ", cancelled" : "") + "]";
+    }
+}
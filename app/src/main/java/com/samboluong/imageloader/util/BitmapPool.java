@@ -0,0 +1,185 @@
+package com.samboluong.imageloader.util;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Bitmap复用池
+ * <p>
+ * 从LruCache淘汰下来的Bitmap放到这里，解码时通过BitmapFactory.Options.inBitmap复用，
+ * 减少大块内存的分配和GC。按分配字节数向上取2的幂分成若干档，
+ * 取的时候只在需要的那一档和大一档里找，浪费最多不超过4倍。
+ */
+public class BitmapPool {
+
+    private static final int SIZE_CLASS_COUNT = 32;
+
+    private final long mMaxSize;
+    private long mSize;
+
+    // 不能直接创建泛型数组，只能创建ArrayDeque[]再转换
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<Bitmap>[] mSizeClasses = new ArrayDeque[SIZE_CLASS_COUNT];
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    /**
+     * @param maxSize 池中Bitmap的最大总字节数
+     */
+    public BitmapPool(long maxSize) {
+        this.mMaxSize = maxSize;
+        for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+            mSizeClasses[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * 向上取2的幂对应的档位
+     */
+    private static int sizeClassOf(int bytes) {
+        if (bytes <= 1) return 0;
+        return Math.min(SIZE_CLASS_COUNT - 1, 32 - Integer.numberOfLeadingZeros(bytes - 1));
+    }
+
+    // ARGB_4444已经不推荐使用，但别处解码出的Bitmap仍可能是这个格式，还要按2字节计算
+    @SuppressWarnings("deprecation")
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) return 1;
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) return 2;
+        return 4;
+    }
+
+    /**
+     * 放入一个不再使用的Bitmap
+     *
+     * @param bitmap 必须是mutable的，而且确定没有被任何ImageView显示
+     * @return 没有放入(不可复用或超过预算)时返回false
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) return false;
+
+        int bytes = bitmap.getAllocationByteCount();
+        if (bytes > mMaxSize) return false;
+
+        mSizeClasses[sizeClassOf(bytes)].addLast(bitmap);
+        mSize += bytes;
+        mPutCount++;
+        trimToSize(mMaxSize);
+        return true;
+    }
+
+    /**
+     * 取一个至少能容纳width * height的Bitmap
+     *
+     * @param width
+     * @param height
+     * @param config
+     * @return 没有合适的返回null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (width <= 0 || height <= 0) return null;
+
+        int required = width * height * bytesPerPixel(config);
+        int sizeClass = sizeClassOf(required);
+
+        // 同一档里的Bitmap不一定够大，逐个检查
+        Bitmap bitmap = null;
+        for (Iterator<Bitmap> i = mSizeClasses[sizeClass].descendingIterator(); i.hasNext(); ) {
+            Bitmap candidate = i.next();
+            if (candidate.getAllocationByteCount() >= required) {
+                i.remove();
+                bitmap = candidate;
+                break;
+            }
+        }
+        // 大一档的一定够大
+        if (bitmap == null && sizeClass + 1 < SIZE_CLASS_COUNT) {
+            bitmap = mSizeClasses[sizeClass + 1].pollLast();
+        }
+
+        if (bitmap == null) {
+            mMissCount++;
+            return null;
+        }
+        mSize -= bitmap.getAllocationByteCount();
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * 确保Bitmap不在池中(例如又要拿去显示了)
+     *
+     * @param bitmap
+     * @return
+     */
+    public synchronized boolean remove(Bitmap bitmap) {
+        if (bitmap == null) return false;
+        int bytes = bitmap.getAllocationByteCount();
+        if (mSizeClasses[sizeClassOf(bytes)].removeFirstOccurrence(bitmap)) {
+            mSize -= bytes;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 从最大的档开始淘汰，直到总大小不超过maxSize
+     */
+    public synchronized void trimToSize(long maxSize) {
+        for (int i = SIZE_CLASS_COUNT - 1; i >= 0 && mSize > maxSize; i--) {
+            ArrayDeque<Bitmap> deque = mSizeClasses[i];
+            while (mSize > maxSize && !deque.isEmpty()) {
+                Bitmap eldest = deque.pollFirst();
+                mSize -= eldest.getAllocationByteCount();
+                mEvictionCount++;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * 命中率(0~1)
+     */
+    public synchronized float getHitRate() {
+        int total = mHitCount + mMissCount;
+        return total == 0 ? 0f : mHitCount * 1f / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[size=" + mSize + "/" + mMaxSize + ", hits=" + mHitCount
+                + ", misses=" + mMissCount + ", evictions=" + mEvictionCount + "]";
+    }
+}
@@ -0,0 +1,91 @@
+package com.samboluong.imageloader.util;
+
+/**
+ * 缩略图尺寸计算
+ * <p>
+ * 先用2的幂的inSampleSize在解码时粗略缩小(解码器只对2的幂做快速采样)，
+ * 采样后的宽高都不小于目标，再通过inDensity/inTargetDensity精确缩放，
+ * 使结果正好覆盖目标区域(一边相等，另一边不小于目标)，和centerCrop显示一致。
+ * 只做整数运算，可以在JVM上测试。
+ */
+public final class BitmapSizing {
+
+    private BitmapSizing() {
+    }
+
+    /**
+     * 最大的2的幂采样率，保证采样后宽高都不小于目标
+     *
+     * @param width     原图宽
+     * @param height    原图高
+     * @param reqWidth  目标宽
+     * @param reqHeight 目标高
+     * @return
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        if (width <= 0 || height <= 0 || reqWidth <= 0 || reqHeight <= 0) return 1;
+
+        int inSampleSize = 1;
+        // 再翻一倍仍然不小于目标才继续
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * 采样后的尺寸，与BitmapFactory的整数除法一致
+     */
+    public static int sampledSize(int size, int inSampleSize) {
+        return Math.max(1, size / inSampleSize);
+    }
+
+    /**
+     * 计算精确缩放用的inDensity和inTargetDensity
+     * <p>
+     * 按缩放比例较大(更接近1)的那一边对齐目标，另一边自然不小于目标；只缩小不放大。
+     *
+     * @param sampledWidth  采样后的宽
+     * @param sampledHeight 采样后的高
+     * @param reqWidth      目标宽
+     * @param reqHeight     目标高
+     * @return {inDensity, inTargetDensity}，不需要缩放时返回null
+     */
+    public static int[] calculateDensity(int sampledWidth, int sampledHeight, int reqWidth, int reqHeight) {
+        if (sampledWidth <= 0 || sampledHeight <= 0 || reqWidth <= 0 || reqHeight <= 0) return null;
+
+        // reqWidth / sampledWidth >= reqHeight / sampledHeight，交叉相乘避免浮点误差
+        boolean alignWidth = (long) reqWidth * sampledHeight >= (long) reqHeight * sampledWidth;
+        int density = alignWidth ? sampledWidth : sampledHeight;
+        int targetDensity = alignWidth ? reqWidth : reqHeight;
+        if (targetDensity >= density) return null;
+
+        return new int[]{density, targetDensity};
+    }
+
+    /**
+     * 居中裁剪的输出大小：和目标的宽高比相同，但不超过原图(不放大，显示时由ImageView放大)
+     *
+     * @param width     原图宽
+     * @param height    原图高
+     * @param reqWidth  目标宽
+     * @param reqHeight 目标高
+     * @return {宽, 高}，都不小于1
+     */
+    public static int[] calculateCropSize(int width, int height, int reqWidth, int reqHeight) {
+        if (reqWidth <= width && reqHeight <= height) return new int[]{reqWidth, reqHeight};
+
+        // 按超出比例较大的一边缩小目标，交叉相乘避免浮点误差
+        if ((long) reqWidth * height >= (long) reqHeight * width) {
+            return new int[]{width, (int) Math.max(1, ((long) reqHeight * width + reqWidth / 2) / reqWidth)};
+        }
+        return new int[]{(int) Math.max(1, ((long) reqWidth * height + reqHeight / 2) / reqHeight), height};
+    }
+
+    /**
+     * 按density缩放后的尺寸，与BitmapFactory的取整方式一致
+     */
+    public static int scaledSize(int size, int density, int targetDensity) {
+        return (int) (size * (targetDensity / (float) density) + 0.5f);
+    }
+}
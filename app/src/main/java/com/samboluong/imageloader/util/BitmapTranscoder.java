@@ -0,0 +1,96 @@
+package com.samboluong.imageloader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 批量导出时缩小并重新压缩成JPEG
+ * <p>
+ * 先用inSampleSize在解码时缩小到不小于目标，再按EXIF转正、精确缩放画到目标大小的Bitmap上，
+ * 写完立即recycle；不使用ImageLoader的内存缓存和BitmapPool，每个工作线程同时只持有两张Bitmap。
+ */
+public class BitmapTranscoder implements BatchExport.Transcoder {
+
+    private final int mMaxSize;
+    private final int mQuality;
+
+    /**
+     * @param maxSize 长边的最大像素，原图更小时不放大，只重新压缩
+     * @param quality JPEG质量，0~100
+     */
+    public BitmapTranscoder(int maxSize, int quality) {
+        this.mMaxSize = maxSize;
+        this.mQuality = quality;
+    }
+
+    @Override
+    public String getTargetName(String sourceName) {
+        int dot = sourceName.lastIndexOf('.');
+        return (dot > 0 ? sourceName.substring(0, dot) : sourceName) + ".jpg";
+    }
+
+    @Override
+    public long transcode(File source, File target) throws IOException {
+        ImageHeaderProber.Header header = ImageHeaderProber.probeFile(source);
+        if (header == null || !header.isImage() || !header.hasSize()) {
+            throw new IOException("不是图片: " + source);
+        }
+
+        // 转正后的宽高
+        boolean transposed = Transformations.isTransposed(header.orientation);
+        int width = transposed ? header.height : header.width;
+        int height = transposed ? header.width : header.height;
+        float scale = Math.min(1f, mMaxSize / (float) Math.max(width, height));
+        int targetWidth = Math.max(1, Math.round(width * scale));
+        int targetHeight = Math.max(1, Math.round(height * scale));
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // 采样在转正之前，宽高按原图的方向
+        options.inSampleSize = BitmapSizing.calculateInSampleSize(header.width, header.height,
+                transposed ? targetHeight : targetWidth, transposed ? targetWidth : targetHeight);
+        Bitmap decoded = BitmapFactory.decodeFile(source.getPath(), options);
+        if (decoded == null) throw new IOException("解码失败: " + source);
+
+        Bitmap result = null;
+        try {
+            result = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+            // JPEG没有透明通道，PNG的透明部分画在白底上
+            result.eraseColor(0xFFFFFFFF);
+            Matrix matrix = new Matrix();
+            Transformations.setOrientation(matrix, header.orientation, decoded.getWidth(), decoded.getHeight());
+            int decodedWidth = transposed ? decoded.getHeight() : decoded.getWidth();
+            matrix.postScale(targetWidth / (float) decodedWidth,
+                    targetHeight / (float) (transposed ? decoded.getWidth() : decoded.getHeight()));
+            new Canvas(result).drawBitmap(decoded, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+            decoded.recycle();
+            decoded = null;
+
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(target), 64 * 1024);
+            try {
+                if (!result.compress(Bitmap.CompressFormat.JPEG, mQuality, out)) {
+                    throw new IOException("压缩失败: " + source);
+                }
+            } finally {
+                out.close();
+            }
+            return target.length();
+        } finally {
+            if (decoded != null) decoded.recycle();
+            if (result != null) result.recycle();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapTranscoder[maxSize=" + mMaxSize + ", quality=" + mQuality + "]";
+    }
+}
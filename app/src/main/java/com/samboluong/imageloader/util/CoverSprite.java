@@ -0,0 +1,414 @@
+package com.samboluong.imageloader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.drawable.Drawable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文件夹封面拼图：所有封面按{@link SpriteLayout}画在几张RGB_565的页面上，按封面的路径查找
+ * <p>
+ * 在后台线程生成并保存到磁盘，下次启动直接读取；重新生成时路径没变的封面从旧的拼图复制，只解码新的封面。
+ * 页面存成无损的PNG，复制过来的封面和第一次解码时完全一样，重新生成多少次都不会越来越模糊。
+ * 生成之后不再修改，可以在UI线程直接使用。
+ */
+public class CoverSprite {
+
+    private static final int MAGIC = 0x43535052; // "CSPR"
+    private static final int VERSION = 2;
+    private static final String INDEX_FILE = "covers.idx";
+    /**
+     * 透明的PNG画到RGB_565上的底色
+     */
+    private static final int BACKGROUND_COLOR = Color.WHITE;
+
+    private final SpriteLayout mLayout;
+    /**
+     * 生成时的封面路径(按顺序)，用来判断是否需要重新生成
+     */
+    private final String[] mPaths;
+    /**
+     * 封面路径 -> 格子的序号，解码失败的不在里面
+     */
+    private final Map<String, Integer> mIndex;
+    private final Bitmap[] mPages;
+    private int mDecodedCount;
+    private int mCopiedCount;
+
+    private CoverSprite(SpriteLayout layout, String[] paths, Map<String, Integer> index, Bitmap[] pages) {
+        this.mLayout = layout;
+        this.mPaths = paths;
+        this.mIndex = index;
+        this.mPages = pages;
+    }
+
+    /**
+     * 生成拼图(后台线程)
+     *
+     * @param paths    封面路径，按这个顺序排列
+     * @param cellSize 封面边长
+     * @param previous 上一次的拼图，边长相同时复用其中已有的封面，可以为null
+     * @return
+     */
+    public static CoverSprite build(List<String> paths, int cellSize, CoverSprite previous) {
+        String[] keys = paths.toArray(new String[paths.size()]);
+        SpriteLayout layout = new SpriteLayout(keys.length, cellSize, SpriteLayout.DEFAULT_MAX_PAGE_SIZE);
+        Bitmap[] pages = new Bitmap[layout.getPageCount()];
+        Canvas[] canvases = new Canvas[pages.length];
+        for (int page = 0; page < pages.length; page++) {
+            pages[page] = Bitmap.createBitmap(layout.getPageWidth(page), layout.getPageHeight(page),
+                    Bitmap.Config.RGB_565);
+            pages[page].eraseColor(BACKGROUND_COLOR);
+            canvases[page] = new Canvas(pages[page]);
+        }
+        if (previous != null && previous.getCellSize() != cellSize) {
+            previous = null;
+        }
+
+        CoverSprite sprite = new CoverSprite(layout, keys, new HashMap<String, Integer>(), pages);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Rect src = new Rect();
+        Rect dst = new Rect();
+        for (int i = 0; i < keys.length; i++) {
+            String path = keys[i];
+            if (path == null || sprite.mIndex.containsKey(path)) continue;
+            Canvas canvas = canvases[layout.getPageOf(i)];
+            dst.set(layout.getLeft(i), layout.getTop(i), layout.getLeft(i) + cellSize, layout.getTop(i) + cellSize);
+            if (previous != null && previous.getCellBounds(path, src)) {
+                canvas.drawBitmap(previous.getPage(path), src, dst, null);
+                sprite.mCopiedCount++;
+            } else if (drawCover(path, canvas, dst, paint)) {
+                sprite.mDecodedCount++;
+            } else {
+                continue;
+            }
+            sprite.mIndex.put(path, i);
+        }
+        return sprite;
+    }
+
+    /**
+     * 按EXIF方向转正后居中裁剪，画到dst
+     *
+     * @return 不是图片或者解码失败时返回false
+     */
+    private static boolean drawCover(String path, Canvas canvas, Rect dst, Paint paint) {
+        ImageHeaderProber.Header header;
+        try {
+            header = ImageHeaderProber.probeFile(new File(path));
+        } catch (IOException e) {
+            return false;
+        }
+        if (header == null || !header.isImage() || !header.hasSize()) return false;
+
+        int size = dst.width();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // 正方形的格子，转正前后的采样率一样
+        options.inSampleSize = BitmapSizing.calculateInSampleSize(header.width, header.height, size, size);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (bitmap == null) return false;
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        Matrix matrix = new Matrix();
+        Transformations.setOrientation(matrix, header.orientation, width, height);
+        if (Transformations.isTransposed(header.orientation)) {
+            width = bitmap.getHeight();
+            height = bitmap.getWidth();
+        }
+        float scale = size / (float) Math.min(width, height);
+        matrix.postScale(scale, scale);
+        matrix.postTranslate(dst.left + (size - width * scale) / 2, dst.top + (size - height * scale) / 2);
+
+        canvas.save();
+        canvas.clipRect(dst);
+        canvas.drawBitmap(bitmap, matrix, paint);
+        canvas.restore();
+        bitmap.recycle();
+        return true;
+    }
+
+    /**
+     * 读取保存的拼图
+     *
+     * @param dir 保存的目录
+     * @return 没有保存过或者文件已损坏时返回null
+     */
+    public static CoverSprite load(File dir) {
+        File indexFile = new File(dir, INDEX_FILE);
+        if (!indexFile.exists()) return null;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long generation = in.readLong();
+            int cellSize = in.readInt();
+            String[] paths = new String[in.readInt()];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = in.readUTF();
+            }
+            Map<String, Integer> index = new HashMap<>();
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String path = in.readUTF();
+                index.put(path, in.readInt());
+            }
+
+            SpriteLayout layout = new SpriteLayout(paths.length, cellSize, SpriteLayout.DEFAULT_MAX_PAGE_SIZE);
+            Bitmap[] pages = new Bitmap[layout.getPageCount()];
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            // 页面本来就是RGB_565保存的，不抖动才能原样读回
+            options.inDither = false;
+            for (int page = 0; page < pages.length; page++) {
+                pages[page] = BitmapFactory.decodeFile(pageFile(dir, generation, page).getPath(), options);
+                if (pages[page] == null || pages[page].getWidth() != layout.getPageWidth(page)
+                        || pages[page].getHeight() != layout.getPageHeight(page)) {
+                    return null;
+                }
+            }
+            return new CoverSprite(layout, paths, index, pages);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 保存到dir：先写新的页面，再替换索引，最后删除旧的页面，中途被杀不会破坏上次保存的拼图
+     *
+     * @param dir
+     * @throws IOException
+     */
+    public void save(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        long generation = System.currentTimeMillis();
+        for (int page = 0; page < mPages.length; page++) {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(pageFile(dir, generation, page)));
+            try {
+                // PNG忽略质量参数
+                if (!mPages[page].compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                    throw new IOException("无法保存封面拼图");
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        File indexFile = new File(dir, INDEX_FILE);
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(mLayout.getCellSize());
+            out.writeInt(mPaths.length);
+            for (String path : mPaths) {
+                out.writeUTF(path == null ? "" : path);
+            }
+            out.writeInt(mIndex.size());
+            for (Map.Entry<String, Integer> entry : mIndex.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(indexFile)) {
+            tmp.delete();
+            throw new IOException("无法保存封面拼图: " + indexFile);
+        }
+
+        String prefix = generation + "_";
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.getName().equals(INDEX_FILE) && !file.getName().startsWith(prefix)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static File pageFile(File dir, long generation, int page) {
+        return new File(dir, generation + "_" + page + ".png");
+    }
+
+    /**
+     * 是否就是用这些封面路径、这个边长生成的
+     */
+    public boolean matches(List<String> paths, int cellSize) {
+        return mLayout.getCellSize() == cellSize && Arrays.asList(mPaths).equals(paths);
+    }
+
+    public boolean contains(String path) {
+        return mIndex.containsKey(path);
+    }
+
+    /**
+     * 显示一个封面的Drawable，共用拼图的页面，不分配新的Bitmap
+     *
+     * @param path         封面路径
+     * @param cornerRadius 圆角半径(像素)
+     * @return 拼图中没有这个封面时返回null
+     */
+    public Drawable getCover(String path, float cornerRadius) {
+        Integer index = mIndex.get(path);
+        if (index == null) return null;
+        return new CellDrawable(mPages[mLayout.getPageOf(index)], mLayout.getLeft(index), mLayout.getTop(index),
+                mLayout.getCellSize(), cornerRadius);
+    }
+
+    private boolean getCellBounds(String path, Rect out) {
+        Integer index = mIndex.get(path);
+        if (index == null) return false;
+        int left = mLayout.getLeft(index);
+        int top = mLayout.getTop(index);
+        out.set(left, top, left + mLayout.getCellSize(), top + mLayout.getCellSize());
+        return true;
+    }
+
+    private Bitmap getPage(String path) {
+        return mPages[mLayout.getPageOf(mIndex.get(path))];
+    }
+
+    public int getCellSize() {
+        return mLayout.getCellSize();
+    }
+
+    public int getCoverCount() {
+        return mIndex.size();
+    }
+
+    /**
+     * 生成时解码的封面数，从磁盘读取的拼图为0
+     */
+    public int getDecodedCount() {
+        return mDecodedCount;
+    }
+
+    /**
+     * 生成时从上一次的拼图复制的封面数
+     */
+    public int getCopiedCount() {
+        return mCopiedCount;
+    }
+
+    public long getByteCount() {
+        long bytes = 0;
+        for (Bitmap page : mPages) {
+            bytes += page.getAllocationByteCount();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "CoverSprite[covers=" + mIndex.size() + "/" + mPaths.length + ", cellSize=" + mLayout.getCellSize()
+                + ", pages=" + mPages.length + ", " + getByteCount() / 1024 + "KB, decoded=" + mDecodedCount
+                + ", copied=" + mCopiedCount + "]";
+    }
+
+    /**
+     * 画拼图中的一格，缩放到Drawable的大小并加上圆角
+     */
+    private static class CellDrawable extends Drawable {
+        private final int mLeft;
+        private final int mTop;
+        private final int mSize;
+        private final float mRadius;
+        private final BitmapShader mShader;
+        private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        private final Matrix mMatrix = new Matrix();
+        private final RectF mRect = new RectF();
+
+        CellDrawable(Bitmap page, int left, int top, int size, float radius) {
+            this.mLeft = left;
+            this.mTop = top;
+            this.mSize = size;
+            this.mRadius = radius;
+            this.mShader = new BitmapShader(page, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            mPaint.setShader(mShader);
+        }
+
+        @Override
+        protected void onBoundsChange(Rect bounds) {
+            mMatrix.setTranslate(-mLeft, -mTop);
+            mMatrix.postScale(bounds.width() / (float) mSize, bounds.height() / (float) mSize);
+            mMatrix.postTranslate(bounds.left, bounds.top);
+            mShader.setLocalMatrix(mMatrix);
+            mRect.set(bounds);
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            if (mRadius > 0) {
+                canvas.drawRoundRect(mRect, mRadius, mRadius, mPaint);
+            } else {
+                canvas.drawRect(mRect, mPaint);
+            }
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            mPaint.setAlpha(alpha);
+            invalidateSelf();
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter colorFilter) {
+            mPaint.setColorFilter(colorFilter);
+            invalidateSelf();
+        }
+
+        @Override
+        public int getOpacity() {
+            return mRadius > 0 || mPaint.getAlpha() < 255 ? PixelFormat.TRANSLUCENT : PixelFormat.OPAQUE;
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return mSize;
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return mSize;
+        }
+    }
+}
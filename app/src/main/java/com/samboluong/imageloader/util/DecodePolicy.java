@@ -0,0 +1,62 @@
+package com.samboluong.imageloader.util;
+
+import android.graphics.Bitmap;
+
+/**
+ * 解码策略：根据用途和图片类型选择Bitmap.Config
+ * <p>
+ * 网格里的缩略图绝大多数是不透明的JPEG，用RGB_565每个像素只占2个字节，
+ * 同样的缓存可以多放一倍；PNG可能有透明通道，仍然用ARGB_8888。
+ */
+public enum DecodePolicy {
+
+    /**
+     * 网格缩略图：JPEG用RGB_565，其他用ARGB_8888
+     */
+    THUMBNAIL {
+        @Override
+        public Bitmap.Config getConfig(String mimeType) {
+            return isOpaqueType(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        }
+    },
+
+    /**
+     * 全屏查看：始终使用ARGB_8888，避免RGB_565在大图上出现色带
+     */
+    FULL_SCREEN {
+        @Override
+        public Bitmap.Config getConfig(String mimeType) {
+            return Bitmap.Config.ARGB_8888;
+        }
+    };
+
+    /**
+     * @param mimeType 图片类型，例如BitmapFactory.Options.outMimeType，未知时为null
+     * @return
+     */
+    public abstract Bitmap.Config getConfig(String mimeType);
+
+    /**
+     * 在知道实际类型之前，根据文件扩展名推测的Config，用于生成缓存key
+     *
+     * @param path
+     * @return
+     */
+    public Bitmap.Config guessConfig(String path) {
+        return getConfig(guessMimeType(path));
+    }
+
+    private static boolean isOpaqueType(String mimeType) {
+        return "image/jpeg".equals(mimeType);
+    }
+
+    static String guessMimeType(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0) return null;
+        String ext = path.substring(dot + 1).toLowerCase();
+        if (ext.equals("jpg") || ext.equals("jpeg")) return "image/jpeg";
+        if (ext.equals("png")) return "image/png";
+        if (ext.equals("webp")) return "image/webp";
+        return null;
+    }
+}
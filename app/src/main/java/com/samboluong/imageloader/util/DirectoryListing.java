@@ -0,0 +1,338 @@
+package com.samboluong.imageloader.util;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * 在后台列出一个文件夹中的图片，分页通知显示(纯Java)
+ * <p>
+ * 只保存文件名：所有文件名连续存放在一个char[]里，用int[]记录每个文件名的结尾，
+ * 文件夹路径只存一份；几万个文件也只有两个数组，不会为每个文件保留一个String。
+ * <p>
+ * 只追加不修改：工作线程先写数组再写volatile的mCount，其他线程读到的mCount以内的内容都是完整的。
+ * Android 8.0之前没有java.nio.file，File.list()一次返回整个目录，所以放在后台线程执行，
+ * 过滤和保存时按页发布，第一页很小，尽快显示第一屏。
+ */
+public class DirectoryListing implements Runnable {
+
+    /**
+     * 第一页，大约一屏
+     */
+    public static final int FIRST_PAGE_SIZE = 64;
+    public static final int PAGE_SIZE = 2048;
+
+    private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png"};
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public interface Listener {
+        /**
+         * 又列出了一页，在callbackExecutor中调用
+         *
+         * @param listing
+         * @param count    已经列出的图片数
+         * @param finished 是否已经列完
+         */
+        void onPage(DirectoryListing listing, int count, boolean finished);
+    }
+
+    private final File mDir;
+    private final String mDirPath;
+    private final char[] mPrefix;
+    private final Executor mCallbackExecutor;
+    private final Listener mListener;
+
+    private volatile char[] mChars = new char[4096];
+    private volatile int[] mEnds = new int[FIRST_PAGE_SIZE];
+    private volatile int mCount;
+    private volatile boolean mFinished;
+    private volatile boolean mCancelled;
+    /**
+     * 列完之后才有值，见{@link #getFingerprint()}
+     */
+    private volatile long mFingerprint;
+    /**
+     * 只在工作线程访问
+     */
+    private int mCharCount;
+    private long mNameHash = FNV_OFFSET;
+    /**
+     * 拼接完整路径用，getPath时加锁
+     */
+    private char[] mPathBuffer = new char[256];
+
+    /**
+     * @param dir              文件夹
+     * @param callbackExecutor 执行{@link Listener#onPage}，一般是UI线程
+     * @param listener
+     */
+    public DirectoryListing(File dir, Executor callbackExecutor, Listener listener) {
+        this.mDir = dir;
+        this.mDirPath = dir.getAbsolutePath();
+        this.mPrefix = (mDirPath + "/").toCharArray();
+        this.mCallbackExecutor = callbackExecutor;
+        this.mListener = listener;
+    }
+
+    /**
+     * 列出文件夹(后台线程)，被取消后不再通知
+     */
+    @Override
+    public void run() {
+        String[] names = mCancelled ? null : mDir.list();
+        int nextPage = FIRST_PAGE_SIZE;
+        if (names != null) {
+            for (int i = 0; i < names.length && !mCancelled; i++) {
+                String name = names[i];
+                // 列完之后就不再需要这个String了
+                names[i] = null;
+                if (!isImageName(name)) continue;
+                append(name);
+                if (mCount >= nextPage) {
+                    publish(mCount, false);
+                    nextPage = mCount + PAGE_SIZE;
+                }
+            }
+        }
+        if (mCancelled) return;
+        mFingerprint = mixFingerprint(mNameHash, mCount);
+        mFinished = true;
+        publish(mCount, true);
+    }
+
+    private void append(String name) {
+        int length = name.length();
+        char[] chars = mChars;
+        if (mCharCount + length > chars.length) {
+            char[] grown = new char[Math.max(chars.length * 2, mCharCount + length)];
+            System.arraycopy(chars, 0, grown, 0, mCharCount);
+            mChars = chars = grown;
+        }
+        name.getChars(0, length, chars, mCharCount);
+        // 按顺序累计所有文件名的FNV-1a，文件名之间用0分隔
+        long hash = mNameHash;
+        for (int i = mCharCount; i < mCharCount + length; i++) {
+            hash = (hash ^ chars[i]) * FNV_PRIME;
+        }
+        mNameHash = hash * FNV_PRIME;
+        mCharCount += length;
+
+        int count = mCount;
+        int[] ends = mEnds;
+        if (count == ends.length) {
+            int[] grown = new int[ends.length * 2];
+            System.arraycopy(ends, 0, grown, 0, count);
+            mEnds = ends = grown;
+        }
+        ends[count] = mCharCount;
+        mCount = count + 1;
+    }
+
+    private void publish(final int count, final boolean finished) {
+        if (mListener == null) return;
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) mListener.onPage(DirectoryListing.this, count, finished);
+            }
+        });
+    }
+
+    /**
+     * 停止列出，之后不会再回调
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * 已经列出的图片数
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    public String getDirPath() {
+        return mDirPath;
+    }
+
+    /**
+     * 文件名和顺序的指纹：下标只在同一次列出中有意义，
+     * 两次列出的指纹相同才说明每个下标对应的还是同一个文件
+     *
+     * @return 列完之前为0，列完之后不为0
+     */
+    public long getFingerprint() {
+        return mFingerprint;
+    }
+
+    /**
+     * 前count个文件名和顺序的指纹，还没列完时也能计算；
+     * count等于列完后的图片数时和{@link #getFingerprint()}相同
+     *
+     * @param count 不大于{@link #getCount()}
+     * @return 不为0
+     */
+    public long getPrefixFingerprint(int count) {
+        if (count < 0 || count > mCount) {
+            throw new IndexOutOfBoundsException("count: " + count + ", count: " + mCount);
+        }
+        int[] ends = mEnds;
+        char[] chars = mChars;
+        long hash = FNV_OFFSET;
+        int start = 0;
+        for (int position = 0; position < count; position++) {
+            for (int i = start; i < ends[position]; i++) {
+                hash = (hash ^ chars[i]) * FNV_PRIME;
+            }
+            hash *= FNV_PRIME;
+            start = ends[position];
+        }
+        return mixFingerprint(hash, count);
+    }
+
+    private static long mixFingerprint(long nameHash, int count) {
+        long fingerprint = nameHash ^ (count * 0x9E3779B97F4A7C15L);
+        return fingerprint != 0 ? fingerprint : 1;
+    }
+
+    /**
+     * 文件名
+     *
+     * @param position 小于{@link #getCount()}
+     */
+    public String getName(int position) {
+        checkPosition(position);
+        int[] ends = mEnds;
+        int start = position == 0 ? 0 : ends[position - 1];
+        return new String(mChars, start, ends[position] - start);
+    }
+
+    /**
+     * 完整路径，只分配返回的String
+     *
+     * @param position 小于{@link #getCount()}
+     */
+    public String getPath(int position) {
+        checkPosition(position);
+        int[] ends = mEnds;
+        char[] chars = mChars;
+        int start = position == 0 ? 0 : ends[position - 1];
+        int nameLength = ends[position] - start;
+        int length = mPrefix.length + nameLength;
+        synchronized (this) {
+            if (mPathBuffer.length < length) {
+                mPathBuffer = new char[Math.max(length, mPathBuffer.length * 2)];
+            }
+            System.arraycopy(mPrefix, 0, mPathBuffer, 0, mPrefix.length);
+            System.arraycopy(chars, start, mPathBuffer, mPrefix.length, nameLength);
+            return new String(mPathBuffer, 0, length);
+        }
+    }
+
+    /**
+     * 按文件名比较(不区分大小写)，直接比较char，不创建String
+     */
+    public int compareNames(int a, int b) {
+        int[] ends = mEnds;
+        char[] chars = mChars;
+        int i = a == 0 ? 0 : ends[a - 1];
+        int j = b == 0 ? 0 : ends[b - 1];
+        int endA = ends[a];
+        int endB = ends[b];
+        while (i < endA && j < endB) {
+            char x = Character.toLowerCase(chars[i++]);
+            char y = Character.toLowerCase(chars[j++]);
+            if (x != y) return x - y;
+        }
+        return (endA - i) - (endB - j);
+    }
+
+    /**
+     * 文件名和name[start, end)比较，规则同{@link #compareNames}，不创建String
+     */
+    public int compareName(int position, String name, int start, int end) {
+        int[] ends = mEnds;
+        char[] chars = mChars;
+        int i = position == 0 ? 0 : ends[position - 1];
+        int endA = ends[position];
+        int j = start;
+        while (i < endA && j < end) {
+            char x = Character.toLowerCase(chars[i++]);
+            char y = Character.toLowerCase(name.charAt(j++));
+            if (x != y) return x - y;
+        }
+        return (endA - i) - (end - j);
+    }
+
+    /**
+     * 文件名是否和name[start, end)完全相同(区分大小写)
+     */
+    public boolean nameEquals(int position, String name, int start, int end) {
+        int[] ends = mEnds;
+        char[] chars = mChars;
+        int i = position == 0 ? 0 : ends[position - 1];
+        if (ends[position] - i != end - start) return false;
+        for (int j = start; j < end; j++) {
+            if (chars[i++] != name.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 文件名前4个字符(小写)组成的key，key不同时顺序和{@link #compareNames}一致
+     */
+    public long getNameKey(int position) {
+        int[] ends = mEnds;
+        char[] chars = mChars;
+        int start = position == 0 ? 0 : ends[position - 1];
+        long key = 0;
+        for (int i = 0; i < 4; i++) {
+            // 文件名结束后补0，短的排在前面
+            char c = start + i < ends[position] ? Character.toLowerCase(chars[start + i]) : 0;
+            key = (key << 16) | c;
+        }
+        // 最高位是符号位，翻转后按有符号数比较仍是无符号的顺序
+        return key ^ Long.MIN_VALUE;
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("position: " + position + ", count: " + mCount);
+        }
+    }
+
+    /**
+     * 文件名和索引占用的内存(字节)
+     */
+    public long getByteCount() {
+        return mChars.length * 2L + mEnds.length * 4L;
+    }
+
+    /**
+     * 扩展名是jpg、jpeg或png(不区分大小写)
+     */
+    public static boolean isImageName(String name) {
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (name.regionMatches(true, name.length() - extension.length(), extension, 0, extension.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "DirectoryListing[" + mDirPath + ", count=" + mCount + (mFinished ? "" : "...")
+                + ", " + getByteCount() / 1024 + "KB]";
+    }
+}
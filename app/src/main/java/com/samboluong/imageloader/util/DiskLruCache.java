@@ -0,0 +1,499 @@
+package com.samboluong.imageloader.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 磁盘缓存(LRU，带日志)
+ * <p>
+ * 日志(journal)每行记录一次操作：
+ * <pre>
+ *     DIRTY key        开始写入
+ *     CLEAN key size   写入完成
+ *     REMOVE key       删除
+ *     READ key         访问(用于恢复LRU顺序)
+ * </pre>
+ * 只有出现CLEAN的条目才算有效，进程在写入中途被杀掉时，
+ * 下次打开会把只有DIRTY的残留文件删除，保证不会读到写了一半的数据。
+ * 日志最后一行只写了一半时，打开时用读到的条目重写日志，后面的记录不会接在半行后面；
+ * 目录中日志里没有的文件也会删除，不会在maxSize之外越积越多。
+ */
+public class DiskLruCache implements Closeable {
+
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_FILE_TMP = "journal.tmp";
+    static final String MAGIC = "samboluong.DiskLruCache";
+    static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 冗余操作超过这个数就重建日志
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File mDirectory;
+    private final File mJournalFile;
+    private final File mJournalFileTmp;
+    private final long mMaxSize;
+    private long mSize;
+
+    /**
+     * accessOrder为true，迭代顺序即LRU顺序
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+    private Writer mJournalWriter;
+    private int mRedundantOpCount;
+
+    /**
+     * 异步写回线程(单线程，保证同一个key的写入顺序)
+     */
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor();
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+    private final AtomicInteger mWriteCount = new AtomicInteger();
+
+    private DiskLruCache(File directory, long maxSize) {
+        this.mDirectory = directory;
+        this.mMaxSize = maxSize;
+        this.mJournalFile = new File(directory, JOURNAL_FILE);
+        this.mJournalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+    }
+
+    /**
+     * 打开(或创建)缓存目录
+     *
+     * @param directory
+     * @param maxSize   最大字节数
+     * @return
+     * @throws IOException
+     */
+    public static DiskLruCache open(File directory, long maxSize) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建缓存目录: " + directory);
+        }
+
+        DiskLruCache cache = new DiskLruCache(directory, maxSize);
+        if (cache.mJournalFile.exists()) {
+            try {
+                boolean complete = cache.readJournal();
+                cache.processJournal();
+                if (complete) {
+                    cache.mJournalWriter = new BufferedWriter(
+                            new OutputStreamWriter(new FileOutputStream(cache.mJournalFile, true), UTF_8));
+                } else {
+                    // 接着追加会和写了一半的行连在一起，之后每次打开都读不到后面的记录
+                    cache.rebuildJournal();
+                }
+                return cache;
+            } catch (IOException e) {
+                // 日志损坏，清空重建
+                cache.deleteContents();
+            }
+        }
+
+        cache.rebuildJournal();
+        return cache;
+    }
+
+    /**
+     * 根据任意字符串生成可作为文件名的key
+     *
+     * @param key
+     * @return
+     */
+    public static String hashKeyForDisk(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(key.getBytes(UTF_8));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                String hex = Integer.toHexString(0xFF & b);
+                if (hex.length() == 1) sb.append('0');
+                sb.append(hex);
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    /**
+     * @return 是否完整读完：每一行都能解析，并且以换行结尾
+     */
+    private boolean readJournal() throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(mJournalFile), UTF_8));
+        try {
+            String magic = reader.readLine();
+            String version = reader.readLine();
+            if (!MAGIC.equals(magic) || !VERSION.equals(version)) {
+                throw new IOException("日志头不正确: [" + magic + ", " + version + "]");
+            }
+
+            int lineCount = 0;
+            boolean complete = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // 最后一行可能因为进程被杀只写了一半，遇到无法解析的行就停止
+                if (!readJournalLine(line)) {
+                    complete = false;
+                    break;
+                }
+                lineCount++;
+            }
+            mRedundantOpCount = lineCount - mEntries.size();
+            return complete && endsWithNewline(mJournalFile);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length == 0) return false;
+            raf.seek(length - 1);
+            return raf.read() == '\n';
+        } finally {
+            raf.close();
+        }
+    }
+
+    private boolean readJournalLine(String line) {
+        String[] parts = line.split(" ");
+        if (parts.length < 2) return false;
+
+        String op = parts[0];
+        String key = parts[1];
+        if (CLEAN.equals(op) && parts.length == 3) {
+            try {
+                mEntries.put(key, Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        } else if (DIRTY.equals(op)) {
+            // 先标记为-1，后面有CLEAN会覆盖
+            mEntries.put(key, -1L);
+        } else if (REMOVE.equals(op)) {
+            mEntries.remove(key);
+        } else if (READ.equals(op)) {
+            mEntries.get(key);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 计算总大小，删除没有写完(只有DIRTY)的条目、临时文件和日志里没有的文件
+     */
+    private void processJournal() {
+        deleteIfExists(mJournalFileTmp);
+        for (Iterator<Map.Entry<String, Long>> i = mEntries.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String, Long> entry = i.next();
+            File file = getEntryFile(entry.getKey());
+            if (entry.getValue() < 0 || file.length() != entry.getValue()) {
+                deleteIfExists(file);
+                i.remove();
+            } else {
+                mSize += entry.getValue();
+            }
+        }
+        // 日志损坏后丢掉的记录对应的文件不会再被跟踪，也不计入大小，直接删除
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!file.isFile() || name.equals(JOURNAL_FILE)) continue;
+                if (!mEntries.containsKey(name)) deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * 用当前内存中的条目重写日志，先写临时文件再改名，避免写到一半时丢失整个日志
+     */
+    private synchronized void rebuildJournal() throws IOException {
+        if (mJournalWriter != null) {
+            mJournalWriter.close();
+        }
+
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(mJournalFileTmp), UTF_8));
+        try {
+            writer.write(MAGIC + "\n");
+            writer.write(VERSION + "\n");
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (!mJournalFileTmp.renameTo(mJournalFile)) {
+            throw new IOException("无法重命名日志文件");
+        }
+        mJournalWriter = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(mJournalFile, true), UTF_8));
+        mRedundantOpCount = 0;
+    }
+
+    /**
+     * 读取缓存内容
+     *
+     * @param key 由{@link #hashKeyForDisk(String)}生成
+     * @return 未命中返回null
+     */
+    public byte[] get(String key) {
+        File file;
+        synchronized (this) {
+            if (mJournalWriter == null || mEntries.get(key) == null) {
+                mMissCount.incrementAndGet();
+                return null;
+            }
+            file = getEntryFile(key);
+            appendJournal(READ + ' ' + key + '\n');
+        }
+
+        byte[] data = readFully(file);
+        if (data == null) {
+            // 文件被外部删除了
+            mMissCount.incrementAndGet();
+            remove(key);
+            return null;
+        }
+        mHitCount.incrementAndGet();
+        return data;
+    }
+
+    /**
+     * 同步写入
+     *
+     * @param key
+     * @param data
+     * @throws IOException
+     */
+    public void put(String key, byte[] data) throws IOException {
+        synchronized (this) {
+            if (mJournalWriter == null) return;
+            appendJournal(DIRTY + ' ' + key + '\n');
+            mJournalWriter.flush();
+        }
+
+        // 写文件不持有锁，避免阻塞读取
+        File tmp = getTmpFile(key);
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        synchronized (this) {
+            if (mJournalWriter == null) {
+                deleteIfExists(tmp);
+                return;
+            }
+            File file = getEntryFile(key);
+            if (!tmp.renameTo(file)) {
+                deleteIfExists(tmp);
+                appendJournal(REMOVE + ' ' + key + '\n');
+                mEntries.remove(key);
+                return;
+            }
+            Long old = mEntries.put(key, (long) data.length);
+            if (old != null && old > 0) {
+                mSize -= old;
+                mRedundantOpCount++;
+            }
+            mSize += data.length;
+            appendJournal(CLEAN + ' ' + key + ' ' + data.length + '\n');
+            mJournalWriter.flush();
+            mWriteCount.incrementAndGet();
+
+            trimToSize();
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * 异步写回，失败时直接丢弃(缓存可以再生成)
+     *
+     * @param key
+     * @param data
+     */
+    public void putAsync(final String key, final byte[] data) {
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    put(key, data);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    public synchronized boolean remove(String key) {
+        Long size = mEntries.remove(key);
+        if (size == null) return false;
+
+        deleteIfExists(getEntryFile(key));
+        if (size > 0) mSize -= size;
+        appendJournal(REMOVE + ' ' + key + '\n');
+        compactIfNeeded();
+        return true;
+    }
+
+    private void trimToSize() {
+        while (mSize > mMaxSize && !mEntries.isEmpty()) {
+            // 迭代的第一个就是最久未使用的
+            String eldest = mEntries.keySet().iterator().next();
+            remove(eldest);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && mRedundantOpCount >= mEntries.size()) {
+            try {
+                rebuildJournal();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void appendJournal(String line) {
+        mRedundantOpCount++;
+        try {
+            mJournalWriter.write(line);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    public int getWriteCount() {
+        return mWriteCount.get();
+    }
+
+    public synchronized void flush() throws IOException {
+        if (mJournalWriter != null) {
+            mJournalWriter.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriteExecutor.shutdown();
+        synchronized (this) {
+            if (mJournalWriter == null) return;
+            mJournalWriter.close();
+            mJournalWriter = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DiskLruCache[size=" + mSize + "/" + mMaxSize
+                + ", hits=" + mHitCount + ", misses=" + mMissCount + "]";
+    }
+
+    private File getEntryFile(String key) {
+        return new File(mDirectory, key);
+    }
+
+    private File getTmpFile(String key) {
+        return new File(mDirectory, key + ".tmp");
+    }
+
+    private void deleteContents() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            deleteIfExists(file);
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static byte[] readFully(File file) {
+        long length = file.length();
+        if (length <= 0 || length > Integer.MAX_VALUE) return null;
+
+        byte[] data = new byte[(int) length];
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) return null;
+                offset += read;
+            }
+            return data;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
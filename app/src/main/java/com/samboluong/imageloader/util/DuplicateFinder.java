@@ -0,0 +1,237 @@
+package com.samboluong.imageloader.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 按感知哈希的汉明距离把相似的图片分组(纯Java)
+ * <p>
+ * 先按哈希排序，哈希完全相同的直接合并，只留一个代表；再对代表做多索引哈希(multi-index hashing)：
+ * 64位分成4段16位，距离不超过d的两个哈希至少有一段的距离不超过d/4(抽屉原理)，
+ * 所以每段按值分桶，只需要查和自己这一段相差不超过d/4位的几个桶，再算完整的距离。
+ * 哈希分布均匀时十万张图片每张只比较几十个候选，不用两两比较；相似关系用并查集合并成组。
+ * 所有结构都是int[]/long[]。
+ */
+public final class DuplicateFinder {
+
+    /**
+     * dHash距离不超过这个值算作相似(连拍、重新压缩、缩放)
+     */
+    public static final int DEFAULT_MAX_DISTANCE = 6;
+
+    private static final int CHUNK_COUNT = 4;
+    private static final int CHUNK_BITS = 64 / CHUNK_COUNT;
+    private static final int BUCKET_COUNT = 1 << CHUNK_BITS;
+
+    private DuplicateFinder() {
+    }
+
+    /**
+     * 分组结果，每组至少两张，组内按下标升序，各组按第一张的下标排序
+     */
+    public static class Groups {
+        private final int[] mOffsets;
+        private final int[] mMembers;
+
+        Groups(int[] offsets, int[] members) {
+            this.mOffsets = offsets;
+            this.mMembers = members;
+        }
+
+        public int getGroupCount() {
+            return mOffsets.length - 1;
+        }
+
+        public int getGroupSize(int group) {
+            return mOffsets[group + 1] - mOffsets[group];
+        }
+
+        /**
+         * @return 在传入的哈希数组中的下标
+         */
+        public int getMember(int group, int i) {
+            return mMembers[mOffsets[group] + i];
+        }
+
+        /**
+         * 所有组的图片总数
+         */
+        public int getMemberCount() {
+            return mMembers.length;
+        }
+
+        @Override
+        public String toString() {
+            return "Groups[" + getGroupCount() + " groups, " + getMemberCount() + " images]";
+        }
+    }
+
+    /**
+     * @param hashes      每张图片的哈希
+     * @param maxDistance 汉明距离不超过这个值的算作相似，0表示只找完全相同的
+     * @param pool        排序用，为null时在当前线程排序
+     */
+    public static Groups find(final long[] hashes, int maxDistance, ForkJoinPool pool) {
+        int n = hashes.length;
+        UnionFind sets = new UnionFind(n);
+
+        // 相同的哈希排在一起，只留第一个作为代表
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        ParallelMergeSort.sort(order, new ParallelMergeSort.IndexComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return Long.compare(hashes[a], hashes[b]);
+            }
+        }, pool);
+        int[] representatives = new int[n];
+        int uniqueCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && hashes[order[i]] == hashes[order[i - 1]]) {
+                sets.union(representatives[uniqueCount - 1], order[i]);
+            } else {
+                representatives[uniqueCount++] = order[i];
+            }
+        }
+
+        if (maxDistance > 0 && uniqueCount > 1) {
+            long[] unique = new long[uniqueCount];
+            for (int i = 0; i < uniqueCount; i++) unique[i] = hashes[representatives[i]];
+            int[] masks = masksWithin(Math.min(maxDistance, 64) / CHUNK_COUNT);
+            for (int chunk = 0; chunk < CHUNK_COUNT; chunk++) {
+                joinByChunk(unique, representatives, chunk, masks, maxDistance, sets);
+            }
+        }
+        return collect(sets, n);
+    }
+
+    /**
+     * 按第chunk段分桶，每个哈希查自己这段异或masks的桶
+     */
+    private static void joinByChunk(long[] unique, int[] representatives, int chunk, int[] masks,
+                                    int maxDistance, UnionFind sets) {
+        int n = unique.length;
+        int shift = chunk * CHUNK_BITS;
+        // 计数排序：offsets[v]到offsets[v + 1]是这段等于v的哈希
+        int[] offsets = new int[BUCKET_COUNT + 1];
+        for (long hash : unique) {
+            offsets[chunkOf(hash, shift) + 1]++;
+        }
+        for (int v = 0; v < BUCKET_COUNT; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] next = new int[BUCKET_COUNT];
+        System.arraycopy(offsets, 0, next, 0, BUCKET_COUNT);
+        int[] bucket = new int[n];
+        for (int i = 0; i < n; i++) {
+            bucket[next[chunkOf(unique[i], shift)]++] = i;
+        }
+
+        for (int i = 0; i < n; i++) {
+            long hash = unique[i];
+            int value = chunkOf(hash, shift);
+            for (int mask : masks) {
+                int v = value ^ mask;
+                for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+                    int j = bucket[k];
+                    // 每对只比较一次
+                    if (j <= i) continue;
+                    if (Long.bitCount(hash ^ unique[j]) <= maxDistance) {
+                        sets.union(representatives[i], representatives[j]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int chunkOf(long hash, int shift) {
+        return (int) (hash >>> shift) & (BUCKET_COUNT - 1);
+    }
+
+    /**
+     * 16位中1的个数不超过radius的所有值，0在最前面
+     */
+    static int[] masksWithin(int radius) {
+        int count = 0;
+        for (int v = 0; v < BUCKET_COUNT; v++) {
+            if (Integer.bitCount(v) <= radius) count++;
+        }
+        int[] masks = new int[count];
+        int k = 0;
+        for (int v = 0; v < BUCKET_COUNT; v++) {
+            if (Integer.bitCount(v) <= radius) masks[k++] = v;
+        }
+        return masks;
+    }
+
+    private static Groups collect(UnionFind sets, int n) {
+        // 按第一张的下标给组编号
+        int[] groupOfRoot = new int[n];
+        int groupCount = 0;
+        int memberCount = 0;
+        for (int i = 0; i < n; i++) {
+            int root = sets.find(i);
+            if (sets.sizeOf(root) < 2) continue;
+            if (groupOfRoot[root] == 0) groupOfRoot[root] = ++groupCount;
+            memberCount++;
+        }
+
+        int[] offsets = new int[groupCount + 1];
+        for (int i = 0; i < n; i++) {
+            int root = sets.find(i);
+            if (groupOfRoot[root] != 0) offsets[groupOfRoot[root]]++;
+        }
+        for (int g = 0; g < groupCount; g++) {
+            offsets[g + 1] += offsets[g];
+        }
+        int[] next = new int[groupCount];
+        System.arraycopy(offsets, 0, next, 0, groupCount);
+        int[] members = new int[memberCount];
+        for (int i = 0; i < n; i++) {
+            int group = groupOfRoot[sets.find(i)] - 1;
+            if (group >= 0) members[next[group]++] = i;
+        }
+        return new Groups(offsets, members);
+    }
+
+    /**
+     * 并查集：按大小合并，查找时路径减半
+     */
+    private static class UnionFind {
+        private final int[] mParent;
+        private final int[] mSize;
+
+        UnionFind(int n) {
+            mParent = new int[n];
+            mSize = new int[n];
+            for (int i = 0; i < n; i++) {
+                mParent[i] = i;
+                mSize[i] = 1;
+            }
+        }
+
+        int find(int x) {
+            while (mParent[x] != x) {
+                mParent[x] = mParent[mParent[x]];
+                x = mParent[x];
+            }
+            return x;
+        }
+
+        void union(int a, int b) {
+            a = find(a);
+            b = find(b);
+            if (a == b) return;
+            if (mSize[a] < mSize[b]) {
+                int t = a;
+                a = b;
+                b = t;
+            }
+            mParent[b] = a;
+            mSize[a] += mSize[b];
+        }
+
+        int sizeOf(int root) {
+            return mSize[root];
+        }
+    }
+}
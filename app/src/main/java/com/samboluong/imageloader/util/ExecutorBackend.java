@@ -0,0 +1,97 @@
+package com.samboluong.imageloader.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TaskScheduler的工作线程来源
+ * <p>
+ * 并发数始终由TaskScheduler限制，这里只决定工作者跑在什么线程上：
+ * 固定线程池、work-stealing的ForkJoinPool，或者JDK 21以上的虚拟线程(通过反射创建，
+ * Android和旧的JDK上退回固定线程池)。
+ */
+public enum ExecutorBackend {
+
+    /**
+     * 固定大小的线程池(默认)
+     */
+    FIXED_POOL {
+        @Override
+        public ExecutorService create(int workerCount) {
+            final AtomicInteger index = new AtomicInteger();
+            return Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ImageLoader-worker-" + index.incrementAndGet());
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            });
+        }
+    },
+
+    /**
+     * ForkJoinPool(asyncMode，任务按提交顺序执行)
+     */
+    FORK_JOIN {
+        @Override
+        public ExecutorService create(int workerCount) {
+            return new ForkJoinPool(workerCount, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("ImageLoader-fj-" + thread.getPoolIndex());
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            }, null, true);
+        }
+    },
+
+    /**
+     * 每个工作者一个虚拟线程，阻塞在文件读取上不占用平台线程
+     */
+    VIRTUAL_THREADS {
+        @Override
+        public ExecutorService create(int workerCount) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            return executor != null ? executor : FIXED_POOL.create(workerCount);
+        }
+    };
+
+    /**
+     * @param workerCount 最大并发数
+     * @return 新的线程池，由TaskScheduler.shutdown()关闭
+     */
+    public abstract ExecutorService create(int workerCount);
+
+    /**
+     * @return 当前运行环境是否支持虚拟线程(JDK 21+)
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return getVirtualThreadFactoryMethod() != null;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        Method method = getVirtualThreadFactoryMethod();
+        if (method == null) return null;
+        try {
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Method getVirtualThreadFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
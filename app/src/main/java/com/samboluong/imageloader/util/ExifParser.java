@@ -0,0 +1,338 @@
+package com.samboluong.imageloader.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * JPEG的EXIF解析(纯Java)
+ * <p>
+ * 只读取SOS之前的几个段，找到APP1(Exif)后解析：
+ * IFD0的方向(Orientation)、Exif子IFD中的原图尺寸、IFD1中内嵌缩略图的位置。
+ * 大多数相机照片都带一张160像素左右的缩略图，读几KB就能拿到，不用解码整张图片。
+ */
+public final class ExifParser {
+
+    public static final int ORIENTATION_NORMAL = 1;
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_PIXEL_X = 0xA002;
+    private static final int TAG_PIXEL_Y = 0xA003;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    /**
+     * 解析结果
+     */
+    public static class ExifInfo {
+        /**
+         * EXIF方向，1~8，默认1
+         */
+        public int orientation = ORIENTATION_NORMAL;
+        /**
+         * Exif中记录的原图宽高，没有时为0
+         */
+        public int imageWidth;
+        public int imageHeight;
+        /**
+         * 内嵌缩略图(JPEG)所在的数组、偏移和长度，没有缩略图时data为null
+         */
+        public byte[] thumbnailData;
+        public int thumbnailOffset;
+        public int thumbnailLength;
+        /**
+         * 缩略图的宽高，从缩略图的SOF中读取
+         */
+        public int thumbnailWidth;
+        public int thumbnailHeight;
+
+        public boolean hasThumbnail() {
+            return thumbnailData != null && thumbnailWidth > 0 && thumbnailHeight > 0;
+        }
+    }
+
+    private ExifParser() {
+    }
+
+    /**
+     * 读取文件的EXIF
+     *
+     * @param file
+     * @return 不是JPEG或没有EXIF时返回null
+     * @throws IOException
+     */
+    public static ExifInfo read(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 8 * 1024);
+        try {
+            return parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 从JPEG数据流开头解析EXIF，读到APP1或SOS为止
+     *
+     * @param input
+     * @return 不是JPEG或没有EXIF时返回null
+     * @throws IOException
+     */
+    public static ExifInfo parse(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        try {
+            if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != MARKER_SOI) {
+                return null;
+            }
+
+            while (true) {
+                int marker = readMarker(in);
+                if (marker == MARKER_SOS || marker == MARKER_EOI) return null;
+
+                int length = in.readUnsignedShort() - 2;
+                if (length < 0) return null;
+
+                if (marker == MARKER_APP1 && length > 6) {
+                    byte[] segment = new byte[length];
+                    in.readFully(segment);
+                    if (isExifHeader(segment)) {
+                        return parseTiff(segment, 6, length - 6);
+                    }
+                } else {
+                    skipFully(in, length);
+                }
+            }
+        } catch (EOFException e) {
+            // 文件被截断
+            return null;
+        }
+    }
+
+    private static int readMarker(DataInputStream in) throws IOException {
+        int b = in.readUnsignedByte();
+        if (b != 0xFF) throw new EOFException("不是有效的JPEG段");
+        // 跳过填充的0xFF
+        while (b == 0xFF) {
+            b = in.readUnsignedByte();
+        }
+        return b;
+    }
+
+    private static void skipFully(InputStream in, int length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private static boolean isExifHeader(byte[] segment) {
+        return segment[0] == 'E' && segment[1] == 'x' && segment[2] == 'i' && segment[3] == 'f'
+                && segment[4] == 0 && segment[5] == 0;
+    }
+
+    /**
+     * 解析TIFF结构，所有偏移都相对于TIFF头(start)
+     */
+    static ExifInfo parseTiff(byte[] data, int start, int length) {
+        if (length < 8) return null;
+        TiffReader reader = new TiffReader(data, start, length);
+        if (!reader.readByteOrder()) return null;
+
+        ExifInfo info = new ExifInfo();
+        int ifd0 = reader.readInt(4);
+        if (!reader.isValid(ifd0, 2)) return info;
+
+        int entryCount = reader.readShort(ifd0);
+        int exifIfd = -1;
+        for (int i = 0; i < entryCount; i++) {
+            int entry = ifd0 + 2 + i * 12;
+            if (!reader.isValid(entry, 12)) return info;
+            int tag = reader.readShort(entry);
+            if (tag == TAG_ORIENTATION) {
+                int orientation = reader.readValue(entry);
+                if (orientation >= 1 && orientation <= 8) info.orientation = orientation;
+            } else if (tag == TAG_EXIF_IFD) {
+                exifIfd = reader.readInt(entry + 8);
+            }
+        }
+
+        if (exifIfd > 0 && reader.isValid(exifIfd, 2)) {
+            int count = reader.readShort(exifIfd);
+            for (int i = 0; i < count; i++) {
+                int entry = exifIfd + 2 + i * 12;
+                if (!reader.isValid(entry, 12)) break;
+                int tag = reader.readShort(entry);
+                if (tag == TAG_PIXEL_X) {
+                    info.imageWidth = reader.readValue(entry);
+                } else if (tag == TAG_PIXEL_Y) {
+                    info.imageHeight = reader.readValue(entry);
+                }
+            }
+        }
+
+        // IFD0之后紧跟下一个IFD的偏移，即IFD1(缩略图)
+        int nextOffset = ifd0 + 2 + entryCount * 12;
+        if (!reader.isValid(nextOffset, 4)) return info;
+        int ifd1 = reader.readInt(nextOffset);
+        if (ifd1 <= 0 || !reader.isValid(ifd1, 2)) return info;
+
+        int count = reader.readShort(ifd1);
+        int thumbOffset = -1;
+        int thumbLength = -1;
+        for (int i = 0; i < count; i++) {
+            int entry = ifd1 + 2 + i * 12;
+            if (!reader.isValid(entry, 12)) break;
+            int tag = reader.readShort(entry);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                thumbOffset = reader.readValue(entry);
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                thumbLength = reader.readValue(entry);
+            }
+        }
+
+        if (thumbOffset > 0 && thumbLength > 0 && reader.isValid(thumbOffset, thumbLength)) {
+            int[] size = readJpegSize(data, start + thumbOffset, thumbLength);
+            if (size != null) {
+                info.thumbnailData = data;
+                info.thumbnailOffset = start + thumbOffset;
+                info.thumbnailLength = thumbLength;
+                info.thumbnailWidth = size[0];
+                info.thumbnailHeight = size[1];
+            }
+        }
+        return info;
+    }
+
+    /**
+     * 内嵌缩略图能否直接代替原图的解码结果
+     * <p>
+     * 缩略图要覆盖目标大小，并且宽高比和原图一致(16:9的照片常带4:3加黑边的缩略图)；
+     * 不知道原图尺寸时无法判断黑边，只能当占位图用。
+     *
+     * @param info
+     * @param reqWidth  目标宽
+     * @param reqHeight 目标高
+     * @return
+     */
+    public static boolean isThumbnailSufficient(ExifInfo info, int reqWidth, int reqHeight) {
+        if (info == null || !info.hasThumbnail()) return false;
+        if (info.imageWidth <= 0 || info.imageHeight <= 0) return false;
+        if (info.thumbnailWidth < reqWidth || info.thumbnailHeight < reqHeight) return false;
+
+        // 宽高比相差不超过2%，交叉相乘避免浮点误差
+        long a = (long) info.thumbnailWidth * info.imageHeight;
+        long b = (long) info.imageWidth * info.thumbnailHeight;
+        return Math.abs(a - b) * 50 <= Math.max(a, b);
+    }
+
+    /**
+     * 从JPEG数据的SOF段读取宽高
+     *
+     * @return {width, height}，没有找到SOF时返回null
+     */
+    public static int[] readJpegSize(byte[] data, int offset, int length) {
+        int end = offset + length;
+        if (length < 4 || (data[offset] & 0xFF) != 0xFF || (data[offset + 1] & 0xFF) != MARKER_SOI) {
+            return null;
+        }
+
+        int pos = offset + 2;
+        while (pos + 4 <= end) {
+            if ((data[pos] & 0xFF) != 0xFF) return null;
+            int marker = data[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) return null;
+
+            int segmentLength = ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+            if (isSofMarker(marker)) {
+                if (pos + 9 > end) return null;
+                int height = ((data[pos + 5] & 0xFF) << 8) | (data[pos + 6] & 0xFF);
+                int width = ((data[pos + 7] & 0xFF) << 8) | (data[pos + 8] & 0xFF);
+                return new int[]{width, height};
+            }
+            pos += 2 + segmentLength;
+        }
+        return null;
+    }
+
+    /**
+     * SOF0~SOF15，排除DHT(C4)、JPG(C8)、DAC(CC)
+     */
+    static boolean isSofMarker(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * 按TIFF头中的字节序读取数据
+     */
+    private static class TiffReader {
+        private final byte[] mData;
+        private final int mStart;
+        private final int mLength;
+        private boolean mLittleEndian;
+
+        TiffReader(byte[] data, int start, int length) {
+            this.mData = data;
+            this.mStart = start;
+            this.mLength = length;
+        }
+
+        boolean readByteOrder() {
+            int b0 = mData[mStart] & 0xFF;
+            int b1 = mData[mStart + 1] & 0xFF;
+            if (b0 == 'I' && b1 == 'I') {
+                mLittleEndian = true;
+            } else if (b0 == 'M' && b1 == 'M') {
+                mLittleEndian = false;
+            } else {
+                return false;
+            }
+            return readShort(2) == 42;
+        }
+
+        boolean isValid(int offset, int size) {
+            return offset >= 0 && size >= 0 && offset <= mLength - size;
+        }
+
+        int readShort(int offset) {
+            int a = mData[mStart + offset] & 0xFF;
+            int b = mData[mStart + offset + 1] & 0xFF;
+            return mLittleEndian ? (b << 8) | a : (a << 8) | b;
+        }
+
+        int readInt(int offset) {
+            int a = readShort(offset);
+            int b = readShort(offset + 2);
+            return mLittleEndian ? (b << 16) | a : (a << 16) | b;
+        }
+
+        /**
+         * 读取IFD条目中SHORT或LONG类型的单个值
+         */
+        int readValue(int entry) {
+            int type = readShort(entry + 2);
+            if (type == TYPE_SHORT) return readShort(entry + 8);
+            if (type == TYPE_LONG) return readInt(entry + 8);
+            return -1;
+        }
+    }
+}
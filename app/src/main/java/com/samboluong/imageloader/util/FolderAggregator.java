@@ -0,0 +1,159 @@
+package com.samboluong.imageloader.util;
+
+import com.samboluong.imageloader.bean.FolderBean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一次遍历MediaStore的结果，按文件夹分组统计
+ * <p>
+ * 以BUCKET_ID(父目录路径的哈希)作为开放寻址表的key，再比较路径前缀防止哈希冲突，
+ * 每一行不创建File也不分配字符串，只有遇到新文件夹时才截取目录路径。
+ * 数量直接来自MediaStore的行数，不再逐个目录列文件。
+ */
+public class FolderAggregator {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * 每个文件夹的统计
+     */
+    private static class Group {
+        final int bucketId;
+        /**
+         * 第一张图片的路径，同时用来比较目录前缀
+         */
+        final String firstPath;
+        /**
+         * 最后一个'/'的位置，即目录路径的长度
+         */
+        final int dirLength;
+        int count;
+
+        Group(int bucketId, String firstPath, int dirLength) {
+            this.bucketId = bucketId;
+            this.firstPath = firstPath;
+            this.dirLength = dirLength;
+        }
+    }
+
+    private final List<Group> mGroups = new ArrayList<>();
+    /**
+     * 开放寻址表，存mGroups中的下标+1，0表示空
+     */
+    private int[] mTable = new int[INITIAL_CAPACITY];
+    private int mImageCount;
+
+    /**
+     * 添加一行
+     *
+     * @param bucketId MediaStore.Images.Media.BUCKET_ID
+     * @param path     MediaStore.Images.Media.DATA
+     */
+    public void add(int bucketId, String path) {
+        if (path == null) return;
+        int slash = path.lastIndexOf('/');
+        if (slash < 0) return; // 没有父目录
+
+        int mask = mTable.length - 1;
+        int index = mix(bucketId) & mask;
+        while (true) {
+            int slot = mTable[index];
+            if (slot == 0) break;
+
+            Group group = mGroups.get(slot - 1);
+            if (group.bucketId == bucketId && group.dirLength == slash
+                    && path.regionMatches(0, group.firstPath, 0, slash)) {
+                group.count++;
+                mImageCount++;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        // 新的文件夹，因为按DATE_MODIFIED排序，第一张就是封面
+        Group group = new Group(bucketId, path, slash);
+        group.count = 1;
+        mGroups.add(group);
+        mTable[index] = mGroups.size();
+        mImageCount++;
+
+        if (mGroups.size() * 2 > mTable.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        int[] table = new int[mTable.length * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < mGroups.size(); i++) {
+            int index = mix(mGroups.get(i).bucketId) & mask;
+            while (table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            table[index] = i + 1;
+        }
+        mTable = table;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return 文件夹的数量
+     */
+    public int getFolderCount() {
+        return mGroups.size();
+    }
+
+    /**
+     * @return 添加的图片总数
+     */
+    public int getImageCount() {
+        return mImageCount;
+    }
+
+    /**
+     * 生成FolderBean列表，顺序与第一次遇到该文件夹的顺序一致
+     *
+     * @return
+     */
+    public List<FolderBean> getFolders() {
+        List<FolderBean> folders = new ArrayList<>(mGroups.size());
+        for (Group group : mGroups) {
+            folders.add(toFolderBean(group));
+        }
+        return folders;
+    }
+
+    /**
+     * @return 图片最多的文件夹，没有数据时返回null
+     */
+    public FolderBean getLargestFolder() {
+        Group largest = null;
+        for (Group group : mGroups) {
+            if (largest == null || group.count > largest.count) {
+                largest = group;
+            }
+        }
+        return largest == null ? null : toFolderBean(largest);
+    }
+
+    private static FolderBean toFolderBean(Group group) {
+        FolderBean bean = new FolderBean();
+        bean.setDir(dirOf(group.firstPath, group.dirLength));
+        bean.setFirstImagePath(group.firstPath);
+        bean.setCount(group.count);
+        return bean;
+    }
+
+    /**
+     * 截取目录路径，与File.getParentFile().getAbsolutePath()的结果一致
+     */
+    public static String dirOf(String path, int slash) {
+        return slash == 0 ? "/" : path.substring(0, slash);
+    }
+}
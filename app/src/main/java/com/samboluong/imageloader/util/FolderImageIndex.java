@@ -0,0 +1,349 @@
+package com.samboluong.imageloader.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 一个文件夹中图片的排序和筛选(纯Java)
+ * <p>
+ * 下标和{@link DirectoryListing}一致，修改时间、大小、宽高从MediaStore批量读出来，
+ * 按列存在基本类型的数组里，排序和筛选都不再访问文件系统。
+ * 每种排序的结果(升序的下标数组)算一次后缓存；每个筛选条件是一个位图，组合筛选只做按位与。
+ * 排序和筛选在后台线程执行，之后只读，可以在任意线程使用。
+ */
+public class FolderImageIndex {
+
+    public static final int SORT_NAME = 0;
+    public static final int SORT_DATE = 1;
+    public static final int SORT_SIZE = 2;
+    private static final int SORT_COUNT = 3;
+
+    public static final int TYPE_JPEG = 1;
+    public static final int TYPE_PNG = 1 << 1;
+    public static final int TYPE_OTHER = 1 << 2;
+    public static final int TYPE_ALL = TYPE_JPEG | TYPE_PNG | TYPE_OTHER;
+
+    /**
+     * 排序和筛选条件
+     */
+    public static class Query {
+        public int sort = SORT_NAME;
+        public boolean descending;
+        /**
+         * TYPE_xxx的组合
+         */
+        public int types = TYPE_ALL;
+        /**
+         * 最小宽高，不区分横竖，0表示不限制
+         */
+        public int minWidth;
+        public int minHeight;
+        /**
+         * 修改时间的范围(秒)，包含两端
+         */
+        public long fromDate = Long.MIN_VALUE;
+        public long toDate = Long.MAX_VALUE;
+
+        public Query copy() {
+            Query query = new Query();
+            query.sort = sort;
+            query.descending = descending;
+            query.types = types;
+            query.minWidth = minWidth;
+            query.minHeight = minHeight;
+            query.fromDate = fromDate;
+            query.toDate = toDate;
+            return query;
+        }
+
+        public boolean hasFilter() {
+            return (types & TYPE_ALL) != TYPE_ALL || minWidth > 0 || minHeight > 0
+                    || fromDate != Long.MIN_VALUE || toDate != Long.MAX_VALUE;
+        }
+    }
+
+    private final DirectoryListing mListing;
+    private final int mCount;
+    private final long[] mNameKeys;
+    private final long[] mDateModified;
+    private final long[] mSize;
+    private final int[] mWidth;
+    private final int[] mHeight;
+    private final byte[] mType;
+
+    /**
+     * 每种排序的升序结果
+     */
+    private final int[][] mOrders = new int[SORT_COUNT][];
+
+    /**
+     * 最近一次的各个筛选位图和条件，条件没变时直接复用
+     */
+    private long[] mTypeFilter;
+    private int mTypeFilterTypes;
+    private long[] mSizeFilter;
+    private long mSizeFilterKey;
+    private long[] mDateFilter;
+    private long mDateFilterFrom;
+    private long mDateFilterTo;
+
+    /**
+     * @param listing 已经列完的文件夹，类型先按扩展名判断，其他列在{@link #setMetadata}之前都是0
+     */
+    public FolderImageIndex(DirectoryListing listing) {
+        this.mListing = listing;
+        this.mCount = listing.getCount();
+        mNameKeys = new long[mCount];
+        mDateModified = new long[mCount];
+        mSize = new long[mCount];
+        mWidth = new int[mCount];
+        mHeight = new int[mCount];
+        mType = new byte[mCount];
+        for (int i = 0; i < mCount; i++) {
+            mNameKeys[i] = listing.getNameKey(i);
+        }
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public DirectoryListing getListing() {
+        return mListing;
+    }
+
+    /**
+     * 设置一张图片的信息，在排序和筛选之前调用
+     *
+     * @param position     在DirectoryListing中的下标
+     * @param dateModified 修改时间(秒)
+     * @param size         文件大小(字节)
+     * @param width        宽，未知时为0
+     * @param height       高，未知时为0
+     * @param type         TYPE_xxx
+     */
+    public void setMetadata(int position, long dateModified, long size, int width, int height, int type) {
+        mDateModified[position] = dateModified;
+        mSize[position] = size;
+        mWidth[position] = width;
+        mHeight[position] = height;
+        mType[position] = (byte) type;
+    }
+
+    /**
+     * 按扩展名设置所有图片的类型，MediaStore中没有的文件也能按类型筛选
+     */
+    public void setTypesFromNames() {
+        for (int i = 0; i < mCount; i++) {
+            mType[i] = (byte) typeOfName(mListing.getName(i));
+        }
+    }
+
+    public static int typeOfName(String name) {
+        if (name.regionMatches(true, name.length() - 4, ".png", 0, 4)) return TYPE_PNG;
+        if (name.regionMatches(true, name.length() - 4, ".jpg", 0, 4)
+                || name.regionMatches(true, name.length() - 5, ".jpeg", 0, 5)) {
+            return TYPE_JPEG;
+        }
+        return TYPE_OTHER;
+    }
+
+    public static int typeOfMimeType(String mimeType) {
+        if ("image/jpeg".equals(mimeType)) return TYPE_JPEG;
+        if ("image/png".equals(mimeType)) return TYPE_PNG;
+        return TYPE_OTHER;
+    }
+
+    public long getDateModified(int position) {
+        return mDateModified[position];
+    }
+
+    public long getSize(int position) {
+        return mSize[position];
+    }
+
+    /**
+     * 按条件排序并筛选
+     *
+     * @param query
+     * @param pool  并行排序用，为null时在当前线程排序
+     * @return 显示顺序的下标(DirectoryListing中的位置)
+     */
+    public int[] query(Query query, ForkJoinPool pool) {
+        int[] order = getOrder(query.sort, pool);
+        long[] filter = null;
+        if ((query.types & TYPE_ALL) != TYPE_ALL) {
+            filter = and(filter, getTypeFilter(query.types));
+        }
+        if (query.minWidth > 0 || query.minHeight > 0) {
+            filter = and(filter, getSizeFilter(query.minWidth, query.minHeight));
+        }
+        if (query.fromDate != Long.MIN_VALUE || query.toDate != Long.MAX_VALUE) {
+            filter = and(filter, getDateFilter(query.fromDate, query.toDate));
+        }
+        return select(order, filter, query.descending);
+    }
+
+    /**
+     * 升序的下标，相等时保持DirectoryListing中的顺序
+     */
+    public synchronized int[] getOrder(int sort, ForkJoinPool pool) {
+        if (mOrders[sort] != null) return mOrders[sort];
+
+        int[] order = new int[mCount];
+        for (int i = 0; i < mCount; i++) order[i] = i;
+        ParallelMergeSort.sort(order, comparatorOf(sort), pool);
+        mOrders[sort] = order;
+        return order;
+    }
+
+    /**
+     * 按文件名查找下标：在{@link #SORT_NAME}的顺序上二分查找，直接比较char，不为每个文件创建String
+     *
+     * @param name  文件名所在的字符串，例如完整路径
+     * @param start 文件名在name中的开始位置
+     * @return 没有这个文件时返回-1
+     */
+    public int indexOfName(String name, int start, ForkJoinPool pool) {
+        int[] order = getOrder(SORT_NAME, pool);
+        int end = name.length();
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mListing.compareName(order[mid], name, start, end) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        // 排序不区分大小写，只差大小写的几个文件挨在一起，逐个比较
+        for (int i = low; i < order.length && mListing.compareName(order[i], name, start, end) == 0; i++) {
+            if (mListing.nameEquals(order[i], name, start, end)) return order[i];
+        }
+        return -1;
+    }
+
+    private ParallelMergeSort.IndexComparator comparatorOf(int sort) {
+        switch (sort) {
+            case SORT_NAME:
+                return new ParallelMergeSort.IndexComparator() {
+                    @Override
+                    public int compare(int a, int b) {
+                        // 先比较预先算好的前缀，相同时才逐个字符比较
+                        int result = Long.compare(mNameKeys[a], mNameKeys[b]);
+                        return result != 0 ? result : mListing.compareNames(a, b);
+                    }
+                };
+            case SORT_DATE:
+                return longComparator(mDateModified);
+            case SORT_SIZE:
+                return longComparator(mSize);
+            default:
+                throw new IllegalArgumentException("sort: " + sort);
+        }
+    }
+
+    private static ParallelMergeSort.IndexComparator longComparator(final long[] keys) {
+        return new ParallelMergeSort.IndexComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return Long.compare(keys[a], keys[b]);
+            }
+        };
+    }
+
+    /**
+     * 类型在types中的图片
+     */
+    public synchronized long[] getTypeFilter(int types) {
+        if (mTypeFilter != null && mTypeFilterTypes == types) return mTypeFilter;
+        long[] bits = new long[wordCount(mCount)];
+        for (int i = 0; i < mCount; i++) {
+            if ((mType[i] & types) != 0) bits[i >>> 6] |= 1L << i;
+        }
+        mTypeFilterTypes = types;
+        mTypeFilter = bits;
+        return bits;
+    }
+
+    /**
+     * 宽高不小于minWidth x minHeight的图片(横竖都可以)，宽高未知的不算
+     */
+    public synchronized long[] getSizeFilter(int minWidth, int minHeight) {
+        long key = ((long) minWidth << 32) | (minHeight & 0xFFFFFFFFL);
+        if (mSizeFilter != null && mSizeFilterKey == key) return mSizeFilter;
+        long[] bits = new long[wordCount(mCount)];
+        for (int i = 0; i < mCount; i++) {
+            int w = mWidth[i];
+            int h = mHeight[i];
+            if ((w >= minWidth && h >= minHeight) || (w >= minHeight && h >= minWidth)) {
+                if (w > 0 && h > 0) bits[i >>> 6] |= 1L << i;
+            }
+        }
+        mSizeFilterKey = key;
+        mSizeFilter = bits;
+        return bits;
+    }
+
+    /**
+     * 修改时间在[from, to]之间的图片
+     */
+    public synchronized long[] getDateFilter(long from, long to) {
+        if (mDateFilter != null && mDateFilterFrom == from && mDateFilterTo == to) return mDateFilter;
+        long[] bits = new long[wordCount(mCount)];
+        for (int i = 0; i < mCount; i++) {
+            long date = mDateModified[i];
+            if (date >= from && date <= to) bits[i >>> 6] |= 1L << i;
+        }
+        mDateFilterFrom = from;
+        mDateFilterTo = to;
+        mDateFilter = bits;
+        return bits;
+    }
+
+    private static int wordCount(int count) {
+        return (count + 63) >>> 6;
+    }
+
+    /**
+     * 两个位图按位与，不修改参数
+     *
+     * @param a 为null时表示全部
+     * @param b
+     * @return
+     */
+    public static long[] and(long[] a, long[] b) {
+        if (a == null) return b;
+        long[] result = new long[Math.min(a.length, b.length)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = a[i] & b[i];
+        }
+        return result;
+    }
+
+    /**
+     * 按order的顺序取出filter中的下标
+     *
+     * @param order      排好序的下标
+     * @param filter     为null时不筛选
+     * @param descending 是否倒序
+     * @return
+     */
+    public static int[] select(int[] order, long[] filter, boolean descending) {
+        int count = order.length;
+        if (filter != null) {
+            count = 0;
+            for (long word : filter) count += Long.bitCount(word);
+        }
+        int[] result = new int[count];
+        int k = descending ? count - 1 : 0;
+        int step = descending ? -1 : 1;
+        for (int position : order) {
+            if (filter == null || (filter[position >>> 6] & (1L << position)) != 0) {
+                result[k] = position;
+                k += step;
+            }
+        }
+        return result;
+    }
+}
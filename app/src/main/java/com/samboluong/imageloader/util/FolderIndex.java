@@ -0,0 +1,133 @@
+package com.samboluong.imageloader.util;
+
+import com.samboluong.imageloader.bean.FolderBean;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 持久化的文件夹索引
+ * <p>
+ * 保存上次扫描得到的所有FolderBean(路径、封面、数量)。
+ * 启动时先显示索引里的内容，后台由{@link FolderSync}和MediaStore按文件夹比较，有变化时替换。
+ */
+public class FolderIndex {
+
+    private static final int MAGIC = 0x46494458; // "FIDX"
+    private static final int VERSION = 3;
+
+    private final File mFile;
+
+    /**
+     * dir -> FolderBean，保持插入顺序
+     */
+    private final Map<String, FolderBean> mFolders = new LinkedHashMap<>();
+
+    public FolderIndex(File file) {
+        this.mFile = file;
+    }
+
+    public boolean exists() {
+        return mFile.exists();
+    }
+
+    /**
+     * 从文件读取索引
+     *
+     * @return 文件不存在或已损坏时返回false，索引为空
+     */
+    public synchronized boolean load() {
+        clear();
+        if (!mFile.exists()) return false;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            int folderCount = in.readInt();
+            for (int i = 0; i < folderCount; i++) {
+                FolderBean bean = new FolderBean();
+                bean.setDir(in.readUTF());
+                bean.setFirstImagePath(in.readUTF());
+                bean.setCount(in.readInt());
+                mFolders.put(bean.getDir(), bean);
+            }
+            return true;
+        } catch (IOException e) {
+            clear();
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入文件，先写临时文件再改名，中途被杀不会破坏旧的索引
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mFolders.size());
+            for (FolderBean bean : mFolders.values()) {
+                out.writeUTF(bean.getDir());
+                out.writeUTF(bean.getFirstImagePath());
+                out.writeInt(bean.getCount());
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("无法保存文件夹索引: " + mFile);
+        }
+    }
+
+    public synchronized void clear() {
+        mFolders.clear();
+    }
+
+    public synchronized boolean isEmpty() {
+        return mFolders.isEmpty();
+    }
+
+    /**
+     * @return 所有文件夹的拷贝
+     */
+    public synchronized List<FolderBean> getFolders() {
+        return new ArrayList<>(mFolders.values());
+    }
+
+    public synchronized FolderBean getFolder(String dir) {
+        return mFolders.get(dir);
+    }
+
+    public synchronized void putFolder(FolderBean bean) {
+        mFolders.put(bean.getDir(), bean);
+    }
+
+    public synchronized void removeFolder(String dir) {
+        mFolders.remove(dir);
+    }
+}
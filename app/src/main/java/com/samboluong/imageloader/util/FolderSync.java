@@ -0,0 +1,160 @@
+package com.samboluong.imageloader.util;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.MediaStore;
+
+import com.samboluong.imageloader.bean.FolderBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把MediaStore中的变化同步到{@link FolderIndex}(后台线程)
+ * <p>
+ * 索引里只有每个文件夹的数量和封面，所以比较的也只是这两样：让MediaStore按BUCKET_ID分组，
+ * 每个文件夹返回一行(数量、最早的一张)，不再把每张图片的路径读出来。
+ * 新增、删除、移动都会改变某个文件夹的数量，封面改名会改变封面路径；
+ * 只改了不是封面的文件名不影响索引，也不需要发现。
+ * 分组查询不可用时退回逐行扫描，用{@link FolderAggregator}统计。
+ */
+public class FolderSync {
+
+    private static final String IMAGE_SELECTION = MediaStore.Images.Media.MIME_TYPE + " = ? or "
+            + MediaStore.Images.Media.MIME_TYPE + " = ?";
+    private static final String[] IMAGE_SELECTION_ARGS = new String[]{"image/jpeg", "image/png"};
+
+    /**
+     * 按文件夹分组：selection会被拼到WHERE后面，借此加上GROUP BY(MediaStore没有单独的参数)。
+     * SQLite的MIN()聚合时，同一行的其他列取的就是最小值所在的行，所以_DATA是最早的一张，和逐行扫描的封面相同
+     */
+    private static final String GROUP_SELECTION = "(" + IMAGE_SELECTION + ") and 1) GROUP BY ("
+            + MediaStore.Images.Media.BUCKET_ID;
+    private static final String[] GROUP_PROJECTION = new String[]{
+            MediaStore.Images.Media.DATA,
+            "MIN(" + MediaStore.Images.Media.DATE_MODIFIED + ")",
+            "COUNT(*)",
+    };
+    private static final String GROUP_ORDER = "MIN(" + MediaStore.Images.Media.DATE_MODIFIED + ")";
+    private static final int GROUP_COLUMN_DATA = 0;
+    private static final int GROUP_COLUMN_COUNT = 2;
+
+    /**
+     * 逐行扫描只需要这几列，列的下标固定，不用每行getColumnIndex
+     */
+    private static final String[] SCAN_PROJECTION = new String[]{
+            MediaStore.Images.Media.DATA,
+            MediaStore.Images.Media.BUCKET_ID,
+    };
+    private static final int COLUMN_DATA = 0;
+    private static final int COLUMN_BUCKET_ID = 1;
+
+    private final ContentResolver mResolver;
+    private final FolderIndex mIndex;
+
+    public FolderSync(ContentResolver resolver, FolderIndex index) {
+        this.mResolver = resolver;
+        this.mIndex = index;
+    }
+
+    public FolderIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * 同步并保存索引
+     *
+     * @return 索引是否有变化
+     */
+    public boolean sync() {
+        synchronized (mIndex) {
+            List<FolderBean> folders = queryFolders();
+            if (folders == null) folders = scanFolders();
+            if (folders == null) return false;
+
+            if (sameFolders(mIndex.getFolders(), folders)) return false;
+
+            // 索引里的FolderBean已经交给了界面，整个换成新的对象而不是在这个线程上修改
+            mIndex.clear();
+            for (FolderBean folderBean : folders) {
+                mIndex.putFolder(folderBean);
+            }
+            try {
+                mIndex.save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 分组查询，每个文件夹一行
+     *
+     * @return 查询失败或不支持时返回null
+     */
+    private List<FolderBean> queryFolders() {
+        Cursor cursor;
+        try {
+            cursor = mResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, GROUP_PROJECTION,
+                    GROUP_SELECTION, IMAGE_SELECTION_ARGS, GROUP_ORDER);
+        } catch (RuntimeException e) {
+            // 不允许在selection里拼GROUP BY的系统
+            return null;
+        }
+        if (cursor == null) return null;
+
+        try {
+            List<FolderBean> folders = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(GROUP_COLUMN_DATA);
+                int slash = path == null ? -1 : path.lastIndexOf('/');
+                if (slash < 0) continue; // 没有父目录
+
+                FolderBean folderBean = new FolderBean();
+                folderBean.setDir(FolderAggregator.dirOf(path, slash));
+                folderBean.setFirstImagePath(path);
+                folderBean.setCount(cursor.getInt(GROUP_COLUMN_COUNT));
+                folders.add(folderBean);
+            }
+            return folders;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 逐行扫描所有图片，按文件夹分组统计数量和封面，不访问文件系统
+     *
+     * @return 查询失败时返回null
+     */
+    private List<FolderBean> scanFolders() {
+        Cursor cursor = mResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, SCAN_PROJECTION,
+                IMAGE_SELECTION, IMAGE_SELECTION_ARGS, MediaStore.Images.Media.DATE_MODIFIED);
+        if (cursor == null) return null;
+
+        FolderAggregator aggregator = new FolderAggregator();
+        try {
+            while (cursor.moveToNext()) {
+                aggregator.add(cursor.getInt(COLUMN_BUCKET_ID), cursor.getString(COLUMN_DATA));
+            }
+        } finally {
+            cursor.close();
+        }
+        return aggregator.getFolders();
+    }
+
+    static boolean sameFolders(List<FolderBean> a, List<FolderBean> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            FolderBean x = a.get(i);
+            FolderBean y = b.get(i);
+            if (!x.getDir().equals(y.getDir()) || x.getCount() != y.getCount()
+                    || !x.getFirstImagePath().equals(y.getFirstImagePath())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
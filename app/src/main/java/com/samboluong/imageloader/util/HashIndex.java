@@ -0,0 +1,392 @@
+package com.samboluong.imageloader.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 图片的感知哈希索引，可以保存到文件，下次接着用(纯Java)
+ * <p>
+ * 每张图片一个下标，各列都是基本类型的数组：文件夹编号、文件名的结尾(文件名连续存放在一个char[]里)、
+ * 修改时间、哈希和状态；文件夹路径只存一份。按(文件夹, 文件名)查找用开放寻址的int[]哈希表，
+ * 十万张图片也只有几个数组，不为每张图片创建对象。
+ * <p>
+ * 修改时间没变的图片不用重新计算；保存时各列整块写出，先写临时文件再替换，中途被杀不会破坏上次保存的索引。
+ * 只在一个线程使用。
+ */
+public class HashIndex {
+
+    /**
+     * 已经算出哈希
+     */
+    public static final byte STATE_HASHED = 1;
+    /**
+     * 解码失败，文件没变就不再重试
+     */
+    public static final byte STATE_FAILED = 2;
+
+    private static final int MAGIC = 0x44484958;
+    private static final int VERSION = 1;
+    /**
+     * 读写数组时每次处理的字节数
+     */
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private final List<String> mDirs = new ArrayList<>();
+    private final Map<String, Integer> mDirIndex = new HashMap<>();
+
+    private char[] mChars = new char[4096];
+    private int mCharCount;
+    private int[] mDirOf = new int[256];
+    private int[] mEnds = new int[256];
+    private long[] mModified = new long[256];
+    private long[] mHashes = new long[256];
+    private byte[] mStates = new byte[256];
+    private int mCount;
+
+    /**
+     * 开放寻址的哈希表，存下标+1，0表示空；容量是2的幂，装填率不超过1/2
+     */
+    private int[] mTable = new int[512];
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * 文件夹的编号，没有时添加
+     */
+    public int addDir(String dirPath) {
+        Integer index = mDirIndex.get(dirPath);
+        if (index != null) return index;
+        mDirs.add(dirPath);
+        mDirIndex.put(dirPath, mDirs.size() - 1);
+        return mDirs.size() - 1;
+    }
+
+    /**
+     * @return 没有时返回-1
+     */
+    public int indexOf(int dir, String name) {
+        int mask = mTable.length - 1;
+        for (int slot = hashOf(dir, name) & mask; ; slot = (slot + 1) & mask) {
+            int entry = mTable[slot];
+            if (entry == 0) return -1;
+            int position = entry - 1;
+            if (mDirOf[position] == dir && nameEquals(position, name)) return position;
+        }
+    }
+
+    /**
+     * 添加或更新一张图片
+     *
+     * @return 下标，更新时不变
+     */
+    public int put(int dir, String name, long modified, long hash, byte state) {
+        int position = indexOf(dir, name);
+        if (position < 0) position = append(dir, name);
+        mModified[position] = modified;
+        mHashes[position] = hash;
+        mStates[position] = state;
+        return position;
+    }
+
+    /**
+     * 文件是否需要(重新)计算哈希
+     */
+    public boolean isStale(int position, long modified) {
+        return position < 0 || mModified[position] != modified;
+    }
+
+    public String getPath(int position) {
+        int start = position == 0 ? 0 : mEnds[position - 1];
+        return mDirs.get(mDirOf[position]) + "/" + new String(mChars, start, mEnds[position] - start);
+    }
+
+    public long getModified(int position) {
+        return mModified[position];
+    }
+
+    public long getHash(int position) {
+        return mHashes[position];
+    }
+
+    public byte getState(int position) {
+        return mStates[position];
+    }
+
+    /**
+     * 已经算出哈希的图片的下标，升序
+     */
+    public int[] getHashedPositions() {
+        int count = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mStates[i] == STATE_HASHED) count++;
+        }
+        int[] positions = new int[count];
+        int k = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mStates[i] == STATE_HASHED) positions[k++] = i;
+        }
+        return positions;
+    }
+
+    /**
+     * 只保留keep中的图片(其他的文件已经删除了)，下标会变
+     *
+     * @return 删除的数量
+     */
+    public int retain(BitSet keep) {
+        int removed = mCount - keep.cardinality();
+        if (removed == 0) return 0;
+
+        int count = 0;
+        int charCount = 0;
+        for (int i = 0; i < mCount; i++) {
+            int start = i == 0 ? 0 : mEnds[i - 1];
+            int end = mEnds[i];
+            if (!keep.get(i)) continue;
+            // 只会往前移，原地覆盖
+            System.arraycopy(mChars, start, mChars, charCount, end - start);
+            charCount += end - start;
+            mDirOf[count] = mDirOf[i];
+            mEnds[count] = charCount;
+            mModified[count] = mModified[i];
+            mHashes[count] = mHashes[i];
+            mStates[count] = mStates[i];
+            count++;
+        }
+        mCount = count;
+        mCharCount = charCount;
+        rebuildTable(mTable.length);
+        return removed;
+    }
+
+    private int append(int dir, String name) {
+        int length = name.length();
+        if (mCharCount + length > mChars.length) {
+            mChars = Arrays.copyOf(mChars, Math.max(mChars.length * 2, mCharCount + length));
+        }
+        name.getChars(0, length, mChars, mCharCount);
+        mCharCount += length;
+
+        if (mCount == mEnds.length) {
+            int capacity = mEnds.length * 2;
+            mDirOf = Arrays.copyOf(mDirOf, capacity);
+            mEnds = Arrays.copyOf(mEnds, capacity);
+            mModified = Arrays.copyOf(mModified, capacity);
+            mHashes = Arrays.copyOf(mHashes, capacity);
+            mStates = Arrays.copyOf(mStates, capacity);
+        }
+        int position = mCount++;
+        mDirOf[position] = dir;
+        mEnds[position] = mCharCount;
+
+        if (mCount * 2 > mTable.length) {
+            rebuildTable(mTable.length * 2);
+        } else {
+            insert(position);
+        }
+        return position;
+    }
+
+    private void rebuildTable(int capacity) {
+        while (mCount * 2 > capacity) capacity *= 2;
+        mTable = new int[capacity];
+        for (int i = 0; i < mCount; i++) insert(i);
+    }
+
+    private void insert(int position) {
+        int mask = mTable.length - 1;
+        int slot = hashOf(position) & mask;
+        while (mTable[slot] != 0) slot = (slot + 1) & mask;
+        mTable[slot] = position + 1;
+    }
+
+    /**
+     * 和String.hashCode一样按字符计算，再和文件夹编号混合
+     */
+    private static int hashOf(int dir, String name) {
+        return mix(name.hashCode(), dir);
+    }
+
+    private int hashOf(int position) {
+        int start = position == 0 ? 0 : mEnds[position - 1];
+        int h = 0;
+        for (int i = start; i < mEnds[position]; i++) h = 31 * h + mChars[i];
+        return mix(h, mDirOf[position]);
+    }
+
+    private static int mix(int nameHash, int dir) {
+        int h = (nameHash ^ dir * 0x9E3779B9) * 0x85EBCA6B;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean nameEquals(int position, String name) {
+        int start = position == 0 ? 0 : mEnds[position - 1];
+        int length = mEnds[position] - start;
+        if (length != name.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (mChars[start + i] != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 保存到file：先写file.tmp再替换
+     */
+    public void save(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), CHUNK_BYTES));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mDirs.size());
+            for (String dirPath : mDirs) {
+                out.writeUTF(dirPath);
+            }
+            out.writeInt(mCount);
+            out.writeInt(mCharCount);
+
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+            for (int i = 0; i < mCharCount; i++) {
+                if (buffer.remaining() < 2) flush(out, buffer);
+                buffer.putChar(mChars[i]);
+            }
+            for (int i = 0; i < mCount; i++) {
+                if (buffer.remaining() < 8) flush(out, buffer);
+                buffer.putInt(mDirOf[i]);
+                buffer.putInt(mEnds[i]);
+            }
+            for (int i = 0; i < mCount; i++) {
+                if (buffer.remaining() < 16) flush(out, buffer);
+                buffer.putLong(mModified[i]);
+                buffer.putLong(mHashes[i]);
+            }
+            flush(out, buffer);
+            out.write(mStates, 0, mCount);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("无法保存哈希索引: " + file);
+        }
+    }
+
+    private static void flush(DataOutputStream out, ByteBuffer buffer) throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    /**
+     * 读取保存的索引
+     *
+     * @return 没有保存过或者文件已损坏时返回null
+     */
+    public static HashIndex load(File file) {
+        if (!file.exists()) return null;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), CHUNK_BYTES));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            HashIndex index = new HashIndex();
+            int dirCount = in.readInt();
+            for (int i = 0; i < dirCount; i++) {
+                index.addDir(in.readUTF());
+            }
+            int count = in.readInt();
+            int charCount = in.readInt();
+            if (count < 0 || charCount < 0) return null;
+
+            int capacity = Math.max(256, count);
+            index.mChars = new char[Math.max(4096, charCount)];
+            index.mDirOf = new int[capacity];
+            index.mEnds = new int[capacity];
+            index.mModified = new long[capacity];
+            index.mHashes = new long[capacity];
+            index.mStates = new byte[capacity];
+
+            byte[] chunk = new byte[CHUNK_BYTES];
+            for (int i = 0; i < charCount; ) {
+                int n = Math.min(CHUNK_BYTES / 2, charCount - i);
+                in.readFully(chunk, 0, n * 2);
+                ByteBuffer.wrap(chunk, 0, n * 2).asCharBuffer().get(index.mChars, i, n);
+                i += n;
+            }
+            for (int i = 0; i < count; ) {
+                int n = Math.min(CHUNK_BYTES / 8, count - i);
+                in.readFully(chunk, 0, n * 8);
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, n * 8);
+                for (int j = 0; j < n; j++, i++) {
+                    index.mDirOf[i] = buffer.getInt();
+                    index.mEnds[i] = buffer.getInt();
+                }
+            }
+            for (int i = 0; i < count; ) {
+                int n = Math.min(CHUNK_BYTES / 16, count - i);
+                in.readFully(chunk, 0, n * 16);
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, n * 16);
+                for (int j = 0; j < n; j++, i++) {
+                    index.mModified[i] = buffer.getLong();
+                    index.mHashes[i] = buffer.getLong();
+                }
+            }
+            in.readFully(index.mStates, 0, count);
+
+            // 检查一遍，损坏的文件不能让后面越界
+            int previousEnd = 0;
+            for (int i = 0; i < count; i++) {
+                if (index.mEnds[i] < previousEnd || index.mEnds[i] > charCount
+                        || index.mDirOf[i] < 0 || index.mDirOf[i] >= dirCount) {
+                    return null;
+                }
+                previousEnd = index.mEnds[i];
+            }
+            index.mCount = count;
+            index.mCharCount = charCount;
+            index.rebuildTable(index.mTable.length);
+            return index;
+        } catch (IOException | OutOfMemoryError e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 各个数组占用的内存(字节)
+     */
+    public long getByteCount() {
+        return mChars.length * 2L + mEnds.length * (4L + 4L + 8L + 8L + 1L) + mTable.length * 4L;
+    }
+
+    @Override
+    public String toString() {
+        return "HashIndex[count=" + mCount + ", dirs=" + mDirs.size() + ", " + getByteCount() / 1024 + "KB]";
+    }
+}
@@ -0,0 +1,64 @@
+package com.samboluong.imageloader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 解码一张很小的缩略图计算{@link PerceptualHash#dHash}
+ * <p>
+ * 用inSampleSize解码到边长不小于{@link #SAMPLE_SIZE}的RGB_565，取出像素后由{@link PerceptualHash#downsample}
+ * 按EXIF转正并区域平均成9x8的亮度，不经过Canvas。像素数组在多次调用之间复用。
+ * 不经过ImageLoader的缓存，不是线程安全的，每个工作线程一个。
+ */
+public class ImageHasher {
+
+    /**
+     * 解码时采样后的最小边长，比9x8大几倍，缩小时能平均掉噪点
+     */
+    static final int SAMPLE_SIZE = 64;
+
+    private final int[] mLuma = new int[PerceptualHash.WIDTH * PerceptualHash.HEIGHT];
+    /**
+     * 解码出的像素，不够大时重新分配
+     */
+    private int[] mPixels = new int[0];
+
+    /**
+     * @throws IOException 不是图片或者解码失败
+     */
+    public long hash(File file) throws IOException {
+        ImageHeaderProber.Header header = ImageHeaderProber.probeFile(file);
+        if (header == null || !header.isImage() || !header.hasSize()) {
+            throw new IOException("不是图片: " + file);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = BitmapSizing.calculateInSampleSize(header.width, header.height,
+                SAMPLE_SIZE, SAMPLE_SIZE);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) throw new IOException("解码失败: " + file);
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        try {
+            if (mPixels.length < width * height) mPixels = new int[width * height];
+            bitmap.getPixels(mPixels, 0, width, 0, 0, width, height);
+        } finally {
+            bitmap.recycle();
+        }
+
+        PerceptualHash.downsample(mPixels, width, height, header.orientation, mLuma);
+        return PerceptualHash.dHash(mLuma);
+    }
+
+    /**
+     * 释放像素数组
+     */
+    public void recycle() {
+        mPixels = new int[0];
+    }
+}
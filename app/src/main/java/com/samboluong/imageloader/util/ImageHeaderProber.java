@@ -0,0 +1,339 @@
+package com.samboluong.imageloader.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 读取图片文件头获取格式、宽高和方向(纯Java)
+ * <p>
+ * 只读取文件开头的一小段：JPEG的SOF、PNG的IHDR、WebP的VP8/VP8L/VP8X，
+ * 代替BitmapFactory的inJustDecodeBounds，省掉一次打开文件和解析。
+ * 先读{@link #FIRST_READ_BYTES}到每个线程复用的缓冲区，JPEG的SOF在更后面时才继续读；
+ * 不用内存映射，映射要等GC才释放，连续探测大量文件会用完进程的映射数。
+ * 结果按路径缓存(修改时间和长度不变才有效)，每个文件压缩成一个long；
+ * 扩展名是图片但内容不是的文件也会被记住，之后直接跳过。
+ */
+public class ImageHeaderProber {
+
+    public static final int FORMAT_UNKNOWN = 0;
+    public static final int FORMAT_JPEG = 1;
+    public static final int FORMAT_PNG = 2;
+    public static final int FORMAT_WEBP = 3;
+    public static final int FORMAT_GIF = 4;
+    public static final int FORMAT_BMP = 5;
+
+    private static final String[] MIME_TYPES = {
+            null, "image/jpeg", "image/png", "image/webp", "image/gif", "image/bmp",
+    };
+
+    /**
+     * 第一次读取的字节数，能覆盖绝大多数文件头
+     */
+    private static final int FIRST_READ_BYTES = 64 * 1024;
+    /**
+     * 最多读取的字节数，JPEG的SOF一般在几十KB以内(EXIF的APP1最大64KB)
+     */
+    private static final int MAX_PROBE_BYTES = 256 * 1024;
+
+    /**
+     * 每个线程一个读取缓冲区，需要时从FIRST_READ_BYTES扩大到MAX_PROBE_BYTES
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(FIRST_READ_BYTES);
+        }
+    };
+    private static final int MAX_SIZE = 0x0FFFFFFF;
+
+    /**
+     * 文件头信息
+     */
+    public static class Header {
+        public final int format;
+        /**
+         * 宽高，文件头中没有找到时为0
+         */
+        public final int width;
+        public final int height;
+        /**
+         * EXIF方向，只有JPEG有，默认1
+         */
+        public final int orientation;
+
+        public Header(int format, int width, int height, int orientation) {
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+        }
+
+        /**
+         * @return 是否是BitmapFactory能解码的格式
+         */
+        public boolean isImage() {
+            return format != FORMAT_UNKNOWN;
+        }
+
+        public boolean hasSize() {
+            return width > 0 && height > 0;
+        }
+
+        public String getMimeType() {
+            return MIME_TYPES[format];
+        }
+
+        /**
+         * 压缩成一个long：宽28位、高28位、格式4位、方向4位
+         */
+        long pack() {
+            return ((long) Math.min(width, MAX_SIZE) << 36) | ((long) Math.min(height, MAX_SIZE) << 8)
+                    | (format << 4) | orientation;
+        }
+
+        static Header unpack(long packed) {
+            return new Header((int) (packed >>> 4) & 0xF, (int) (packed >>> 36),
+                    (int) (packed >>> 8) & MAX_SIZE, (int) packed & 0xF);
+        }
+    }
+
+    /**
+     * path -> {压缩后的Header, lastModified, length}，按访问顺序淘汰
+     */
+    private final LinkedHashMap<String, long[]> mCache;
+    private int mHitCount;
+    private int mMissCount;
+    private int mNotImageCount;
+
+    /**
+     * @param maxEntries 最多缓存的文件数
+     */
+    public ImageHeaderProber(final int maxEntries) {
+        mCache = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 读取文件头，优先使用缓存
+     *
+     * @param path
+     * @return 读取失败(文件不存在等)返回null
+     */
+    public Header probe(String path) {
+        File file = new File(path);
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        synchronized (mCache) {
+            long[] entry = mCache.get(path);
+            if (entry != null && entry[1] == lastModified && entry[2] == length) {
+                mHitCount++;
+                return Header.unpack(entry[0]);
+            }
+            mMissCount++;
+        }
+
+        Header header;
+        try {
+            header = probeFile(file);
+        } catch (IOException e) {
+            return null;
+        }
+
+        synchronized (mCache) {
+            if (!header.isImage()) mNotImageCount++;
+            mCache.put(path, new long[]{header.pack(), lastModified, length});
+        }
+        return header;
+    }
+
+    /**
+     * 直接读取文件头，不使用缓存
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static Header probeFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            ByteBuffer buffer = BUFFER.get();
+            int length = read(channel, buffer, (int) Math.min(size, FIRST_READ_BYTES));
+            Header header = parse(buffer);
+            if (header.format == FORMAT_JPEG && !header.hasSize() && size > length) {
+                // SOF在更后面(比如EXIF里有很大的缩略图)
+                if (buffer.capacity() < MAX_PROBE_BYTES) {
+                    buffer = ByteBuffer.allocate(MAX_PROBE_BYTES);
+                    BUFFER.set(buffer);
+                }
+                read(channel, buffer, (int) Math.min(size, MAX_PROBE_BYTES));
+                header = parse(buffer);
+            }
+            return header;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 从文件开头读取length个字节，buffer的位置为0、limit为实际读到的长度
+     */
+    private static int read(FileChannel channel, ByteBuffer buffer, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) break;
+        }
+        buffer.flip();
+        return buffer.limit();
+    }
+
+    /**
+     * 解析文件开头的数据
+     *
+     * @param buffer 从文件开头开始的数据，会修改它的字节序和位置
+     * @return 不认识的格式返回FORMAT_UNKNOWN
+     */
+    public static Header parse(ByteBuffer buffer) {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        int limit = buffer.limit();
+        if (limit >= 3 && u8(buffer, 0) == 0xFF && u8(buffer, 1) == 0xD8 && u8(buffer, 2) == 0xFF) {
+            return parseJpeg(buffer);
+        }
+        if (limit >= 24 && buffer.getInt(0) == 0x89504E47 && buffer.getInt(4) == 0x0D0A1A0A) {
+            boolean ihdr = buffer.getInt(12) == 0x49484452;
+            return new Header(FORMAT_PNG, ihdr ? buffer.getInt(16) : 0, ihdr ? buffer.getInt(20) : 0,
+                    ExifParser.ORIENTATION_NORMAL);
+        }
+        if (limit >= 12 && isAscii(buffer, 0, "RIFF") && isAscii(buffer, 8, "WEBP")) {
+            return parseWebp(buffer);
+        }
+        if (limit >= 10 && isAscii(buffer, 0, "GIF8")) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new Header(FORMAT_GIF, buffer.getShort(6) & 0xFFFF, buffer.getShort(8) & 0xFFFF,
+                    ExifParser.ORIENTATION_NORMAL);
+        }
+        if (limit >= 26 && isAscii(buffer, 0, "BM")) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            // 高度为负表示从上到下存储
+            return new Header(FORMAT_BMP, buffer.getInt(18), Math.abs(buffer.getInt(22)),
+                    ExifParser.ORIENTATION_NORMAL);
+        }
+        return new Header(FORMAT_UNKNOWN, 0, 0, ExifParser.ORIENTATION_NORMAL);
+    }
+
+    private static Header parseJpeg(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        int orientation = ExifParser.ORIENTATION_NORMAL;
+        int pos = 2;
+        while (pos + 4 <= limit) {
+            if (u8(buffer, pos) != 0xFF) break;
+            int marker = u8(buffer, pos + 1);
+            if (marker == 0xFF) {
+                // 填充字节
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // 没有长度的段
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xDA || marker == 0xD9) break;
+
+            int length = (u8(buffer, pos + 2) << 8) | u8(buffer, pos + 3);
+            if (ExifParser.isSofMarker(marker)) {
+                if (pos + 9 > limit) break;
+                int height = (u8(buffer, pos + 5) << 8) | u8(buffer, pos + 6);
+                int width = (u8(buffer, pos + 7) << 8) | u8(buffer, pos + 8);
+                return new Header(FORMAT_JPEG, width, height, orientation);
+            }
+            if (marker == 0xE1 && length > 8 && pos + 2 + length <= limit && isAscii(buffer, pos + 4, "Exif")) {
+                byte[] tiff = new byte[length - 8];
+                ByteBuffer segment = buffer.duplicate();
+                segment.position(pos + 10);
+                segment.get(tiff);
+                ExifParser.ExifInfo exif = ExifParser.parseTiff(tiff, 0, tiff.length);
+                if (exif != null) orientation = exif.orientation;
+            }
+            pos += 2 + length;
+        }
+        // 是JPEG但在读取的范围内没有找到SOF
+        return new Header(FORMAT_JPEG, 0, 0, orientation);
+    }
+
+    private static Header parseWebp(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int limit = buffer.limit();
+        int width = 0;
+        int height = 0;
+        if (limit >= 30 && isAscii(buffer, 12, "VP8 ")) {
+            // 有损：关键帧起始码之后是14位的宽高
+            if (u8(buffer, 23) == 0x9D && u8(buffer, 24) == 0x01 && u8(buffer, 25) == 0x2A) {
+                width = buffer.getShort(26) & 0x3FFF;
+                height = buffer.getShort(28) & 0x3FFF;
+            }
+        } else if (limit >= 25 && isAscii(buffer, 12, "VP8L")) {
+            // 无损：签名0x2F之后是14位的宽-1、高-1
+            if (u8(buffer, 20) == 0x2F) {
+                int bits = buffer.getInt(21);
+                width = (bits & 0x3FFF) + 1;
+                height = ((bits >>> 14) & 0x3FFF) + 1;
+            }
+        } else if (limit >= 30 && isAscii(buffer, 12, "VP8X")) {
+            // 扩展格式：24位的画布宽-1、高-1
+            width = u24(buffer, 24) + 1;
+            height = u24(buffer, 27) + 1;
+        }
+        return new Header(FORMAT_WEBP, width, height, ExifParser.ORIENTATION_NORMAL);
+    }
+
+    private static int u8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xFF;
+    }
+
+    private static int u24(ByteBuffer buffer, int index) {
+        return u8(buffer, index) | (u8(buffer, index + 1) << 8) | (u8(buffer, index + 2) << 16);
+    }
+
+    private static boolean isAscii(ByteBuffer buffer, int index, String s) {
+        if (index + s.length() > buffer.limit()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer.get(index + i) != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    public int getHitCount() {
+        synchronized (mCache) {
+            return mHitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (mCache) {
+            return mMissCount;
+        }
+    }
+
+    /**
+     * @return 读过的文件中内容不是图片的数量
+     */
+    public int getNotImageCount() {
+        synchronized (mCache) {
+            return mNotImageCount;
+        }
+    }
+}
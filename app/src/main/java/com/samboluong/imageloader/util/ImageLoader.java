@@ -3,82 +3,205 @@ package com.samboluong.imageloader.util;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Handler;
-import android.os.Looper;
 import android.os.Message;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import android.util.LruCache;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.reflect.Field;
-import java.util.LinkedList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 图片加载类(单例)
+ * 图片加载类
+ * <p>
+ * 通过{@link Builder}按用途分别创建(线程数、队列方式、缓存大小、是否共用内存缓存)，
+ * 例如主网格和文件夹弹窗各用一个，互不抢占解码线程和缓存；
+ * {@link #getInstance()}返回默认配置的共享实例。
  */
 public class ImageLoader {
 
     private static ImageLoader mInstance;
     private static final int DEFAULT_THREAD_COUNT = 3;
+    /**
+     * 磁盘缓存大小
+     */
+    private static final long DISK_CACHE_SIZE = 50 * 1024 * 1024;
+    private static final String DISK_CACHE_DIR = "thumbnails";
+    /**
+     * 任务队列容量，超出后LIFO丢弃最旧的任务
+     */
+    private static final int TASK_QUEUE_CAPACITY = 256;
+    /**
+     * 缓存文件头信息的文件数
+     */
+    private static final int HEADER_CACHE_ENTRIES = 4096;
 
     /**
-     * 图片缓存核心对象
+     * 磁盘缓存按目录共用，同一个目录只能有一个DiskLruCache在写日志
      */
-    private LruCache<String, Bitmap> mLrUCache;
+    private static final Map<File, DiskLruCache> mDiskCaches = new HashMap<>();
+
     /**
-     * 线程池
+     * 内存缓存(可以和其他ImageLoader共用)
      */
-    private ExecutorService mThreadPool;
+    private final MemoryCache mMemoryCache;
     /**
-     * 队列调度方式(默认后进先出)
+     * 磁盘缓存(二级缓存)，在后台线程中第一次使用时打开
      */
-    private static Type mType = Type.LIFO;
+    private volatile DiskLruCache mDiskLruCache;
+    private volatile File mDiskCacheDir;
+    private boolean mDiskCacheOpenFailed;
     /**
-     * 任务队列
+     * 任务调度器(带优先级的有界队列，工作线程直接取任务)
      */
-    private LinkedList<Runnable> mTaskQueue;
+    private final TaskScheduler mScheduler;
     /**
-     * 后台轮询线程
+     * 请求合并、取消和结果分发，与平台无关
      */
-    private Thread mPoolThread;
-    private Handler mPoolThreadHandler;
+    private final LoadEngine<LoadRequest, Bitmap> mEngine;
+    /**
+     * 队列调度方式
+     */
+    private final Type mType;
     /**
      * UI线程中的Handler
      */
     private Handler mUIHandler;
-
-    private Semaphore mPoolThreadHandlerSemaphore = new Semaphore(0);
-    private Semaphore mThreadPoolSemaphore;
+    /**
+     * 每个ImageView当前的请求(只在UI线程访问)
+     */
+    private final Map<ImageView, LoadRequest> mRequests = new WeakHashMap<>();
+    /**
+     * 直接使用EXIF内嵌缩略图的次数，以及只作为占位图的次数
+     */
+    private final AtomicInteger mExifThumbnailCount = new AtomicInteger();
+    private final AtomicInteger mExifPlaceholderCount = new AtomicInteger();
+    /**
+     * mMemoryCache的复用池和大小控制
+     */
+    private final BitmapPool mBitmapPool;
+    private final MemoryCacheController mCacheController;
+    /**
+     * 文件头信息(格式、宽高)的缓存，代替解码前的inJustDecodeBounds
+     */
+    private final ImageHeaderProber mHeaderProber = new ImageHeaderProber(HEADER_CACHE_ENTRIES);
+    /**
+     * 各阶段耗时、各级缓存命中等统计
+     */
+    private final LoaderMetrics mMetrics = new LoaderMetrics();
 
     public enum Type {
         FIFO, LIFO,
     }
 
 
-    private ImageLoader(int threadCount, Type type) {
-        init(threadCount, type);
-    }
+    /**
+     * ImageLoader的配置
+     */
+    public static class Builder {
+        private int mThreadCount = DEFAULT_THREAD_COUNT;
+        private Type mType = Type.LIFO;
+        private int mQueueCapacity = TASK_QUEUE_CAPACITY;
+        private ExecutorBackend mBackend = ExecutorBackend.FIXED_POOL;
+        private int mMemoryCacheSize;
+        private MemoryCache mMemoryCache;
 
-    public static ImageLoader getInstance() {
-        if (mInstance == null) {
-            synchronized (ImageLoader.class) {
-                if (mInstance == null) {
-                    mInstance = new ImageLoader(DEFAULT_THREAD_COUNT, mType);
-                }
+        /**
+         * 解码线程数，默认3
+         */
+        public Builder threadCount(int threadCount) {
+            this.mThreadCount = Math.max(1, threadCount);
+            return this;
+        }
+
+        /**
+         * 队列调度方式，默认LIFO(最后滑到的最先加载)
+         */
+        public Builder queueType(Type type) {
+            this.mType = type;
+            return this;
+        }
+
+        /**
+         * 队列容量，超出后LIFO丢弃最旧的任务，FIFO拒绝新任务，默认256
+         */
+        public Builder queueCapacity(int capacity) {
+            this.mQueueCapacity = Math.max(1, capacity);
+            return this;
+        }
+
+        /**
+         * 工作线程来源，默认固定线程池；虚拟线程在Android上不可用，会退回固定线程池
+         */
+        public Builder backend(ExecutorBackend backend) {
+            this.mBackend = backend;
+            return this;
+        }
+
+        /**
+         * 单独的内存缓存的大小(字节)，默认按应用可用内存计算
+         */
+        public Builder memoryCacheSize(int bytes) {
+            this.mMemoryCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * 和其他ImageLoader共用内存缓存，设置后memoryCacheSize不再生效
+         *
+         * @param memoryCache 例如另一个ImageLoader的{@link ImageLoader#getMemoryCache()}
+         */
+        public Builder memoryCache(MemoryCache memoryCache) {
+            this.mMemoryCache = memoryCache;
+            return this;
+        }
+
+        public ImageLoader build() {
+            MemoryCache memoryCache = mMemoryCache;
+            if (memoryCache == null) {
+                // 根据应用的最大使用内存计算缓存大小
+                memoryCache = new MemoryCache(mMemoryCacheSize > 0
+                        ? mMemoryCacheSize : MemoryCacheController.calculateBudget());
             }
+            return new ImageLoader(this, memoryCache);
         }
-        return mInstance;
     }
 
-    public static ImageLoader getInstance(int threadCount, Type type) {
+    private ImageLoader(Builder builder, MemoryCache memoryCache) {
+        mMemoryCache = memoryCache;
+        mBitmapPool = memoryCache.getBitmapPool();
+        mCacheController = memoryCache.getController();
+
+        mType = builder.mType;
+        int threadCount = builder.mThreadCount;
+        mScheduler = new TaskScheduler(builder.mBackend, threadCount, builder.mQueueCapacity, mType == Type.LIFO);
+        // 预加载最多占用threadCount - 1个线程
+        mScheduler.setMaxLowPriorityWorkers(Math.max(1, threadCount - 1));
+        mEngine = new LoadEngine<LoadRequest, Bitmap>(mScheduler) {
+            @Override
+            protected Task<LoadRequest, Bitmap> newTask(LoadRequest first, int priority) {
+                return new DecodeJob(this, first, priority);
+            }
+        };
+    }
+
+    /**
+     * 默认配置的共享实例
+     */
+    public static ImageLoader getInstance() {
         if (mInstance == null) {
             synchronized (ImageLoader.class) {
                 if (mInstance == null) {
-                    mInstance = new ImageLoader(threadCount, type);
+                    mInstance = new Builder().build();
                 }
             }
         }
@@ -86,95 +209,42 @@ public class ImageLoader {
     }
 
     /**
-     * 初始化操作
-     *
-     * @param threadCount
-     * @param type
+     * 停止工作线程，还没执行的任务按取消处理；内存缓存可能被共用，不清空
      */
-    private void init(int threadCount, Type type) {
-        // 开启后台轮询线程
-        mPoolThread = new Thread() {
-            @Override
-            public void run() {
-                Looper.prepare();
-
-                mPoolThreadHandler = new Handler() {
-                    @Override
-                    public void handleMessage(Message msg) {
-                        // 去线程池取出一个任务进行执行
-                        // execute执行的是Runnable中的run方法
-                        mThreadPool.execute(getTask());
-
-                        try {
-                            // 当超过信号量个数(后台线程支持并发数)的时候就阻塞
-                            mThreadPoolSemaphore.acquire();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                };
-                // mPoolThreadHandler初始化完成，释放一个信号量
-                mPoolThreadHandlerSemaphore.release();
-
-                Looper.loop();
-            }
-        };
-
-        mPoolThread.start();
-
-        // 获取我们应用的最大使用内存
-        int maxMemory = (int) Runtime.getRuntime().maxMemory();
-        int cacheMemory = maxMemory / 8;
-
-        mLrUCache = new LruCache<String, Bitmap>(cacheMemory) {
-            // 这么方法的目的：测量每个Bitmap的值？
-            @Override
-            protected int sizeOf(String key, Bitmap value) {
-                return value.getRowBytes() * value.getHeight();
-            }
-        };
+    public void shutdown() {
+        mScheduler.shutdown();
+    }
 
-        mThreadPool = Executors.newFixedThreadPool(threadCount); // 创建线程池
-        mTaskQueue = new LinkedList<Runnable>();
-        mType = type;
+    /**
+     * 内存缓存，可以通过{@link Builder#memoryCache(MemoryCache)}给其他ImageLoader共用
+     */
+    public MemoryCache getMemoryCache() {
+        return mMemoryCache;
+    }
 
-        mThreadPoolSemaphore = new Semaphore(threadCount);
+    public Type getType() {
+        return mType;
     }
 
     /**
-     * 从任务队列取出一个方法
+     * 添加到任务队列，由调度器的工作线程直接取出执行
      *
-     * @return
+     * @param runnable
+     * @param priority
      */
-    private synchronized Runnable getTask() {
-        if (mType == Type.FIFO) {
-            return mTaskQueue.removeFirst();
-        } else if (mType == Type.LIFO) {
-            return mTaskQueue.removeLast();
-        }
-        return null;
+    private void addTask(Runnable runnable, int priority) {
+        mScheduler.submit(runnable, priority);
     }
 
     /**
-     * 添加到任务队列
-     * 使用synchronized同步，避免多个线程进来后都进行acquire()，造成死锁
-     * 并且操作任务队列本应该进行同步
+     * 根据path为ImageView设置图片(缩略图)
      *
-     * @param runnable
+     * @param path
+     * @param imageView
+     * @return 本次加载的请求，可以调用{@link LoadRequest#cancel()}取消
      */
-    private synchronized void addTask(Runnable runnable) {
-        // 可能mPoolThreadHandler还没初始化完成,使用信号量(Semaphore),解决并发问题
-        if (mPoolThreadHandler == null) {
-            try {
-                // 如果没有初始化完成，这里会阻塞
-                mPoolThreadHandlerSemaphore.acquire();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-
-        mTaskQueue.add(runnable);
-        mPoolThreadHandler.sendEmptyMessage(0x110);
+    public LoadRequest loadImage(String path, ImageView imageView) {
+        return load(path).into(imageView);
     }
 
     /**
@@ -182,11 +252,47 @@ public class ImageLoader {
      *
      * @param path
      * @param imageView
+     * @param policy    解码策略，决定Bitmap.Config
+     * @return 本次加载的请求，可以调用{@link LoadRequest#cancel()}取消
+     */
+    public LoadRequest loadImage(String path, ImageView imageView, DecodePolicy policy) {
+        return load(path).policy(policy).into(imageView);
+    }
+
+    /**
+     * 构造一个加载请求，可以指定解码策略和变换
+     *
+     * @param path
+     * @return
      */
-    public void loadImage(final String path, final ImageView imageView) {
+    public RequestBuilder load(String path) {
+        return new RequestBuilder(this, path);
+    }
+
+    /**
+     * 执行RequestBuilder构造的请求
+     *
+     * @param imageView 为null时是预加载
+     * @param width     预加载的目标宽
+     * @param height    预加载的目标高
+     */
+    LoadRequest load(RequestBuilder builder, ImageView imageView, int width, int height) {
+        if (imageView == null) {
+            return prefetch(builder.getPath(), builder.getPolicy(), builder.getTransformations(), width, height);
+        }
+        return loadImage(builder.getPath(), imageView, builder.getPolicy(), builder.getTransformations());
+    }
+
+    private LoadRequest loadImage(final String path, final ImageView imageView, DecodePolicy policy,
+                                  Transformation[] transformations) {
         // 防止调用多次，ImageView复用之后造成混乱
         imageView.setTag(path);
 
+        if (mDiskCacheDir == null) {
+            mDiskCacheDir = new File(imageView.getContext().getCacheDir(), DISK_CACHE_DIR);
+            mMemoryCache.register(imageView.getContext());
+        }
+
         if (mUIHandler == null) {
 //            mUIHandler = new Handler(Looper.getMainLooper());
             mUIHandler = new Handler() {
@@ -198,39 +304,391 @@ public class ImageLoader {
                     String path1 = holder.path;
                     ImageView imageView1 = holder.imageView;
 
+                    LoadRequest request1 = holder.request;
+                    if (request1 != null && mRequests.get(imageView1) == request1) {
+                        mRequests.remove(imageView1);
+                    }
+
+                    mMemoryCache.removePending(bm1);
+
                     // 将path与getTag路径进行比较
                     if (imageView1.getTag().toString().equals(path1)) {
                         imageView1.setImageBitmap(bm1); // ImageView是通过holder.imageView获得的
+
+                        mMemoryCache.bind(imageView1, bm1);
+                        if (request1 != null) {
+                            request1.mTrace.mBindTime = System.nanoTime();
+                            mMetrics.recordFinished(request1.mTrace);
+                        }
+                    } else {
+                        mMemoryCache.releaseIfUnused(bm1);
+                        if (request1 != null) mMetrics.recordCancelled();
                     }
                 }
             };
         }
 
-        Bitmap bm = getBitmapFromLruCache(path);
+        // 结果和目标大小有关时按ImageView布局后的实际大小区分缓存；还没有布局时等布局完成再加载，
+        // 不能退回最大宽度或屏幕大小(默认的最大宽度是Integer.MAX_VALUE)
+        int width = 0;
+        int height = 0;
+        if (isSizeDependent(transformations)) {
+            width = imageView.getWidth();
+            height = imageView.getHeight();
+            if (width <= 0 || height <= 0) {
+                return loadAfterLayout(path, imageView, policy, transformations);
+            }
+        }
+        String key = getMemoryCacheKey(path, policy.guessConfig(path), transformations, width, height);
+
+        // ImageView被复用：同一个key的请求还在进行就直接复用，否则取消旧的请求
+        LoadRequest previous = mRequests.get(imageView);
+        if (previous != null) {
+            if (key.equals(previous.getKey()) && !previous.isCancelled() && !previous.isDone()) {
+                return previous;
+            }
+            previous.cancel();
+            mRequests.remove(imageView);
+        }
+
+        Bitmap bm = getBitmapFromLruCache(key);
 
         if (bm != null) {
+            LoadRequest request = new LoadRequest(this, path, policy, transformations, key, imageView,
+                    width, height, LoadEngine.STATE_DONE);
+            request.mTrace.mSource = LoaderMetrics.SOURCE_MEMORY;
+            request.mTrace.mByteCount = bm.getAllocationByteCount();
             // 回调给mUIHandler处理
-            refreshBitmap(imageView, path, bm);
-        } else {
-            addTask(new Runnable() {
-                @Override
-                public void run() {
-                    // 加载图片
-                    // 图片的压缩
-                    // 1、获得图片需要显示的大小
-                    ImageViewSize imageViewSize = getImageViewSize(imageView);
-                    // 2、压缩图片
-                    Bitmap bm = decodeSampleBitmap(path, imageViewSize.width, imageViewSize.height);
-                    // 3、把图片加入到缓存
-                    addBitmapToLruCache(path, bm);
-
-                    // 回调给mUIHandler处理
-                    refreshBitmap(imageView, path, bm);
-
-                    // 释放信号量，线程池可以往下执行，获取下一个task
-                    mThreadPoolSemaphore.release();
+            refreshBitmap(imageView, path, bm, request);
+            return request;
+        }
+
+        LoadRequest request = new LoadRequest(this, path, policy, transformations, key, imageView,
+                width, height, LoadEngine.STATE_PENDING);
+        mRequests.put(imageView, request);
+        enqueue(request, TaskScheduler.PRIORITY_NORMAL);
+        return request;
+    }
+
+    /**
+     * ImageView还没有布局：先返回一个等待中的请求(没有key，不会解码)，
+     * 下一次绘制前ImageView有了大小、而且没有被重新绑定或取消时再真正加载
+     */
+    private LoadRequest loadAfterLayout(final String path, final ImageView imageView, final DecodePolicy policy,
+                                        final Transformation[] transformations) {
+        LoadRequest previous = mRequests.remove(imageView);
+        if (previous != null) previous.cancel();
+
+        final LoadRequest waiting = new LoadRequest(this, path, policy, transformations, null, imageView, 0, 0,
+                LoadEngine.STATE_PENDING);
+        mRequests.put(imageView, waiting);
+        imageView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (imageView.getWidth() <= 0 || imageView.getHeight() <= 0) {
+                    // 还没有大小(比如不可见)，继续等
+                    if (mRequests.get(imageView) == waiting && !waiting.isCancelled()) return true;
                 }
-            });
+                ViewTreeObserver observer = imageView.getViewTreeObserver();
+                if (observer.isAlive()) observer.removeOnPreDrawListener(this);
+
+                if (mRequests.get(imageView) == waiting && !waiting.isCancelled()) {
+                    mRequests.remove(imageView);
+                    waiting.mReplacement = loadImage(path, imageView, policy, transformations);
+                }
+                return true;
+            }
+        });
+        return waiting;
+    }
+
+    /**
+     * 预加载：以低优先级解码并放入缓存，不显示
+     * <p>
+     * 调度器限制了同时执行的低优先级任务数，始终给可见的请求留出工作线程
+     *
+     * @param path
+     * @param width  目标宽度
+     * @param height 目标高度
+     * @return 可以取消的请求
+     */
+    public LoadRequest prefetch(String path, int width, int height) {
+        return load(path).prefetch(width, height);
+    }
+
+    private LoadRequest prefetch(String path, DecodePolicy policy, Transformation[] transformations,
+                                 int width, int height) {
+        String key = getMemoryCacheKey(path, policy.guessConfig(path), transformations, width, height);
+        if (getBitmapFromLruCache(key) != null) {
+            return new LoadRequest(this, path, policy, transformations, key, null, width, height,
+                    LoadEngine.STATE_DONE);
+        }
+        LoadRequest request = new LoadRequest(this, path, policy, transformations, key, null, width, height,
+                LoadEngine.STATE_PENDING);
+        enqueue(request, TaskScheduler.PRIORITY_LOW);
+        return request;
+    }
+
+    /**
+     * 内存缓存的key：路径 + Bitmap.Config + 各个变换，同一张图的不同Config和变换分别缓存；
+     * 有和大小相关的变换(居中裁剪、圆角)时再加上目标大小
+     */
+    private static String getMemoryCacheKey(String path, Bitmap.Config config, Transformation[] transformations,
+                                            int width, int height) {
+        if (transformations.length == 0) return path + "#" + config.name();
+
+        StringBuilder key = new StringBuilder(path.length() + 48).append(path).append('#').append(config.name());
+        for (Transformation transformation : transformations) {
+            key.append('|').append(transformation.getKey());
+        }
+        if (isSizeDependent(transformations)) {
+            key.append('_').append(width).append('x').append(height);
+        }
+        return key.toString();
+    }
+
+    private static boolean isSizeDependent(Transformation[] transformations) {
+        for (Transformation transformation : transformations) {
+            if (transformation.isSizeDependent()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 把请求挂到同一个key正在进行的解码任务上，没有就新建一个任务
+     */
+    private void enqueue(LoadRequest request, int priority) {
+        mEngine.enqueue(request, priority);
+    }
+
+    /**
+     * 取消请求
+     *
+     * @param request
+     * @return
+     */
+    boolean cancel(LoadRequest request) {
+        // 等布局的请求已经换成了真正的请求
+        if (request.mReplacement != null) return cancel(request.mReplacement);
+        if (!mEngine.cancel(request)) {
+            return false;
+        }
+        mMetrics.recordCancelled();
+        return true;
+    }
+
+    /**
+     * 因为取消而省掉的解码次数
+     */
+    public int getSkippedDecodeCount() {
+        return mEngine.getSkippedCount();
+    }
+
+    /**
+     * 因为合并同一个path的请求而省掉的解码次数
+     */
+    public int getCoalescedCount() {
+        return mEngine.getCoalescedCount();
+    }
+
+    /**
+     * 直接使用EXIF内嵌缩略图、省掉原图解码的次数
+     */
+    public int getExifThumbnailCount() {
+        return mExifThumbnailCount.get();
+    }
+
+    /**
+     * EXIF内嵌缩略图不够大、只作为占位图显示的次数
+     */
+    public int getExifPlaceholderCount() {
+        return mExifPlaceholderCount.get();
+    }
+
+    /**
+     * 正在排队或解码的任务数
+     */
+    public int getInFlightCount() {
+        return mEngine.getInFlightCount();
+    }
+
+    /**
+     * 解码任务：磁盘缓存 -> 解码原图 -> 内存缓存 -> 回调UI
+     * <p>
+     * 同一个key只有一个任务在进行(由mEngine合并)，结果分发给所有没有取消的请求
+     */
+    private class DecodeJob extends LoadEngine.Task<LoadRequest, Bitmap> {
+        final String mPath;
+        final String mKey;
+        final DecodePolicy mPolicy;
+        final Transformation[] mTransformations;
+        /**
+         * 目标大小和原图的EXIF方向，只在工作线程中使用
+         */
+        int mWidth;
+        int mHeight;
+        int mOrientation = ExifParser.ORIENTATION_NORMAL;
+        /**
+         * 各阶段的时间点和结果来源，分发时写进每个请求的RequestTrace
+         */
+        long mDispatchTime;
+        long mDecodeStartTime;
+        long mDecodeEndTime;
+        int mSource;
+        int mByteCount;
+
+        DecodeJob(LoadEngine<LoadRequest, Bitmap> engine, LoadRequest request, int priority) {
+            super(engine, request.getKey(), priority);
+            this.mPath = request.getPath();
+            this.mKey = request.getKey();
+            this.mPolicy = request.getPolicy();
+            this.mTransformations = request.getTransformations();
+        }
+
+        /**
+         * 按第一个请求计算压缩尺寸
+         */
+        @Override
+        protected Bitmap execute(LoadRequest first) {
+            mDispatchTime = System.nanoTime();
+            if (mMetrics.isEnabled()) {
+                mMetrics.recordDispatch(mScheduler.getQueueSize(), mScheduler.getActiveWorkerCount());
+            }
+
+            // 加载图片
+            // 图片的压缩
+            // 1、获得图片需要显示的大小(预加载请求和带有大小相关变换的请求已经指定了大小)
+            ImageViewSize imageViewSize;
+            if (first.getImageView() == null || first.getWidth() > 0) {
+                imageViewSize = new ImageViewSize();
+                imageViewSize.width = first.getWidth();
+                imageViewSize.height = first.getHeight();
+            } else {
+                imageViewSize = getImageViewSize(first.getImageView());
+            }
+            mWidth = imageViewSize.width;
+            mHeight = imageViewSize.height;
+
+            // 2、先从磁盘缓存中读取缩略图(变换后的结果)
+            mDecodeStartTime = System.nanoTime();
+            int source = LoaderMetrics.SOURCE_DISK;
+            Bitmap.Config config = mPolicy.guessConfig(mPath);
+            String diskKey = getDiskCacheKey(mPath, mWidth, mHeight, config, mTransformations);
+            Bitmap bm = getBitmapFromDiskCache(diskKey, mPolicy);
+            if (bm == null) {
+                // 解码前检查是否所有请求都已经被取消(ImageView已经被复用)
+                if (isAbandoned()) return null;
+                // 需要转90度时按转之前的方向解码
+                if (mTransformations.length > 0) {
+                    ImageHeaderProber.Header header = mHeaderProber.probe(mPath);
+                    if (header != null) mOrientation = header.orientation;
+                }
+                boolean transposed = Transformations.isTransposed(mOrientation);
+                int decodeWidth = transposed ? mHeight : mWidth;
+                int decodeHeight = transposed ? mWidth : mHeight;
+
+                // 3、JPEG先看EXIF内嵌的缩略图，足够大就直接用，否则先显示出来占位
+                bm = decodeFromExifThumbnail(decodeWidth, decodeHeight, config);
+                source = LoaderMetrics.SOURCE_EXIF;
+                if (bm == null) {
+                    // 4、压缩原图
+                    bm = decodeSampleBitmap(mPath, decodeWidth, decodeHeight, mPolicy);
+                    source = LoaderMetrics.SOURCE_DECODE;
+                }
+                // 5、按顺序执行变换，结果写回磁盘缓存(EXIF缩略图本身很快，有变换时才值得写)
+                bm = applyTransformations(bm);
+                if (source == LoaderMetrics.SOURCE_DECODE || mTransformations.length > 0) {
+                    addBitmapToDiskCache(diskKey, bm);
+                }
+            }
+            mDecodeEndTime = System.nanoTime();
+            mByteCount = bm == null ? 0 : bm.getAllocationByteCount();
+            mSource = bm == null ? -1 : source;
+            if (bm != null) {
+                mMetrics.recordLoad(source, mDecodeEndTime - mDecodeStartTime, mByteCount);
+            }
+            // 6、把图片加入到缓存
+            addBitmapToLruCache(mKey, bm);
+            return bm;
+        }
+
+        /**
+         * 回调给mUIHandler处理
+         */
+        @Override
+        protected void deliver(LoadRequest target, Bitmap bm) {
+            RequestTrace trace = target.mTrace;
+            trace.mDispatchTime = mDispatchTime;
+            trace.mDecodeStartTime = mDecodeStartTime;
+            trace.mDecodeEndTime = mDecodeEndTime;
+            trace.mSource = mSource;
+            trace.mByteCount = mByteCount;
+            if (target.getImageView() != null) {
+                refreshBitmap(target.getImageView(), mPath, bm, target);
+            } else {
+                // 预加载没有设置到ImageView这一步
+                mMetrics.recordFinished(trace);
+            }
+        }
+
+        @Override
+        protected void onDiscarded(LoadRequest target) {
+            mMetrics.recordCancelled();
+        }
+
+        /**
+         * 使用EXIF内嵌的缩略图
+         *
+         * @return 缩略图足够代替原图时返回解码结果；否则把缩略图作为占位图发给各个ImageView，返回null
+         */
+        private Bitmap decodeFromExifThumbnail(int reqWidth, int reqHeight, Bitmap.Config config) {
+            if (mPolicy != DecodePolicy.THUMBNAIL || !"image/jpeg".equals(DecodePolicy.guessMimeType(mPath))) {
+                return null;
+            }
+            ExifParser.ExifInfo exif;
+            try {
+                exif = ExifParser.read(new File(mPath));
+            } catch (IOException e) {
+                return null;
+            }
+            if (exif == null || !exif.hasThumbnail()) return null;
+
+            if (ExifParser.isThumbnailSufficient(exif, reqWidth, reqHeight)) {
+                Bitmap bitmap = decodeExifThumbnail(exif, reqWidth, reqHeight, config);
+                if (bitmap != null) {
+                    mExifThumbnailCount.incrementAndGet();
+                    return bitmap;
+                }
+                return null;
+            }
+
+            // 不够大：原样解码(加上变换)作为占位图，不进缓存，原图解码完成后会替换掉
+            Bitmap placeholder = applyTransformations(decodeExifThumbnail(exif, 0, 0, config));
+            if (placeholder == null) return null;
+            boolean delivered = false;
+            for (LoadRequest target : getPendingTargets()) {
+                if (target.getImageView() != null) {
+                    refreshBitmap(target.getImageView(), mPath, placeholder, null);
+                    delivered = true;
+                }
+            }
+            if (delivered) mExifPlaceholderCount.incrementAndGet();
+            return null;
+        }
+
+        /**
+         * 按顺序执行变换，中间结果没有被显示过，直接放回复用池
+         */
+        private Bitmap applyTransformations(Bitmap bitmap) {
+            for (Transformation transformation : mTransformations) {
+                if (bitmap == null) return null;
+                Bitmap result = transformation.transform(mBitmapPool, bitmap, mWidth, mHeight, mOrientation);
+                if (result != bitmap) {
+                    mBitmapPool.put(bitmap);
+                }
+                bitmap = result;
+            }
+            return bitmap;
         }
     }
 
@@ -240,26 +698,181 @@ public class ImageLoader {
      * @param imageView
      * @param path
      * @param bitmap
+     * @param request
      */
-    private void refreshBitmap(ImageView imageView, String path, Bitmap bitmap) {
+    private void refreshBitmap(ImageView imageView, String path, Bitmap bitmap, LoadRequest request) {
         ImageBeanHolder holder = new ImageBeanHolder();
         holder.bitmap = bitmap;
         holder.path = path;
         holder.imageView = imageView;
+        holder.request = request;
+        mMemoryCache.addPending(bitmap);
         Message msg = Message.obtain();
         msg.obj = holder;
         mUIHandler.sendMessage(msg);
     }
 
+    /**
+     * 复用池
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * 加载统计，可以注册{@link LoaderMetrics.Listener}
+     */
+    public LoaderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 输出统计和各级缓存的状态，用于Activity.dump(dumpsys)
+     *
+     * @param writer
+     * @param prefix
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "ImageLoader:");
+        String inner = prefix + "  ";
+        mMetrics.dump(writer, inner);
+        writer.println(inner + mCacheController);
+        writer.println(inner + mBitmapPool);
+        writer.println(inner + "diskCache: hits=" + getDiskCacheHitCount() + " misses=" + getDiskCacheMissCount());
+        writer.println(inner + "scheduler: queued=" + mScheduler.getQueueSize()
+                + " active=" + mScheduler.getActiveWorkerCount() + "/" + mScheduler.getWorkerCount()
+                + " submitted=" + mScheduler.getSubmittedCount() + " completed=" + mScheduler.getCompletedCount()
+                + " discarded=" + mScheduler.getDiscardedCount() + " failed=" + mScheduler.getFailedCount());
+        writer.println(inner + "skippedDecodes=" + getSkippedDecodeCount() + " coalesced=" + getCoalescedCount()
+                + " exifThumbnails=" + getExifThumbnailCount() + " exifPlaceholders=" + getExifPlaceholderCount()
+                + " headerCacheHits=" + mHeaderProber.getHitCount());
+    }
+
+    /**
+     * 文件头缓存
+     */
+    public ImageHeaderProber getHeaderProber() {
+        return mHeaderProber;
+    }
+
+    /**
+     * 内存缓存的预算、大小和淘汰速度
+     */
+    public MemoryCacheController getMemoryCacheController() {
+        return mCacheController;
+    }
+
     /**
      * 将图片加入缓存(LruCache)
      */
-    private void addBitmapToLruCache(String path, Bitmap bitmap) {
-        if (getBitmapFromLruCache(path) == null) {
-            if (bitmap != null) {
-                mLrUCache.put(path, bitmap);
+    private void addBitmapToLruCache(String key, Bitmap bitmap) {
+        mMemoryCache.put(key, bitmap);
+    }
+
+    /**
+     * 获取磁盘缓存，第一次调用时打开(会读日志，不能在UI线程调用)
+     *
+     * @return 打开失败返回null
+     */
+    private synchronized DiskLruCache getDiskLruCache() {
+        if (mDiskLruCache == null && !mDiskCacheOpenFailed && mDiskCacheDir != null) {
+            try {
+                synchronized (mDiskCaches) {
+                    DiskLruCache diskLruCache = mDiskCaches.get(mDiskCacheDir);
+                    if (diskLruCache == null) {
+                        diskLruCache = DiskLruCache.open(mDiskCacheDir, DISK_CACHE_SIZE);
+                        mDiskCaches.put(mDiskCacheDir, diskLruCache);
+                    }
+                    mDiskLruCache = diskLruCache;
+                }
+            } catch (IOException e) {
+                // 打开失败就只用内存缓存
+                mDiskCacheOpenFailed = true;
+                e.printStackTrace();
             }
         }
+        return mDiskLruCache;
+    }
+
+    /**
+     * 磁盘缓存的key：路径 + 修改时间 + 目标尺寸 + Config + 各个变换，原图被修改后自然失效
+     */
+    private String getDiskCacheKey(String path, int width, int height, Bitmap.Config config,
+                                   Transformation[] transformations) {
+        long lastModified = new File(path).lastModified();
+        StringBuilder key = new StringBuilder(path.length() + 48).append(path).append('@').append(lastModified)
+                .append('_').append(width).append('x').append(height).append('#').append(config.name());
+        for (Transformation transformation : transformations) {
+            key.append('|').append(transformation.getKey());
+        }
+        return DiskLruCache.hashKeyForDisk(key.toString());
+    }
+
+    /**
+     * 从磁盘缓存中读取缩略图
+     *
+     * @param policy 按缓存数据的实际类型选择Config(圆角等变换的结果是带透明的PNG)
+     */
+    private Bitmap getBitmapFromDiskCache(String diskKey, DecodePolicy policy) {
+        DiskLruCache diskLruCache = getDiskLruCache();
+        if (diskLruCache == null) return null;
+
+        byte[] data = diskLruCache.get(diskKey);
+        if (data == null) return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inPreferredConfig = policy.getConfig(options.outMimeType);
+        addInBitmapOptions(options, options.outWidth, options.outHeight);
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // 复用的Bitmap不合适，不复用再解一次
+            mBitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if (bitmap == null) {
+            // 数据损坏
+            diskLruCache.remove(diskKey);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 把缩略图编码后异步写入磁盘缓存
+     */
+    private void addBitmapToDiskCache(String diskKey, Bitmap bitmap) {
+        DiskLruCache diskLruCache = getDiskLruCache();
+        if (diskLruCache == null || bitmap == null) return;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Bitmap.CompressFormat format = bitmap.hasAlpha()
+                ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+        if (bitmap.compress(format, 90, out)) {
+            diskLruCache.putAsync(diskKey, out.toByteArray());
+        }
+    }
+
+    /**
+     * 磁盘缓存命中次数
+     */
+    public int getDiskCacheHitCount() {
+        DiskLruCache diskLruCache = mDiskLruCache;
+        return diskLruCache == null ? 0 : diskLruCache.getHitCount();
+    }
+
+    /**
+     * 磁盘缓存未命中次数
+     */
+    public int getDiskCacheMissCount() {
+        DiskLruCache diskLruCache = mDiskLruCache;
+        return diskLruCache == null ? 0 : diskLruCache.getMissCount();
     }
 
     /**
@@ -268,22 +881,117 @@ public class ImageLoader {
      * @param path
      * @param reqWidth
      * @param reqHeight
+     * @param policy    根据实际的图片类型选择Bitmap.Config
      * @return
      */
-    private Bitmap decodeSampleBitmap(String path, int reqWidth, int reqHeight) {
+    private Bitmap decodeSampleBitmap(String path, int reqWidth, int reqHeight, DecodePolicy policy) {
         // 获得图片的宽和高，并不把图片加载到内存当中
         BitmapFactory.Options options = new BitmapFactory.Options();
 
         // 如果设为true，decode的Bitmap为null,只是把图片的宽高放在Options里
         // options.outWidth 和 options.outHeight就是我们想要的宽和高
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(path, options);
+        // 先读文件头(有缓存)，读不出宽高时再用inJustDecodeBounds
+        ImageHeaderProber.Header header = mHeaderProber.probe(path);
+        if (header != null && !header.isImage()) {
+            // 扩展名是图片，内容不是
+            return null;
+        }
+        if (header != null && header.hasSize()) {
+            options.outWidth = header.width;
+            options.outHeight = header.height;
+            options.outMimeType = header.getMimeType();
+        } else {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(path, options);
+        }
 
         options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
 
         // 使用获取到的inSampleSize再次解析图片
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFile(path, options);
+        // 不透明的JPEG缩略图用RGB_565，内存减半
+        options.inPreferredConfig = policy.getConfig(options.outMimeType);
+        // mutable的Bitmap被淘汰后才能复用
+        options.inMutable = true;
+
+        // 2的幂采样之后再精确缩放到正好覆盖目标大小
+        int decodedWidth = BitmapSizing.sampledSize(options.outWidth, options.inSampleSize);
+        int decodedHeight = BitmapSizing.sampledSize(options.outHeight, options.inSampleSize);
+        int[] density = BitmapSizing.calculateDensity(decodedWidth, decodedHeight, reqWidth, reqHeight);
+        if (density != null) {
+            options.inScaled = true;
+            options.inDensity = density[0];
+            options.inTargetDensity = density[1];
+            decodedWidth = BitmapSizing.scaledSize(decodedWidth, density[0], density[1]);
+            decodedHeight = BitmapSizing.scaledSize(decodedHeight, density[0], density[1]);
+        }
+        addInBitmapOptions(options, decodedWidth, decodedHeight);
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            // 复用的Bitmap不合适，不复用再解一次
+            mBitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(path, options);
+        }
+        if (bitmap == null && options.inBitmap != null) {
+            // 解码失败，复用的Bitmap还回去
+            mBitmapPool.put(options.inBitmap);
+        }
+        if (bitmap != null && density != null) {
+            // inTargetDensity只是用来缩放的，不能让显示时再按density缩放一次
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 解码EXIF内嵌的缩略图，和原图一样先采样再精确缩放到覆盖目标大小
+     *
+     * @param exif
+     * @param reqWidth  目标宽，0表示不缩放
+     * @param reqHeight 目标高，0表示不缩放
+     * @param config
+     * @return
+     */
+    private Bitmap decodeExifThumbnail(ExifParser.ExifInfo exif, int reqWidth, int reqHeight,
+                                       Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+        options.inSampleSize = BitmapSizing.calculateInSampleSize(exif.thumbnailWidth,
+                exif.thumbnailHeight, reqWidth, reqHeight);
+
+        int decodedWidth = BitmapSizing.sampledSize(exif.thumbnailWidth, options.inSampleSize);
+        int decodedHeight = BitmapSizing.sampledSize(exif.thumbnailHeight, options.inSampleSize);
+        int[] density = BitmapSizing.calculateDensity(decodedWidth, decodedHeight, reqWidth, reqHeight);
+        if (density != null) {
+            options.inScaled = true;
+            options.inDensity = density[0];
+            options.inTargetDensity = density[1];
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(exif.thumbnailData, exif.thumbnailOffset,
+                exif.thumbnailLength, options);
+        if (bitmap != null && density != null) {
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 从复用池中取一个足够大的Bitmap设置给inBitmap
+     *
+     * @param options
+     * @param width   解码后的宽
+     * @param height  解码后的高
+     */
+    private void addInBitmapOptions(BitmapFactory.Options options, int width, int height) {
+        Bitmap.Config config = options.inPreferredConfig != null
+                ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        options.inBitmap = mBitmapPool.get(width, height, config);
     }
 
     /**
@@ -299,16 +1007,8 @@ public class ImageLoader {
         int width = options.outWidth;
         int height = options.outHeight;
 
-        int inSampleSize = 1;
-
-        if (width > reqWidth || height > reqHeight) {
-            int widthRadio = Math.round(width * 1.0f / reqWidth);
-            int heightRadio = Math.round(height * 1.0f / reqWidth);
-
-            inSampleSize = Math.max(widthRadio, heightRadio); // inSampleSize越大，压得越小
-        }
-
-        return inSampleSize;
+        // 2的幂，inSampleSize越大，压得越小，但采样后的宽高都不小于需求
+        return BitmapSizing.calculateInSampleSize(width, height, reqWidth, reqHeight);
     }
 
     /**
@@ -364,7 +1064,7 @@ public class ImageLoader {
      * @return
      */
     private Bitmap getBitmapFromLruCache(String key) {
-        return mLrUCache.get(key);
+        return mMemoryCache.get(key);
     }
 
     private class ImageViewSize {
@@ -376,5 +1076,6 @@ public class ImageLoader {
         Bitmap bitmap;
         ImageView imageView;
         String path;
+        LoadRequest request;
     }
 }
@@ -0,0 +1,330 @@
+package com.samboluong.imageloader.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 加载引擎：请求合并、优先级、取消和结果分发(纯Java)
+ * <p>
+ * 同一个key只有一个任务在排队或执行，后来的请求挂到这个任务上等结果；
+ * 低优先级任务还在排队时来了更高优先级的请求，提高优先级重新排队；
+ * 所有请求都取消后，还在队列中的任务直接移除，正在执行的由任务在耗时步骤前调用{@link Task#isAbandoned()}检查。
+ * <p>
+ * Bitmap、ImageView、Handler都留在{@link ImageLoader}里，引擎可以在JVM上
+ * 配合不同的{@link ExecutorBackend}做压力测试。
+ *
+ * @param <T> 请求类型
+ * @param <V> 结果类型
+ */
+public abstract class LoadEngine<T extends LoadEngine.Target, V> {
+
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_DONE = 1;
+    public static final int STATE_CANCELLED = 2;
+
+    /**
+     * 一次请求，同一个key的请求共用一个任务
+     */
+    public static class Target {
+        private final String mKey;
+        private final AtomicInteger mState;
+        /**
+         * 负责加载的任务，由mInFlightTasks加锁保护
+         */
+        Task<?, ?> mTask;
+
+        /**
+         * @param key   相同key的请求合并成一次加载
+         * @param state {@link #STATE_PENDING}，或者直接命中缓存时为{@link #STATE_DONE}
+         */
+        public Target(String key, int state) {
+            this.mKey = key;
+            this.mState = new AtomicInteger(state);
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        public boolean isCancelled() {
+            return mState.get() == STATE_CANCELLED;
+        }
+
+        public boolean isDone() {
+            return mState.get() == STATE_DONE;
+        }
+
+        int getState() {
+            return mState.get();
+        }
+
+        boolean compareAndSetState(int expect, int update) {
+            return mState.compareAndSet(expect, update);
+        }
+    }
+
+    /**
+     * 加载任务：在工作线程执行{@link #execute}，结果分发给所有没有取消的请求
+     */
+    public abstract static class Task<T extends Target, V> implements Runnable {
+        private final LoadEngine<T, V> mEngine;
+        private final String mKey;
+        /**
+         * 等待结果的请求，以下字段都由mInFlightTasks加锁保护
+         */
+        private final List<T> mTargets = new ArrayList<>(1);
+        private int mPriority;
+        private boolean mStarted;
+        private boolean mFinished;
+
+        protected Task(LoadEngine<T, V> engine, String key, int priority) {
+            this.mEngine = engine;
+            this.mKey = key;
+            this.mPriority = priority;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        @Override
+        public final void run() {
+            T first;
+            synchronized (mEngine.mInFlightTasks) {
+                if (mFinished) return;
+                mStarted = true;
+                if (finishIfNoTargets()) return;
+                first = mTargets.get(0);
+            }
+
+            V value;
+            try {
+                value = execute(first);
+            } catch (RuntimeException | Error e) {
+                // 解码OOM、变换异常：一定要结束任务，否则这个key一直留在mInFlightTasks里，之后的请求都挂在它上面
+                finishAndDeliver(null);
+                throw e;
+            }
+            finishAndDeliver(value);
+        }
+
+        private void finishAndDeliver(V value) {
+            List<T> targets;
+            synchronized (mEngine.mInFlightTasks) {
+                // 执行过程中所有请求都取消了
+                if (mFinished) return;
+                finish();
+                targets = new ArrayList<>(mTargets);
+            }
+            for (T target : targets) {
+                if (target.compareAndSetState(STATE_PENDING, STATE_DONE)) {
+                    deliver(target, value);
+                }
+            }
+        }
+
+        /**
+         * 在工作线程中加载
+         *
+         * @param first 第一个请求，按它的参数加载
+         * @return 加载结果，失败时为null(同样分发给各个请求)
+         */
+        protected abstract V execute(T first);
+
+        /**
+         * 把结果交给一个请求，在工作线程中调用
+         */
+        protected abstract void deliver(T target, V value);
+
+        /**
+         * 请求因为任务被调度器丢弃(队列满)而取消
+         */
+        protected void onDiscarded(T target) {
+        }
+
+        /**
+         * 在耗时步骤之前检查：所有请求都取消了就结束任务，{@link #execute}应该直接返回
+         */
+        protected final boolean isAbandoned() {
+            synchronized (mEngine.mInFlightTasks) {
+                return mFinished || finishIfNoTargets();
+            }
+        }
+
+        /**
+         * @return 还没有取消的请求(副本)，用来提前分发占位结果
+         */
+        protected final List<T> getPendingTargets() {
+            List<T> targets;
+            synchronized (mEngine.mInFlightTasks) {
+                targets = new ArrayList<>(mTargets);
+            }
+            for (int i = targets.size() - 1; i >= 0; i--) {
+                if (targets.get(i).getState() != STATE_PENDING) targets.remove(i);
+            }
+            return targets;
+        }
+
+        /**
+         * 需要持有mInFlightTasks的锁
+         */
+        private boolean finishIfNoTargets() {
+            if (!mTargets.isEmpty()) return false;
+            finish();
+            mEngine.mSkippedCount.incrementAndGet();
+            return true;
+        }
+
+        private void finish() {
+            mFinished = true;
+            if (mEngine.mInFlightTasks.get(mKey) == this) {
+                mEngine.mInFlightTasks.remove(mKey);
+            }
+        }
+
+        /**
+         * 任务被调度器丢弃，所有请求按取消处理
+         */
+        private void discard() {
+            List<T> dropped = new ArrayList<>();
+            synchronized (mEngine.mInFlightTasks) {
+                if (mFinished) return;
+                finish();
+                for (T target : mTargets) {
+                    if (target.compareAndSetState(STATE_PENDING, STATE_CANCELLED)) {
+                        dropped.add(target);
+                    }
+                }
+                mTargets.clear();
+            }
+            mEngine.mSkippedCount.incrementAndGet();
+            for (T target : dropped) {
+                onDiscarded(target);
+            }
+        }
+    }
+
+    private final TaskScheduler mScheduler;
+    /**
+     * 正在排队或执行的任务(key -> 任务)
+     */
+    private final Map<String, Task<T, V>> mInFlightTasks = new HashMap<>();
+    /**
+     * 因为取消或丢弃而省掉的加载次数
+     */
+    private final AtomicInteger mSkippedCount = new AtomicInteger();
+    /**
+     * 合并请求省掉的加载次数
+     */
+    private final AtomicInteger mCoalescedCount = new AtomicInteger();
+
+    public LoadEngine(TaskScheduler scheduler) {
+        this.mScheduler = scheduler;
+        scheduler.setOnTaskDiscardListener(new TaskScheduler.OnTaskDiscardListener() {
+            @Override
+            public void onTaskDiscarded(Runnable task) {
+                // 队列满被丢弃的任务按取消处理
+                if (task instanceof Task) {
+                    ((Task<?, ?>) task).discard();
+                }
+            }
+        });
+    }
+
+    /**
+     * 为第一个请求创建任务
+     */
+    protected abstract Task<T, V> newTask(T first, int priority);
+
+    /**
+     * 把请求挂到同一个key正在进行的任务上，没有就新建一个任务
+     *
+     * @param target
+     * @param priority TaskScheduler的优先级
+     */
+    public void enqueue(T target, int priority) {
+        String key = target.getKey();
+        Task<T, V> task;
+        synchronized (mInFlightTasks) {
+            task = mInFlightTasks.get(key);
+            if (task != null) {
+                task.mTargets.add(target);
+                target.mTask = task;
+                mCoalescedCount.incrementAndGet();
+
+                // 预加载任务还在排队时来了可见的请求，提高优先级重新排队
+                if (priority <= task.mPriority || task.mStarted || !mScheduler.remove(task)) {
+                    return;
+                }
+                task.mPriority = priority;
+            } else {
+                task = newTask(target, priority);
+                task.mTargets.add(target);
+                target.mTask = task;
+                mInFlightTasks.put(key, task);
+            }
+        }
+        mScheduler.submit(task, task.mPriority);
+    }
+
+    /**
+     * 取消请求
+     *
+     * @param target
+     * @return 请求已经完成或已经取消时返回false
+     */
+    public boolean cancel(T target) {
+        if (!target.compareAndSetState(STATE_PENDING, STATE_CANCELLED)) {
+            return false;
+        }
+
+        Task<?, ?> task;
+        boolean removeTask = false;
+        synchronized (mInFlightTasks) {
+            task = target.mTask;
+            if (task == null) return true;
+            task.mTargets.remove(target);
+            if (task.mTargets.isEmpty() && !task.mStarted && !task.mFinished) {
+                task.finish();
+                removeTask = true;
+            }
+        }
+        if (removeTask) {
+            // 还没开始执行，直接从队列移除，省掉一次加载
+            mScheduler.remove(task);
+            mSkippedCount.incrementAndGet();
+        }
+        // 正在执行的由工作线程在耗时步骤前检查
+        return true;
+    }
+
+    public TaskScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * 因为取消而省掉的加载次数
+     */
+    public int getSkippedCount() {
+        return mSkippedCount.get();
+    }
+
+    /**
+     * 因为合并同一个key的请求而省掉的加载次数
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * 正在排队或执行的任务数
+     */
+    public int getInFlightCount() {
+        synchronized (mInFlightTasks) {
+            return mInFlightTasks.size();
+        }
+    }
+}
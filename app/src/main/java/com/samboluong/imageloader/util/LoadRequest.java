@@ -0,0 +1,89 @@
+package com.samboluong.imageloader.util;
+
+import android.widget.ImageView;
+
+/**
+ * 一次图片加载请求，由{@link ImageLoader#loadImage(String, ImageView)}返回，可以取消
+ */
+public class LoadRequest extends LoadEngine.Target {
+
+    private final ImageLoader mLoader;
+    private final String mPath;
+    private final DecodePolicy mPolicy;
+    private final Transformation[] mTransformations;
+    private final ImageView mImageView;
+    private final int mWidth;
+    private final int mHeight;
+    /**
+     * 各阶段的时间点
+     */
+    final RequestTrace mTrace;
+    /**
+     * 等ImageView布局的请求，布局后换成的真正请求，只在UI线程访问
+     */
+    LoadRequest mReplacement;
+
+    /**
+     * @param transformations 解码后按顺序执行的变换
+     * @param cacheKey        内存缓存的key，同一个key的请求合并解码；等ImageView布局时为null
+     * @param state           {@link LoadEngine#STATE_PENDING}，命中内存缓存时为{@link LoadEngine#STATE_DONE}
+     * @param imageView       预加载时为null
+     * @param width           为0时按ImageView的大小计算
+     * @param height          为0时按ImageView的大小计算
+     */
+    LoadRequest(ImageLoader loader, String path, DecodePolicy policy, Transformation[] transformations,
+                String cacheKey, ImageView imageView, int width, int height, int state) {
+        super(cacheKey, state);
+        this.mLoader = loader;
+        this.mPath = path;
+        this.mPolicy = policy;
+        this.mTransformations = transformations;
+        this.mImageView = imageView;
+        this.mWidth = width;
+        this.mHeight = height;
+        this.mTrace = new RequestTrace(path, System.nanoTime());
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public DecodePolicy getPolicy() {
+        return mPolicy;
+    }
+
+    Transformation[] getTransformations() {
+        return mTransformations;
+    }
+
+    /**
+     * @return 预加载请求返回null
+     */
+    public ImageView getImageView() {
+        return mImageView;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * 取消请求：解码任务的所有请求都取消后，还在队列中的任务直接移除，正在执行的在解码前放弃
+     *
+     * @return 请求已经完成或已经取消时返回false
+     */
+    public boolean cancel() {
+        return mLoader.cancel(this);
+    }
+
+    /**
+     * @return 各阶段的时间点，请求完成后才完整
+     */
+    public RequestTrace getTrace() {
+        return mTrace;
+    }
+}
@@ -0,0 +1,200 @@
+package com.samboluong.imageloader.util;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 图片加载的统计
+ * <p>
+ * 每个请求完成时按阶段(排队、读取/解码、UI线程交接、总时间)记入直方图，
+ * 每个解码任务记录取出时的队列长度、忙碌的工作线程数、各级的读取时间和解码的字节数。
+ * 只有原子加，默认开启；可以注册Listener拿到每个请求的RequestTrace。
+ * 在设备上用 adb shell dumpsys activity com.samboluong.imageloader/.MainActivity 查看。
+ */
+public class LoaderMetrics {
+
+    /**
+     * 结果来自哪一级
+     */
+    public static final int SOURCE_MEMORY = 0;
+    public static final int SOURCE_DISK = 1;
+    public static final int SOURCE_EXIF = 2;
+    public static final int SOURCE_DECODE = 3;
+    private static final int SOURCE_COUNT = 4;
+
+    private static final String[] SOURCE_NAMES = {"memory", "disk", "exif", "decode"};
+
+    /**
+     * 请求完成的回调，在完成的线程(一般是UI线程)调用，不要做耗时操作
+     */
+    public interface Listener {
+        void onRequestFinished(RequestTrace trace);
+    }
+
+    private volatile boolean mEnabled = true;
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 以下时间都是微秒
+     */
+    private final Histogram mQueueWait = new Histogram();
+    private final Histogram mHandoff = new Histogram();
+    private final Histogram mTotal = new Histogram();
+    private final Histogram[] mLoadTime = new Histogram[SOURCE_COUNT];
+
+    private final Histogram mQueueDepth = new Histogram();
+    private final Histogram mActiveWorkers = new Histogram();
+
+    private final AtomicLongArray mSourceCounts = new AtomicLongArray(SOURCE_COUNT);
+    private final AtomicLong mBytesDecoded = new AtomicLong();
+    private final AtomicLong mCancelledCount = new AtomicLong();
+
+    public LoaderMetrics() {
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            mLoadTime[i] = new Histogram();
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * 工作线程取出一个解码任务
+     *
+     * @param queueDepth    取出后队列中剩余的任务数
+     * @param activeWorkers 正在执行任务的工作线程数
+     */
+    public void recordDispatch(int queueDepth, int activeWorkers) {
+        if (!mEnabled) return;
+        mQueueDepth.record(queueDepth);
+        mActiveWorkers.record(activeWorkers);
+    }
+
+    /**
+     * 一个解码任务得到了结果(合并的请求只记一次)
+     *
+     * @param source    SOURCE_DISK、SOURCE_EXIF或SOURCE_DECODE
+     * @param nanos     读取/解码的时间
+     * @param byteCount 结果Bitmap的字节数
+     */
+    public void recordLoad(int source, long nanos, int byteCount) {
+        if (!mEnabled) return;
+        mLoadTime[source].record(nanos / 1000);
+        mBytesDecoded.addAndGet(byteCount);
+    }
+
+    /**
+     * 一个请求完成(设置到ImageView或预加载放入缓存)
+     */
+    public void recordFinished(RequestTrace trace) {
+        if (!mEnabled) return;
+        if (trace.mSource >= 0) mSourceCounts.incrementAndGet(trace.mSource);
+        if (trace.mDispatchTime != 0) mQueueWait.record(trace.getQueueWaitNanos() / 1000);
+        if (trace.mBindTime != 0) mHandoff.record(trace.getHandoffNanos() / 1000);
+        mTotal.record(trace.getTotalNanos() / 1000);
+
+        for (Listener listener : mListeners) {
+            listener.onRequestFinished(trace);
+        }
+    }
+
+    public void recordCancelled() {
+        if (!mEnabled) return;
+        mCancelledCount.incrementAndGet();
+    }
+
+    /**
+     * @param source SOURCE_*
+     * @return 结果来自该级的请求数
+     */
+    public long getSourceCount(int source) {
+        return mSourceCounts.get(source);
+    }
+
+    public long getBytesDecoded() {
+        return mBytesDecoded.get();
+    }
+
+    public long getCancelledCount() {
+        return mCancelledCount.get();
+    }
+
+    public Histogram getQueueWait() {
+        return mQueueWait;
+    }
+
+    public Histogram getHandoff() {
+        return mHandoff;
+    }
+
+    public Histogram getTotal() {
+        return mTotal;
+    }
+
+    public Histogram getLoadTime(int source) {
+        return mLoadTime[source];
+    }
+
+    public Histogram getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    public Histogram getActiveWorkers() {
+        return mActiveWorkers;
+    }
+
+    public void reset() {
+        mQueueWait.reset();
+        mHandoff.reset();
+        mTotal.reset();
+        for (Histogram histogram : mLoadTime) {
+            histogram.reset();
+        }
+        mQueueDepth.reset();
+        mActiveWorkers.reset();
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            mSourceCounts.set(i, 0);
+        }
+        mBytesDecoded.set(0);
+        mCancelledCount.set(0);
+    }
+
+    /**
+     * 输出所有统计
+     *
+     * @param writer
+     * @param prefix 每行的前缀(缩进)
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.print("requests:");
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            writer.print(" " + SOURCE_NAMES[i] + "=" + mSourceCounts.get(i));
+        }
+        writer.println(" cancelled=" + mCancelledCount.get() + " bytesDecoded=" + mBytesDecoded.get());
+
+        writer.println(prefix + "queueWait(us): " + mQueueWait);
+        for (int i = SOURCE_DISK; i < SOURCE_COUNT; i++) {
+            writer.println(prefix + SOURCE_NAMES[i] + "Time(us): " + mLoadTime[i]);
+        }
+        writer.println(prefix + "handoff(us): " + mHandoff);
+        writer.println(prefix + "total(us): " + mTotal);
+        writer.println(prefix + "queueDepth: " + mQueueDepth);
+        writer.println(prefix + "activeWorkers: " + mActiveWorkers);
+    }
+}
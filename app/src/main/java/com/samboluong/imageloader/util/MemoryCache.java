@@ -0,0 +1,163 @@
+package com.samboluong.imageloader.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * 内存缓存：LruCache + 复用池 + 按内存压力调整大小
+ * <p>
+ * 被淘汰的Bitmap要等到没有ImageView在显示、也没有等待显示时才能放进复用池，
+ * 所以显示状态也记录在这里；多个ImageLoader共用一个MemoryCache时判断依然正确。
+ */
+public class MemoryCache {
+
+    private final LruCache<String, Bitmap> mLruCache;
+    /**
+     * Bitmap复用池，解码时通过inBitmap复用被淘汰的Bitmap
+     */
+    private final BitmapPool mBitmapPool;
+    /**
+     * 根据内存压力调整缓存大小
+     */
+    private final MemoryCacheController mController;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 每个ImageView当前显示的Bitmap(只在UI线程访问)
+     */
+    private final Map<ImageView, Bitmap> mBoundBitmaps = new WeakHashMap<>();
+    /**
+     * 已经从LruCache淘汰但可能还在显示的Bitmap(只在UI线程访问)
+     */
+    private final Set<Bitmap> mEvictedBitmaps = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+    /**
+     * 已经发给UI线程但还没有设置到ImageView上的Bitmap及其次数
+     */
+    private final Map<Bitmap, Integer> mPendingBitmaps = new IdentityHashMap<>();
+
+    /**
+     * @param maxSize 缓存的最大字节数，复用池用它的1/4
+     */
+    public MemoryCache(int maxSize) {
+        mLruCache = new LruCache<String, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                // 复用的Bitmap实际占用的内存可能比getRowBytes() * getHeight()大
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                // 被淘汰的Bitmap交给复用池
+                if (oldValue != newValue) {
+                    onBitmapRemoved(oldValue);
+                }
+            }
+        };
+        mBitmapPool = new BitmapPool(maxSize / 4);
+        mController = new MemoryCacheController(mLruCache, mBitmapPool);
+    }
+
+    /**
+     * 注册内存回调，重复调用只注册一次
+     */
+    public void register(Context context) {
+        mController.register(context);
+    }
+
+    public Bitmap get(String key) {
+        return mLruCache.get(key);
+    }
+
+    /**
+     * 放入缓存，已经有了就不替换
+     */
+    public void put(String key, Bitmap bitmap) {
+        if (bitmap == null || mLruCache.get(key) != null) return;
+        mLruCache.put(key, bitmap);
+        mController.maybeGrow();
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    public MemoryCacheController getController() {
+        return mController;
+    }
+
+    /**
+     * 发往UI线程之前调用，防止在设置到ImageView之前被放进复用池
+     */
+    void addPending(Bitmap bitmap) {
+        if (bitmap == null) return;
+        synchronized (mPendingBitmaps) {
+            Integer count = mPendingBitmaps.get(bitmap);
+            mPendingBitmaps.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    void removePending(Bitmap bitmap) {
+        if (bitmap == null) return;
+        synchronized (mPendingBitmaps) {
+            Integer count = mPendingBitmaps.get(bitmap);
+            if (count == null || count <= 1) {
+                mPendingBitmaps.remove(bitmap);
+            } else {
+                mPendingBitmaps.put(bitmap, count - 1);
+            }
+        }
+    }
+
+    /**
+     * 记录ImageView显示的Bitmap，之前显示的如果已经被淘汰就放进复用池(UI线程)
+     */
+    void bind(ImageView imageView, Bitmap bitmap) {
+        Bitmap previous = bitmap == null ? mBoundBitmaps.remove(imageView) : mBoundBitmaps.put(imageView, bitmap);
+        if (previous != null && previous != bitmap) {
+            releaseIfUnused(previous);
+        }
+    }
+
+    /**
+     * Bitmap从LruCache移除(可能在任意线程)，转到UI线程判断是否可以复用
+     */
+    private void onBitmapRemoved(final Bitmap bitmap) {
+        if (bitmap == null) return;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mEvictedBitmaps.add(bitmap);
+                releaseIfUnused(bitmap);
+            }
+        });
+    }
+
+    /**
+     * 已经被淘汰、没有显示、也没有等待显示的Bitmap才放进复用池(UI线程)
+     */
+    void releaseIfUnused(Bitmap bitmap) {
+        if (bitmap == null || !mEvictedBitmaps.contains(bitmap)) return;
+        if (mBoundBitmaps.containsValue(bitmap)) return;
+        synchronized (mPendingBitmaps) {
+            if (mPendingBitmaps.containsKey(bitmap)) return;
+        }
+        mEvictedBitmaps.remove(bitmap);
+        mBitmapPool.put(bitmap);
+    }
+
+    @Override
+    public String toString() {
+        return mController + " " + mBitmapPool;
+    }
+}
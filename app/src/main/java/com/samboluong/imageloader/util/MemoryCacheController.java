@@ -0,0 +1,185 @@
+package com.samboluong.imageloader.util;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+/**
+ * 根据内存压力调整内存缓存的大小
+ * <p>
+ * 收到onTrimMemory/onLowMemory时按级别缩小LruCache和BitmapPool；
+ * 一段时间没有再收到内存警告后，每次放入缓存时逐步(每次翻倍)恢复到原来的大小。
+ */
+public class MemoryCacheController implements ComponentCallbacks2 {
+
+    /**
+     * 距离上次内存警告多久之后才开始恢复
+     */
+    private static final long GROW_INTERVAL_MILLIS = 30 * 1000;
+
+    private final LruCache<String, Bitmap> mCache;
+    private final BitmapPool mBitmapPool;
+
+    private int mMaxBudget;
+    private int mBudget;
+    private long mLastTrimTime;
+    private boolean mRegistered;
+
+    private int mLastEvictionCount;
+    private long mLastEvictionSampleTime = SystemClock.uptimeMillis();
+    private float mEvictionRate;
+
+    /**
+     * @param cache      要控制的缓存，当前的maxSize作为最大预算
+     * @param bitmapPool 同时裁剪的复用池，可以为null
+     */
+    public MemoryCacheController(LruCache<String, Bitmap> cache, BitmapPool bitmapPool) {
+        this.mCache = cache;
+        this.mBitmapPool = bitmapPool;
+        this.mMaxBudget = cache.maxSize();
+        this.mBudget = mMaxBudget;
+    }
+
+    /**
+     * 根据应用可用内存计算缓存预算：大内存(largeHeap)时用1/4，否则用1/8
+     */
+    public static int calculateBudget() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        long budget = maxMemory >= 256L * 1024 * 1024 ? maxMemory / 4 : maxMemory / 8;
+        return (int) Math.min(Integer.MAX_VALUE, budget);
+    }
+
+    /**
+     * 注册内存回调，低内存设备上预算减半
+     *
+     * @param context
+     */
+    public synchronized void register(Context context) {
+        if (mRegistered) return;
+        mRegistered = true;
+
+        Context appContext = context.getApplicationContext();
+        ActivityManager am = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null && am.isLowRamDevice()) {
+            mMaxBudget /= 2;
+            resize(mMaxBudget);
+        }
+        appContext.registerComponentCallbacks(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            // 马上就要被杀了，全部释放
+            mCache.evictAll();
+            if (mBitmapPool != null) mBitmapPool.clear();
+            shrink(mMaxBudget / 4);
+        } else if (level >= TRIM_MEMORY_MODERATE) {
+            if (mBitmapPool != null) mBitmapPool.clear();
+            shrink(mMaxBudget / 4);
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            // 进入后台或界面不可见
+            if (mBitmapPool != null) mBitmapPool.trimToSize(mBitmapPool.getMaxSize() / 2);
+            shrink(mMaxBudget / 2);
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            if (mBitmapPool != null) mBitmapPool.clear();
+            shrink(mMaxBudget / 4);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            if (mBitmapPool != null) mBitmapPool.trimToSize(mBitmapPool.getMaxSize() / 2);
+            shrink(mMaxBudget / 2);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            shrink(mMaxBudget * 3 / 4);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mCache.evictAll();
+        if (mBitmapPool != null) mBitmapPool.clear();
+        shrink(mMaxBudget / 4);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private synchronized void shrink(int budget) {
+        mLastTrimTime = SystemClock.uptimeMillis();
+        if (budget < mBudget) {
+            resize(budget);
+        }
+    }
+
+    /**
+     * 内存压力缓解后逐步恢复，由放入缓存的地方调用
+     */
+    public synchronized void maybeGrow() {
+        if (mBudget >= mMaxBudget) return;
+        long now = SystemClock.uptimeMillis();
+        if (now - mLastTrimTime < GROW_INTERVAL_MILLIS) return;
+
+        // 堆上剩余的空间不够就先不恢复
+        Runtime runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        int budget = Math.min(mMaxBudget, mBudget * 2);
+        if (available < budget - mBudget) return;
+
+        resize(budget);
+        // 下一次翻倍再等一个间隔
+        mLastTrimTime = now;
+    }
+
+    private void resize(int budget) {
+        mBudget = Math.max(1, budget);
+        mCache.resize(mBudget);
+    }
+
+    /**
+     * @return 最大预算(字节)
+     */
+    public synchronized int getMaxBudget() {
+        return mMaxBudget;
+    }
+
+    /**
+     * @return 当前预算(字节)
+     */
+    public synchronized int getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * @return 当前缓存占用(字节)
+     */
+    public int getSize() {
+        return mCache.size();
+    }
+
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * 自上次调用以来每秒淘汰的数量
+     */
+    public synchronized float getEvictionRate() {
+        long now = SystemClock.uptimeMillis();
+        int evictions = mCache.evictionCount();
+        if (now > mLastEvictionSampleTime) {
+            mEvictionRate = (evictions - mLastEvictionCount) * 1000f / (now - mLastEvictionSampleTime);
+            mLastEvictionCount = evictions;
+            mLastEvictionSampleTime = now;
+        }
+        return mEvictionRate;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryCache[size=" + getSize() + ", budget=" + getBudget() + "/" + getMaxBudget()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+}
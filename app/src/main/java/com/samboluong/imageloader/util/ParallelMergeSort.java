@@ -0,0 +1,130 @@
+package com.samboluong.imageloader.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 对下标数组做稳定的归并排序，数据量大时用ForkJoinPool并行(纯Java)
+ * <p>
+ * Arrays.parallelSort要API 24，而且不能排序int[]时自定义比较；
+ * 这里比较的是下标，比较器直接读各列的基本类型数组，排序过程中不装箱、不分配对象。
+ */
+public final class ParallelMergeSort {
+
+    /**
+     * 比较两个下标对应的元素
+     */
+    public interface IndexComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * 小于这个长度不再拆分，直接在当前线程排序
+     */
+    static final int PARALLEL_THRESHOLD = 4096;
+    private static final int INSERTION_THRESHOLD = 24;
+
+    private static ForkJoinPool mDefaultPool;
+
+    private ParallelMergeSort() {
+    }
+
+    /**
+     * 每个CPU一个线程，所有排序共用
+     */
+    public static synchronized ForkJoinPool getDefaultPool() {
+        if (mDefaultPool == null) {
+            mDefaultPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return mDefaultPool;
+    }
+
+    /**
+     * 排序，相等的元素保持原来的顺序
+     *
+     * @param a          下标数组，原地排序
+     * @param comparator
+     * @param pool       为null或者数据量小时在当前线程排序
+     */
+    public static void sort(int[] a, IndexComparator comparator, ForkJoinPool pool) {
+        if (a.length < 2) return;
+        int[] tmp = new int[a.length];
+        if (pool == null || a.length < PARALLEL_THRESHOLD * 2) {
+            mergeSort(a, tmp, 0, a.length, comparator);
+        } else {
+            pool.invoke(new SortTask(a, tmp, 0, a.length, comparator));
+        }
+    }
+
+    private static void mergeSort(int[] a, int[] tmp, int from, int to, IndexComparator comparator) {
+        if (to - from <= INSERTION_THRESHOLD) {
+            insertionSort(a, from, to, comparator);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, from, mid, comparator);
+        mergeSort(a, tmp, mid, to, comparator);
+        merge(a, tmp, from, mid, to, comparator);
+    }
+
+    private static void insertionSort(int[] a, int from, int to, IndexComparator comparator) {
+        for (int i = from + 1; i < to; i++) {
+            int value = a[i];
+            int j = i - 1;
+            while (j >= from && comparator.compare(a[j], value) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = value;
+        }
+    }
+
+    /**
+     * 合并a[from, mid)和a[mid, to)，相等时左边的在前
+     */
+    private static void merge(int[] a, int[] tmp, int from, int mid, int to, IndexComparator comparator) {
+        // 已经有序(例如按日期排序时文件本来就是按时间创建的)
+        if (comparator.compare(a[mid - 1], a[mid]) <= 0) return;
+
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from;
+        int j = mid;
+        int k = from;
+        while (i < mid && j < to) {
+            a[k++] = comparator.compare(tmp[j], tmp[i]) < 0 ? tmp[j++] : tmp[i++];
+        }
+        while (i < mid) a[k++] = tmp[i++];
+        while (j < to) a[k++] = tmp[j++];
+    }
+
+    private static class SortTask extends RecursiveAction {
+        // ForkJoinTask实现了Serializable，这个任务不会被序列化
+        private static final long serialVersionUID = 1L;
+
+        private final int[] mArray;
+        private final int[] mTmp;
+        private final int mFrom;
+        private final int mTo;
+        private final IndexComparator mComparator;
+
+        SortTask(int[] array, int[] tmp, int from, int to, IndexComparator comparator) {
+            this.mArray = array;
+            this.mTmp = tmp;
+            this.mFrom = from;
+            this.mTo = to;
+            this.mComparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= PARALLEL_THRESHOLD) {
+                mergeSort(mArray, mTmp, mFrom, mTo, mComparator);
+                return;
+            }
+            int mid = (mFrom + mTo) >>> 1;
+            invokeAll(new SortTask(mArray, mTmp, mFrom, mid, mComparator),
+                    new SortTask(mArray, mTmp, mid, mTo, mComparator));
+            merge(mArray, mTmp, mFrom, mid, mTo, mComparator);
+        }
+    }
+}
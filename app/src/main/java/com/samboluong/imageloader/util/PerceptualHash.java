@@ -0,0 +1,138 @@
+package com.samboluong.imageloader.util;
+
+/**
+ * 64位的差异哈希(dHash)(纯Java)
+ * <p>
+ * 把图片缩小成9x8的灰度图，每行相邻两个像素比较亮度，左边比右边亮记为1，8行x8次比较正好64位。
+ * 连拍、重新下载、重新压缩、缩放过的同一张图片哈希基本一样，用汉明距离判断是否相似。
+ * 缩小用区域平均({@link #downsample})：每一格是它覆盖的所有像素的平均亮度，不会因为采样点落在噪点上而翻转。
+ */
+public final class PerceptualHash {
+
+    public static final int WIDTH = 9;
+    public static final int HEIGHT = 8;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * @param luma 9x8的亮度，按行存放
+     * @return 第row行第col次比较在第(row * 8 + col)位
+     */
+    public static long dHash(int[] luma) {
+        if (luma.length < WIDTH * HEIGHT) {
+            throw new IllegalArgumentException("需要" + WIDTH + "x" + HEIGHT + "个像素: " + luma.length);
+        }
+        long hash = 0;
+        int bit = 0;
+        for (int row = 0; row < HEIGHT; row++) {
+            int offset = row * WIDTH;
+            for (int col = 0; col < WIDTH - 1; col++) {
+                if (luma[offset + col] > luma[offset + col + 1]) hash |= 1L << bit;
+                bit++;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 按EXIF方向转正后，把图片按区域平均缩小成9x8的亮度
+     * <p>
+     * 转正后的图片均分成9x8格，每格取覆盖的所有像素的平均亮度；不够9x8像素的小图每格至少取一个像素
+     *
+     * @param argb        原图的像素(转正之前)，按行存放
+     * @param width       原图宽(转正之前)
+     * @param height      原图高(转正之前)
+     * @param orientation EXIF方向
+     * @param luma        输出，至少9x8个
+     */
+    public static void downsample(int[] argb, int width, int height, int orientation, int[] luma) {
+        if (width <= 0 || height <= 0 || argb.length < width * height) {
+            throw new IllegalArgumentException("像素不够: " + width + "x" + height + ", " + argb.length);
+        }
+        if (luma.length < WIDTH * HEIGHT) {
+            throw new IllegalArgumentException("需要" + WIDTH + "x" + HEIGHT + "个像素: " + luma.length);
+        }
+        // 方向5~8宽高互换(和Transformations.isTransposed一样，这里不依赖Android)
+        boolean transposed = orientation >= 5 && orientation <= 8;
+        int outWidth = transposed ? height : width;
+        int outHeight = transposed ? width : height;
+
+        for (int row = 0; row < HEIGHT; row++) {
+            int v0 = row * outHeight / HEIGHT;
+            int v1 = Math.max(v0 + 1, (row + 1) * outHeight / HEIGHT);
+            for (int col = 0; col < WIDTH; col++) {
+                int u0 = col * outWidth / WIDTH;
+                int u1 = Math.max(u0 + 1, (col + 1) * outWidth / WIDTH);
+                int sum = 0;
+                for (int v = v0; v < v1; v++) {
+                    for (int u = u0; u < u1; u++) {
+                        sum += luminance(argb[sourceIndex(u, v, width, height, orientation)]);
+                    }
+                }
+                int count = (v1 - v0) * (u1 - u0);
+                luma[row * WIDTH + col] = (sum + count / 2) / count;
+            }
+        }
+    }
+
+    /**
+     * 转正后的(u, v)在原图中的下标
+     */
+    private static int sourceIndex(int u, int v, int width, int height, int orientation) {
+        int x;
+        int y;
+        switch (orientation) {
+            case 2: // 水平翻转
+                x = width - 1 - u;
+                y = v;
+                break;
+            case 3: // 转180度
+                x = width - 1 - u;
+                y = height - 1 - v;
+                break;
+            case 4: // 垂直翻转
+                x = u;
+                y = height - 1 - v;
+                break;
+            case 5: // 沿左上到右下的对角线翻转
+                x = v;
+                y = u;
+                break;
+            case 6: // 顺时针转90度
+                x = v;
+                y = height - 1 - u;
+                break;
+            case 7: // 沿右上到左下的对角线翻转
+                x = width - 1 - v;
+                y = height - 1 - u;
+                break;
+            case 8: // 逆时针转90度
+                x = width - 1 - v;
+                y = u;
+                break;
+            default:
+                x = u;
+                y = v;
+                break;
+        }
+        return y * width + x;
+    }
+
+    /**
+     * ARGB转亮度(BT.601)，0~255
+     */
+    public static int luminance(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        return (r * 299 + g * 587 + b * 114) / 1000;
+    }
+
+    /**
+     * 汉明距离，0~64
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
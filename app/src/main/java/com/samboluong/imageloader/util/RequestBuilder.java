@@ -0,0 +1,116 @@
+package com.samboluong.imageloader.util;
+
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 构造一次加载请求：解码策略和按顺序执行的变换
+ * <p>
+ * 例如 imageLoader.load(path).rotateByExif().centerCrop().into(imageView)
+ * <p>
+ * 列表中每次绑定参数都一样，只是图片不同，可以保留同一个RequestBuilder，用{@link #path}换图片后再into；
+ * 变换数组只在变换改变后生成一次，所有请求共用(请求不会修改它)。只在UI线程使用。
+ */
+public class RequestBuilder {
+
+    private static final Transformation[] NO_TRANSFORMATIONS = new Transformation[0];
+
+    private final ImageLoader mLoader;
+    private String mPath;
+    private DecodePolicy mPolicy = DecodePolicy.THUMBNAIL;
+    private final List<Transformation> mTransformations = new ArrayList<>(3);
+    /**
+     * mTransformations的数组，添加变换后为null，下次使用时重新生成
+     */
+    private Transformation[] mTransformationArray;
+
+    RequestBuilder(ImageLoader loader, String path) {
+        this.mLoader = loader;
+        this.mPath = path;
+    }
+
+    /**
+     * 换一张图片，解码策略和变换不变
+     */
+    public RequestBuilder path(String path) {
+        this.mPath = path;
+        return this;
+    }
+
+    /**
+     * 解码策略，默认THUMBNAIL
+     */
+    public RequestBuilder policy(DecodePolicy policy) {
+        this.mPolicy = policy;
+        return this;
+    }
+
+    /**
+     * 按EXIF方向转正，一般放在第一个
+     */
+    public RequestBuilder rotateByExif() {
+        return transform(Transformations.EXIF_ROTATION);
+    }
+
+    /**
+     * 居中裁剪到ImageView(或预加载指定)的大小
+     */
+    public RequestBuilder centerCrop() {
+        return transform(Transformations.CENTER_CROP);
+    }
+
+    /**
+     * @param radius 圆角半径(像素)
+     */
+    public RequestBuilder roundedCorners(float radius) {
+        return transform(Transformations.roundedCorners(radius));
+    }
+
+    /**
+     * 添加自定义变换，按添加的顺序执行
+     */
+    public RequestBuilder transform(Transformation transformation) {
+        mTransformations.add(transformation);
+        mTransformationArray = null;
+        return this;
+    }
+
+    /**
+     * 加载并显示到ImageView
+     *
+     * @param imageView
+     * @return 可以取消的请求
+     */
+    public LoadRequest into(ImageView imageView) {
+        return mLoader.load(this, imageView, 0, 0);
+    }
+
+    /**
+     * 以低优先级加载到缓存，不显示；和显示时的参数一致才能命中
+     *
+     * @param width  目标宽
+     * @param height 目标高
+     * @return 可以取消的请求
+     */
+    public LoadRequest prefetch(int width, int height) {
+        return mLoader.load(this, null, width, height);
+    }
+
+    String getPath() {
+        return mPath;
+    }
+
+    DecodePolicy getPolicy() {
+        return mPolicy;
+    }
+
+    Transformation[] getTransformations() {
+        if (mTransformationArray == null) {
+            mTransformationArray = mTransformations.isEmpty() ? NO_TRANSFORMATIONS
+                    : mTransformations.toArray(new Transformation[mTransformations.size()]);
+        }
+        return mTransformationArray;
+    }
+}
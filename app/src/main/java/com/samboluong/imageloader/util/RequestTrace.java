@@ -0,0 +1,103 @@
+package com.samboluong.imageloader.util;
+
+/**
+ * 一次加载请求各阶段的时间点(System.nanoTime)
+ * <p>
+ * 入队 -> 工作线程取出 -> 开始读取/解码 -> 解码完成 -> 设置到ImageView。
+ * 合并的请求共用同一个解码任务，取出和解码的时间点相同；没有经过的阶段为0。
+ */
+public class RequestTrace {
+
+    private final String mPath;
+    long mEnqueueTime;
+    long mDispatchTime;
+    long mDecodeStartTime;
+    long mDecodeEndTime;
+    long mBindTime;
+    int mSource = -1;
+    int mByteCount;
+
+    public RequestTrace(String path, long enqueueTime) {
+        this.mPath = path;
+        this.mEnqueueTime = enqueueTime;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * @return 结果来自哪一级，见LoaderMetrics.SOURCE_*，还没有结果时为-1
+     */
+    public int getSource() {
+        return mSource;
+    }
+
+    /**
+     * @return 结果Bitmap占用的字节数
+     */
+    public int getByteCount() {
+        return mByteCount;
+    }
+
+    public long getEnqueueTime() {
+        return mEnqueueTime;
+    }
+
+    public long getDispatchTime() {
+        return mDispatchTime;
+    }
+
+    public long getDecodeStartTime() {
+        return mDecodeStartTime;
+    }
+
+    public long getDecodeEndTime() {
+        return mDecodeEndTime;
+    }
+
+    /**
+     * @return 预加载请求没有这一步，为0
+     */
+    public long getBindTime() {
+        return mBindTime;
+    }
+
+    /**
+     * 在队列中等待的时间
+     */
+    public long getQueueWaitNanos() {
+        return mDispatchTime == 0 ? 0 : mDispatchTime - mEnqueueTime;
+    }
+
+    /**
+     * 读取磁盘缓存或解码原图的时间
+     */
+    public long getDecodeNanos() {
+        return mDecodeEndTime == 0 ? 0 : mDecodeEndTime - mDecodeStartTime;
+    }
+
+    /**
+     * 解码完成(或内存缓存命中)到设置到ImageView的时间，即UI线程排队的时间
+     */
+    public long getHandoffNanos() {
+        if (mBindTime == 0) return 0;
+        long ready = mDecodeEndTime != 0 ? mDecodeEndTime : mEnqueueTime;
+        return mBindTime - ready;
+    }
+
+    /**
+     * 从请求到完成的总时间
+     */
+    public long getTotalNanos() {
+        long end = mBindTime != 0 ? mBindTime : mDecodeEndTime;
+        return end == 0 ? 0 : end - mEnqueueTime;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestTrace[" + mPath + " source=" + mSource + " wait=" + getQueueWaitNanos() / 1000
+                + "us decode=" + getDecodeNanos() / 1000 + "us handoff=" + getHandoffNanos() / 1000
+                + "us total=" + getTotalNanos() / 1000 + "us bytes=" + mByteCount + "]";
+    }
+}
@@ -0,0 +1,269 @@
+package com.samboluong.imageloader.util;
+
+import java.util.Arrays;
+
+/**
+ * 一个文件夹中选中的图片(纯Java)
+ * <p>
+ * 以图片在{@link DirectoryListing}中的下标为id，用long[]位图保存，每张图片只占1位；
+ * 全选、清空和按范围选择都是按64位一组处理，几万张图片也只需要几百次操作。
+ * 可以导出成long[]放进Bundle，旋转屏幕后恢复。只在UI线程使用。
+ * <p>
+ * 下标是File.list()的顺序，文件夹里增删一个文件，其他文件的顺序也可能变。
+ * 所以文件夹列完后用{@link #bind}记下列出结果的指纹，重新列出时用{@link #matches}检查，
+ * 不一致的选中状态不能再用。还没列完时选中的用{@link #bindPartial}记下已经列出的前几个文件的指纹，
+ * 重新列完后只要求前面这些文件和顺序不变。
+ */
+public class SelectionModel {
+
+    private final String mDirPath;
+    private long[] mWords;
+    /**
+     * 图片总数，id小于mSize
+     */
+    private int mSize;
+    private int mSelectedCount;
+    /**
+     * 对应的DirectoryListing的指纹，0表示还没有和列完的文件夹对应上
+     */
+    private long mFingerprint;
+    /**
+     * mFingerprint只是前mSize个文件的指纹，见{@link #bindPartial}
+     */
+    private boolean mPartial;
+
+    /**
+     * @param dirPath 文件夹路径
+     * @param size    当前的图片数，之后可以用{@link #setSize}增加
+     */
+    public SelectionModel(String dirPath, int size) {
+        this.mDirPath = dirPath;
+        this.mWords = new long[wordCount(size)];
+        this.mSize = size;
+    }
+
+    private static int wordCount(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    public String getDirPath() {
+        return mDirPath;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * 文件夹又列出了一些图片
+     */
+    public void setSize(int size) {
+        if (size < mSize) {
+            // 缩小时去掉多出来的位
+            setRange(size, mSize, false);
+        }
+        int words = wordCount(size);
+        if (words > mWords.length) {
+            mWords = Arrays.copyOf(mWords, Math.max(words, mWords.length * 2));
+        }
+        mSize = size;
+    }
+
+    /**
+     * 文件夹列完后调用：大小和列出的图片数一致，并记下指纹
+     */
+    public void bind(DirectoryListing listing) {
+        if (!listing.isFinished()) throw new IllegalStateException("还没有列完: " + listing);
+        setSize(listing.getCount());
+        mFingerprint = listing.getFingerprint();
+        mPartial = false;
+    }
+
+    /**
+     * 文件夹还没列完时保存状态之前调用：记下已经列出的前{@link #getSize()}个文件的指纹
+     */
+    public void bindPartial(DirectoryListing listing) {
+        mFingerprint = listing.getPrefixFingerprint(mSize);
+        mPartial = true;
+    }
+
+    public long getFingerprint() {
+        return mFingerprint;
+    }
+
+    public boolean isPartial() {
+        return mPartial;
+    }
+
+    /**
+     * 选中的id是否仍然对应listing中的同一批文件
+     */
+    public boolean matches(DirectoryListing listing) {
+        if (mFingerprint == 0 || !listing.isFinished()) return false;
+        if (mPartial) {
+            return mSize <= listing.getCount() && mFingerprint == listing.getPrefixFingerprint(mSize);
+        }
+        return mFingerprint == listing.getFingerprint() && mSize == listing.getCount();
+    }
+
+    /**
+     * 加上other中选中的图片，两个必须是同一次列出的结果；other可以是还没列完时的一部分
+     */
+    public void addAll(SelectionModel other) {
+        if (other.mSize > mSize) {
+            throw new IllegalArgumentException("size: " + other.mSize + " > " + mSize);
+        }
+        int count = 0;
+        for (int i = 0; i < wordCount(mSize); i++) {
+            if (i < wordCount(other.mSize)) mWords[i] |= other.mWords[i];
+            count += Long.bitCount(mWords[i]);
+        }
+        mSelectedCount = count;
+    }
+
+    public int getSelectedCount() {
+        return mSelectedCount;
+    }
+
+    public boolean isEmpty() {
+        return mSelectedCount == 0;
+    }
+
+    public boolean isSelected(int id) {
+        if (id < 0 || id >= mSize) return false;
+        return (mWords[id >>> 6] & (1L << id)) != 0;
+    }
+
+    public void setSelected(int id, boolean selected) {
+        checkId(id);
+        long mask = 1L << id;
+        long word = mWords[id >>> 6];
+        if (((word & mask) != 0) == selected) return;
+        mWords[id >>> 6] = selected ? word | mask : word & ~mask;
+        mSelectedCount += selected ? 1 : -1;
+    }
+
+    /**
+     * @return 切换后是否选中
+     */
+    public boolean toggle(int id) {
+        boolean selected = !isSelected(id);
+        setSelected(id, selected);
+        return selected;
+    }
+
+    public void selectAll() {
+        setRange(0, mSize, true);
+    }
+
+    public void clear() {
+        Arrays.fill(mWords, 0);
+        mSelectedCount = 0;
+    }
+
+    /**
+     * 选中或取消[from, to)
+     */
+    public void setRange(int from, int to, boolean selected) {
+        if (from < 0 || to > mSize || from > to) {
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", size: " + mSize);
+        }
+        if (from == to) return;
+
+        int firstWord = from >>> 6;
+        int lastWord = (to - 1) >>> 6;
+        for (int i = firstWord; i <= lastWord; i++) {
+            // 第一组和最后一组只改范围内的位
+            long mask = -1L;
+            if (i == firstWord) mask &= -1L << from;
+            if (i == lastWord) mask &= -1L >>> -to;
+            long word = mWords[i];
+            long updated = selected ? word | mask : word & ~mask;
+            mSelectedCount += Long.bitCount(updated) - Long.bitCount(word);
+            mWords[i] = updated;
+        }
+    }
+
+    /**
+     * 批量遍历：从from开始的下一个选中的id
+     * <pre>
+     * for (int id = selection.nextSelected(0); id >= 0; id = selection.nextSelected(id + 1))
+     * </pre>
+     *
+     * @return 没有时返回-1
+     */
+    public int nextSelected(int from) {
+        if (from < 0) from = 0;
+        if (from >= mSize) return -1;
+        int index = from >>> 6;
+        long word = mWords[index] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int id = (index << 6) + Long.numberOfTrailingZeros(word);
+                return id < mSize ? id : -1;
+            }
+            if (++index >= wordCount(mSize)) return -1;
+            word = mWords[index];
+        }
+    }
+
+    /**
+     * 所有选中的id，升序
+     */
+    public int[] getSelectedIds() {
+        int[] ids = new int[mSelectedCount];
+        int k = 0;
+        for (int id = nextSelected(0); id >= 0; id = nextSelected(id + 1)) {
+            ids[k++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * 导出位图，用来保存状态
+     */
+    public long[] toLongArray() {
+        return Arrays.copyOf(mWords, wordCount(mSize));
+    }
+
+    /**
+     * 从{@link #toLongArray()}的结果恢复
+     *
+     * @param fingerprint {@link #getFingerprint()}，使用前要用{@link #matches}检查
+     */
+    public static SelectionModel fromLongArray(String dirPath, int size, long fingerprint, long[] words) {
+        return fromLongArray(dirPath, size, fingerprint, false, words);
+    }
+
+    /**
+     * @param partial {@link #isPartial()}
+     */
+    public static SelectionModel fromLongArray(String dirPath, int size, long fingerprint, boolean partial,
+                                               long[] words) {
+        SelectionModel model = new SelectionModel(dirPath, size);
+        model.mFingerprint = fingerprint;
+        model.mPartial = partial;
+        int count = Math.min(words.length, model.mWords.length);
+        System.arraycopy(words, 0, model.mWords, 0, count);
+        // 去掉超出size的位
+        if (size % 64 != 0 && count == model.mWords.length) {
+            model.mWords[count - 1] &= -1L >>> -size;
+        }
+        for (int i = 0; i < count; i++) {
+            model.mSelectedCount += Long.bitCount(model.mWords[i]);
+        }
+        return model;
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= mSize) {
+            throw new IndexOutOfBoundsException("id: " + id + ", size: " + mSize);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SelectionModel[" + mDirPath + ", " + mSelectedCount + "/" + mSize + (mPartial ? ", partial" : "")
+                + "]";
+    }
+}
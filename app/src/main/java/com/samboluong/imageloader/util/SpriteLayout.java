@@ -0,0 +1,113 @@
+package com.samboluong.imageloader.util;
+
+/**
+ * 封面拼图(sprite)的排布(纯Java)
+ * <p>
+ * 所有封面都是边长cellSize的正方形，按行依次排在若干张页面上，每页的宽高都不超过maxPageSize；
+ * 页面按实际用到的行列数分配，封面少时不会浪费一整页。
+ */
+public class SpriteLayout {
+
+    /**
+     * 一页的最大边长，大多数GPU都支持的纹理大小
+     */
+    public static final int DEFAULT_MAX_PAGE_SIZE = 2048;
+
+    private final int mCount;
+    private final int mCellSize;
+    private final int mColumns;
+    private final int mRowsPerPage;
+
+    /**
+     * @param count       封面数
+     * @param cellSize    封面边长
+     * @param maxPageSize 一页的最大边长
+     */
+    public SpriteLayout(int count, int cellSize, int maxPageSize) {
+        if (count < 0 || cellSize <= 0 || cellSize > maxPageSize) {
+            throw new IllegalArgumentException("count: " + count + ", cellSize: " + cellSize
+                    + ", maxPageSize: " + maxPageSize);
+        }
+        this.mCount = count;
+        this.mCellSize = cellSize;
+        this.mColumns = Math.max(1, Math.min(count, maxPageSize / cellSize));
+        this.mRowsPerPage = maxPageSize / cellSize;
+    }
+
+    /**
+     * 所有页面总字节数不超过maxBytes的最大边长，最小为minCellSize
+     *
+     * @param count         封面数
+     * @param preferredSize 希望的边长(显示大小)
+     * @param minCellSize   最小边长，再小就看不清了
+     * @param maxBytes      所有页面的字节数上限
+     * @param bytesPerPixel 每个像素的字节数
+     * @return
+     */
+    public static int fitCellSize(int count, int preferredSize, int minCellSize, long maxBytes, int bytesPerPixel) {
+        if (count <= 0) return preferredSize;
+        long maxPixels = maxBytes / bytesPerPixel / count;
+        int size = (int) Math.min(preferredSize, Math.sqrt(maxPixels));
+        return Math.max(Math.min(minCellSize, preferredSize), size);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getCellSize() {
+        return mCellSize;
+    }
+
+    public int getCellsPerPage() {
+        return mColumns * mRowsPerPage;
+    }
+
+    public int getPageCount() {
+        return (mCount + getCellsPerPage() - 1) / getCellsPerPage();
+    }
+
+    public int getPageOf(int index) {
+        return index / getCellsPerPage();
+    }
+
+    /**
+     * 封面在所在页面上的左边
+     */
+    public int getLeft(int index) {
+        return index % getCellsPerPage() % mColumns * mCellSize;
+    }
+
+    /**
+     * 封面在所在页面上的上边
+     */
+    public int getTop(int index) {
+        return index % getCellsPerPage() / mColumns * mCellSize;
+    }
+
+    public int getPageWidth(int page) {
+        return Math.min(mColumns, cellsOnPage(page)) * mCellSize;
+    }
+
+    public int getPageHeight(int page) {
+        return (cellsOnPage(page) + mColumns - 1) / mColumns * mCellSize;
+    }
+
+    private int cellsOnPage(int page) {
+        if (page < 0 || page >= getPageCount()) {
+            throw new IndexOutOfBoundsException("page: " + page + ", pageCount: " + getPageCount());
+        }
+        return Math.min(getCellsPerPage(), mCount - page * getCellsPerPage());
+    }
+
+    /**
+     * 所有页面的像素数
+     */
+    public long getPixelCount() {
+        long pixels = 0;
+        for (int page = 0; page < getPageCount(); page++) {
+            pixels += (long) getPageWidth(page) * getPageHeight(page);
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,300 @@
+package com.samboluong.imageloader.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带优先级的有界任务调度器
+ * <p>
+ * 每个优先级一个双端队列，提交任务时如果空闲的工作者不足就直接启动一个，
+ * 工作者自己从队列里取任务执行，取不到任务就退出。
+ * 不需要轮询线程和信号量，任务抛出异常也不会让调度器停下来。
+ * <p>
+ * 同一优先级内按FIFO或LIFO取任务；队列满时LIFO丢弃最旧的任务，FIFO拒绝新任务。
+ * 可以限制同时执行的低优先级任务数，给高优先级任务留出工作者。
+ * 只依赖java.util.concurrent，可以直接在JVM上测试。
+ */
+public class TaskScheduler {
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+    private static final int PRIORITY_COUNT = 3;
+
+    /**
+     * 任务被丢弃(队列满、{@link #shutdown()}时还在排队)时的回调
+     */
+    public interface OnTaskDiscardListener {
+        void onTaskDiscarded(Runnable task);
+    }
+
+    private final Executor mExecutor;
+    private final int mWorkerCount;
+    private final int mCapacity;
+    private final boolean mLifo;
+
+    private final Object mLock = new Object();
+    private final ArrayDeque<Runnable>[] mQueues;
+    private int mQueuedCount;
+    private int mActiveWorkers;
+    private int mMaxLowPriorityWorkers;
+    private int mRunningLowCount;
+    /**
+     * 刚取出的任务是否为低优先级，只在持有mLock时读写
+     */
+    private boolean mLastPolledLow;
+    private boolean mShutdown;
+
+    private OnTaskDiscardListener mDiscardListener;
+
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+    private final AtomicLong mDiscardedCount = new AtomicLong();
+    private final AtomicLong mFailedCount = new AtomicLong();
+
+    /**
+     * 工作者：循环取任务执行，队列空了就退出
+     */
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            boolean low = false;
+            while (true) {
+                Runnable task;
+                synchronized (mLock) {
+                    if (low) mRunningLowCount--;
+                    task = poll();
+                    if (task == null) return;
+                    low = mLastPolledLow;
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    // 单个任务失败(包括解码OOM)不能影响后面的任务
+                    mFailedCount.incrementAndGet();
+                    t.printStackTrace();
+                } finally {
+                    mCompletedCount.incrementAndGet();
+                }
+            }
+        }
+    };
+
+    /**
+     * 使用固定大小的线程池作为工作线程
+     *
+     * @param workerCount 最大并发数
+     * @param capacity    队列容量
+     * @param lifo        同一优先级内是否后进先出
+     */
+    public TaskScheduler(int workerCount, int capacity, boolean lifo) {
+        this(ExecutorBackend.FIXED_POOL, workerCount, capacity, lifo);
+    }
+
+    /**
+     * @param backend 工作线程来源，见{@link ExecutorBackend}
+     */
+    public TaskScheduler(ExecutorBackend backend, int workerCount, int capacity, boolean lifo) {
+        this(backend.create(workerCount), workerCount, capacity, lifo);
+    }
+
+    // 不能直接创建泛型数组，只能创建ArrayDeque[]再转换
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TaskScheduler(Executor executor, int workerCount, int capacity, boolean lifo) {
+        if (workerCount <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("workerCount和capacity必须大于0");
+        }
+        this.mExecutor = executor;
+        this.mWorkerCount = workerCount;
+        this.mCapacity = capacity;
+        this.mLifo = lifo;
+        this.mMaxLowPriorityWorkers = workerCount;
+
+        mQueues = new ArrayDeque[PRIORITY_COUNT];
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mQueues[i] = new ArrayDeque<>();
+        }
+    }
+
+    public void setOnTaskDiscardListener(OnTaskDiscardListener listener) {
+        this.mDiscardListener = listener;
+    }
+
+    /**
+     * 限制同时执行的{@link #PRIORITY_LOW}任务数
+     *
+     * @param maxWorkers
+     */
+    public void setMaxLowPriorityWorkers(int maxWorkers) {
+        synchronized (mLock) {
+            mMaxLowPriorityWorkers = Math.max(1, maxWorkers);
+        }
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param task
+     * @param priority {@link #PRIORITY_LOW}、{@link #PRIORITY_NORMAL}、{@link #PRIORITY_HIGH}
+     * @return 任务被拒绝时返回false
+     */
+    public boolean submit(Runnable task, int priority) {
+        if (priority < PRIORITY_LOW || priority > PRIORITY_HIGH) {
+            throw new IllegalArgumentException("priority: " + priority);
+        }
+
+        Runnable discarded = null;
+        boolean startWorker = false;
+        synchronized (mLock) {
+            if (mShutdown) return false;
+
+            if (mQueuedCount >= mCapacity) {
+                discarded = mLifo ? discardOldest(priority) : null;
+                if (discarded == null) {
+                    // 没有可以丢弃的任务(或FIFO)，拒绝新任务
+                    discarded = task;
+                    task = null;
+                }
+            }
+
+            if (task != null) {
+                mQueues[priority].addLast(task);
+                mQueuedCount++;
+                mSubmittedCount.incrementAndGet();
+
+                if (mActiveWorkers < mWorkerCount) {
+                    mActiveWorkers++;
+                    startWorker = true;
+                }
+            }
+        }
+
+        if (discarded != null) {
+            mDiscardedCount.incrementAndGet();
+            OnTaskDiscardListener listener = mDiscardListener;
+            if (listener != null) listener.onTaskDiscarded(discarded);
+        }
+
+        if (startWorker) {
+            mExecutor.execute(mWorker);
+        }
+        return task != null;
+    }
+
+    /**
+     * 从不高于priority的最低优先级队列里丢弃最旧的任务
+     */
+    private Runnable discardOldest(int priority) {
+        for (int i = PRIORITY_LOW; i <= priority; i++) {
+            Runnable oldest = mQueues[i].pollFirst();
+            if (oldest != null) {
+                mQueuedCount--;
+                return oldest;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 取出下一个任务，没有任务时工作者退出，需要持有mLock
+     * <p>
+     * 低优先级任务达到上限时也退出，正在执行低优先级任务的工作者完成后会继续取
+     */
+    private Runnable poll() {
+        for (int i = PRIORITY_HIGH; i >= PRIORITY_LOW; i--) {
+            ArrayDeque<Runnable> queue = mQueues[i];
+            if (queue.isEmpty()) continue;
+            if (i == PRIORITY_LOW) {
+                if (mRunningLowCount >= mMaxLowPriorityWorkers) break;
+                mRunningLowCount++;
+            }
+            mLastPolledLow = i == PRIORITY_LOW;
+            mQueuedCount--;
+            return mLifo ? queue.pollLast() : queue.pollFirst();
+        }
+        mActiveWorkers--;
+        return null;
+    }
+
+    /**
+     * 从队列中移除还没有开始执行的任务
+     *
+     * @param task
+     * @return 任务还在队列中并被移除时返回true
+     */
+    public boolean remove(Runnable task) {
+        synchronized (mLock) {
+            for (ArrayDeque<Runnable> queue : mQueues) {
+                if (queue.removeFirstOccurrence(task)) {
+                    mQueuedCount--;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 停止接收新任务并清空队列，正在执行的任务不受影响
+     * <p>
+     * 清掉的任务逐个通知{@link OnTaskDiscardListener}，等着它们的调用者能收到结果
+     */
+    public void shutdown() {
+        List<Runnable> discarded = new ArrayList<>();
+        synchronized (mLock) {
+            mShutdown = true;
+            for (ArrayDeque<Runnable> queue : mQueues) {
+                discarded.addAll(queue);
+                queue.clear();
+            }
+            mQueuedCount = 0;
+        }
+        if (mExecutor instanceof ExecutorService) {
+            ((ExecutorService) mExecutor).shutdown();
+        }
+
+        mDiscardedCount.addAndGet(discarded.size());
+        OnTaskDiscardListener listener = mDiscardListener;
+        if (listener == null) return;
+        for (Runnable task : discarded) {
+            listener.onTaskDiscarded(task);
+        }
+    }
+
+    public int getQueueSize() {
+        synchronized (mLock) {
+            return mQueuedCount;
+        }
+    }
+
+    public int getActiveWorkerCount() {
+        synchronized (mLock) {
+            return mActiveWorkers;
+        }
+    }
+
+    public int getWorkerCount() {
+        return mWorkerCount;
+    }
+
+    public long getSubmittedCount() {
+        return mSubmittedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    public long getDiscardedCount() {
+        return mDiscardedCount.get();
+    }
+
+    public long getFailedCount() {
+        return mFailedCount.get();
+    }
+}
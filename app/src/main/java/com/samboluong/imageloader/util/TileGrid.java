@@ -0,0 +1,189 @@
+package com.samboluong.imageloader.util;
+
+import java.util.Arrays;
+
+/**
+ * 大图分块的计算(纯Java)
+ * <p>
+ * 每个采样级别(2的幂)把原图切成边长为tileSize * sample的方块，解码后都是tileSize大小(边缘的更小)。
+ * tile用一个long表示：采样级别、列、行，可以直接作为缓存的key。
+ */
+public class TileGrid {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private static final int MAX_INDEX = 0xFFFFFF;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTileSize;
+
+    /**
+     * @param width    原图宽
+     * @param height   原图高
+     * @param tileSize 解码后tile的边长
+     */
+    public TileGrid(int width, int height, int tileSize) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("width、height和tileSize必须大于0");
+        }
+        this.mWidth = width;
+        this.mHeight = height;
+        this.mTileSize = tileSize;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    /**
+     * 显示比例对应的采样级别：最大的2的幂，采样后的分辨率仍然不低于屏幕需要的分辨率
+     *
+     * @param scale 屏幕像素 / 原图像素
+     * @return
+     */
+    public static int sampleSizeForScale(float scale) {
+        if (scale <= 0) return 1;
+        int sample = 1;
+        while (sample < (1 << 30) && sample * 2 * scale <= 1f) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * 一个tile在原图上的边长
+     */
+    public int getTileSpan(int sample) {
+        return mTileSize * sample;
+    }
+
+    public int getColumnCount(int sample) {
+        int span = getTileSpan(sample);
+        return (mWidth + span - 1) / span;
+    }
+
+    public int getRowCount(int sample) {
+        int span = getTileSpan(sample);
+        return (mHeight + span - 1) / span;
+    }
+
+    /**
+     * 与原图上的矩形相交的tile，离矩形中心近的在前(先加载)
+     *
+     * @param sample 采样级别
+     * @return tile的key，矩形在图片外时返回空数组
+     */
+    public long[] getTiles(int sample, int left, int top, int right, int bottom) {
+        long[] tiles = new long[getTileCount(sample, left, top, right, bottom)];
+        getTiles(sample, left, top, right, bottom, tiles);
+        return tiles;
+    }
+
+    /**
+     * 与原图上的矩形相交的tile数
+     */
+    public int getTileCount(int sample, int left, int top, int right, int bottom) {
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(mWidth, right);
+        bottom = Math.min(mHeight, bottom);
+        if (left >= right || top >= bottom) return 0;
+
+        int span = getTileSpan(sample);
+        return ((right - 1) / span - left / span + 1) * ((bottom - 1) / span - top / span + 1);
+    }
+
+    /**
+     * 同{@link #getTiles(int, int, int, int, int)}，写入调用者复用的数组，不分配内存
+     *
+     * @param out 长度不小于{@link #getTileCount}
+     * @return tile数
+     */
+    public int getTiles(int sample, int left, int top, int right, int bottom, long[] out) {
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(mWidth, right);
+        bottom = Math.min(mHeight, bottom);
+        if (left >= right || top >= bottom) return 0;
+
+        int span = getTileSpan(sample);
+        int firstColumn = left / span;
+        int lastColumn = (right - 1) / span;
+        int firstRow = top / span;
+        int lastRow = (bottom - 1) / span;
+        int columns = lastColumn - firstColumn + 1;
+        int count = columns * (lastRow - firstRow + 1);
+
+        // 高32位是到中心的距离(以半个tile为单位的平方)，低32位是序号，排序后按序号原地换成key
+        int centerX = firstColumn + lastColumn + 1;
+        int centerY = firstRow + lastRow + 1;
+        for (int i = 0; i < count; i++) {
+            int dx = 2 * (firstColumn + i % columns) + 1 - centerX;
+            int dy = 2 * (firstRow + i / columns) + 1 - centerY;
+            out[i] = ((long) (dx * dx + dy * dy) << 32) | i;
+        }
+        Arrays.sort(out, 0, count);
+
+        for (int i = 0; i < count; i++) {
+            int index = (int) out[i];
+            out[i] = tileKey(sample, firstColumn + index % columns, firstRow + index / columns);
+        }
+        return count;
+    }
+
+    /**
+     * tile在原图上的范围，裁剪到图片以内
+     *
+     * @param key
+     * @param out {left, top, right, bottom}
+     */
+    public void getTileBounds(long key, int[] out) {
+        int span = getTileSpan(sampleOf(key));
+        out[0] = columnOf(key) * span;
+        out[1] = rowOf(key) * span;
+        out[2] = Math.min(mWidth, out[0] + span);
+        out[3] = Math.min(mHeight, out[1] + span);
+    }
+
+    /**
+     * 采样级别(log2)、列、行压缩成一个long
+     */
+    public static long tileKey(int sample, int column, int row) {
+        if (column > MAX_INDEX || row > MAX_INDEX) {
+            throw new IllegalArgumentException("column: " + column + ", row: " + row);
+        }
+        return ((long) Integer.numberOfTrailingZeros(sample) << 48) | ((long) column << 24) | row;
+    }
+
+    public static int sampleOf(long key) {
+        return 1 << (int) (key >>> 48);
+    }
+
+    public static int columnOf(long key) {
+        return (int) (key >>> 24) & MAX_INDEX;
+    }
+
+    public static int rowOf(long key) {
+        return (int) key & MAX_INDEX;
+    }
+
+    /**
+     * 一个视口在同一个采样级别最多同时看到的tile数
+     * <p>
+     * 按{@link #sampleSizeForScale}选级别时tile显示为tileSize/2~tileSize，
+     * 视口和tile不对齐时还要多一列、一行
+     */
+    public static int maxVisibleTiles(int viewWidth, int viewHeight, int tileSize) {
+        int shown = Math.max(1, tileSize / 2);
+        return ((viewWidth + shown - 1) / shown + 1) * ((viewHeight + shown - 1) / shown + 1);
+    }
+}
@@ -0,0 +1,401 @@
+package com.samboluong.imageloader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * 大图分块加载：用BitmapRegionDecoder按采样级别只解码需要的tile
+ * <p>
+ * decodeRegion内部是加锁的，一个解码器无法并发，所以每个工作线程各用一个解码器；
+ * tile放在自己的LruCache里(按字节数)，淘汰下来的放进复用池给后面的tile用。
+ * 解码结果在UI线程放进缓存，tile只在onDraw中使用，淘汰时一定没有在画。
+ * 除了构造函数，其他方法都在UI线程调用。
+ */
+public class TileLoader {
+
+    private static final String TAG = "TileLoader";
+    private static final int WORKER_COUNT = 2;
+    /**
+     * 256的tile在1080p屏幕上两个级别最多约200个
+     */
+    private static final int TASK_QUEUE_CAPACITY = 256;
+
+    /**
+     * 加载结果的回调，在UI线程
+     */
+    public interface Callback {
+        /**
+         * 读到了原图尺寸和方向
+         *
+         * @param width       原图宽(转正之前)
+         * @param height      原图高(转正之前)
+         * @param orientation EXIF方向
+         * @param tiled       能否分块解码，GIF、BMP等只显示预览
+         */
+        void onOpened(int width, int height, int orientation, boolean tiled);
+
+        void onPreviewLoaded(Bitmap preview, int sample);
+
+        void onTileLoaded(long key);
+
+        void onError();
+    }
+
+    private final String mPath;
+    private final int mTileSize;
+    private final Callback mCallback;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 两个工作线程，LIFO：最新滑到的区域最先加载，队列满时丢弃最旧的请求
+     */
+    private final TaskScheduler mScheduler;
+    /**
+     * 空闲的解码器，最多WORKER_COUNT个
+     */
+    private final ArrayDeque<BitmapRegionDecoder> mIdleDecoders = new ArrayDeque<>();
+    private int mDecoderCount;
+    private final BitmapPool mBitmapPool;
+    private final LruCache<Long, Bitmap> mTiles;
+    /**
+     * 还在排队或解码的tile(只在UI线程访问)
+     */
+    private final LongSparseArray<TileTask> mPending = new LongSparseArray<>();
+    /**
+     * 每次{@link #requestTiles}加一，仍然需要的TileTask记下这一次的编号
+     */
+    private int mRequestGeneration;
+
+    private volatile TileGrid mGrid;
+    private volatile Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+    private volatile boolean mReleased;
+
+    /**
+     * @param path
+     * @param tileSize 解码后tile的边长
+     * @param maxBytes tile缓存的最大字节数，复用池另外用1/4
+     * @param callback
+     */
+    public TileLoader(String path, int tileSize, int maxBytes, Callback callback) {
+        this.mPath = path;
+        this.mTileSize = tileSize;
+        this.mCallback = callback;
+        this.mBitmapPool = new BitmapPool(maxBytes / 4);
+        this.mTiles = new LruCache<Long, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    mBitmapPool.put(oldValue);
+                }
+            }
+        };
+        mScheduler = new TaskScheduler(WORKER_COUNT, TASK_QUEUE_CAPACITY, true);
+        mScheduler.setOnTaskDiscardListener(new TaskScheduler.OnTaskDiscardListener() {
+            @Override
+            public void onTaskDiscarded(Runnable task) {
+                // submit在UI线程调用，丢弃的回调也在UI线程
+                if (task instanceof TileTask) {
+                    mPending.remove(((TileTask) task).mKey);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在后台读取尺寸和方向，完成后回调{@link Callback#onOpened}
+     */
+    public void open() {
+        mScheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                ImageHeaderProber.Header header;
+                try {
+                    header = ImageHeaderProber.probeFile(new File(mPath));
+                } catch (IOException e) {
+                    header = null;
+                }
+                if (header == null || !header.isImage() || !header.hasSize()) {
+                    postError();
+                    return;
+                }
+                mConfig = DecodePolicy.FULL_SCREEN.getConfig(header.getMimeType());
+
+                // 先创建一个解码器，不支持的格式只显示预览
+                TileGrid grid = null;
+                BitmapRegionDecoder decoder = acquireDecoder();
+                if (decoder != null) {
+                    grid = new TileGrid(header.width, header.height, mTileSize);
+                    releaseDecoder(decoder);
+                }
+                mGrid = grid;
+                final ImageHeaderProber.Header opened = header;
+                final boolean tiled = grid != null;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mReleased) {
+                            mCallback.onOpened(opened.width, opened.height, opened.orientation, tiled);
+                        }
+                    }
+                });
+            }
+        }, TaskScheduler.PRIORITY_HIGH);
+    }
+
+    /**
+     * 以采样级别sample解码整张图作为预览，放大后还没有tile的区域先显示预览
+     */
+    public void loadPreview(final int sample) {
+        mScheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap preview = decodePreview(sample);
+                if (preview == null) {
+                    postError();
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mReleased) mCallback.onPreviewLoaded(preview, sample);
+                    }
+                });
+            }
+        }, TaskScheduler.PRIORITY_HIGH);
+    }
+
+    private Bitmap decodePreview(int sample) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        options.inPreferredConfig = mConfig;
+        TileGrid grid = mGrid;
+        if (grid == null) {
+            return BitmapFactory.decodeFile(mPath, options);
+        }
+        BitmapRegionDecoder decoder = acquireDecoder();
+        if (decoder == null) return null;
+        try {
+            return decoder.decodeRegion(new Rect(0, 0, grid.getWidth(), grid.getHeight()), options);
+        } finally {
+            releaseDecoder(decoder);
+        }
+    }
+
+    /**
+     * 缓存中的tile
+     *
+     * @return 还没有加载时返回null
+     */
+    public Bitmap getTile(long key) {
+        return mTiles.get(key);
+    }
+
+    /**
+     * 请求加载tile，还在排队但已经不需要的请求(滑出屏幕、缩放到了别的级别)会被移除
+     * <p>
+     * 只在可见范围变化时调用，不在onDraw中调用
+     *
+     * @param visible       当前级别的可见tile，靠前的先加载
+     * @param visibleCount  visible中有效的个数
+     * @param fallback      粗一级的可见tile，以低优先级同时加载，当前级别还没加载完时先显示
+     * @param fallbackCount fallback中有效的个数
+     */
+    public void requestTiles(long[] visible, int visibleCount, long[] fallback, int fallbackCount) {
+        if (mReleased || mGrid == null) return;
+
+        int generation = ++mRequestGeneration;
+        markNeeded(visible, visibleCount, generation);
+        markNeeded(fallback, fallbackCount, generation);
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            TileTask task = mPending.valueAt(i);
+            if (task.mGeneration != generation && mScheduler.remove(task)) {
+                mPending.removeAt(i);
+            }
+        }
+
+        // 不能请求超过缓存容量的tile，否则刚加载的会把其他可见的挤出去，反复重新加载；
+        // 按离中心的距离取前面的，其余先显示粗一级的tile或预览
+        int capacity = mTiles.maxSize() / (mTileSize * mTileSize * 4);
+        visibleCount = Math.min(visibleCount, capacity * 4 / 5);
+        fallbackCount = Math.min(fallbackCount, capacity - visibleCount);
+        submitTiles(fallback, fallbackCount, TaskScheduler.PRIORITY_LOW, generation);
+        submitTiles(visible, visibleCount, TaskScheduler.PRIORITY_NORMAL, generation);
+    }
+
+    private void markNeeded(long[] keys, int count, int generation) {
+        for (int i = 0; i < count; i++) {
+            TileTask task = mPending.get(keys[i]);
+            if (task != null) task.mGeneration = generation;
+        }
+    }
+
+    private void submitTiles(long[] keys, int count, int priority, int generation) {
+        // LIFO：倒着提交，最靠近中心的最后提交、最先执行
+        for (int i = count - 1; i >= 0; i--) {
+            long key = keys[i];
+            if (mPending.get(key) != null || mTiles.get(key) != null) continue;
+            TileTask task = new TileTask(key);
+            task.mGeneration = generation;
+            mPending.put(key, task);
+            mScheduler.submit(task, priority);
+        }
+    }
+
+    /**
+     * 停止加载并释放缓存和解码器，之后不能再使用
+     */
+    public void release() {
+        mReleased = true;
+        mScheduler.shutdown();
+        mPending.clear();
+        mTiles.evictAll();
+        mBitmapPool.clear();
+        synchronized (mIdleDecoders) {
+            for (BitmapRegionDecoder decoder : mIdleDecoders) {
+                decoder.recycle();
+            }
+            mIdleDecoders.clear();
+        }
+    }
+
+    /**
+     * @return 还没有打开或者不能分块解码时为null
+     */
+    public TileGrid getGrid() {
+        return mGrid;
+    }
+
+    public int getPendingCount() {
+        return mPending.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TileLoader[tiles=" + mTiles.size() + "/" + mTiles.maxSize() + ", pending=" + mPending.size()
+                + ", decoders=" + mDecoderCount + ", " + mBitmapPool + "]";
+    }
+
+    /**
+     * 取一个空闲的解码器，不够时新建(最多每个工作线程一个)
+     *
+     * @return 不支持分块解码的格式返回null
+     */
+    private BitmapRegionDecoder acquireDecoder() {
+        synchronized (mIdleDecoders) {
+            BitmapRegionDecoder decoder = mIdleDecoders.pollFirst();
+            if (decoder != null) return decoder;
+            mDecoderCount++;
+        }
+        try {
+            return BitmapRegionDecoder.newInstance(mPath, false);
+        } catch (IOException e) {
+            Log.w(TAG, "无法分块解码: " + mPath, e);
+            synchronized (mIdleDecoders) {
+                mDecoderCount--;
+            }
+            return null;
+        }
+    }
+
+    private void releaseDecoder(BitmapRegionDecoder decoder) {
+        synchronized (mIdleDecoders) {
+            if (!mReleased) {
+                mIdleDecoders.addLast(decoder);
+                return;
+            }
+        }
+        decoder.recycle();
+    }
+
+    private void postError() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) mCallback.onError();
+            }
+        });
+    }
+
+    /**
+     * 解码一个tile，结果在UI线程放进缓存
+     */
+    private class TileTask implements Runnable {
+        final long mKey;
+        /**
+         * 最近一次需要这个tile的{@link #requestTiles}，只在UI线程访问
+         */
+        int mGeneration;
+
+        TileTask(long key) {
+            this.mKey = key;
+        }
+
+        @Override
+        public void run() {
+            if (mReleased) return;
+            final Bitmap tile = decodeTile();
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mPending.remove(mKey);
+                    if (tile == null) return;
+                    if (mReleased) {
+                        mBitmapPool.put(tile);
+                        return;
+                    }
+                    mTiles.put(mKey, tile);
+                    mCallback.onTileLoaded(mKey);
+                }
+            });
+        }
+
+        private Bitmap decodeTile() {
+            TileGrid grid = mGrid;
+            int[] bounds = new int[4];
+            grid.getTileBounds(mKey, bounds);
+            int sample = TileGrid.sampleOf(mKey);
+            Rect rect = new Rect(bounds[0], bounds[1], bounds[2], bounds[3]);
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sample;
+            options.inPreferredConfig = mConfig;
+            options.inMutable = true;
+            // 解码到inBitmap时不会改变它的大小，只有完整的tile能确定解码后的大小
+            int span = grid.getTileSpan(sample);
+            if (rect.width() == span && rect.height() == span) {
+                options.inBitmap = Transformations.obtain(mBitmapPool, mTileSize, mTileSize, mConfig);
+            }
+
+            BitmapRegionDecoder decoder = acquireDecoder();
+            if (decoder == null) {
+                mBitmapPool.put(options.inBitmap);
+                return null;
+            }
+            try {
+                return decoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                // 复用的Bitmap不合适，不复用再解一次
+                mBitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+                return decoder.decodeRegion(rect, options);
+            } finally {
+                releaseDecoder(decoder);
+            }
+        }
+    }
+}
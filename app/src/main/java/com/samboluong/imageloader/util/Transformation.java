@@ -0,0 +1,32 @@
+package com.samboluong.imageloader.util;
+
+import android.graphics.Bitmap;
+
+/**
+ * 解码后对Bitmap做的变换(裁剪、圆角、旋转等)
+ * <p>
+ * 按{@link RequestBuilder}中添加的顺序依次执行，在工作线程中调用；
+ * 变换后的结果按包含所有变换key的缓存key分别放入内存和磁盘缓存，同一个变换不会重复执行。
+ */
+public interface Transformation {
+
+    /**
+     * @param pool        取输出Bitmap用的复用池
+     * @param source      输入，不要修改；返回新的Bitmap后由调用方回收
+     * @param width       目标宽，未知时为0
+     * @param height      目标高，未知时为0
+     * @param orientation 原图的EXIF方向
+     * @return 不需要变换时直接返回source
+     */
+    Bitmap transform(BitmapPool pool, Bitmap source, int width, int height, int orientation);
+
+    /**
+     * @return 区分变换及其参数的key，拼到缓存key中
+     */
+    String getKey();
+
+    /**
+     * @return 结果随目标大小变化时返回true，内存缓存key和合并请求的key要带上目标大小
+     */
+    boolean isSizeDependent();
+}
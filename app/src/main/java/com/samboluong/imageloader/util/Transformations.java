@@ -0,0 +1,216 @@
+package com.samboluong.imageloader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+/**
+ * 常用的变换
+ */
+public final class Transformations {
+
+    /**
+     * 按EXIF方向把图片转正
+     */
+    public static final Transformation EXIF_ROTATION = new ExifRotation();
+
+    /**
+     * 缩放并居中裁剪到正好是目标大小，和ImageView的centerCrop效果一致
+     */
+    public static final Transformation CENTER_CROP = new CenterCrop();
+
+    private Transformations() {
+    }
+
+    /**
+     * 圆角
+     *
+     * @param radius 圆角半径(像素)
+     * @return
+     */
+    public static Transformation roundedCorners(float radius) {
+        return new RoundedCorners(radius);
+    }
+
+    /**
+     * 方向5~8需要转90度，宽高互换
+     */
+    public static boolean isTransposed(int orientation) {
+        return orientation >= 5 && orientation <= 8;
+    }
+
+    /**
+     * 把matrix设置成按EXIF方向转正，转正后的图片左上角仍在(0, 0)
+     *
+     * @param matrix
+     * @param orientation EXIF方向
+     * @param width       原图宽(转正之前)
+     * @param height      原图高(转正之前)
+     */
+    public static void setOrientation(Matrix matrix, int orientation, int width, int height) {
+        matrix.reset();
+        switch (orientation) {
+            case 2:
+                matrix.setScale(-1, 1);
+                break;
+            case 3:
+                matrix.setRotate(180);
+                break;
+            case 4:
+                matrix.setScale(1, -1);
+                break;
+            case 5:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case 6:
+                matrix.setRotate(90);
+                break;
+            case 7:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case 8:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return;
+        }
+
+        // 变换后的图片移回(0, 0)
+        RectF bounds = new RectF(0, 0, width, height);
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+    }
+
+    /**
+     * 从复用池取一个Bitmap并改成需要的大小，没有时新建
+     */
+    static Bitmap obtain(BitmapPool pool, int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = pool == null ? null : pool.get(width, height, config);
+        if (bitmap != null) {
+            try {
+                bitmap.reconfigure(width, height, config);
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            } catch (IllegalArgumentException e) {
+                // 不够大(理论上不会发生)，新建一个
+            }
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    private static Bitmap.Config configOf(Bitmap source) {
+        return source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+    }
+
+    private static class ExifRotation implements Transformation {
+        @Override
+        public Bitmap transform(BitmapPool pool, Bitmap source, int width, int height, int orientation) {
+            if (orientation <= ExifParser.ORIENTATION_NORMAL || orientation > 8) return source;
+
+            int w = source.getWidth();
+            int h = source.getHeight();
+            boolean transposed = isTransposed(orientation);
+            int outWidth = transposed ? h : w;
+            int outHeight = transposed ? w : h;
+
+            Matrix matrix = new Matrix();
+            setOrientation(matrix, orientation, w, h);
+            Bitmap result = obtain(pool, outWidth, outHeight, configOf(source));
+            Canvas canvas = new Canvas(result);
+            canvas.drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+            return result;
+        }
+
+        @Override
+        public String getKey() {
+            return "exif";
+        }
+
+        @Override
+        public boolean isSizeDependent() {
+            return false;
+        }
+    }
+
+    private static class CenterCrop implements Transformation {
+        @Override
+        public Bitmap transform(BitmapPool pool, Bitmap source, int width, int height, int orientation) {
+            int w = source.getWidth();
+            int h = source.getHeight();
+            if (width <= 0 || height <= 0) return source;
+            // 目标比原图大时按目标的宽高比裁剪原图，不放大
+            int[] size = BitmapSizing.calculateCropSize(w, h, width, height);
+            width = size[0];
+            height = size[1];
+            if (w == width && h == height) return source;
+
+            // 按较大的比例缩放，多出来的一边居中裁掉
+            float scale;
+            float dx = 0;
+            float dy = 0;
+            if ((long) w * height > (long) width * h) {
+                scale = height / (float) h;
+                dx = (width - w * scale) * 0.5f;
+            } else {
+                scale = width / (float) w;
+                dy = (height - h * scale) * 0.5f;
+            }
+            Matrix matrix = new Matrix();
+            matrix.setScale(scale, scale);
+            matrix.postTranslate((int) (dx + 0.5f), (int) (dy + 0.5f));
+
+            Bitmap result = obtain(pool, width, height, configOf(source));
+            Canvas canvas = new Canvas(result);
+            canvas.drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+            return result;
+        }
+
+        @Override
+        public String getKey() {
+            return "centerCrop";
+        }
+
+        @Override
+        public boolean isSizeDependent() {
+            return true;
+        }
+    }
+
+    private static class RoundedCorners implements Transformation {
+        private final float mRadius;
+
+        RoundedCorners(float radius) {
+            this.mRadius = radius;
+        }
+
+        @Override
+        public Bitmap transform(BitmapPool pool, Bitmap source, int width, int height, int orientation) {
+            if (mRadius <= 0) return source;
+
+            // 圆角外面要透明，只能用ARGB_8888
+            Bitmap result = obtain(pool, source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+            paint.setShader(new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+            Canvas canvas = new Canvas(result);
+            canvas.drawRoundRect(new RectF(0, 0, source.getWidth(), source.getHeight()), mRadius, mRadius, paint);
+            return result;
+        }
+
+        @Override
+        public String getKey() {
+            return "rounded(" + mRadius + ")";
+        }
+
+        @Override
+        public boolean isSizeDependent() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.samboluong.imageloader.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import com.samboluong.imageloader.util.TileGrid;
+import com.samboluong.imageloader.util.TileLoader;
+import com.samboluong.imageloader.util.Transformations;
+
+/**
+ * 全屏查看大图：先显示整张图的低分辨率预览，放大后只解码屏幕上可见的tile
+ * <p>
+ * 当前级别的tile还没加载完时，用粗一级的tile或预览填充；
+ * tile缓存的大小按屏幕能同时显示的tile数计算，打开多大的图片内存都有上限。
+ */
+public class TiledImageView extends View implements TileLoader.Callback {
+
+    /**
+     * 最大放大到原图像素的2倍
+     */
+    private static final float MAX_SCALE = 2f;
+
+    private TileLoader mLoader;
+    private TileGrid mGrid;
+    private int mImageWidth;
+    private int mImageHeight;
+    /**
+     * 转正之后的宽高
+     */
+    private int mDisplayWidth;
+    private int mDisplayHeight;
+    private final Matrix mOrientationMatrix = new Matrix();
+
+    private Bitmap mPreview;
+    private int mPreviewSample;
+
+    /**
+     * 转正后的图片 -> View：缩放和平移
+     */
+    private float mScale;
+    private float mMinScale;
+    private float mTranslateX;
+    private float mTranslateY;
+
+    private final Matrix mMatrix = new Matrix();
+    private final Matrix mInverse = new Matrix();
+    private final RectF mVisibleRect = new RectF();
+    private final RectF mDstRect = new RectF();
+    private final int[] mTileBounds = new int[4];
+    /**
+     * 可见的tile，只在缩放、平移、大小变化时重新计算，数组复用
+     */
+    private long[] mVisibleTiles = new long[0];
+    private int mVisibleCount;
+    private long[] mFallbackTiles = new long[0];
+    private int mFallbackCount;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomTo(mScale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                mTranslateX -= distanceX;
+                mTranslateY -= distanceY;
+                clampTranslation();
+                updateTiles();
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                // 适应屏幕和原图像素之间切换
+                float target = mScale > mMinScale * 1.01f ? mMinScale : Math.max(mMinScale, 1f);
+                zoomTo(target, e.getX(), e.getY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 打开图片，之前的图片和tile全部释放
+     *
+     * @param path
+     */
+    public void setImagePath(String path) {
+        release();
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int tileSize = TileGrid.DEFAULT_TILE_SIZE;
+        // 当前级别一屏，加上粗一级的一屏(tile数是当前级别的1/4)，最多用应用内存的1/4
+        int tileBytes = tileSize * tileSize * 4;
+        int visibleTiles = TileGrid.maxVisibleTiles(metrics.widthPixels, metrics.heightPixels, tileSize);
+        int maxBytes = (int) Math.min(visibleTiles * tileBytes * 5L / 4, Runtime.getRuntime().maxMemory() / 4);
+        mLoader = new TileLoader(path, tileSize, maxBytes, this);
+        mLoader.open();
+    }
+
+    /**
+     * 停止加载并释放预览和tile，Activity销毁时调用
+     */
+    public void release() {
+        if (mLoader != null) {
+            mLoader.release();
+            mLoader = null;
+        }
+        mGrid = null;
+        mPreview = null;
+        mPreviewSample = 0;
+        mImageWidth = 0;
+        mImageHeight = 0;
+        mVisibleCount = 0;
+        mFallbackCount = 0;
+        invalidate();
+    }
+
+    @Override
+    public void onOpened(int width, int height, int orientation, boolean tiled) {
+        mImageWidth = width;
+        mImageHeight = height;
+        boolean transposed = Transformations.isTransposed(orientation);
+        mDisplayWidth = transposed ? height : width;
+        mDisplayHeight = transposed ? width : height;
+        Transformations.setOrientation(mOrientationMatrix, orientation, width, height);
+        mGrid = tiled ? mLoader.getGrid() : null;
+        if (getWidth() > 0 && getHeight() > 0) {
+            loadPreview();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (mImageWidth > 0 && mPreviewSample == 0) {
+            loadPreview();
+        } else if (mImageWidth > 0) {
+            resetScale();
+        }
+    }
+
+    /**
+     * 预览的分辨率不超过屏幕：能分块时再降一级，适应屏幕时就已经开始显示tile
+     */
+    private void loadPreview() {
+        resetScale();
+        int sample = TileGrid.sampleSizeForScale(mMinScale);
+        mPreviewSample = mGrid != null && sample > 1 ? sample * 2 : sample;
+        mLoader.loadPreview(mPreviewSample);
+    }
+
+    private void resetScale() {
+        mMinScale = Math.min(getWidth() / (float) mDisplayWidth, getHeight() / (float) mDisplayHeight);
+        mScale = mMinScale;
+        mTranslateX = (getWidth() - mDisplayWidth * mScale) / 2;
+        mTranslateY = (getHeight() - mDisplayHeight * mScale) / 2;
+        updateTiles();
+        invalidate();
+    }
+
+    @Override
+    public void onPreviewLoaded(Bitmap preview, int sample) {
+        if (sample != mPreviewSample) return;
+        mPreview = preview;
+        updateTiles();
+        invalidate();
+    }
+
+    @Override
+    public void onTileLoaded(long key) {
+        invalidate();
+    }
+
+    @Override
+    public void onError() {
+        mPreview = null;
+        invalidate();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mPreview == null) return super.onTouchEvent(event);
+        boolean handled = mScaleDetector.onTouchEvent(event);
+        if (!mScaleDetector.isInProgress()) {
+            handled = mGestureDetector.onTouchEvent(event) || handled;
+        }
+        return handled || super.onTouchEvent(event);
+    }
+
+    /**
+     * 以(focusX, focusY)为中心缩放
+     */
+    private void zoomTo(float scale, float focusX, float focusY) {
+        scale = Math.max(mMinScale, Math.min(Math.max(mMinScale, MAX_SCALE), scale));
+        float factor = scale / mScale;
+        mTranslateX = focusX - (focusX - mTranslateX) * factor;
+        mTranslateY = focusY - (focusY - mTranslateY) * factor;
+        mScale = scale;
+        clampTranslation();
+        updateTiles();
+        invalidate();
+    }
+
+    /**
+     * 比屏幕小的方向居中，比屏幕大的方向不留空白
+     */
+    private void clampTranslation() {
+        mTranslateX = clamp(mTranslateX, getWidth(), mDisplayWidth * mScale);
+        mTranslateY = clamp(mTranslateY, getHeight(), mDisplayHeight * mScale);
+    }
+
+    private static float clamp(float translate, int viewSize, float contentSize) {
+        if (contentSize <= viewSize) return (viewSize - contentSize) / 2;
+        return Math.max(viewSize - contentSize, Math.min(0, translate));
+    }
+
+    private void updateMatrix() {
+        mMatrix.set(mOrientationMatrix);
+        mMatrix.postScale(mScale, mScale);
+        mMatrix.postTranslate(mTranslateX, mTranslateY);
+    }
+
+    /**
+     * 重新计算可见的tile并请求加载，滑出屏幕的请求被移除
+     */
+    private void updateTiles() {
+        mVisibleCount = 0;
+        mFallbackCount = 0;
+        int sample = TileGrid.sampleSizeForScale(mScale);
+        if (mPreview != null && mGrid != null && sample < mPreviewSample) {
+            // 屏幕在原图(转正之前)上对应的范围
+            updateMatrix();
+            mMatrix.invert(mInverse);
+            mVisibleRect.set(0, 0, getWidth(), getHeight());
+            mInverse.mapRect(mVisibleRect);
+            int left = (int) Math.floor(mVisibleRect.left);
+            int top = (int) Math.floor(mVisibleRect.top);
+            int right = (int) Math.ceil(mVisibleRect.right);
+            int bottom = (int) Math.ceil(mVisibleRect.bottom);
+
+            int count = mGrid.getTileCount(sample, left, top, right, bottom);
+            if (mVisibleTiles.length < count) mVisibleTiles = new long[count];
+            mVisibleCount = mGrid.getTiles(sample, left, top, right, bottom, mVisibleTiles);
+            if (sample * 2 < mPreviewSample) {
+                count = mGrid.getTileCount(sample * 2, left, top, right, bottom);
+                if (mFallbackTiles.length < count) mFallbackTiles = new long[count];
+                mFallbackCount = mGrid.getTiles(sample * 2, left, top, right, bottom, mFallbackTiles);
+            }
+        }
+        if (mLoader != null) {
+            mLoader.requestTiles(mVisibleTiles, mVisibleCount, mFallbackTiles, mFallbackCount);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mPreview == null) return;
+
+        updateMatrix();
+        canvas.save();
+        canvas.concat(mMatrix);
+
+        mDstRect.set(0, 0, mImageWidth, mImageHeight);
+        canvas.drawBitmap(mPreview, null, mDstRect, mPaint);
+
+        // 粗的先画，细的盖在上面
+        drawTiles(canvas, mFallbackTiles, mFallbackCount);
+        drawTiles(canvas, mVisibleTiles, mVisibleCount);
+        canvas.restore();
+    }
+
+    private void drawTiles(Canvas canvas, long[] keys, int count) {
+        for (int i = 0; i < count; i++) {
+            long key = keys[i];
+            Bitmap tile = mLoader.getTile(key);
+            if (tile == null) continue;
+            mGrid.getTileBounds(key, mTileBounds);
+            mDstRect.set(mTileBounds[0], mTileBounds[1], mTileBounds[2], mTileBounds[3]);
+            canvas.drawBitmap(tile, null, mDstRect, mPaint);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * BatchExport的复制、重名处理、失败、取消和统计
+ */
+public class BatchExportTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class Result implements BatchExport.Listener {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicInteger finishCount = new AtomicInteger();
+        volatile BatchExport.Progress progress;
+
+        @Override
+        public void onProgress(BatchExport export, BatchExport.Progress progress) {
+        }
+
+        @Override
+        public void onFinished(BatchExport export, BatchExport.Progress progress) {
+            this.progress = progress;
+            finishCount.incrementAndGet();
+            finished.countDown();
+        }
+
+        BatchExport.Progress await() throws InterruptedException {
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+            return progress;
+        }
+    }
+
+    private DirectoryListing listImages(File dir, int count, int size) throws IOException {
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[size + i];
+            random.nextBytes(data);
+            FileOutputStream out = new FileOutputStream(new File(dir, "IMG_" + i + ".jpg"));
+            out.write(data);
+            out.close();
+        }
+        DirectoryListing listing = new DirectoryListing(dir, DIRECT, null);
+        listing.run();
+        return listing;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < data.length) n += in.read(data, n, data.length - n);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    @Test
+    public void copiesSelectedImagesInParallel() throws Exception {
+        File source = mTemp.newFolder("source");
+        DirectoryListing listing = listImages(source, 40, 10000);
+        SelectionModel selection = new SelectionModel(listing.getDirPath(), listing.getCount());
+        selection.setRange(5, 35, true);
+        File dest = new File(mTemp.getRoot(), "dest/sub");
+
+        Result result = new Result();
+        BatchExport export = new BatchExport(listing, selection.getSelectedIds(), dest, null, DIRECT, result);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        export.start(executor, 3);
+        BatchExport.Progress progress = result.await();
+        executor.shutdown();
+
+        assertEquals(30, progress.total);
+        assertEquals(30, progress.processed);
+        assertEquals(0, progress.failed);
+        assertNull(progress.firstError);
+        assertEquals(progress.bytesRead, progress.bytesWritten);
+        assertTrue(progress.getImagesPerSecond() > 0);
+        assertTrue(progress.getMegabytesPerSecond() > 0);
+        assertEquals(1, result.finishCount.get());
+        assertTrue(export.isFinished());
+
+        for (int id : selection.getSelectedIds()) {
+            File copy = new File(dest, listing.getName(id));
+            assertTrue(Arrays.equals(read(new File(listing.getPath(id))), read(copy)));
+        }
+        assertEquals(30, dest.list().length);
+    }
+
+    @Test
+    public void renamesOnCollision() throws Exception {
+        File source = mTemp.newFolder("source");
+        DirectoryListing listing = listImages(source, 1, 100);
+        File dest = mTemp.newFolder("dest");
+        assertTrue(new File(dest, "IMG_0.jpg").createNewFile());
+        assertTrue(new File(dest, "IMG_0_1.jpg").createNewFile());
+
+        Result result = new Result();
+        new BatchExport(listing, new int[]{0}, dest, null, DIRECT, result).start(DIRECT, 1);
+
+        assertEquals(1, result.await().getSucceeded());
+        assertEquals(100, new File(dest, "IMG_0_2.jpg").length());
+    }
+
+    @Test
+    public void failedTranscodeDeletesTarget() throws Exception {
+        File source = mTemp.newFolder("source");
+        DirectoryListing listing = listImages(source, 4, 100);
+        File dest = mTemp.newFolder("dest");
+        final String failing = listing.getName(2);
+
+        BatchExport.Transcoder transcoder = new BatchExport.Transcoder() {
+            @Override
+            public String getTargetName(String sourceName) {
+                return sourceName + ".out";
+            }
+
+            @Override
+            public long transcode(File source, File target) throws IOException {
+                if (source.getName().equals(failing)) throw new IOException("broken");
+                return BatchExport.copy(source, target) / 2;
+            }
+        };
+        Result result = new Result();
+        BatchExport export = new BatchExport(listing, new int[]{0, 1, 2, 3}, dest, transcoder, DIRECT, result);
+        export.start(DIRECT, 2);
+        BatchExport.Progress progress = result.await();
+
+        assertEquals(4, progress.processed);
+        assertEquals(1, progress.failed);
+        assertEquals(3, dest.list().length);
+        assertFalse(new File(dest, failing + ".out").exists());
+        assertEquals("broken", progress.firstError.getMessage());
+        // 只有成功的文件交给媒体扫描
+        String[] exported = export.getExportedPaths();
+        assertEquals(3, exported.length);
+        for (String path : exported) {
+            assertTrue(new File(path).exists());
+        }
+        assertEquals(progress.bytesRead / 2, progress.bytesWritten, 2);
+    }
+
+    @Test
+    public void cancelStopsAfterCurrentImage() throws Exception {
+        File source = mTemp.newFolder("source");
+        DirectoryListing listing = listImages(source, 10, 100);
+        File dest = mTemp.newFolder("dest");
+
+        final BatchExport[] export = new BatchExport[1];
+        BatchExport.Transcoder transcoder = new BatchExport.Transcoder() {
+            @Override
+            public String getTargetName(String sourceName) {
+                return sourceName;
+            }
+
+            @Override
+            public long transcode(File source, File target) throws IOException {
+                // 导出第一张时取消
+                export[0].cancel();
+                return BatchExport.copy(source, target);
+            }
+        };
+        Result result = new Result();
+        export[0] = new BatchExport(listing, new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, dest, transcoder,
+                DIRECT, result);
+        export[0].start(DIRECT, 1);
+        BatchExport.Progress progress = result.await();
+
+        assertTrue(export[0].isCancelled());
+        assertEquals(1, progress.processed);
+        assertEquals(1, dest.list().length);
+    }
+
+    @Test
+    public void emptySelectionFinishesImmediately() throws Exception {
+        File source = mTemp.newFolder("source");
+        DirectoryListing listing = listImages(source, 1, 100);
+        Result result = new Result();
+        new BatchExport(listing, new int[0], mTemp.newFolder("dest"), null, DIRECT, result).start(DIRECT, 2);
+
+        BatchExport.Progress progress = result.await();
+        assertEquals(0, progress.total);
+        assertEquals(0, progress.processed);
+    }
+}
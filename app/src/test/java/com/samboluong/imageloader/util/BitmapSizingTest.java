@@ -0,0 +1,104 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * BitmapSizing在不同原图和目标尺寸组合下的测试
+ */
+public class BitmapSizingTest {
+
+    private static final int[][] SOURCES = {
+            {4000, 3000}, {3000, 4000}, {4032, 3024}, {1920, 1080}, {1080, 1920},
+            {8000, 500}, {500, 8000}, {1001, 999}, {640, 480}, {360, 300}, {100, 100}, {1, 1},
+    };
+
+    private static final int[][] TARGETS = {
+            {360, 300}, {300, 360}, {100, 100}, {240, 240}, {1080, 1920}, {1920, 1080}, {1, 1},
+    };
+
+    @Test
+    public void sampleSizeIsLargestPowerOfTwoThatCoversTarget() {
+        for (int[] source : SOURCES) {
+            for (int[] target : TARGETS) {
+                int w = source[0], h = source[1], reqW = target[0], reqH = target[1];
+                int sample = BitmapSizing.calculateInSampleSize(w, h, reqW, reqH);
+                String msg = w + "x" + h + " -> " + reqW + "x" + reqH + ": " + sample;
+
+                assertTrue(msg, sample >= 1);
+                assertEquals(msg, 0, sample & (sample - 1));
+
+                if (sample > 1) {
+                    // 采样后仍然覆盖目标
+                    assertTrue(msg, w / sample >= reqW);
+                    assertTrue(msg, h / sample >= reqH);
+                }
+                // 再大一倍就不够了
+                int next = sample * 2;
+                assertTrue(msg, w / next < reqW || h / next < reqH);
+            }
+        }
+    }
+
+    @Test
+    public void scaledResultExactlyCoversTarget() {
+        for (int[] source : SOURCES) {
+            for (int[] target : TARGETS) {
+                int w = source[0], h = source[1], reqW = target[0], reqH = target[1];
+                int sample = BitmapSizing.calculateInSampleSize(w, h, reqW, reqH);
+                int sw = BitmapSizing.sampledSize(w, sample);
+                int sh = BitmapSizing.sampledSize(h, sample);
+                int[] density = BitmapSizing.calculateDensity(sw, sh, reqW, reqH);
+                String msg = w + "x" + h + " -> " + reqW + "x" + reqH;
+
+                if (density == null) {
+                    // 原图比目标小(至少一边)，不放大
+                    assertTrue(msg, sw <= reqW || sh <= reqH);
+                    continue;
+                }
+
+                int fw = BitmapSizing.scaledSize(sw, density[0], density[1]);
+                int fh = BitmapSizing.scaledSize(sh, density[0], density[1]);
+                msg += " = " + fw + "x" + fh;
+
+                // 一边与目标相等，另一边不小于目标(允许1像素的取整误差)
+                assertTrue(msg, fw == reqW || fh == reqH);
+                assertTrue(msg, fw >= reqW - 1 && fh >= reqH - 1);
+                // 不会比采样结果大
+                assertTrue(msg, fw <= sw && fh <= sh);
+            }
+        }
+    }
+
+    @Test
+    public void oldHeightRatioBugIsFixed() {
+        // 原来的实现用height / reqWidth计算高度比例，竖长的目标会被过度压缩
+        assertEquals(2, BitmapSizing.calculateInSampleSize(4000, 3000, 1000, 1500));
+    }
+
+    @Test
+    public void invalidTargetDoesNotSample() {
+        assertEquals(1, BitmapSizing.calculateInSampleSize(4000, 3000, 0, 100));
+        assertEquals(1, BitmapSizing.calculateInSampleSize(0, 0, 100, 100));
+        assertNull(BitmapSizing.calculateDensity(100, 100, 0, 100));
+    }
+
+    @Test
+    public void noUpscaling() {
+        assertNull(BitmapSizing.calculateDensity(100, 100, 200, 200));
+        assertNull(BitmapSizing.calculateDensity(360, 300, 360, 300));
+    }
+
+    @Test
+    public void cropSizeNeverExceedsSource() {
+        assertArrayEquals(new int[]{300, 200}, BitmapSizing.calculateCropSize(400, 300, 300, 200));
+        // 目标更大：保持目标的宽高比，一边等于原图
+        assertArrayEquals(new int[]{400, 200}, BitmapSizing.calculateCropSize(400, 300, 800, 400));
+        assertArrayEquals(new int[]{150, 300}, BitmapSizing.calculateCropSize(400, 300, 500, 1000));
+        // 没有布局时退回的最大宽度
+        int[] size = BitmapSizing.calculateCropSize(400, 300, Integer.MAX_VALUE, 300);
+        assertEquals(400, size[0]);
+        assertEquals(1, size[1]);
+    }
+}
@@ -0,0 +1,140 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * DirectoryListing的过滤、分页和路径拼接
+ */
+public class DirectoryListingTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class Pages implements DirectoryListing.Listener {
+        final List<Integer> counts = new ArrayList<>();
+        boolean finished;
+
+        @Override
+        public void onPage(DirectoryListing listing, int count, boolean finished) {
+            assertFalse("结束后不应该再回调", this.finished);
+            counts.add(count);
+            this.finished = finished;
+        }
+    }
+
+    @Test
+    public void listsOnlyImages() throws Exception {
+        File dir = mTemp.newFolder("camera");
+        for (String name : new String[]{"a.jpg", "b.JPEG", "c.png", "d.txt", "e.gif", "jpg", ".nomedia"}) {
+            assertTrue(new File(dir, name).createNewFile());
+        }
+
+        Pages pages = new Pages();
+        DirectoryListing listing = new DirectoryListing(dir, DIRECT, pages);
+        listing.run();
+
+        assertTrue(listing.isFinished());
+        assertEquals(3, listing.getCount());
+        assertEquals(1, pages.counts.size());
+        assertTrue(pages.finished);
+
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < listing.getCount(); i++) {
+            String name = listing.getName(i);
+            names.add(name);
+            assertEquals(dir.getAbsolutePath() + "/" + name, listing.getPath(i));
+        }
+        assertEquals(3, names.size());
+        assertTrue(names.contains("a.jpg") && names.contains("b.JPEG") && names.contains("c.png"));
+    }
+
+    @Test
+    public void publishesPages() throws Exception {
+        File dir = mTemp.newFolder("big");
+        int total = DirectoryListing.FIRST_PAGE_SIZE + DirectoryListing.PAGE_SIZE + 10;
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 100; i++) longName.append('x');
+        for (int i = 0; i < total; i++) {
+            // 夹杂一些很长的文件名，数组需要多次扩容
+            String name = (i % 100 == 0 ? longName.toString() : "") + "IMG_" + i + ".jpg";
+            assertTrue(new File(dir, name).createNewFile());
+        }
+
+        Pages pages = new Pages();
+        DirectoryListing listing = new DirectoryListing(dir, DIRECT, pages);
+        listing.run();
+
+        List<Integer> expected = new ArrayList<>();
+        expected.add(DirectoryListing.FIRST_PAGE_SIZE);
+        expected.add(DirectoryListing.FIRST_PAGE_SIZE + DirectoryListing.PAGE_SIZE);
+        expected.add(total);
+        assertEquals(expected, pages.counts);
+
+        Set<String> paths = new HashSet<>();
+        for (int i = 0; i < total; i++) {
+            String path = listing.getPath(i);
+            assertTrue(path, new File(path).isFile());
+            paths.add(path);
+        }
+        assertEquals(total, paths.size());
+        // 文件名按char存放，远小于每个文件一个完整路径的String
+        assertTrue(listing.getByteCount() < total * 64L);
+    }
+
+    @Test
+    public void cancelledListingDoesNotCallBack() throws Exception {
+        File dir = mTemp.newFolder("cancelled");
+        assertTrue(new File(dir, "a.jpg").createNewFile());
+
+        Pages pages = new Pages();
+        DirectoryListing listing = new DirectoryListing(dir, DIRECT, pages);
+        listing.cancel();
+        listing.run();
+
+        assertTrue(pages.counts.isEmpty());
+        assertFalse(listing.isFinished());
+    }
+
+    @Test
+    public void missingDirectoryFinishesEmpty() {
+        Pages pages = new Pages();
+        DirectoryListing listing = new DirectoryListing(new File(mTemp.getRoot(), "missing"), DIRECT, pages);
+        listing.run();
+
+        assertTrue(pages.finished);
+        assertEquals(0, listing.getCount());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void positionMustBeListed() {
+        new DirectoryListing(mTemp.getRoot(), DIRECT, null).getPath(0);
+    }
+
+    @Test
+    public void imageNameMatching() {
+        assertTrue(DirectoryListing.isImageName("a.jpg"));
+        assertTrue(DirectoryListing.isImageName("A.PNG"));
+        assertTrue(DirectoryListing.isImageName(".jpeg"));
+        assertFalse(DirectoryListing.isImageName("a.jpg.txt"));
+        assertFalse(DirectoryListing.isImageName("pg"));
+        assertFalse(DirectoryListing.isImageName(""));
+    }
+}
@@ -0,0 +1,111 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * DiskLruCache的读写和日志损坏后的恢复
+ */
+public class DiskLruCacheTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (i * 31 + seed);
+        return data;
+    }
+
+    @Test
+    public void putAndGetAcrossReopen() throws Exception {
+        File dir = mTemp.newFolder("cache");
+        DiskLruCache cache = DiskLruCache.open(dir, 1024 * 1024);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(200, 2));
+        cache.remove("a");
+        cache.close();
+
+        cache = DiskLruCache.open(dir, 1024 * 1024);
+        assertNull(cache.get("a"));
+        assertArrayEquals(bytes(200, 2), cache.get("b"));
+        assertEquals(200, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void recoversFromTornJournalLine() throws Exception {
+        File dir = mTemp.newFolder("cache");
+        DiskLruCache cache = DiskLruCache.open(dir, 1024 * 1024);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(200, 2));
+        cache.close();
+
+        // 进程在写日志时被杀：最后一行只写了一半，没有换行
+        File journal = new File(dir, DiskLruCache.JOURNAL_FILE);
+        RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+        raf.setLength(raf.length() - 4);
+        raf.close();
+
+        cache = DiskLruCache.open(dir, 1024 * 1024);
+        assertArrayEquals(bytes(100, 1), cache.get("a"));
+        // b的CLEAN被截断了，只剩DIRTY，文件要删掉
+        assertNull(cache.get("b"));
+        assertFalse(new File(dir, "b").exists());
+        assertEquals(100, cache.size());
+
+        // 恢复后写入的记录下次打开仍然能读到
+        cache.put("c", bytes(300, 3));
+        cache.close();
+
+        cache = DiskLruCache.open(dir, 1024 * 1024);
+        assertArrayEquals(bytes(100, 1), cache.get("a"));
+        assertArrayEquals(bytes(300, 3), cache.get("c"));
+        assertEquals(400, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void deletesUntrackedFiles() throws Exception {
+        File dir = mTemp.newFolder("cache");
+        DiskLruCache cache = DiskLruCache.open(dir, 1024 * 1024);
+        cache.put("a", bytes(100, 1));
+        cache.close();
+
+        // 日志里没有的文件(例如之前丢掉的记录)
+        FileOutputStream out = new FileOutputStream(new File(dir, "orphan"));
+        out.write(bytes(500, 4));
+        out.close();
+        assertTrue(new File(dir, "c.tmp").createNewFile());
+
+        cache = DiskLruCache.open(dir, 1024 * 1024);
+        assertFalse(new File(dir, "orphan").exists());
+        assertFalse(new File(dir, "c.tmp").exists());
+        assertTrue(new File(dir, "a").exists());
+        assertEquals(100, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void trimsToMaxSize() throws Exception {
+        File dir = mTemp.newFolder("cache");
+        DiskLruCache cache = DiskLruCache.open(dir, 250);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 2));
+        assertNotNull(cache.get("a"));
+        cache.put("c", bytes(100, 3));
+
+        // b最久没有访问
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(200, cache.size());
+        cache.close();
+    }
+}
@@ -0,0 +1,118 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * DuplicateFinder的分组，和两两比较的结果一致，十万张时只找出埋进去的连拍
+ */
+public class DuplicateFinderTest {
+
+    /**
+     * 翻转hash中随机的bits位
+     */
+    private static long flip(long hash, int bits, Random random) {
+        long mask = 0;
+        while (Long.bitCount(mask) < bits) mask |= 1L << random.nextInt(64);
+        return hash ^ mask;
+    }
+
+    @Test
+    public void groupsExactAndNearDuplicates() {
+        Random random = new Random(1);
+        long base = random.nextLong();
+        long other = random.nextLong();
+        long[] hashes = {
+                base,                   // 0
+                random.nextLong(),      // 1
+                flip(base, 3, random),  // 2
+                other,                  // 3
+                base,                   // 4
+                flip(other, 6, random), // 5
+                flip(other, 20, random) // 6
+        };
+        DuplicateFinder.Groups groups = DuplicateFinder.find(hashes, 6, null);
+
+        assertEquals(2, groups.getGroupCount());
+        assertEquals(3, groups.getGroupSize(0));
+        assertEquals(0, groups.getMember(0, 0));
+        assertEquals(2, groups.getMember(0, 1));
+        assertEquals(4, groups.getMember(0, 2));
+        assertEquals(2, groups.getGroupSize(1));
+        assertEquals(3, groups.getMember(1, 0));
+        assertEquals(5, groups.getMember(1, 1));
+        assertEquals(5, groups.getMemberCount());
+
+        // 只找完全相同的
+        groups = DuplicateFinder.find(hashes, 0, null);
+        assertEquals(1, groups.getGroupCount());
+        assertEquals(2, groups.getGroupSize(0));
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(7);
+        int n = 3000;
+        long[] hashes = new long[n];
+        for (int i = 0; i < n; i++) {
+            // 一部分是前面某张改了几位
+            hashes[i] = i > 0 && random.nextInt(3) == 0
+                    ? flip(hashes[random.nextInt(i)], random.nextInt(12), random) : random.nextLong();
+        }
+        for (int maxDistance : new int[]{0, 3, 6, 10}) {
+            DuplicateFinder.Groups groups = DuplicateFinder.find(hashes, maxDistance, null);
+            int[] groupOf = new int[n];
+            for (int g = 0; g < groups.getGroupCount(); g++) {
+                for (int i = 0; i < groups.getGroupSize(g); i++) {
+                    groupOf[groups.getMember(g, i)] = g + 1;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    if (PerceptualHash.distance(hashes[i], hashes[j]) <= maxDistance) {
+                        assertTrue("d=" + maxDistance + " " + i + "," + j,
+                                groupOf[i] != 0 && groupOf[i] == groupOf[j]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void masksWithinRadius() {
+        assertEquals(1, DuplicateFinder.masksWithin(0).length);
+        assertEquals(1 + 16, DuplicateFinder.masksWithin(1).length);
+        assertEquals(1 + 16 + 120, DuplicateFinder.masksWithin(2).length);
+        assertEquals(0, DuplicateFinder.masksWithin(2)[0]);
+    }
+
+    @Test
+    public void findsPlantedBurstsInHundredThousand() {
+        Random random = new Random(42);
+        int n = 100000;
+        long[] hashes = new long[n];
+        int planted = 0;
+        for (int i = 0; i < n; i++) {
+            if (i % 10 == 9) {
+                // 每10张有一张是前一张的连拍
+                hashes[i] = flip(hashes[i - 1], random.nextInt(DuplicateFinder.DEFAULT_MAX_DISTANCE + 1), random);
+                planted++;
+            } else {
+                hashes[i] = random.nextLong();
+            }
+        }
+
+        DuplicateFinder.Groups groups = DuplicateFinder.find(hashes, DuplicateFinder.DEFAULT_MAX_DISTANCE,
+                ParallelMergeSort.getDefaultPool());
+
+        // 随机的哈希之间几乎不可能距离这么近
+        assertEquals(planted, groups.getGroupCount());
+        for (int g = 0; g < groups.getGroupCount(); g++) {
+            assertEquals(2, groups.getGroupSize(g));
+            assertEquals(groups.getMember(g, 0) + 1, groups.getMember(g, 1));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * ExifParser对构造的JPEG数据的解析测试(大端和小端)
+ */
+public class ExifParserTest {
+
+    @Test
+    public void parsesLittleEndianExif() throws IOException {
+        assertExif(true);
+    }
+
+    @Test
+    public void parsesBigEndianExif() throws IOException {
+        assertExif(false);
+    }
+
+    private void assertExif(boolean littleEndian) throws IOException {
+        byte[] thumbnail = thumbnailJpeg(160, 120);
+        byte[] jpeg = jpegWithExif(tiff(littleEndian, 6, 4000, 3000, thumbnail));
+
+        ExifParser.ExifInfo info = ExifParser.parse(new ByteArrayInputStream(jpeg));
+        assertNotNull(info);
+        assertEquals(6, info.orientation);
+        assertEquals(4000, info.imageWidth);
+        assertEquals(3000, info.imageHeight);
+        assertTrue(info.hasThumbnail());
+        assertEquals(160, info.thumbnailWidth);
+        assertEquals(120, info.thumbnailHeight);
+        assertEquals(thumbnail.length, info.thumbnailLength);
+        assertArrayEquals(thumbnail, Arrays.copyOfRange(info.thumbnailData,
+                info.thumbnailOffset, info.thumbnailOffset + info.thumbnailLength));
+    }
+
+    @Test
+    public void readsFromFile() throws IOException {
+        File file = File.createTempFile("exif", ".jpg");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(jpegWithExif(tiff(true, 1, 640, 480, thumbnailJpeg(160, 120))));
+            out.close();
+
+            ExifParser.ExifInfo info = ExifParser.read(file);
+            assertNotNull(info);
+            assertEquals(ExifParser.ORIENTATION_NORMAL, info.orientation);
+            assertTrue(info.hasThumbnail());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void returnsNullWithoutExif() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        writeApp0(out);
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xDA, 0, 2, 1, 2, 3});
+        assertNull(ExifParser.parse(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void returnsNullForNonJpeg() throws IOException {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        assertNull(ExifParser.parse(new ByteArrayInputStream(png)));
+    }
+
+    @Test
+    public void returnsNullForTruncatedFile() throws IOException {
+        byte[] jpeg = jpegWithExif(tiff(false, 1, 4000, 3000, thumbnailJpeg(160, 120)));
+        byte[] truncated = Arrays.copyOf(jpeg, jpeg.length / 2);
+        assertNull(ExifParser.parse(new ByteArrayInputStream(truncated)));
+    }
+
+    @Test
+    public void ignoresThumbnailOutsideSegment() throws IOException {
+        byte[] tiff = tiff(true, 1, 4000, 3000, thumbnailJpeg(160, 120));
+        // 缩略图长度改成超出APP1
+        int lengthEntry = 68 + 2 + 12 + 8;
+        tiff[lengthEntry] = (byte) 0xFF;
+        tiff[lengthEntry + 1] = (byte) 0x7F;
+
+        ExifParser.ExifInfo info = ExifParser.parse(new ByteArrayInputStream(jpegWithExif(tiff)));
+        assertNotNull(info);
+        assertFalse(info.hasThumbnail());
+        assertEquals(4000, info.imageWidth);
+    }
+
+    @Test
+    public void thumbnailSufficientOnlyWhenLargeEnoughAndSameAspect() {
+        ExifParser.ExifInfo info = new ExifParser.ExifInfo();
+        info.thumbnailData = new byte[0];
+        info.thumbnailWidth = 160;
+        info.thumbnailHeight = 120;
+        info.imageWidth = 4000;
+        info.imageHeight = 3000;
+
+        assertTrue(ExifParser.isThumbnailSufficient(info, 100, 100));
+        assertTrue(ExifParser.isThumbnailSufficient(info, 160, 120));
+        assertFalse(ExifParser.isThumbnailSufficient(info, 200, 200));
+
+        // 4032x3024也是4:3
+        info.imageWidth = 4032;
+        info.imageHeight = 3024;
+        assertTrue(ExifParser.isThumbnailSufficient(info, 100, 100));
+
+        // 16:9的原图配4:3的缩略图，有黑边
+        info.imageWidth = 1920;
+        info.imageHeight = 1080;
+        assertFalse(ExifParser.isThumbnailSufficient(info, 100, 100));
+
+        // 不知道原图尺寸
+        info.imageWidth = 0;
+        info.imageHeight = 0;
+        assertFalse(ExifParser.isThumbnailSufficient(info, 100, 100));
+    }
+
+    @Test
+    public void readsJpegSizeFromSof() {
+        byte[] jpeg = thumbnailJpeg(321, 123);
+        assertArrayEquals(new int[]{321, 123}, ExifParser.readJpegSize(jpeg, 0, jpeg.length));
+        assertNull(ExifParser.readJpegSize(new byte[]{1, 2, 3, 4}, 0, 4));
+    }
+
+    /**
+     * SOI + APP0 + APP1(Exif) + SOS
+     */
+    private static byte[] jpegWithExif(byte[] tiff) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        writeApp0(out);
+        int length = 2 + 6 + tiff.length;
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xE1, (byte) (length >> 8), (byte) length});
+        out.write(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        out.write(tiff);
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xDA, 0, 2, 1, 2, 3});
+        return out.toByteArray();
+    }
+
+    private static void writeApp0(ByteArrayOutputStream out) throws IOException {
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xE0, 0, 16});
+        out.write(new byte[]{'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+    }
+
+    /**
+     * 最小的JPEG：SOI + SOF0 + EOI
+     */
+    private static byte[] thumbnailJpeg(int width, int height) {
+        return new byte[]{
+                (byte) 0xFF, (byte) 0xD8,
+                (byte) 0xFF, (byte) 0xC0, 0, 17, 8,
+                (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width,
+                3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1,
+                (byte) 0xFF, (byte) 0xD9,
+        };
+    }
+
+    /**
+     * TIFF结构：头(0) + IFD0(8) + Exif IFD(38) + IFD1(68) + 缩略图(98)
+     */
+    private static byte[] tiff(boolean littleEndian, int orientation, int imageWidth, int imageHeight,
+                               byte[] thumbnail) throws IOException {
+        TiffWriter w = new TiffWriter(littleEndian);
+        w.order();
+        w.short16(42);
+        w.int32(8);
+
+        // IFD0
+        w.short16(2);
+        w.entryShort(0x0112, orientation);
+        w.entryLong(0x8769, 38);
+        w.int32(68);
+
+        // Exif IFD
+        w.short16(2);
+        w.entryLong(0xA002, imageWidth);
+        w.entryLong(0xA003, imageHeight);
+        w.int32(0);
+
+        // IFD1
+        w.short16(2);
+        w.entryLong(0x0201, 98);
+        w.entryLong(0x0202, thumbnail.length);
+        w.int32(0);
+
+        w.out.write(thumbnail);
+        return w.out.toByteArray();
+    }
+
+    private static class TiffWriter {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final boolean littleEndian;
+
+        TiffWriter(boolean littleEndian) {
+            this.littleEndian = littleEndian;
+        }
+
+        void order() {
+            char c = littleEndian ? 'I' : 'M';
+            out.write(c);
+            out.write(c);
+        }
+
+        void short16(int v) {
+            if (littleEndian) {
+                out.write(v);
+                out.write(v >> 8);
+            } else {
+                out.write(v >> 8);
+                out.write(v);
+            }
+        }
+
+        void int32(int v) {
+            if (littleEndian) {
+                short16(v & 0xFFFF);
+                short16(v >>> 16);
+            } else {
+                short16(v >>> 16);
+                short16(v & 0xFFFF);
+            }
+        }
+
+        void entryShort(int tag, int value) {
+            short16(tag);
+            short16(3);
+            int32(1);
+            // SHORT值放在4字节值域的前两个字节
+            short16(value);
+            short16(0);
+        }
+
+        void entryLong(int tag, int value) {
+            short16(tag);
+            short16(4);
+            int32(1);
+            int32(value);
+        }
+    }
+}
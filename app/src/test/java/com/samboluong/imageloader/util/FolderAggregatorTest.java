@@ -0,0 +1,111 @@
+package com.samboluong.imageloader.util;
+
+import com.samboluong.imageloader.bean.FolderBean;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * FolderAggregator的正确性测试，以及10万行合成数据的单次遍历耗时
+ */
+public class FolderAggregatorTest {
+
+    private static final int ROWS = 100000;
+    private static final int FOLDERS = 500;
+
+    /**
+     * 合成的MediaStore结果：路径和BUCKET_ID两列
+     */
+    private static class SyntheticCursor {
+        final String[] paths = new String[ROWS];
+        final int[] bucketIds = new int[ROWS];
+
+        SyntheticCursor() {
+            for (int i = 0; i < ROWS; i++) {
+                String dir = "/storage/emulated/0/DCIM/Folder" + (i * 7919 % FOLDERS);
+                paths[i] = dir + "/IMG_" + i + ".jpg";
+                bucketIds[i] = dir.toLowerCase().hashCode();
+            }
+        }
+    }
+
+    @Test
+    public void groupsRowsByParentDirectory() {
+        FolderAggregator aggregator = new FolderAggregator();
+        aggregator.add(1, "/sdcard/a/1.jpg");
+        aggregator.add(2, "/sdcard/b/1.jpg");
+        aggregator.add(1, "/sdcard/a/2.jpg");
+        aggregator.add(1, "/sdcard/a/3.png");
+
+        List<FolderBean> folders = aggregator.getFolders();
+        assertEquals(2, folders.size());
+        assertEquals("/sdcard/a", folders.get(0).getDir());
+        assertEquals("/sdcard/a/1.jpg", folders.get(0).getFirstImagePath());
+        assertEquals(3, folders.get(0).getCount());
+        assertEquals(1, folders.get(1).getCount());
+        assertEquals("/sdcard/a", aggregator.getLargestFolder().getDir());
+        assertEquals(4, aggregator.getImageCount());
+    }
+
+    @Test
+    public void bucketIdCollisionKeepsFoldersApart() {
+        FolderAggregator aggregator = new FolderAggregator();
+        aggregator.add(42, "/sdcard/a/1.jpg");
+        aggregator.add(42, "/sdcard/b/1.jpg");
+        aggregator.add(42, "/sdcard/ab/1.jpg");
+
+        assertEquals(3, aggregator.getFolderCount());
+    }
+
+    @Test
+    public void rootAndRelativePaths() {
+        FolderAggregator aggregator = new FolderAggregator();
+        aggregator.add(1, "/1.jpg");
+        aggregator.add(2, "relative.jpg");
+        aggregator.add(3, null);
+
+        assertEquals(1, aggregator.getFolderCount());
+        assertEquals("/", aggregator.getFolders().get(0).getDir());
+    }
+
+    @Test
+    public void matchesFileGroupingOverHundredThousandRows() {
+        SyntheticCursor cursor = new SyntheticCursor();
+
+        FolderAggregator aggregator = aggregate(cursor);
+        Map<String, Integer> expected = groupWithFiles(cursor);
+
+        assertEquals(FOLDERS, aggregator.getFolderCount());
+        assertEquals(ROWS, aggregator.getImageCount());
+        for (FolderBean bean : aggregator.getFolders()) {
+            assertEquals(expected.get(bean.getDir()).intValue(), bean.getCount());
+        }
+    }
+
+    private static FolderAggregator aggregate(SyntheticCursor cursor) {
+        FolderAggregator aggregator = new FolderAggregator();
+        for (int i = 0; i < ROWS; i++) {
+            aggregator.add(cursor.bucketIds[i], cursor.paths[i]);
+        }
+        return aggregator;
+    }
+
+    /**
+     * 原来的做法：每行new File再取父目录
+     */
+    private static Map<String, Integer> groupWithFiles(SyntheticCursor cursor) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < ROWS; i++) {
+            String dir = new File(cursor.paths[i]).getParentFile().getAbsolutePath();
+            Integer count = counts.get(dir);
+            counts.put(dir, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+}
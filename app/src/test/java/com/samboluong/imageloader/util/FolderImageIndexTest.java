@@ -0,0 +1,165 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * 文件夹图片索引的排序、筛选和组合
+ */
+public class FolderImageIndexTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * 名称, 修改时间, 大小, 宽, 高
+     */
+    private static final Object[][] IMAGES = {
+            {"IMG_0003.jpg", 300L, 2000L, 4000, 3000},
+            {"img_0001.JPG", 100L, 5000L, 1080, 1920},
+            {"Screenshot.png", 200L, 800L, 720, 1280},
+            {"IMG_0002.jpeg", 100L, 3000L, 0, 0},
+            {"a.png", 400L, 100L, 64, 64},
+    };
+
+    private FolderImageIndex mIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = mTemp.newFolder("camera");
+        for (Object[] image : IMAGES) {
+            assertTrue(new File(dir, (String) image[0]).createNewFile());
+        }
+        DirectoryListing listing = new DirectoryListing(dir, DIRECT, null);
+        listing.run();
+        mIndex = new FolderImageIndex(listing);
+        mIndex.setTypesFromNames();
+        for (int i = 0; i < listing.getCount(); i++) {
+            Object[] image = find(listing.getName(i));
+            mIndex.setMetadata(i, (Long) image[1], (Long) image[2], (Integer) image[3], (Integer) image[4],
+                    FolderImageIndex.typeOfName((String) image[0]));
+        }
+    }
+
+    private static Object[] find(String name) {
+        for (Object[] image : IMAGES) {
+            if (image[0].equals(name)) return image;
+        }
+        throw new AssertionError(name);
+    }
+
+    private String[] names(int[] positions) {
+        String[] names = new String[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            names[i] = mIndex.getListing().getName(positions[i]);
+        }
+        return names;
+    }
+
+    @Test
+    public void indexOfNameFindsExactCase() throws Exception {
+        File dir = mTemp.newFolder("names");
+        for (String name : new String[]{"b.jpg", "A.jpg", "a.jpg", "a.jpg.png"}) {
+            assertTrue(new File(dir, name).createNewFile());
+        }
+        DirectoryListing listing = new DirectoryListing(dir, DIRECT, null);
+        listing.run();
+        FolderImageIndex index = new FolderImageIndex(listing);
+
+        String prefix = dir.getPath() + "/";
+        for (int i = 0; i < listing.getCount(); i++) {
+            assertEquals(i, index.indexOfName(listing.getPath(i), prefix.length(), ParallelMergeSort.getDefaultPool()));
+        }
+        assertEquals(-1, index.indexOfName(prefix + "B.jpg", prefix.length(), ParallelMergeSort.getDefaultPool()));
+        assertEquals(-1, index.indexOfName(prefix + "c.jpg", prefix.length(), ParallelMergeSort.getDefaultPool()));
+        assertEquals(-1, index.indexOfName(prefix + "a", prefix.length(), ParallelMergeSort.getDefaultPool()));
+    }
+
+    @Test
+    public void sortsByNameIgnoringCase() {
+        FolderImageIndex.Query query = new FolderImageIndex.Query();
+        assertArrayEquals(new String[]{"a.png", "img_0001.JPG", "IMG_0002.jpeg", "IMG_0003.jpg", "Screenshot.png"},
+                names(mIndex.query(query, null)));
+
+        query.descending = true;
+        assertEquals("Screenshot.png", names(mIndex.query(query, null))[0]);
+    }
+
+    @Test
+    public void sortsByDateAndSize() {
+        FolderImageIndex.Query query = new FolderImageIndex.Query();
+        query.sort = FolderImageIndex.SORT_SIZE;
+        assertArrayEquals(new String[]{"a.png", "Screenshot.png", "IMG_0003.jpg", "IMG_0002.jpeg", "img_0001.JPG"},
+                names(mIndex.query(query, null)));
+
+        query.sort = FolderImageIndex.SORT_DATE;
+        query.descending = true;
+        String[] byDate = names(mIndex.query(query, null));
+        assertEquals("a.png", byDate[0]);
+        assertEquals("IMG_0003.jpg", byDate[1]);
+        // 排好序的结果会缓存
+        assertSame(mIndex.getOrder(FolderImageIndex.SORT_DATE, null), mIndex.getOrder(FolderImageIndex.SORT_DATE, null));
+    }
+
+    @Test
+    public void filtersCombine() {
+        FolderImageIndex.Query query = new FolderImageIndex.Query();
+        query.types = FolderImageIndex.TYPE_JPEG;
+        assertEquals(3, mIndex.query(query, null).length);
+
+        // 不区分横竖，宽高未知的不算
+        query.minWidth = 1080;
+        query.minHeight = 1080;
+        assertArrayEquals(new String[]{"img_0001.JPG", "IMG_0003.jpg"}, names(mIndex.query(query, null)));
+
+        query.fromDate = 150;
+        assertArrayEquals(new String[]{"IMG_0003.jpg"}, names(mIndex.query(query, null)));
+
+        query.types = FolderImageIndex.TYPE_PNG;
+        assertEquals(0, mIndex.query(query, null).length);
+        assertTrue(query.hasFilter());
+        assertFalse(new FolderImageIndex.Query().hasFilter());
+    }
+
+    @Test
+    public void filterBitmapsAreReusedAndNotModified() {
+        long[] jpeg = mIndex.getTypeFilter(FolderImageIndex.TYPE_JPEG);
+        assertSame(jpeg, mIndex.getTypeFilter(FolderImageIndex.TYPE_JPEG));
+        long before = jpeg[0];
+        FolderImageIndex.and(jpeg, mIndex.getDateFilter(0, 150));
+        assertEquals(before, jpeg[0]);
+        assertEquals(3, Long.bitCount(jpeg[0]));
+    }
+
+    @Test
+    public void selectKeepsOrderAcrossWords() {
+        int count = 200;
+        int[] order = new int[count];
+        long[] filter = new long[4];
+        for (int i = 0; i < count; i++) {
+            order[i] = count - 1 - i;
+            if (i % 3 == 0) filter[i >>> 6] |= 1L << i;
+        }
+        int[] selected = FolderImageIndex.select(order, filter, false);
+        assertEquals(67, selected.length);
+        assertEquals(198, selected[0]);
+        assertEquals(0, selected[66]);
+        int[] descending = FolderImageIndex.select(order, filter, true);
+        assertEquals(0, descending[0]);
+        assertEquals(count, FolderImageIndex.select(order, null, false).length);
+    }
+}
@@ -0,0 +1,38 @@
+package com.samboluong.imageloader.util;
+
+import com.samboluong.imageloader.bean.FolderBean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * FolderIndex的保存和读取
+ */
+public class FolderIndexTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        File file = new File(mTemp.getRoot(), "folders.idx");
+        FolderIndex index = new FolderIndex(file);
+        FolderBean bean = new FolderBean();
+        bean.setDir("/sdcard/DCIM");
+        bean.setFirstImagePath("/sdcard/DCIM/a.jpg");
+        bean.setCount(2);
+        index.putFolder(bean);
+        index.save();
+
+        FolderIndex loaded = new FolderIndex(file);
+        assertTrue(loaded.load());
+        FolderBean folder = loaded.getFolder("/sdcard/DCIM");
+        assertEquals("/sdcard/DCIM/a.jpg", folder.getFirstImagePath());
+        assertEquals(2, folder.getCount());
+    }
+}
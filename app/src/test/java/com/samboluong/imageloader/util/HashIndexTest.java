@@ -0,0 +1,115 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * HashIndex的查找、更新、压缩和保存
+ */
+public class HashIndexTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    @Test
+    public void putAndFind() {
+        HashIndex index = new HashIndex();
+        int camera = index.addDir("/sdcard/DCIM/Camera");
+        int download = index.addDir("/sdcard/Download");
+        assertEquals(camera, index.addDir("/sdcard/DCIM/Camera"));
+
+        int a = index.put(camera, "a.jpg", 100, 0x1234L, HashIndex.STATE_HASHED);
+        int b = index.put(download, "a.jpg", 200, 0x5678L, HashIndex.STATE_HASHED);
+        assertNotEquals(a, b);
+        assertEquals(a, index.indexOf(camera, "a.jpg"));
+        assertEquals(b, index.indexOf(download, "a.jpg"));
+        assertEquals(-1, index.indexOf(camera, "b.jpg"));
+        assertEquals("/sdcard/Download/a.jpg", index.getPath(b));
+
+        assertFalse(index.isStale(a, 100));
+        assertTrue(index.isStale(a, 101));
+        assertTrue(index.isStale(-1, 100));
+
+        // 文件变了，下标不变
+        assertEquals(a, index.put(camera, "a.jpg", 101, 0x9999L, HashIndex.STATE_HASHED));
+        assertEquals(0x9999L, index.getHash(a));
+        assertEquals(2, index.getCount());
+    }
+
+    @Test
+    public void growsAndRetains() {
+        HashIndex index = new HashIndex();
+        int dir = index.addDir("/dir");
+        int count = 10000;
+        for (int i = 0; i < count; i++) {
+            byte state = i % 10 == 0 ? HashIndex.STATE_FAILED : HashIndex.STATE_HASHED;
+            assertEquals(i, index.put(dir, "IMG_" + i + ".jpg", i, i * 31L, state));
+        }
+        assertEquals(count - count / 10, index.getHashedPositions().length);
+
+        // 只保留偶数
+        BitSet keep = new BitSet();
+        for (int i = 0; i < count; i += 2) keep.set(i);
+        assertEquals(count / 2, index.retain(keep));
+        assertEquals(count / 2, index.getCount());
+        for (int i = 0; i < count; i++) {
+            int position = index.indexOf(dir, "IMG_" + i + ".jpg");
+            if (i % 2 == 1) {
+                assertEquals(-1, position);
+            } else {
+                assertEquals(i / 2, position);
+                assertEquals(i * 31L, index.getHash(position));
+                assertEquals("/dir/IMG_" + i + ".jpg", index.getPath(position));
+            }
+        }
+    }
+
+    @Test
+    public void savesAndLoads() throws Exception {
+        HashIndex index = new HashIndex();
+        int a = index.addDir("/a");
+        int b = index.addDir("/b/相册");
+        for (int i = 0; i < 5000; i++) {
+            index.put(i % 2 == 0 ? a : b, "照片_" + i + ".jpg", 1000L + i, i * 0x9E3779B97F4A7C15L,
+                    i % 7 == 0 ? HashIndex.STATE_FAILED : HashIndex.STATE_HASHED);
+        }
+        File file = new File(mTemp.getRoot(), "index/dhash.idx");
+        index.save(file);
+
+        HashIndex loaded = HashIndex.load(file);
+        assertNotNull(loaded);
+        assertEquals(index.getCount(), loaded.getCount());
+        for (int i = 0; i < index.getCount(); i++) {
+            assertEquals(index.getPath(i), loaded.getPath(i));
+            assertEquals(index.getModified(i), loaded.getModified(i));
+            assertEquals(index.getHash(i), loaded.getHash(i));
+            assertEquals(index.getState(i), loaded.getState(i));
+        }
+        // 读回来的索引可以继续查找和添加
+        assertEquals(4999, loaded.indexOf(loaded.addDir("/b/相册"), "照片_4999.jpg"));
+        assertEquals(5000, loaded.put(a, "new.jpg", 1, 1, HashIndex.STATE_HASHED));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void rejectsMissingOrTruncatedFile() throws Exception {
+        File file = new File(mTemp.getRoot(), "dhash.idx");
+        assertNull(HashIndex.load(file));
+
+        HashIndex index = new HashIndex();
+        int dir = index.addDir("/dir");
+        for (int i = 0; i < 100; i++) index.put(dir, i + ".jpg", i, i, HashIndex.STATE_HASHED);
+        index.save(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 10);
+        raf.close();
+        assertNull(HashIndex.load(file));
+    }
+}
@@ -0,0 +1,242 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * ImageHeaderProber对各种文件头的解析和按路径的缓存
+ */
+public class ImageHeaderProberTest {
+
+    @Test
+    public void parsesJpegSofAndOrientation() throws IOException {
+        ImageHeaderProber.Header header = ImageHeaderProber.parse(ByteBuffer.wrap(jpeg(4032, 3024, 6)));
+        assertEquals(ImageHeaderProber.FORMAT_JPEG, header.format);
+        assertEquals("image/jpeg", header.getMimeType());
+        assertEquals(4032, header.width);
+        assertEquals(3024, header.height);
+        assertEquals(6, header.orientation);
+    }
+
+    @Test
+    public void jpegWithoutSofHasNoSize() {
+        byte[] data = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 2, 0};
+        ImageHeaderProber.Header header = ImageHeaderProber.parse(ByteBuffer.wrap(data));
+        assertTrue(header.isImage());
+        assertFalse(header.hasSize());
+    }
+
+    @Test
+    public void parsesPng() {
+        ByteBuffer buffer = ByteBuffer.allocate(33);
+        buffer.putInt(0x89504E47).putInt(0x0D0A1A0A).putInt(13).putInt(0x49484452).putInt(1920).putInt(1080);
+        buffer.flip();
+        assertHeader(ImageHeaderProber.FORMAT_PNG, 1920, 1080, ImageHeaderProber.parse(buffer));
+    }
+
+    @Test
+    public void parsesWebpVariants() {
+        // 有损
+        byte[] lossy = webp("VP8 ", 30);
+        lossy[23] = (byte) 0x9D;
+        lossy[24] = 0x01;
+        lossy[25] = 0x2A;
+        lossy[26] = (byte) (800 & 0xFF);
+        lossy[27] = (byte) (800 >> 8);
+        lossy[28] = (byte) (600 & 0xFF);
+        lossy[29] = (byte) (600 >> 8);
+        assertHeader(ImageHeaderProber.FORMAT_WEBP, 800, 600, ImageHeaderProber.parse(ByteBuffer.wrap(lossy)));
+
+        // 无损：14位宽-1、14位高-1
+        byte[] lossless = webp("VP8L", 25);
+        lossless[20] = 0x2F;
+        int bits = (640 - 1) | ((480 - 1) << 14);
+        lossless[21] = (byte) bits;
+        lossless[22] = (byte) (bits >> 8);
+        lossless[23] = (byte) (bits >> 16);
+        lossless[24] = (byte) (bits >> 24);
+        assertHeader(ImageHeaderProber.FORMAT_WEBP, 640, 480, ImageHeaderProber.parse(ByteBuffer.wrap(lossless)));
+
+        // 扩展：24位宽-1、高-1
+        byte[] extended = webp("VP8X", 30);
+        int w = 5000 - 1, h = 70000 - 1;
+        extended[24] = (byte) w;
+        extended[25] = (byte) (w >> 8);
+        extended[26] = (byte) (w >> 16);
+        extended[27] = (byte) h;
+        extended[28] = (byte) (h >> 8);
+        extended[29] = (byte) (h >> 16);
+        assertHeader(ImageHeaderProber.FORMAT_WEBP, 5000, 70000, ImageHeaderProber.parse(ByteBuffer.wrap(extended)));
+    }
+
+    @Test
+    public void parsesGifAndBmp() {
+        byte[] gif = {'G', 'I', 'F', '8', '9', 'a', 0x40, 0x01, (byte) 0xF0, 0x00};
+        assertHeader(ImageHeaderProber.FORMAT_GIF, 320, 240, ImageHeaderProber.parse(ByteBuffer.wrap(gif)));
+
+        ByteBuffer bmp = ByteBuffer.allocate(26).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        bmp.put((byte) 'B').put((byte) 'M');
+        bmp.putInt(18, 100).putInt(22, -50);
+        assertHeader(ImageHeaderProber.FORMAT_BMP, 100, 50, ImageHeaderProber.parse(bmp));
+    }
+
+    @Test
+    public void unknownContentIsNotImage() {
+        byte[] text = "this is not an image".getBytes();
+        assertFalse(ImageHeaderProber.parse(ByteBuffer.wrap(text)).isImage());
+        assertFalse(ImageHeaderProber.parse(ByteBuffer.allocate(0)).isImage());
+    }
+
+    @Test
+    public void packRoundTrip() {
+        ImageHeaderProber.Header header = new ImageHeaderProber.Header(ImageHeaderProber.FORMAT_WEBP,
+                16383, 70000, 8);
+        assertHeader(ImageHeaderProber.FORMAT_WEBP, 16383, 70000, ImageHeaderProber.Header.unpack(header.pack()));
+        assertEquals(8, ImageHeaderProber.Header.unpack(header.pack()).orientation);
+    }
+
+    @Test
+    public void probeCachesUntilFileChanges() throws IOException {
+        File file = File.createTempFile("probe", ".jpg");
+        try {
+            write(file, jpeg(400, 300, 1));
+            ImageHeaderProber prober = new ImageHeaderProber(16);
+            assertEquals(400, prober.probe(file.getPath()).width);
+            assertEquals(400, prober.probe(file.getPath()).width);
+            assertEquals(1, prober.getHitCount());
+            assertEquals(1, prober.getMissCount());
+
+            // 内容被替换成不是图片的数据(长度不同)
+            write(file, "not an image".getBytes());
+            assertFalse(prober.probe(file.getPath()).isImage());
+            assertEquals(1, prober.getNotImageCount());
+
+            assertNull(prober.probe(file.getPath() + ".missing"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * 文件后面有大量图像数据时只读文件头；第二次探测同一批文件全部命中缓存(读取速度的对比见benchmark模块)
+     */
+    @Test
+    public void probesLargeFilesAndCachesHeaders() throws IOException {
+        int count = 500;
+        File dir = File.createTempFile("probe", "dir");
+        assertTrue(dir.delete() && dir.mkdir());
+        File[] files = new File[count];
+        try {
+            byte[] data = jpeg(4000, 3000, 1);
+            // 文件后面补上模拟的图像数据
+            byte[] padded = new byte[data.length + 64 * 1024];
+            System.arraycopy(data, 0, padded, 0, data.length);
+            for (int i = 0; i < count; i++) {
+                files[i] = new File(dir, "IMG_" + i + ".jpg");
+                write(files[i], padded);
+            }
+
+            for (File file : files) {
+                assertEquals(4000, ImageHeaderProber.probeFile(file).width);
+            }
+
+            ImageHeaderProber prober = new ImageHeaderProber(count);
+            for (File file : files) prober.probe(file.getPath());
+            assertEquals(count, prober.getMissCount());
+            for (File file : files) {
+                assertHeader(ImageHeaderProber.FORMAT_JPEG, 4000, 3000, prober.probe(file.getPath()));
+            }
+            assertEquals(count, prober.getHitCount());
+        } finally {
+            for (File file : files) {
+                if (file != null) file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * SOF在第一次读取的范围之外(前面有很大的APP段)，继续读才能找到
+     */
+    @Test
+    public void probeFileFindsSofBeyondFirstRead() throws IOException {
+        byte[] jpeg = jpeg(4000, 3000, 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        for (int i = 0; i < 2; i++) {
+            int length = 60000;
+            out.write(new byte[]{(byte) 0xFF, (byte) 0xE2, (byte) (length >> 8), (byte) length});
+            out.write(new byte[length - 2]);
+        }
+        out.write(jpeg, 2, jpeg.length - 2);
+        out.write(new byte[64 * 1024]);
+
+        File file = File.createTempFile("probe", ".jpg");
+        try {
+            write(file, out.toByteArray());
+            assertHeader(ImageHeaderProber.FORMAT_JPEG, 4000, 3000, ImageHeaderProber.probeFile(file));
+            // 缓冲区扩大后读小文件不受影响
+            write(file, jpeg);
+            assertHeader(ImageHeaderProber.FORMAT_JPEG, 4000, 3000, ImageHeaderProber.probeFile(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertHeader(int format, int width, int height, ImageHeaderProber.Header header) {
+        assertEquals(format, header.format);
+        assertEquals(width, header.width);
+        assertEquals(height, header.height);
+    }
+
+    private static byte[] webp(String chunk, int length) {
+        byte[] data = new byte[length];
+        System.arraycopy("RIFF".getBytes(), 0, data, 0, 4);
+        System.arraycopy("WEBP".getBytes(), 0, data, 8, 4);
+        System.arraycopy(chunk.getBytes(), 0, data, 12, 4);
+        return data;
+    }
+
+    /**
+     * SOI + APP1(只有方向的EXIF) + SOF0 + SOS
+     */
+    private static byte[] jpeg(int width, int height, int orientation) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xD8});
+
+        // TIFF(大端)：头 + 只有一个条目的IFD0
+        byte[] tiff = {
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0,
+        };
+        int length = 2 + 6 + tiff.length;
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xE1, (byte) (length >> 8), (byte) length});
+        out.write(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        out.write(tiff);
+
+        out.write(new byte[]{
+                (byte) 0xFF, (byte) 0xC0, 0, 17, 8,
+                (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width,
+                3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1,
+        });
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xDA, 0, 2});
+        return out.toByteArray();
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+/**
+ * LoadEngine的合并、取消、丢弃，以及不同ExecutorBackend在大量排队请求下的对比
+ */
+public class LoadEngineTest {
+
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> workers = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            workers.add(command);
+        }
+
+        void runAll() {
+            for (Runnable worker : new ArrayList<>(workers)) {
+                worker.run();
+            }
+            workers.clear();
+        }
+    }
+
+    /**
+     * 结果是key本身，记录执行的key和收到结果的请求
+     */
+    private static class TestEngine extends LoadEngine<LoadEngine.Target, String> {
+        final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+        final List<Target> delivered = Collections.synchronizedList(new ArrayList<Target>());
+        final List<Target> discarded = Collections.synchronizedList(new ArrayList<Target>());
+        final List<String> values = Collections.synchronizedList(new ArrayList<String>());
+        volatile long workNanos;
+        /**
+         * 下一次执行抛出这个异常
+         */
+        volatile RuntimeException failNext;
+
+        TestEngine(TaskScheduler scheduler) {
+            super(scheduler);
+        }
+
+        @Override
+        protected Task<Target, String> newTask(Target first, int priority) {
+            return new Task<Target, String>(this, first.getKey(), priority) {
+                @Override
+                protected String execute(Target first) {
+                    if (isAbandoned()) return null;
+                    if (workNanos > 0) LockSupport.parkNanos(workNanos);
+                    RuntimeException failure = failNext;
+                    if (failure != null) {
+                        failNext = null;
+                        throw failure;
+                    }
+                    executed.add(first.getKey());
+                    return first.getKey();
+                }
+
+                @Override
+                protected void deliver(Target target, String value) {
+                    values.add(value);
+                    onDelivered(target);
+                }
+
+                @Override
+                protected void onDiscarded(Target target) {
+                    discarded.add(target);
+                }
+            };
+        }
+
+        void onDelivered(Target target) {
+            delivered.add(target);
+        }
+    }
+
+    private static LoadEngine.Target target(String key) {
+        return new LoadEngine.Target(key, LoadEngine.STATE_PENDING);
+    }
+
+    @Test
+    public void sameKeyIsLoadedOnce() {
+        ManualExecutor executor = new ManualExecutor();
+        TestEngine engine = new TestEngine(new TaskScheduler(executor, 1, 16, true));
+        LoadEngine.Target a = target("a");
+        LoadEngine.Target b = target("a");
+        engine.enqueue(a, TaskScheduler.PRIORITY_NORMAL);
+        engine.enqueue(b, TaskScheduler.PRIORITY_NORMAL);
+        assertEquals(1, engine.getInFlightCount());
+        assertEquals(1, engine.getCoalescedCount());
+
+        executor.runAll();
+        assertEquals(Collections.singletonList("a"), engine.executed);
+        assertEquals(2, engine.delivered.size());
+        assertTrue(a.isDone() && b.isDone());
+        assertEquals(0, engine.getInFlightCount());
+    }
+
+    @Test
+    public void failedExecutionFinishesTaskAndKeyLoadsAgain() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(executor, 1, 16, true);
+        TestEngine engine = new TestEngine(scheduler);
+        engine.failNext = new IllegalArgumentException("decode failed");
+        LoadEngine.Target a = target("a");
+        LoadEngine.Target b = target("a");
+        engine.enqueue(a, TaskScheduler.PRIORITY_NORMAL);
+        engine.enqueue(b, TaskScheduler.PRIORITY_NORMAL);
+
+        executor.runAll();
+        // 等待的请求都收到null，任务不再占着这个key
+        assertTrue(a.isDone() && b.isDone());
+        assertEquals(Arrays.asList(null, null), engine.values);
+        assertEquals(0, engine.getInFlightCount());
+        assertEquals(1, scheduler.getFailedCount());
+
+        LoadEngine.Target c = target("a");
+        engine.enqueue(c, TaskScheduler.PRIORITY_NORMAL);
+        executor.runAll();
+        assertTrue(c.isDone());
+        assertEquals(Collections.singletonList("a"), engine.executed);
+        assertEquals("a", engine.values.get(2));
+    }
+
+    @Test
+    public void cancellingAllTargetsRemovesQueuedTask() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(executor, 1, 16, true);
+        TestEngine engine = new TestEngine(scheduler);
+        LoadEngine.Target a = target("a");
+        LoadEngine.Target b = target("a");
+        engine.enqueue(a, TaskScheduler.PRIORITY_NORMAL);
+        engine.enqueue(b, TaskScheduler.PRIORITY_NORMAL);
+
+        assertTrue(engine.cancel(a));
+        assertFalse(engine.cancel(a));
+        assertEquals(1, scheduler.getQueueSize());
+        assertTrue(engine.cancel(b));
+        assertEquals(0, scheduler.getQueueSize());
+        assertEquals(1, engine.getSkippedCount());
+
+        executor.runAll();
+        assertTrue(engine.executed.isEmpty());
+        assertTrue(a.isCancelled() && b.isCancelled());
+    }
+
+    @Test
+    public void partiallyCancelledTaskDeliversToTheRest() {
+        ManualExecutor executor = new ManualExecutor();
+        TestEngine engine = new TestEngine(new TaskScheduler(executor, 1, 16, true));
+        LoadEngine.Target a = target("a");
+        LoadEngine.Target b = target("a");
+        engine.enqueue(a, TaskScheduler.PRIORITY_NORMAL);
+        engine.enqueue(b, TaskScheduler.PRIORITY_NORMAL);
+        engine.cancel(a);
+
+        executor.runAll();
+        assertEquals(Collections.singletonList(b), engine.delivered);
+        assertTrue(a.isCancelled());
+    }
+
+    @Test
+    public void higherPriorityRequestRequeuesTask() {
+        ManualExecutor executor = new ManualExecutor();
+        TestEngine engine = new TestEngine(new TaskScheduler(executor, 1, 16, false));
+        engine.enqueue(target("prefetch"), TaskScheduler.PRIORITY_LOW);
+        engine.enqueue(target("other"), TaskScheduler.PRIORITY_NORMAL);
+        // 可见的请求赶上了还在排队的预加载
+        engine.enqueue(target("prefetch"), TaskScheduler.PRIORITY_HIGH);
+
+        executor.runAll();
+        assertEquals("prefetch", engine.executed.get(0));
+        assertEquals(2, engine.executed.size());
+    }
+
+    @Test
+    public void discardedTaskCancelsItsTargets() {
+        ManualExecutor executor = new ManualExecutor();
+        TestEngine engine = new TestEngine(new TaskScheduler(executor, 1, 1, true));
+        LoadEngine.Target oldest = target("a");
+        engine.enqueue(oldest, TaskScheduler.PRIORITY_NORMAL);
+        engine.enqueue(target("b"), TaskScheduler.PRIORITY_NORMAL);
+
+        assertTrue(oldest.isCancelled());
+        assertEquals(Collections.singletonList(oldest), engine.discarded);
+        assertEquals(1, engine.getInFlightCount());
+
+        executor.runAll();
+        assertEquals(Collections.singletonList("b"), engine.executed);
+    }
+
+    @Test
+    public void shutdownDiscardsQueuedTasks() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(executor, 1, 16, true);
+        TestEngine engine = new TestEngine(scheduler);
+        LoadEngine.Target a = target("a");
+        LoadEngine.Target b = target("b");
+        engine.enqueue(a, TaskScheduler.PRIORITY_NORMAL);
+        engine.enqueue(b, TaskScheduler.PRIORITY_LOW);
+
+        scheduler.shutdown();
+        // 还在排队的任务不会执行，等待的请求都被取消，不再占着key
+        assertTrue(a.isCancelled() && b.isCancelled());
+        assertEquals(2, engine.discarded.size());
+        assertEquals(0, engine.getInFlightCount());
+        assertEquals(2, scheduler.getDiscardedCount());
+    }
+
+    /**
+     * 2万个请求(5千个key)同时排队，每10个取消1个，分别用各个ExecutorBackend执行
+     */
+    @Test
+    public void backendsUnderLoad() throws Exception {
+        List<ExecutorBackend> backends = new ArrayList<>();
+        Collections.addAll(backends, ExecutorBackend.FIXED_POOL, ExecutorBackend.FORK_JOIN);
+        if (ExecutorBackend.isVirtualThreadsAvailable()) {
+            backends.add(ExecutorBackend.VIRTUAL_THREADS);
+        }
+        for (ExecutorBackend backend : backends) {
+            runLoad(backend, 8, 20000, 5000);
+        }
+    }
+
+    private static void runLoad(ExecutorBackend backend, int workers, int requests, int keys)
+            throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(backend, workers, requests, true);
+        final CountDownLatch done = new CountDownLatch(requests);
+        final AtomicInteger deliveredCount = new AtomicInteger();
+        TestEngine engine = new TestEngine(scheduler) {
+            @Override
+            void onDelivered(Target target) {
+                deliveredCount.incrementAndGet();
+                done.countDown();
+            }
+        };
+        // 模拟读文件和解码，约50us
+        engine.workNanos = 50000;
+
+        List<LoadEngine.Target> targets = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            LoadEngine.Target target = target("key" + (i % keys));
+            targets.add(target);
+            engine.enqueue(target, i % 4 == 0 ? TaskScheduler.PRIORITY_LOW : TaskScheduler.PRIORITY_NORMAL);
+        }
+        int cancelled = 0;
+        for (int i = 0; i < requests; i += 10) {
+            if (engine.cancel(targets.get(i))) {
+                cancelled++;
+                done.countDown();
+            }
+        }
+        assertTrue(backend.name(), done.await(60, TimeUnit.SECONDS));
+        scheduler.shutdown();
+
+        assertEquals(requests, deliveredCount.get() + cancelled);
+        assertEquals(0, engine.getInFlightCount());
+        // 任务完成后同一个key的新请求会重新加载(这里没有缓存)，但排队期间的请求都被合并
+        assertTrue(engine.getCoalescedCount() > 0);
+        assertTrue(engine.executed.size() < requests);
+    }
+}
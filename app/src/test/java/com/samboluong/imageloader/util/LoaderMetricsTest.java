@@ -0,0 +1,123 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Histogram和LoaderMetrics的统计、回调和输出
+ */
+public class LoaderMetricsTest {
+
+    @Test
+    public void histogramPercentilesAreWithinBucket() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getMean());
+        assertEquals(1000, histogram.getMax());
+
+        // 分桶的上界，误差在2倍以内
+        long p50 = histogram.getPercentile(0.5);
+        assertTrue(String.valueOf(p50), p50 >= 500 && p50 < 1000);
+        assertEquals(1000, histogram.getPercentile(0.99));
+        assertEquals(1000, histogram.getPercentile(1));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void histogramIsThreadSafe() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i & 1023);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        assertEquals(400000, histogram.getCount());
+        assertEquals(1023, histogram.getMax());
+    }
+
+    @Test
+    public void recordsStagesAndNotifiesListeners() {
+        LoaderMetrics metrics = new LoaderMetrics();
+        final List<RequestTrace> finished = new ArrayList<>();
+        metrics.addListener(new LoaderMetrics.Listener() {
+            @Override
+            public void onRequestFinished(RequestTrace trace) {
+                finished.add(trace);
+            }
+        });
+
+        RequestTrace trace = new RequestTrace("/sdcard/a.jpg", 1000000);
+        trace.mDispatchTime = 3000000;
+        trace.mDecodeStartTime = 3000000;
+        trace.mDecodeEndTime = 8000000;
+        trace.mBindTime = 9000000;
+        trace.mSource = LoaderMetrics.SOURCE_DECODE;
+        trace.mByteCount = 1024;
+        metrics.recordDispatch(5, 3);
+        metrics.recordLoad(LoaderMetrics.SOURCE_DECODE, 5000000, 1024);
+        metrics.recordFinished(trace);
+
+        RequestTrace hit = new RequestTrace("/sdcard/b.jpg", 1000000);
+        hit.mSource = LoaderMetrics.SOURCE_MEMORY;
+        hit.mBindTime = 1500000;
+        metrics.recordFinished(hit);
+        metrics.recordCancelled();
+
+        assertEquals(2000, trace.getQueueWaitNanos() / 1000);
+        assertEquals(5000, trace.getDecodeNanos() / 1000);
+        assertEquals(1000, trace.getHandoffNanos() / 1000);
+        assertEquals(8000, trace.getTotalNanos() / 1000);
+        assertEquals(500, hit.getHandoffNanos() / 1000);
+
+        assertEquals(2, finished.size());
+        assertEquals(1, metrics.getSourceCount(LoaderMetrics.SOURCE_DECODE));
+        assertEquals(1, metrics.getSourceCount(LoaderMetrics.SOURCE_MEMORY));
+        assertEquals(1, metrics.getCancelledCount());
+        assertEquals(1024, metrics.getBytesDecoded());
+        assertEquals(1, metrics.getQueueWait().getCount());
+        assertEquals(2, metrics.getHandoff().getCount());
+        assertEquals(5000, metrics.getLoadTime(LoaderMetrics.SOURCE_DECODE).getMax());
+        assertEquals(5, metrics.getQueueDepth().getMax());
+
+        StringWriter out = new StringWriter();
+        metrics.dump(new PrintWriter(out), "  ");
+        assertTrue(out.toString(), out.toString().contains("decode=1"));
+        assertTrue(out.toString(), out.toString().contains("queueWait(us): count=1"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getTotal().getCount());
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() {
+        LoaderMetrics metrics = new LoaderMetrics();
+        metrics.setEnabled(false);
+        RequestTrace trace = new RequestTrace("/sdcard/a.jpg", 0);
+        trace.mSource = LoaderMetrics.SOURCE_DISK;
+        metrics.recordFinished(trace);
+        metrics.recordLoad(LoaderMetrics.SOURCE_DISK, 1000, 10);
+        assertEquals(0, metrics.getSourceCount(LoaderMetrics.SOURCE_DISK));
+        assertEquals(0, metrics.getBytesDecoded());
+    }
+}
@@ -0,0 +1,100 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * 归并排序的正确性和稳定性，串行和并行的结果一致
+ */
+public class ParallelMergeSortTest {
+
+    private static int[] identity(int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        return order;
+    }
+
+    private static ParallelMergeSort.IndexComparator byKey(final long[] keys) {
+        return new ParallelMergeSort.IndexComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return Long.compare(keys[a], keys[b]);
+            }
+        };
+    }
+
+    private static void assertSortedAndStable(int[] order, long[] keys) {
+        boolean[] seen = new boolean[order.length];
+        for (int i = 0; i < order.length; i++) {
+            assertFalse(seen[order[i]]);
+            seen[order[i]] = true;
+            if (i > 0) {
+                long previous = keys[order[i - 1]];
+                assertTrue(previous <= keys[order[i]]);
+                // 相等的保持原来的顺序
+                if (previous == keys[order[i]]) assertTrue(order[i - 1] < order[i]);
+            }
+        }
+    }
+
+    @Test
+    public void sortsSmallArraysInPlace() {
+        long[] keys = {5, 3, 9, 3, 1, 5, 0};
+        int[] order = identity(keys.length);
+        ParallelMergeSort.sort(order, byKey(keys), null);
+        assertArrayEquals(new int[]{6, 4, 1, 3, 0, 5, 2}, order);
+
+        ParallelMergeSort.sort(new int[0], byKey(keys), null);
+    }
+
+    @Test
+    public void parallelMatchesSequential() {
+        Random random = new Random(42);
+        int count = 30000;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            // 很多重复的key，检查稳定性
+            keys[i] = random.nextInt(1000);
+        }
+
+        int[] sequential = identity(count);
+        ParallelMergeSort.sort(sequential, byKey(keys), null);
+        assertSortedAndStable(sequential, keys);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int[] parallel = identity(count);
+            ParallelMergeSort.sort(parallel, byKey(keys), pool);
+            assertArrayEquals(sequential, parallel);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void alreadySortedInputStaysSorted() {
+        int count = ParallelMergeSort.PARALLEL_THRESHOLD * 3;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) keys[i] = i / 3;
+
+        int[] order = identity(count);
+        ParallelMergeSort.sort(order, byKey(keys), ParallelMergeSort.getDefaultPool());
+        assertArrayEquals(identity(count), order);
+
+        int[] reversed = new int[count];
+        for (int i = 0; i < count; i++) reversed[i] = count - 1 - i;
+        ParallelMergeSort.sort(reversed, new ParallelMergeSort.IndexComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return a - b;
+            }
+        }, ParallelMergeSort.getDefaultPool());
+        assertArrayEquals(identity(count), reversed);
+        assertTrue(Arrays.equals(identity(count), order));
+    }
+}
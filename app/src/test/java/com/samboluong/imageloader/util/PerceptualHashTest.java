@@ -0,0 +1,191 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * dHash的位顺序、亮度、距离和区域平均缩小
+ */
+public class PerceptualHashTest {
+
+    private static int[] gradient(boolean darkerToRight) {
+        int[] luma = new int[PerceptualHash.WIDTH * PerceptualHash.HEIGHT];
+        for (int row = 0; row < PerceptualHash.HEIGHT; row++) {
+            for (int col = 0; col < PerceptualHash.WIDTH; col++) {
+                luma[row * PerceptualHash.WIDTH + col] = darkerToRight ? 255 - col * 20 : col * 20;
+            }
+        }
+        return luma;
+    }
+
+    @Test
+    public void gradientsGiveAllOrNothing() {
+        assertEquals(-1L, PerceptualHash.dHash(gradient(true)));
+        assertEquals(0L, PerceptualHash.dHash(gradient(false)));
+        assertEquals(64, PerceptualHash.distance(-1L, 0L));
+    }
+
+    @Test
+    public void bitOrderFollowsRows() {
+        int[] luma = gradient(false);
+        // 第2行第3次比较变成左亮右暗
+        luma[2 * PerceptualHash.WIDTH + 3] = 255;
+        long hash = PerceptualHash.dHash(luma);
+        assertEquals(1L << (2 * 8 + 3), hash);
+    }
+
+    @Test
+    public void brightnessChangeKeepsHash() {
+        int[] luma = gradient(true);
+        for (int i = 0; i < luma.length; i++) luma[i] = luma[i] / 2 + 10;
+        assertEquals(0, PerceptualHash.distance(PerceptualHash.dHash(gradient(true)), PerceptualHash.dHash(luma)));
+    }
+
+    @Test
+    public void luminance() {
+        assertEquals(255, PerceptualHash.luminance(0xFFFFFFFF));
+        assertEquals(0, PerceptualHash.luminance(0xFF000000));
+        assertTrue(PerceptualHash.luminance(0xFF00FF00) > PerceptualHash.luminance(0xFFFF0000));
+    }
+
+    /**
+     * 合成的"照片"：几个低频的起伏加上几块亮暗不同的矩形
+     */
+    private static int[] photo(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] argb = new int[width * height];
+        double[] phases = {random.nextDouble() * 6, random.nextDouble() * 6, random.nextDouble() * 6};
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double fx = x / (double) width;
+                double fy = y / (double) height;
+                double value = 128 + 50 * Math.sin(fx * 7 + phases[0]) + 40 * Math.cos(fy * 5 + phases[1])
+                        + 30 * Math.sin((fx + fy) * 11 + phases[2]);
+                if (fx > 0.2 && fx < 0.45 && fy > 0.3 && fy < 0.7) value += 60;
+                if (fx > 0.6 && fx < 0.9 && fy > 0.1 && fy < 0.4) value -= 70;
+                argb[y * width + x] = gray(value);
+            }
+        }
+        return argb;
+    }
+
+    private static int gray(double value) {
+        int v = (int) Math.max(0, Math.min(255, Math.round(value)));
+        return 0xFF000000 | (v << 16) | (v << 8) | v;
+    }
+
+    private static long hash(int[] argb, int width, int height, int orientation) {
+        int[] luma = new int[PerceptualHash.WIDTH * PerceptualHash.HEIGHT];
+        PerceptualHash.downsample(argb, width, height, orientation, luma);
+        return PerceptualHash.dHash(luma);
+    }
+
+    @Test
+    public void downsampleAveragesEachCell() {
+        // 18x16：每格正好2x2个像素
+        int width = PerceptualHash.WIDTH * 2;
+        int height = PerceptualHash.HEIGHT * 2;
+        int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // 棋盘格，逐点采样只会取到0或200，平均是100
+                argb[y * width + x] = gray((x + y) % 2 == 0 ? 0 : 200);
+            }
+        }
+        int[] luma = new int[PerceptualHash.WIDTH * PerceptualHash.HEIGHT];
+        PerceptualHash.downsample(argb, width, height, ExifParser.ORIENTATION_NORMAL, luma);
+        for (int value : luma) {
+            assertEquals(100, value);
+        }
+    }
+
+    @Test
+    public void downscaledAndRecompressedCopiesStayClose() {
+        int width = 240;
+        int height = 180;
+        int[] original = photo(width, height, 3);
+        long hash = hash(original, width, height, ExifParser.ORIENTATION_NORMAL);
+
+        // 缩小到1/3
+        int scale = 3;
+        int smallWidth = width / scale;
+        int smallHeight = height / scale;
+        int[] small = new int[smallWidth * smallHeight];
+        for (int y = 0; y < smallHeight; y++) {
+            for (int x = 0; x < smallWidth; x++) {
+                int sum = 0;
+                for (int dy = 0; dy < scale; dy++) {
+                    for (int dx = 0; dx < scale; dx++) {
+                        sum += original[(y * scale + dy) * width + x * scale + dx] & 0xFF;
+                    }
+                }
+                small[y * smallWidth + x] = gray(sum / (double) (scale * scale));
+            }
+        }
+        int scaled = PerceptualHash.distance(hash, hash(small, smallWidth, smallHeight,
+                ExifParser.ORIENTATION_NORMAL));
+        assertTrue("缩小后距离" + scaled, scaled <= DuplicateFinder.DEFAULT_MAX_DISTANCE);
+
+        // 重新压缩：每个像素加上噪点，再量化成RGB_565
+        Random random = new Random(5);
+        int[] noisy = new int[original.length];
+        for (int i = 0; i < original.length; i++) {
+            int v = (int) Math.max(0, Math.min(255, (original[i] & 0xFF) + random.nextInt(41) - 20));
+            int r = v & 0xF8;
+            int g = v & 0xFC;
+            int b = v & 0xF8;
+            noisy[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+        int recompressed = PerceptualHash.distance(hash, hash(noisy, width, height, ExifParser.ORIENTATION_NORMAL));
+        assertTrue("加噪点后距离" + recompressed, recompressed <= DuplicateFinder.DEFAULT_MAX_DISTANCE);
+
+        // 完全不同的图片距离很远
+        int[] other = photo(width, height, 11);
+        assertTrue(PerceptualHash.distance(hash, hash(other, width, height, ExifParser.ORIENTATION_NORMAL))
+                > DuplicateFinder.DEFAULT_MAX_DISTANCE);
+    }
+
+    @Test
+    public void orientationIsAppliedBeforeDownsampling() {
+        int width = 90;
+        int height = 64;
+        int[] upright = photo(width, height, 3);
+        long expected = hash(upright, width, height, ExifParser.ORIENTATION_NORMAL);
+
+        // 存的是逆时针转了90度的图片，EXIF方向6表示显示时顺时针转回来
+        int[] stored = new int[upright.length];
+        for (int y = 0; y < width; y++) {
+            for (int x = 0; x < height; x++) {
+                stored[y * height + x] = upright[x * width + (width - 1 - y)];
+            }
+        }
+        assertEquals(expected, hash(stored, height, width, 6));
+
+        // 水平翻转，方向2
+        int[] mirrored = new int[upright.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                mirrored[y * width + x] = upright[y * width + (width - 1 - x)];
+            }
+        }
+        assertEquals(expected, hash(mirrored, width, height, 2));
+    }
+
+    @Test
+    public void downsampleHandlesTinyImages() {
+        int[] argb = {gray(0), gray(255), gray(255), gray(0)};
+        int[] luma = new int[PerceptualHash.WIDTH * PerceptualHash.HEIGHT];
+        PerceptualHash.downsample(argb, 2, 2, ExifParser.ORIENTATION_NORMAL, luma);
+        assertEquals(0, luma[0]);
+        assertEquals(255, luma[PerceptualHash.WIDTH - 1]);
+        assertEquals(0, luma[luma.length - 1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsNineByEight() {
+        PerceptualHash.dHash(new int[64]);
+    }
+}
@@ -0,0 +1,229 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * SelectionModel的位操作、批量遍历和保存恢复
+ */
+public class SelectionModelTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static DirectoryListing list(File dir) {
+        DirectoryListing listing = new DirectoryListing(dir, DIRECT, null);
+        listing.run();
+        return listing;
+    }
+
+    @Test
+    public void toggleUpdatesCount() {
+        SelectionModel selection = new SelectionModel("/sdcard/DCIM", 10);
+        assertTrue(selection.isEmpty());
+
+        assertTrue(selection.toggle(3));
+        assertTrue(selection.toggle(9));
+        assertEquals(2, selection.getSelectedCount());
+        assertTrue(selection.isSelected(3));
+
+        assertFalse(selection.toggle(3));
+        assertFalse(selection.isSelected(3));
+        assertEquals(1, selection.getSelectedCount());
+
+        // 重复设置不改变计数
+        selection.setSelected(9, true);
+        assertEquals(1, selection.getSelectedCount());
+        assertFalse(selection.isSelected(10));
+    }
+
+    @Test
+    public void rangeAcrossWords() {
+        SelectionModel selection = new SelectionModel("dir", 300);
+        selection.setRange(60, 200, true);
+        assertEquals(140, selection.getSelectedCount());
+        assertFalse(selection.isSelected(59));
+        assertTrue(selection.isSelected(60));
+        assertTrue(selection.isSelected(127));
+        assertTrue(selection.isSelected(199));
+        assertFalse(selection.isSelected(200));
+
+        selection.setRange(64, 128, false);
+        assertEquals(76, selection.getSelectedCount());
+        assertTrue(selection.isSelected(63));
+        assertFalse(selection.isSelected(64));
+        assertTrue(selection.isSelected(128));
+
+        // 同一组内的范围
+        selection.setRange(65, 70, true);
+        assertEquals(81, selection.getSelectedCount());
+        assertFalse(selection.isSelected(64));
+        assertFalse(selection.isSelected(70));
+    }
+
+    @Test
+    public void selectAllAndClear() {
+        SelectionModel selection = new SelectionModel("dir", 130);
+        selection.selectAll();
+        assertEquals(130, selection.getSelectedCount());
+        assertTrue(selection.isSelected(129));
+        assertEquals(-1, selection.nextSelected(130));
+
+        selection.clear();
+        assertTrue(selection.isEmpty());
+        assertEquals(-1, selection.nextSelected(0));
+    }
+
+    @Test
+    public void iteratesSelectedIds() {
+        SelectionModel selection = new SelectionModel("dir", 1000);
+        int[] expected = {0, 63, 64, 500, 999};
+        for (int id : expected) selection.setSelected(id, true);
+
+        assertArrayEquals(expected, selection.getSelectedIds());
+        assertEquals(500, selection.nextSelected(65));
+        assertEquals(-1, selection.nextSelected(1000));
+    }
+
+    @Test
+    public void growsAndShrinks() {
+        SelectionModel selection = new SelectionModel("dir", 0);
+        selection.setSize(64);
+        selection.selectAll();
+        selection.setSize(5000);
+        selection.setSelected(4999, true);
+        assertEquals(65, selection.getSelectedCount());
+
+        selection.setSize(10);
+        assertEquals(10, selection.getSelectedCount());
+        assertFalse(selection.isSelected(4999));
+        // 再次增大时不会带回之前的选中
+        selection.setSize(5000);
+        assertFalse(selection.isSelected(4999));
+    }
+
+    @Test
+    public void roundTripsThroughLongArray() {
+        SelectionModel selection = new SelectionModel("dir", 200);
+        selection.setRange(10, 150, true);
+        selection.setSelected(199, true);
+
+        long[] words = selection.toLongArray();
+        assertEquals(4, words.length);
+        SelectionModel restored = SelectionModel.fromLongArray("dir", 200, 0, words);
+        assertEquals(selection.getSelectedCount(), restored.getSelectedCount());
+        assertArrayEquals(selection.getSelectedIds(), restored.getSelectedIds());
+
+        // 文件夹变小后恢复，超出的位不算
+        SelectionModel smaller = SelectionModel.fromLongArray("dir", 100, 0, words);
+        assertEquals(90, smaller.getSelectedCount());
+        assertEquals(-1, smaller.nextSelected(100));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void idMustBeInRange() {
+        new SelectionModel("dir", 10).setSelected(10, true);
+    }
+
+    @Test
+    public void matchesOnlyTheSameListing() throws Exception {
+        File dir = mTemp.newFolder("camera");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(new File(dir, "IMG_" + i + ".jpg").createNewFile());
+        }
+        DirectoryListing listing = list(dir);
+        SelectionModel selection = new SelectionModel(listing.getDirPath(), 0);
+        assertFalse("还没有bind", selection.matches(listing));
+        selection.bind(listing);
+        selection.setRange(10, 20, true);
+        assertTrue(selection.matches(listing));
+
+        // 文件夹没变，重新列出(旋转屏幕、切换回来)仍然可以用
+        SelectionModel restored = SelectionModel.fromLongArray(selection.getDirPath(), selection.getSize(),
+                selection.getFingerprint(), selection.toLongArray());
+        DirectoryListing again = list(dir);
+        assertTrue(restored.matches(again));
+        SelectionModel current = new SelectionModel(again.getDirPath(), again.getCount());
+        current.bind(again);
+        current.addAll(restored);
+        assertArrayEquals(selection.getSelectedIds(), current.getSelectedIds());
+    }
+
+    @Test
+    public void folderGainedFilesSelectionDoesNotCarryOver() throws Exception {
+        File dir = mTemp.newFolder("camera");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(new File(dir, "IMG_" + i + ".jpg").createNewFile());
+        }
+        DirectoryListing listing = list(dir);
+        SelectionModel selection = new SelectionModel(listing.getDirPath(), 0);
+        selection.bind(listing);
+        selection.setSelected(5, true);
+        SelectionModel saved = SelectionModel.fromLongArray(selection.getDirPath(), selection.getSize(),
+                selection.getFingerprint(), selection.toLongArray());
+
+        // 多了一个文件：即使数量变大，旧的id也不能用
+        assertTrue(new File(dir, "IMG_new.jpg").createNewFile());
+        DirectoryListing grown = list(dir);
+        assertFalse(saved.matches(grown));
+
+        // 数量不变但换了一个文件
+        assertTrue(new File(dir, "IMG_new.jpg").delete());
+        assertTrue(new File(dir, "IMG_0.jpg").renameTo(new File(dir, "IMG_renamed.jpg")));
+        assertFalse(saved.matches(list(dir)));
+    }
+
+    @Test
+    public void partialSelectionSurvivesRelisting() throws Exception {
+        File dir = mTemp.newFolder("camera");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(new File(dir, "IMG_" + i + ".jpg").createNewFile());
+        }
+        DirectoryListing listing = list(dir);
+        assertEquals(listing.getFingerprint(), listing.getPrefixFingerprint(listing.getCount()));
+
+        // 只列出了前40张时选中，保存时记下这40张的指纹
+        SelectionModel selection = new SelectionModel(listing.getDirPath(), 40);
+        selection.setRange(30, 40, true);
+        selection.bindPartial(listing);
+        assertTrue(selection.isPartial());
+        SelectionModel restored = SelectionModel.fromLongArray(selection.getDirPath(), selection.getSize(),
+                selection.getFingerprint(), true, selection.toLongArray());
+
+        DirectoryListing again = list(dir);
+        assertTrue(restored.matches(again));
+        SelectionModel current = new SelectionModel(again.getDirPath(), again.getCount());
+        current.bind(again);
+        current.addAll(restored);
+        assertArrayEquals(selection.getSelectedIds(), current.getSelectedIds());
+
+        // 前面的文件变了
+        assertTrue(new File(dir, again.getName(0)).renameTo(new File(dir, "IMG_renamed.jpg")));
+        DirectoryListing changed = list(dir);
+        assertNotEquals(restored.getFingerprint(), changed.getPrefixFingerprint(40));
+        assertFalse(restored.matches(changed));
+    }
+
+    @Test
+    public void unfinishedListingDoesNotMatch() throws Exception {
+        File dir = mTemp.newFolder("camera");
+        assertTrue(new File(dir, "a.jpg").createNewFile());
+        DirectoryListing listing = new DirectoryListing(dir, DIRECT, null);
+        assertEquals(0, listing.getFingerprint());
+        SelectionModel selection = SelectionModel.fromLongArray(listing.getDirPath(), 0, 0, new long[0]);
+        assertFalse(selection.matches(listing));
+    }
+}
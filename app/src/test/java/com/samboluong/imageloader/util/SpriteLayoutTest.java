@@ -0,0 +1,75 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 封面拼图的排布和边长
+ */
+public class SpriteLayoutTest {
+
+    @Test
+    public void fewCoversUseOneSmallPage() {
+        SpriteLayout layout = new SpriteLayout(3, 200, 2048);
+        assertEquals(1, layout.getPageCount());
+        assertEquals(600, layout.getPageWidth(0));
+        assertEquals(200, layout.getPageHeight(0));
+        assertEquals(400, layout.getLeft(2));
+        assertEquals(0, layout.getTop(2));
+    }
+
+    @Test
+    public void cellsWrapIntoRowsAndPages() {
+        // 每行10个，每页10行
+        SpriteLayout layout = new SpriteLayout(250, 200, 2048);
+        assertEquals(100, layout.getCellsPerPage());
+        assertEquals(3, layout.getPageCount());
+        assertEquals(2000, layout.getPageWidth(0));
+        assertEquals(2000, layout.getPageHeight(0));
+        assertEquals(1000, layout.getPageHeight(2));
+
+        assertEquals(0, layout.getPageOf(99));
+        assertEquals(1800, layout.getLeft(99));
+        assertEquals(1800, layout.getTop(99));
+        assertEquals(1, layout.getPageOf(100));
+        assertEquals(0, layout.getLeft(100));
+        assertEquals(0, layout.getTop(100));
+        assertEquals(2, layout.getPageOf(213));
+        assertEquals(600, layout.getLeft(213));
+        assertEquals(200, layout.getTop(213));
+    }
+
+    @Test
+    public void cellsNeverOverlap() {
+        SpriteLayout layout = new SpriteLayout(137, 96, 1024);
+        for (int i = 0; i < layout.getCount(); i++) {
+            int page = layout.getPageOf(i);
+            assertTrue(layout.getLeft(i) + 96 <= layout.getPageWidth(page));
+            assertTrue(layout.getTop(i) + 96 <= layout.getPageHeight(page));
+            for (int j = 0; j < i; j++) {
+                assertFalse(page == layout.getPageOf(j) && layout.getLeft(i) == layout.getLeft(j)
+                        && layout.getTop(i) == layout.getTop(j));
+            }
+        }
+    }
+
+    @Test
+    public void emptyLayoutHasNoPages() {
+        SpriteLayout layout = new SpriteLayout(0, 200, 2048);
+        assertEquals(0, layout.getPageCount());
+        assertEquals(0, layout.getPixelCount());
+    }
+
+    @Test
+    public void cellSizeShrinksToFitBudget() {
+        assertEquals(228, SpriteLayout.fitCellSize(50, 228, 114, 8 * 1024 * 1024, 2));
+        // 500个文件夹、4MB的RGB_565：每个最多4194个像素，约64x64
+        int size = SpriteLayout.fitCellSize(500, 228, 32, 4 * 1024 * 1024, 2);
+        assertEquals(64, size);
+        assertTrue(new SpriteLayout(500, size, 2048).getPixelCount() * 2 <= 4 * 1024 * 1024);
+        // 不小于最小边长
+        assertEquals(114, SpriteLayout.fitCellSize(5000, 228, 114, 4 * 1024 * 1024, 2));
+        assertEquals(228, SpriteLayout.fitCellSize(0, 228, 114, 0, 2));
+    }
+}
@@ -0,0 +1,218 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * TaskScheduler的JVM测试，包括调度开销和吞吐量的测量
+ */
+public class TaskSchedulerTest {
+
+    /**
+     * 手动执行的Executor，用来精确控制工作者什么时候开始取任务
+     */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> workers = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            workers.add(command);
+        }
+
+        void runAll() {
+            for (Runnable worker : new ArrayList<>(workers)) {
+                worker.run();
+            }
+            workers.clear();
+        }
+    }
+
+    private static Runnable record(final List<Integer> order, final int id) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(id);
+            }
+        };
+    }
+
+    @Test
+    public void lifoRunsNewestFirst() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(executor, 1, 16, true);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            scheduler.submit(record(order, i), TaskScheduler.PRIORITY_NORMAL);
+        }
+        executor.runAll();
+        assertEquals(Arrays.asList(3, 2, 1, 0), order);
+    }
+
+    @Test
+    public void fifoRunsOldestFirst() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(executor, 1, 16, false);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            scheduler.submit(record(order, i), TaskScheduler.PRIORITY_NORMAL);
+        }
+        executor.runAll();
+        assertEquals(Arrays.asList(0, 1, 2, 3), order);
+    }
+
+    @Test
+    public void higherPriorityRunsFirst() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(executor, 1, 16, false);
+        List<Integer> order = new ArrayList<>();
+        scheduler.submit(record(order, 0), TaskScheduler.PRIORITY_LOW);
+        scheduler.submit(record(order, 1), TaskScheduler.PRIORITY_NORMAL);
+        scheduler.submit(record(order, 2), TaskScheduler.PRIORITY_HIGH);
+        executor.runAll();
+        assertEquals(Arrays.asList(2, 1, 0), order);
+    }
+
+    @Test
+    public void lifoDiscardsOldestWhenFull() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(executor, 1, 2, true);
+        final List<Runnable> discarded = new ArrayList<>();
+        scheduler.setOnTaskDiscardListener(new TaskScheduler.OnTaskDiscardListener() {
+            @Override
+            public void onTaskDiscarded(Runnable task) {
+                discarded.add(task);
+            }
+        });
+        List<Integer> order = new ArrayList<>();
+        Runnable first = record(order, 0);
+        scheduler.submit(first, TaskScheduler.PRIORITY_NORMAL);
+        scheduler.submit(record(order, 1), TaskScheduler.PRIORITY_NORMAL);
+        assertTrue(scheduler.submit(record(order, 2), TaskScheduler.PRIORITY_NORMAL));
+
+        assertEquals(Collections.singletonList(first), discarded);
+        executor.runAll();
+        assertEquals(Arrays.asList(2, 1), order);
+    }
+
+    @Test
+    public void fifoRejectsNewTaskWhenFull() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(executor, 1, 1, false);
+        List<Integer> order = new ArrayList<>();
+        assertTrue(scheduler.submit(record(order, 0), TaskScheduler.PRIORITY_NORMAL));
+        assertFalse(scheduler.submit(record(order, 1), TaskScheduler.PRIORITY_NORMAL));
+        executor.runAll();
+        assertEquals(Collections.singletonList(0), order);
+        assertEquals(1, scheduler.getDiscardedCount());
+    }
+
+    @Test
+    public void lowPriorityWorkersAreLimited() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(executor, 2, 16, false);
+        scheduler.setMaxLowPriorityWorkers(1);
+        List<Integer> order = new ArrayList<>();
+        scheduler.submit(record(order, 0), TaskScheduler.PRIORITY_LOW);
+        scheduler.submit(record(order, 1), TaskScheduler.PRIORITY_LOW);
+        assertEquals(2, executor.workers.size());
+
+        // 第一个工作者执行完一个低优先级任务后继续取下一个，第二个取不到任务直接退出
+        executor.runAll();
+        assertEquals(Arrays.asList(0, 1), order);
+        assertEquals(0, scheduler.getActiveWorkerCount());
+    }
+
+    @Test
+    public void removedTaskIsNotRun() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(executor, 1, 16, true);
+        List<Integer> order = new ArrayList<>();
+        Runnable task = record(order, 0);
+        scheduler.submit(task, TaskScheduler.PRIORITY_NORMAL);
+        assertTrue(scheduler.remove(task));
+        executor.runAll();
+        assertTrue(order.isEmpty());
+        assertEquals(0, scheduler.getActiveWorkerCount());
+    }
+
+    @Test
+    public void failingTaskDoesNotStallScheduler() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, 16, false);
+        final CountDownLatch latch = new CountDownLatch(1);
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("decode failed");
+            }
+        }, TaskScheduler.PRIORITY_NORMAL);
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, TaskScheduler.PRIORITY_NORMAL);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getFailedCount());
+        scheduler.shutdown();
+    }
+
+    /**
+     * 多个生产者并发提交空任务，每个任务都执行且只执行一次(开销和吞吐量见benchmark模块)
+     */
+    @Test
+    public void concurrentProducersRunEveryTask() throws Exception {
+        final int producers = 4;
+        final int tasksPerProducer = 50000;
+        final int total = producers * tasksPerProducer;
+        final TaskScheduler scheduler = new TaskScheduler(3, total, false);
+        final CountDownLatch done = new CountDownLatch(total);
+        final AtomicInteger ran = new AtomicInteger();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+                done.countDown();
+            }
+        };
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < tasksPerProducer; i++) {
+                        scheduler.submit(task, TaskScheduler.PRIORITY_NORMAL);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        scheduler.shutdown();
+
+        assertEquals(total, ran.get());
+    }
+}
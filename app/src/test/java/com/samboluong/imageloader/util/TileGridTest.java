@@ -0,0 +1,111 @@
+package com.samboluong.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * TileGrid的级别选择、可见tile计算和key的编码
+ */
+public class TileGridTest {
+
+    @Test
+    public void sampleSizeKeepsScreenResolution() {
+        assertEquals(1, TileGrid.sampleSizeForScale(2f));
+        assertEquals(1, TileGrid.sampleSizeForScale(1f));
+        assertEquals(1, TileGrid.sampleSizeForScale(0.6f));
+        assertEquals(2, TileGrid.sampleSizeForScale(0.5f));
+        assertEquals(2, TileGrid.sampleSizeForScale(0.3f));
+        // 12000像素宽的全景图在1080宽的屏幕上
+        assertEquals(8, TileGrid.sampleSizeForScale(1080f / 12000));
+        assertEquals(1, TileGrid.sampleSizeForScale(0));
+    }
+
+    @Test
+    public void tilesCoverVisibleRectCenterFirst() {
+        TileGrid grid = new TileGrid(10000, 5000, 256);
+        assertEquals(40, grid.getColumnCount(1));
+        assertEquals(20, grid.getRowCount(1));
+        assertEquals(5, grid.getColumnCount(8));
+
+        // 横跨第2~4列、第1~3行
+        long[] tiles = grid.getTiles(1, 600, 300, 1200, 900);
+        assertEquals(9, tiles.length);
+        assertEquals(TileGrid.tileKey(1, 3, 2), tiles[0]);
+
+        Set<Long> keys = new HashSet<>();
+        for (long key : tiles) {
+            keys.add(key);
+            assertEquals(1, TileGrid.sampleOf(key));
+        }
+        for (int column = 2; column <= 4; column++) {
+            for (int row = 1; row <= 3; row++) {
+                assertTrue(keys.contains(TileGrid.tileKey(1, column, row)));
+            }
+        }
+        // 角上的最后加载
+        int last = TileGrid.columnOf(tiles[8]);
+        assertTrue(last == 2 || last == 4);
+    }
+
+    @Test
+    public void reusedArrayMatchesAllocatingVersion() {
+        TileGrid grid = new TileGrid(10000, 5000, 256);
+        long[] out = new long[64];
+        // 数组比需要的大，多出来的部分不动
+        out[9] = -1;
+        assertEquals(9, grid.getTileCount(1, 600, 300, 1200, 900));
+        assertEquals(9, grid.getTiles(1, 600, 300, 1200, 900, out));
+        assertArrayEquals(grid.getTiles(1, 600, 300, 1200, 900), Arrays.copyOf(out, 9));
+        assertEquals(-1, out[9]);
+
+        assertEquals(0, grid.getTileCount(1, 20000, 0, 30000, 600));
+        assertEquals(0, grid.getTiles(1, 20000, 0, 30000, 600, out));
+    }
+
+    @Test
+    public void tilesAreClippedToImage() {
+        TileGrid grid = new TileGrid(1000, 600, 256);
+        assertEquals(0, grid.getTiles(1, 2000, 0, 3000, 600).length);
+        assertEquals(0, grid.getTiles(1, 100, 100, 100, 500).length);
+
+        long[] all = grid.getTiles(2, -500, -500, 5000, 5000);
+        assertEquals(2 * 2, all.length);
+
+        int[] bounds = new int[4];
+        grid.getTileBounds(TileGrid.tileKey(2, 1, 1), bounds);
+        assertArrayEquals(new int[]{512, 512, 1000, 600}, bounds);
+        grid.getTileBounds(TileGrid.tileKey(1, 0, 0), bounds);
+        assertArrayEquals(new int[]{0, 0, 256, 256}, bounds);
+    }
+
+    @Test
+    public void keyRoundTrip() {
+        long key = TileGrid.tileKey(64, 12345, 678);
+        assertEquals(64, TileGrid.sampleOf(key));
+        assertEquals(12345, TileGrid.columnOf(key));
+        assertEquals(678, TileGrid.rowOf(key));
+        assertNotEquals(TileGrid.tileKey(1, 1, 0), TileGrid.tileKey(1, 0, 1));
+        assertNotEquals(TileGrid.tileKey(1, 1, 1), TileGrid.tileKey(2, 1, 1));
+    }
+
+    @Test
+    public void visibleTilesBoundMemoryRegardlessOfImageSize() {
+        int screenTiles = TileGrid.maxVisibleTiles(1080, 1920, 256);
+        // 100MP的图片在任意缩放级别下，屏幕上可见的tile都不超过这个数
+        TileGrid grid = new TileGrid(12000, 8400, 256);
+        for (float scale = 0.09f; scale <= 2f; scale *= 1.1f) {
+            int sample = TileGrid.sampleSizeForScale(scale);
+            int width = (int) Math.ceil(1080 / scale);
+            int height = (int) Math.ceil(1920 / scale);
+            for (int x = 0; x < 12000; x += 997) {
+                int count = grid.getTiles(sample, x, 0, x + width, height).length;
+                assertTrue(scale + ": " + count, count <= screenTiles);
+            }
+        }
+    }
+}
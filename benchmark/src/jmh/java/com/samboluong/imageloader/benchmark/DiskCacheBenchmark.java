@@ -0,0 +1,113 @@
+package com.samboluong.imageloader.benchmark;
+
+import com.samboluong.imageloader.util.DiskLruCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存缓存未命中之后的一段：生成磁盘缓存的key、查询和写入{@link DiskLruCache}
+ * <p>
+ * 内存缓存(android.util.LruCache)不能在JVM上运行，这里测的是app里同一条路径上不依赖Android的部分，
+ * 用的是app的DiskLruCache本身(日志、LRU淘汰、读写文件)，不是复制的实现。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiskCacheBenchmark {
+
+    private static final int PATHS = 512;
+    /**
+     * 磁盘缓存的缩略图：100dp的格子压缩成JPEG大约16KB
+     */
+    private static final int ENTRY_SIZE = 16 * 1024;
+
+    /**
+     * 缓存能放下的图片数占路径总数的比例，越小淘汰越多
+     */
+    @Param({"0.25", "1.0"})
+    public float capacityRatio;
+
+    private final String[] mPaths = new String[PATHS];
+    private final String[] mKeys = new String[PATHS];
+    private final byte[] mData = new byte[ENTRY_SIZE];
+    private int[] mAccess;
+    private File mDir;
+    private DiskLruCache mCache;
+    private int mIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (int i = 0; i < PATHS; i++) {
+            mPaths[i] = "/storage/emulated/0/DCIM/Camera/IMG_2016" + (100000 + i) + ".jpg";
+            mKeys[i] = diskKey(mPaths[i]);
+        }
+        new Random(7).nextBytes(mData);
+        // 滚动网格：大部分访问集中在附近的位置
+        Random random = new Random(42);
+        mAccess = new int[PATHS * 4];
+        int position = 0;
+        for (int i = 0; i < mAccess.length; i++) {
+            position = Math.max(0, Math.min(PATHS - 1, position + random.nextInt(31) - 12));
+            mAccess[i] = position;
+        }
+
+        mDir = File.createTempFile("disk", "bench");
+        if (!mDir.delete() || !mDir.mkdir()) throw new IOException("无法创建" + mDir);
+        mCache = DiskLruCache.open(mDir, (long) (PATHS * capacityRatio) * ENTRY_SIZE);
+        // 先按访问顺序填一遍，测量时命中率稳定
+        for (int i : mAccess) {
+            if (mCache.get(mKeys[i]) == null) mCache.put(mKeys[i], mData);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mCache.close();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    /**
+     * ImageLoader.getDiskCacheKey：路径 + 修改时间 + 尺寸 + Config，再取MD5
+     */
+    private static String diskKey(String path) {
+        return DiskLruCache.hashKeyForDisk(path + "@" + 1466000000000L + "_" + 360 + "x" + 300 + "#" + "RGB_565");
+    }
+
+    @Benchmark
+    public String hashKey() {
+        return diskKey(mPaths[mIndex++ & (PATHS - 1)]);
+    }
+
+    /**
+     * 一次加载：生成key、查询，未命中时同步写入(可能触发淘汰)，和ImageLoader的后台线程一样
+     */
+    @Benchmark
+    public byte[] getOrPut() throws IOException {
+        String key = diskKey(mPaths[mAccess[mIndex++ % mAccess.length]]);
+        byte[] data = mCache.get(key);
+        if (data == null) {
+            data = mData;
+            mCache.put(key, data);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,56 @@
+package com.samboluong.imageloader.benchmark;
+
+import com.samboluong.imageloader.util.DuplicateFinder;
+import com.samboluong.imageloader.util.ParallelMergeSort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按dHash的汉明距离分组：随机的哈希，每10张埋一张前一张的连拍
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DuplicateFinderBenchmark {
+
+    @Param({"10000", "100000"})
+    public int images;
+
+    private long[] mHashes;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mHashes = new long[images];
+        for (int i = 0; i < images; i++) {
+            if (i % 10 == 9) {
+                mHashes[i] = mHashes[i - 1] ^ (1L << random.nextInt(64)) ^ (1L << random.nextInt(64));
+            } else {
+                mHashes[i] = random.nextLong();
+            }
+        }
+    }
+
+    @Benchmark
+    public DuplicateFinder.Groups find() {
+        return DuplicateFinder.find(mHashes, DuplicateFinder.DEFAULT_MAX_DISTANCE, ParallelMergeSort.getDefaultPool());
+    }
+
+    /**
+     * 只找完全相同的：只有排序，没有多索引查找
+     */
+    @Benchmark
+    public DuplicateFinder.Groups exactOnly() {
+        return DuplicateFinder.find(mHashes, 0, ParallelMergeSort.getDefaultPool());
+    }
+}
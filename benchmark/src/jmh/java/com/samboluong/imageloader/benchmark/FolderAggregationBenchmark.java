@@ -0,0 +1,78 @@
+package com.samboluong.imageloader.benchmark;
+
+import com.samboluong.imageloader.bean.FolderBean;
+import com.samboluong.imageloader.util.FolderAggregator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全量扫描时按文件夹分组：合成的MediaStore结果(路径和BUCKET_ID)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FolderAggregationBenchmark {
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"50", "500"})
+    public int folders;
+
+    private String[] mPaths;
+    private int[] mBucketIds;
+
+    @Setup
+    public void setUp() {
+        mPaths = new String[rows];
+        mBucketIds = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            String dir = "/storage/emulated/0/DCIM/Folder" + (i * 7919 % folders);
+            mPaths[i] = dir + "/IMG_" + i + ".jpg";
+            mBucketIds[i] = dir.toLowerCase().hashCode();
+        }
+    }
+
+    @Benchmark
+    public List<FolderBean> aggregator() {
+        FolderAggregator aggregator = new FolderAggregator();
+        for (int i = 0; i < rows; i++) {
+            aggregator.add(mBucketIds[i], mPaths[i]);
+        }
+        return aggregator.getFolders();
+    }
+
+    /**
+     * 原来的做法：每一行new File取父目录，用HashMap按路径分组
+     */
+    @Benchmark
+    public Map<String, FolderBean> fileAndHashMap() {
+        Map<String, FolderBean> map = new HashMap<>();
+        for (int i = 0; i < rows; i++) {
+            File parent = new File(mPaths[i]).getParentFile();
+            String dir = parent.getAbsolutePath();
+            FolderBean bean = map.get(dir);
+            if (bean == null) {
+                bean = new FolderBean();
+                bean.setDir(dir);
+                bean.setFirstImagePath(mPaths[i]);
+                map.put(dir, bean);
+            }
+            bean.setCount(bean.getCount() + 1);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,100 @@
+package com.samboluong.imageloader.benchmark;
+
+import com.samboluong.imageloader.util.ImageHeaderProber;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读取图片宽高：只读文件头 vs 打开文件读两次
+ * <p>
+ * BitmapFactory不能在JVM上运行，"读两次"模拟的是inJustDecodeBounds读一次文件头、
+ * 正式解码时再打开一次文件的I/O部分。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HeaderProbeBenchmark {
+
+    private static final int FILES = 256;
+
+    private File mDir;
+    private final File[] mFiles = new File[FILES];
+    private final String[] mPaths = new String[FILES];
+    private final byte[] mBuffer = new byte[16 * 1024];
+    private ImageHeaderProber mProber;
+    private int mIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("probe", "bench");
+        if (!mDir.delete() || !mDir.mkdir()) throw new IOException("无法创建" + mDir);
+
+        // SOI + APP0 + SOF0，后面补上模拟的图像数据
+        byte[] data = new byte[256 * 1024];
+        byte[] header = {
+                (byte) 0xFF, (byte) 0xD8,
+                (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0,
+                (byte) 0xFF, (byte) 0xC0, 0, 17, 8, 0x0B, (byte) 0xB8, 0x0F, (byte) 0xA0,
+                3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1,
+        };
+        System.arraycopy(header, 0, data, 0, header.length);
+        for (int i = 0; i < FILES; i++) {
+            mFiles[i] = new File(mDir, "IMG_" + i + ".jpg");
+            mPaths[i] = mFiles[i].getPath();
+            FileOutputStream out = new FileOutputStream(mFiles[i]);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        }
+        mProber = new ImageHeaderProber(FILES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : mFiles) {
+            if (file != null) file.delete();
+        }
+        mDir.delete();
+    }
+
+    @Benchmark
+    public ImageHeaderProber.Header probeFile() throws IOException {
+        return ImageHeaderProber.probeFile(mFiles[mIndex++ & (FILES - 1)]);
+    }
+
+    @Benchmark
+    public ImageHeaderProber.Header cachedProbe() {
+        return mProber.probe(mPaths[mIndex++ & (FILES - 1)]);
+    }
+
+    @Benchmark
+    public int twoPassStream() throws IOException {
+        File file = mFiles[mIndex++ & (FILES - 1)];
+        int read = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            InputStream in = new FileInputStream(file);
+            try {
+                read += in.read(mBuffer);
+            } finally {
+                in.close();
+            }
+        }
+        return read;
+    }
+}
@@ -0,0 +1,85 @@
+package com.samboluong.imageloader.benchmark;
+
+import com.samboluong.imageloader.util.ExecutorBackend;
+import com.samboluong.imageloader.util.LoadEngine;
+import com.samboluong.imageloader.util.TaskScheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 加载引擎在不同工作线程来源下的吞吐：一次排入1万个请求(2500个key)，等全部完成
+ * <p>
+ * VIRTUAL_THREADS在JDK 21以下退回固定线程池
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class LoadEngineBenchmark {
+
+    private static final int REQUESTS = 10000;
+    private static final int KEYS = 2500;
+
+    @Param({"FIXED_POOL", "FORK_JOIN", "VIRTUAL_THREADS"})
+    public ExecutorBackend backend;
+
+    @Param({"4", "16"})
+    public int workers;
+
+    /**
+     * 每次加载模拟的读文件和解码时间
+     */
+    @Param({"50000"})
+    public long workNanos;
+
+    TaskScheduler scheduler;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        scheduler = new TaskScheduler(backend, workers, REQUESTS, true);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public void enqueue10k() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(REQUESTS);
+        LoadEngine<LoadEngine.Target, String> engine = new LoadEngine<LoadEngine.Target, String>(scheduler) {
+            @Override
+            protected Task<Target, String> newTask(Target first, int priority) {
+                return new Task<Target, String>(this, first.getKey(), priority) {
+                    @Override
+                    protected String execute(Target first) {
+                        LockSupport.parkNanos(workNanos);
+                        return first.getKey();
+                    }
+
+                    @Override
+                    protected void deliver(Target target, String value) {
+                        done.countDown();
+                    }
+                };
+            }
+        };
+        for (int i = 0; i < REQUESTS; i++) {
+            engine.enqueue(new LoadEngine.Target("key" + (i % KEYS), LoadEngine.STATE_PENDING),
+                    TaskScheduler.PRIORITY_NORMAL);
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,58 @@
+package com.samboluong.imageloader.benchmark;
+
+import com.samboluong.imageloader.util.BitmapSizing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 采样率和精确缩放的计算(每张图片解码前都要算一次)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SamplingBenchmark {
+
+    private static final int SIZE = 1024;
+
+    private final int[] mWidths = new int[SIZE];
+    private final int[] mHeights = new int[SIZE];
+    private final int[] mReqWidths = new int[SIZE];
+    private final int[] mReqHeights = new int[SIZE];
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            mWidths[i] = 100 + random.nextInt(8000);
+            mHeights[i] = 100 + random.nextInt(8000);
+            mReqWidths[i] = 50 + random.nextInt(1080);
+            mReqHeights[i] = 50 + random.nextInt(1920);
+        }
+    }
+
+    @Benchmark
+    public int inSampleSize() {
+        int i = mIndex++ & (SIZE - 1);
+        return BitmapSizing.calculateInSampleSize(mWidths[i], mHeights[i], mReqWidths[i], mReqHeights[i]);
+    }
+
+    @Benchmark
+    public void sampleAndDensity(Blackhole blackhole) {
+        int i = mIndex++ & (SIZE - 1);
+        int sample = BitmapSizing.calculateInSampleSize(mWidths[i], mHeights[i], mReqWidths[i], mReqHeights[i]);
+        int w = BitmapSizing.sampledSize(mWidths[i], sample);
+        int h = BitmapSizing.sampledSize(mHeights[i], sample);
+        blackhole.consume(BitmapSizing.calculateDensity(w, h, mReqWidths[i], mReqHeights[i]));
+    }
+}
@@ -0,0 +1,112 @@
+package com.samboluong.imageloader.benchmark;
+
+import com.samboluong.imageloader.util.TaskScheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 任务队列的提交和取出：多个线程同时提交，工作线程同时取任务
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TaskSchedulerBenchmark {
+
+    /**
+     * 所有提交线程共用一个调度器，队列满了按LIFO丢弃最旧的任务
+     */
+    @State(Scope.Benchmark)
+    public static class SharedScheduler {
+        @Param({"3"})
+        public int workers;
+
+        TaskScheduler scheduler;
+        final AtomicLong executed = new AtomicLong();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+            }
+        };
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            scheduler = new TaskScheduler(workers, 256, true);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * 4个线程同时提交(UI线程和预加载同时提交的极端情况)
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean submitContended(SharedScheduler state) {
+        return state.scheduler.submit(state.task, TaskScheduler.PRIORITY_NORMAL);
+    }
+
+    /**
+     * 一个线程按三种优先级轮流提交
+     */
+    @Benchmark
+    @Threads(1)
+    public boolean submitMixedPriority(SharedScheduler state) {
+        long n = state.executed.get();
+        return state.scheduler.submit(state.task, (int) (n % 3));
+    }
+
+    /**
+     * 提交一批任务并等待全部执行完：调度的完整开销
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+        @Param({"3"})
+        public int workers;
+
+        TaskScheduler scheduler;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            scheduler = new TaskScheduler(workers, 1024, true);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            scheduler.shutdown();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void roundTrip256(Batch state) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(256);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+        for (int i = 0; i < 256; i++) {
+            state.scheduler.submit(task, TaskScheduler.PRIORITY_NORMAL);
+        }
+        latch.await();
+    }
+}